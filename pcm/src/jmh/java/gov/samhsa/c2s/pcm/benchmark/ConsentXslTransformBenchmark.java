@@ -0,0 +1,102 @@
+package gov.samhsa.c2s.pcm.benchmark;
+
+import gov.samhsa.c2s.pcm.infrastructure.XslTemplatesCache;
+import org.openjdk.jmh.annotations.*;
+
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one consent export transformation: compiling the stylesheet for
+ * every export, as the library transformer does, against transforming with
+ * the stylesheet compiled once by {@link XslTemplatesCache}.
+ * <p>
+ * The stylesheet is a stand-in for the consent to XACML one of consent-gen,
+ * of a similar size and shape, and the consent has {@code providers}
+ * providers in each role and {@code codes} codes in each code list.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConsentXslTransformBenchmark {
+
+    /**
+     * Whether the stylesheet is compiled once or for every export.
+     */
+    @Param({"true", "false"})
+    public boolean templatesCached;
+
+    /**
+     * The number of providers in each role of the consent.
+     */
+    @Param({"4"})
+    public int providers;
+
+    /**
+     * The number of codes in each code list of the consent.
+     */
+    @Param({"10"})
+    public int codes;
+
+    private String xslUrl;
+
+    private String consentXml;
+
+    private TransformerFactory transformerFactory;
+
+    private XslTemplatesCache xslTemplatesCache;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        xslUrl = getClass().getClassLoader().getResource("benchmark/consent2xacml.xsl").toString();
+        consentXml = consentXml();
+        transformerFactory = TransformerFactory.newInstance();
+        xslTemplatesCache = new XslTemplatesCache();
+    }
+
+    @Benchmark
+    public String export() throws TransformerException {
+        if (templatesCached) {
+            return xslTemplatesCache.transform(consentXml, xslUrl);
+        }
+        final StringWriter result = new StringWriter();
+        transformerFactory.newTransformer(new StreamSource(xslUrl))
+                .transform(new StreamSource(new StringReader(consentXml)), new StreamResult(result));
+        return result.toString();
+    }
+
+    private String consentXml() {
+        final StringBuilder xml = new StringBuilder("<ConsentDto>");
+        xml.append("<consentReferenceid>C2S-1234567890</consentReferenceid>");
+        xml.append("<consentStart>2016-01-01T00:00:00</consentStart><consentEnd>2017-01-01T00:00:00</consentEnd>");
+        xml.append("<patientDto><firstName>Alice</firstName><lastName>Recruit</lastName>"
+                + "<medicalRecordNumber>C2S-DEV-MRN-0001</medicalRecordNumber></patientDto>");
+        for (String role : new String[]{"providersDisclosureIsMadeTo", "organizationalProvidersDisclosureIsMadeTo",
+                "providersPermittedToDisclose", "organizationalProvidersPermittedToDisclose"}) {
+            xml.append('<').append(role).append('>');
+            for (int i = 0; i < providers; i++) {
+                xml.append("<provider npi=\"").append(1000000000L + role.length() * 100 + i).append("\"/>");
+            }
+            xml.append("</").append(role).append('>');
+        }
+        xml.append("<shareForPurposeOfUseCodes><code code=\"TREATMENT\"/><code code=\"PAYMENT\"/>"
+                + "<code code=\"healthcare_operations\"/></shareForPurposeOfUseCodes>");
+        for (String list : new String[]{"doNotShareSensitivityPolicyCodes", "doNotShareClinicalConceptCodes"}) {
+            xml.append('<').append(list).append('>');
+            for (int i = 0; i < codes; i++) {
+                xml.append("<code code=\"").append(list.charAt(10)).append(i)
+                        .append("\" codeSystem=\"2.16.840.1.113883.6.96\"/>");
+            }
+            xml.append("</").append(list).append('>');
+        }
+        return xml.append("</ConsentDto>").toString();
+    }
+}
@@ -0,0 +1,62 @@
+package gov.samhsa.c2s.vss.benchmark;
+
+import gov.samhsa.c2s.pcm.domain.valueset.ConceptCode;
+import gov.samhsa.c2s.pcm.domain.valueset.ConceptCodeRepository;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.vendor.Database;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+import java.util.Properties;
+
+/**
+ * Minimal persistence setup for the value set benchmarks: an embedded H2
+ * database with the value set schema generated from the entities, and the
+ * value set repositories.
+ */
+@Configuration
+@EnableTransactionManagement
+@EnableJpaRepositories(basePackageClasses = ConceptCodeRepository.class)
+public class ValueSetBenchmarkConfig {
+
+    @Bean
+    public DataSource dataSource() {
+        return new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .setName("vss-benchmark")
+                .build();
+    }
+
+    @Bean
+    public LocalContainerEntityManagerFactoryBean entityManagerFactory(DataSource dataSource) {
+        HibernateJpaVendorAdapter vendorAdapter = new HibernateJpaVendorAdapter();
+        vendorAdapter.setDatabase(Database.H2);
+        vendorAdapter.setGenerateDdl(true);
+
+        Properties properties = new Properties();
+        properties.setProperty("hibernate.jdbc.batch_size", "500");
+        properties.setProperty("hibernate.order_inserts", "true");
+        // auditing only slows down seeding and is not on the lookup path
+        properties.setProperty("hibernate.listeners.envers.autoRegister", "false");
+
+        LocalContainerEntityManagerFactoryBean entityManagerFactory = new LocalContainerEntityManagerFactoryBean();
+        entityManagerFactory.setDataSource(dataSource);
+        entityManagerFactory.setJpaVendorAdapter(vendorAdapter);
+        entityManagerFactory.setPackagesToScan(ConceptCode.class.getPackage().getName());
+        entityManagerFactory.setJpaProperties(properties);
+        return entityManagerFactory;
+    }
+
+    @Bean
+    public JpaTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+        return new JpaTransactionManager(entityManagerFactory);
+    }
+}
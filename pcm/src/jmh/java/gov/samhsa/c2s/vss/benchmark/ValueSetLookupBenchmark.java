@@ -0,0 +1,226 @@
+package gov.samhsa.c2s.vss.benchmark;
+
+import gov.samhsa.c2s.pcm.domain.valueset.*;
+import gov.samhsa.c2s.vss.service.*;
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeAndCodeSystemOidDto;
+import gov.samhsa.c2s.vss.service.dto.ValueSetQueryDto;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.actuate.metrics.buffer.BufferCounterService;
+import org.springframework.boot.actuate.metrics.buffer.CounterBuffers;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput and latency percentiles of {@link ValueSetLookupService}
+ * restfulValueSetCategories for single codes, 100-code and 5,000-code
+ * batches, against an embedded database seeded with SNOMED CT, ICD-10-CM and
+ * LOINC sized sensitive value sets.
+ * <p>
+ * Queries are drawn from a fixed pool in which {@code missRatio} of the codes
+ * are in none of the value sets, like most codes of a real CCD.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ValueSetLookupBenchmark {
+
+    private static final String[] CODE_SYSTEM_OIDS = {
+            "2.16.840.1.113883.6.96", "2.16.840.1.113883.6.90", "2.16.840.1.113883.6.1"};
+
+    private static final String[] CODE_SYSTEM_NAMES = {"SNOMED CT", "ICD-10-CM", "LOINC"};
+
+    private static final String[] CATEGORY_CODES = {"ETH", "GDIS", "HIV", "PSY", "SEX", "COM"};
+
+    private static final String USER_NAME = "benchmark";
+
+    private static final int QUERY_POOL_SIZE = 20000;
+
+    private static final int SEED_FLUSH_SIZE = 500;
+
+    /**
+     * Whether lookups are served from the in-memory index or the database.
+     */
+    @Param({"true", "false"})
+    public boolean indexEnabled;
+
+    /**
+     * The number of concept codes seeded for each code system.
+     */
+    @Param({"20000"})
+    public int codesPerCodeSystem;
+
+    /**
+     * The share of looked up codes that are in none of the value sets.
+     */
+    @Param({"0.8"})
+    public double missRatio;
+
+    private AnnotationConfigApplicationContext context;
+
+    private ValueSetLookupService lookupService;
+
+    private List<ConceptCodeAndCodeSystemOidDto> queries;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext(ValueSetBenchmarkConfig.class);
+        seed(context.getBean(EntityManagerFactory.class), context.getBean(PlatformTransactionManager.class));
+
+        ConceptCodeRepository conceptCodeRepository = context.getBean(ConceptCodeRepository.class);
+        CodeSystemVersionRepository codeSystemVersionRepository = context.getBean(CodeSystemVersionRepository.class);
+        ValueSetLookupIndex valueSetLookupIndex = new ValueSetLookupIndex(indexEnabled, conceptCodeRepository,
+                codeSystemVersionRepository);
+        valueSetLookupIndex.rebuild();
+        lookupService = new ValueSetLookupServiceImpl(conceptCodeRepository,
+                context.getBean(ValueSetRepository.class),
+                context.getBean(CodeSystemRepository.class),
+                codeSystemVersionRepository,
+                context.getBean(ConceptCodeValueSetRepository.class),
+                new ValueSetMgmtHelper(20, 500),
+                valueSetLookupIndex,
+                new BufferCounterService(new CounterBuffers()),
+                new CodeSystemVersionCache(codeSystemVersionRepository));
+
+        Random random = new Random(42);
+        List<ConceptCodeAndCodeSystemOidDto> pool = new ArrayList<ConceptCodeAndCodeSystemOidDto>(QUERY_POOL_SIZE);
+        for (int i = 0; i < QUERY_POOL_SIZE; i++) {
+            int codeSystem = random.nextInt(CODE_SYSTEM_OIDS.length);
+            int index = random.nextInt(codesPerCodeSystem);
+            if (random.nextDouble() < missRatio) {
+                // same shape as a seeded code, but outside the seeded range
+                index += codesPerCodeSystem;
+            }
+            ConceptCodeAndCodeSystemOidDto query = new ConceptCodeAndCodeSystemOidDto();
+            query.setConceptCode(code(codeSystem, index));
+            query.setCodeSystemOid(CODE_SYSTEM_OIDS[codeSystem]);
+            pool.add(query);
+        }
+        queries = Collections.unmodifiableList(pool);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object single() {
+        ConceptCodeAndCodeSystemOidDto query = queries.get(ThreadLocalRandom.current().nextInt(queries.size()));
+        try {
+            return lookupService.restfulValueSetCategories(query.getConceptCode(), query.getCodeSystemOid());
+        } catch (CodeSystemVersionNotFoundException | ConceptCodeNotFoundException | ValueSetNotFoundException e) {
+            return e;
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<ValueSetQueryDto> batch100() {
+        return lookupService.restfulValueSetCategories(nextBatch(100));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<ValueSetQueryDto> batch5000() {
+        return lookupService.restfulValueSetCategories(nextBatch(5000));
+    }
+
+    private List<ConceptCodeAndCodeSystemOidDto> nextBatch(int size) {
+        int from = ThreadLocalRandom.current().nextInt(queries.size() - size + 1);
+        return queries.subList(from, from + size);
+    }
+
+    /**
+     * Seeds one version of each code system, one value set per category and
+     * code system, and {@code codesPerCodeSystem} concept codes per code system.
+     * Every concept code is in one value set and every fifth code in a second
+     * one.
+     */
+    private void seed(EntityManagerFactory entityManagerFactory, PlatformTransactionManager transactionManager) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.execute(status -> {
+            entityManager.joinTransaction();
+
+            List<ValueSetCategory> categories = new ArrayList<ValueSetCategory>();
+            for (String categoryCode : CATEGORY_CODES) {
+                ValueSetCategory category = ValueSetCategory.getBuilder(categoryCode, categoryCode, USER_NAME).build();
+                entityManager.persist(category);
+                categories.add(category);
+            }
+
+            for (int codeSystem = 0; codeSystem < CODE_SYSTEM_OIDS.length; codeSystem++) {
+                CodeSystem cs = CodeSystem.getBuilder(CODE_SYSTEM_OIDS[codeSystem], CODE_SYSTEM_NAMES[codeSystem],
+                        CODE_SYSTEM_NAMES[codeSystem], USER_NAME).build();
+                entityManager.persist(cs);
+                CodeSystemVersion csv = CodeSystemVersion.getBuilder("2016", "2016", USER_NAME).build();
+                csv.setCodeSystem(cs);
+                entityManager.persist(csv);
+
+                List<Long> valueSetIds = new ArrayList<Long>();
+                for (ValueSetCategory category : categories) {
+                    ValueSet valueSet = ValueSet.getBuilder(category.getCode() + "-" + cs.getCode(),
+                            category.getName() + " " + cs.getName(), USER_NAME).build();
+                    valueSet.setValueSetCategory(category);
+                    entityManager.persist(valueSet);
+                    valueSetIds.add(valueSet.getId());
+                }
+                Long csvId = csv.getId();
+                entityManager.flush();
+                entityManager.clear();
+
+                for (int i = 0; i < codesPerCodeSystem; i++) {
+                    ConceptCode conceptCode = ConceptCode.getBuilder(code(codeSystem, i), "Concept " + i, USER_NAME)
+                            .build();
+                    conceptCode.setCodeSystemVersion(entityManager.getReference(CodeSystemVersion.class, csvId));
+                    List<ConceptCodeValueSet> valueSets = new ArrayList<ConceptCodeValueSet>();
+                    valueSets.add(ConceptCodeValueSet.getBuilder(conceptCode, entityManager.getReference(
+                            ValueSet.class, valueSetIds.get(i % valueSetIds.size()))).build());
+                    if (i % 5 == 0) {
+                        valueSets.add(ConceptCodeValueSet.getBuilder(conceptCode, entityManager.getReference(
+                                ValueSet.class, valueSetIds.get((i / 5 + 1) % valueSetIds.size()))).build());
+                    }
+                    conceptCode.setValueSets(valueSets);
+                    entityManager.persist(conceptCode);
+                    if (i % SEED_FLUSH_SIZE == SEED_FLUSH_SIZE - 1) {
+                        entityManager.flush();
+                        entityManager.clear();
+                    }
+                }
+                entityManager.flush();
+                entityManager.clear();
+            }
+            return null;
+        });
+        entityManager.close();
+    }
+
+    /**
+     * Generates a code in the format of the code system: SNOMED CT concept
+     * ids, ICD-10-CM codes and LOINC codes with a check digit.
+     */
+    private static String code(int codeSystem, int index) {
+        switch (codeSystem) {
+            case 0:
+                return String.valueOf(100000000L + index * 7L);
+            case 1:
+                return String.format("%c%02d.%03d", (char) ('A' + (index / 100000) % 26), (index / 1000) % 100,
+                        index % 1000);
+            default:
+                return (10000 + index) + "-" + (index % 10);
+        }
+    }
+}
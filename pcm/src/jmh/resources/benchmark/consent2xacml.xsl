@@ -0,0 +1,149 @@
+<?xml version="1.0" encoding="UTF-8"?>
+<!-- Stand-in for the consent-gen consent to XACML stylesheet, of a similar size and shape. -->
+<xsl:stylesheet version="1.0" xmlns:xsl="http://www.w3.org/1999/XSL/Transform"
+                xmlns="urn:oasis:names:tc:xacml:2.0:policy:schema:os">
+    <xsl:output method="xml" indent="yes" encoding="UTF-8"/>
+
+    <xsl:variable name="subjectCategory">urn:oasis:names:tc:xacml:1.0:subject-category:recipient-subject</xsl:variable>
+    <xsl:variable name="stringEqual">urn:oasis:names:tc:xacml:1.0:function:string-equal</xsl:variable>
+    <xsl:variable name="dateTimeGreater">urn:oasis:names:tc:xacml:1.0:function:dateTime-greater-than-or-equal</xsl:variable>
+    <xsl:variable name="dateTimeLess">urn:oasis:names:tc:xacml:1.0:function:dateTime-less-than-or-equal</xsl:variable>
+
+    <xsl:template match="/ConsentDto">
+        <Policy PolicyId="{consentReferenceid}"
+                RuleCombiningAlgId="urn:oasis:names:tc:xacml:1.0:rule-combining-algorithm:permit-overrides">
+            <Description>
+                <xsl:text>This is a reference policy for consent to share the information of </xsl:text>
+                <xsl:value-of select="concat(patientDto/firstName, ' ', patientDto/lastName)"/>
+            </Description>
+            <Target>
+                <Resources>
+                    <Resource>
+                        <ResourceMatch MatchId="{$stringEqual}">
+                            <AttributeValue DataType="http://www.w3.org/2001/XMLSchema#string">
+                                <xsl:value-of select="patientDto/medicalRecordNumber"/>
+                            </AttributeValue>
+                            <ResourceAttributeDesignator AttributeId="urn:oasis:names:tc:xacml:1.0:resource:resource-id"
+                                                         DataType="http://www.w3.org/2001/XMLSchema#string"/>
+                        </ResourceMatch>
+                    </Resource>
+                </Resources>
+                <Actions>
+                    <Action>
+                        <ActionMatch MatchId="{$stringEqual}">
+                            <AttributeValue DataType="http://www.w3.org/2001/XMLSchema#string">write</AttributeValue>
+                            <ActionAttributeDesignator AttributeId="urn:oasis:names:tc:xacml:1.0:action:action-id"
+                                                       DataType="http://www.w3.org/2001/XMLSchema#string"/>
+                        </ActionMatch>
+                    </Action>
+                </Actions>
+            </Target>
+            <Rule Effect="Permit" RuleId="{concat(consentReferenceid, '-permit')}">
+                <Target>
+                    <Subjects>
+                        <xsl:apply-templates select="providersDisclosureIsMadeTo/provider" mode="recipient"/>
+                        <xsl:apply-templates select="organizationalProvidersDisclosureIsMadeTo/provider" mode="recipient"/>
+                    </Subjects>
+                    <Resources>
+                        <xsl:apply-templates select="providersPermittedToDisclose/provider" mode="intermediary"/>
+                        <xsl:apply-templates select="organizationalProvidersPermittedToDisclose/provider" mode="intermediary"/>
+                    </Resources>
+                    <Actions>
+                        <xsl:apply-templates select="shareForPurposeOfUseCodes/code" mode="purposeOfUse"/>
+                    </Actions>
+                </Target>
+                <Condition>
+                    <Apply FunctionId="urn:oasis:names:tc:xacml:1.0:function:and">
+                        <Apply FunctionId="{$dateTimeGreater}">
+                            <EnvironmentAttributeDesignator AttributeId="urn:oasis:names:tc:xacml:1.0:environment:current-dateTime"
+                                                            DataType="http://www.w3.org/2001/XMLSchema#dateTime"/>
+                            <AttributeValue DataType="http://www.w3.org/2001/XMLSchema#dateTime">
+                                <xsl:value-of select="consentStart"/>
+                            </AttributeValue>
+                        </Apply>
+                        <Apply FunctionId="{$dateTimeLess}">
+                            <EnvironmentAttributeDesignator AttributeId="urn:oasis:names:tc:xacml:1.0:environment:current-dateTime"
+                                                            DataType="http://www.w3.org/2001/XMLSchema#dateTime"/>
+                            <AttributeValue DataType="http://www.w3.org/2001/XMLSchema#dateTime">
+                                <xsl:value-of select="consentEnd"/>
+                            </AttributeValue>
+                        </Apply>
+                    </Apply>
+                </Condition>
+            </Rule>
+            <Obligations>
+                <xsl:for-each select="doNotShareSensitivityPolicyCodes/code">
+                    <xsl:sort select="@code"/>
+                    <xsl:call-template name="obligation">
+                        <xsl:with-param name="code" select="@code"/>
+                        <xsl:with-param name="codeSystem" select="@codeSystem"/>
+                    </xsl:call-template>
+                </xsl:for-each>
+                <xsl:for-each select="doNotShareClinicalConceptCodes/code">
+                    <xsl:call-template name="obligation">
+                        <xsl:with-param name="code" select="@code"/>
+                        <xsl:with-param name="codeSystem" select="@codeSystem"/>
+                    </xsl:call-template>
+                </xsl:for-each>
+            </Obligations>
+        </Policy>
+    </xsl:template>
+
+    <xsl:template match="provider" mode="recipient">
+        <Subject>
+            <SubjectMatch MatchId="{$stringEqual}">
+                <AttributeValue DataType="http://www.w3.org/2001/XMLSchema#string">
+                    <xsl:value-of select="@npi"/>
+                </AttributeValue>
+                <SubjectAttributeDesignator AttributeId="urn:oasis:names:tc:xacml:1.0:subject-category:recipient-subject"
+                                            DataType="http://www.w3.org/2001/XMLSchema#string"
+                                            SubjectCategory="{$subjectCategory}"/>
+            </SubjectMatch>
+        </Subject>
+    </xsl:template>
+
+    <xsl:template match="provider" mode="intermediary">
+        <Resource>
+            <ResourceMatch MatchId="{$stringEqual}">
+                <AttributeValue DataType="http://www.w3.org/2001/XMLSchema#string">
+                    <xsl:value-of select="@npi"/>
+                </AttributeValue>
+                <ResourceAttributeDesignator AttributeId="urn:oasis:names:tc:xacml:1.0:subject-category:intermediary-subject"
+                                             DataType="http://www.w3.org/2001/XMLSchema#string"/>
+            </ResourceMatch>
+        </Resource>
+    </xsl:template>
+
+    <xsl:template match="code" mode="purposeOfUse">
+        <Action>
+            <ActionMatch MatchId="{$stringEqual}">
+                <AttributeValue DataType="http://www.w3.org/2001/XMLSchema#string">
+                    <xsl:choose>
+                        <xsl:when test="@code = 'TREATMENT'">TREAT</xsl:when>
+                        <xsl:when test="@code = 'PAYMENT'">HPAYMT</xsl:when>
+                        <xsl:when test="@code = 'RESEARCH'">HRESCH</xsl:when>
+                        <xsl:otherwise>
+                            <xsl:value-of select="translate(@code, 'abcdefghijklmnopqrstuvwxyz', 'ABCDEFGHIJKLMNOPQRSTUVWXYZ')"/>
+                        </xsl:otherwise>
+                    </xsl:choose>
+                </AttributeValue>
+                <ActionAttributeDesignator AttributeId="urn:oasis:names:tc:xspa:1.0:subject:purposeofuse"
+                                           DataType="http://www.w3.org/2001/XMLSchema#string"/>
+            </ActionMatch>
+        </Action>
+    </xsl:template>
+
+    <xsl:template name="obligation">
+        <xsl:param name="code"/>
+        <xsl:param name="codeSystem"/>
+        <Obligation FulfillOn="Permit" ObligationId="urn:samhsa:names:tc:consent2share:1.0:obligation:redact-document-section-code">
+            <AttributeAssignment AttributeId="urn:oasis:names:tc:xacml:3.0:example:attribute:text"
+                                 DataType="http://www.w3.org/2001/XMLSchema#string">
+                <xsl:value-of select="$code"/>
+                <xsl:if test="string-length($codeSystem) &gt; 0">
+                    <xsl:value-of select="concat('^', $codeSystem)"/>
+                </xsl:if>
+            </AttributeAssignment>
+        </Obligation>
+    </xsl:template>
+</xsl:stylesheet>
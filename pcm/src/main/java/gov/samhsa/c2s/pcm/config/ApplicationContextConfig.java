@@ -1,15 +1,48 @@
 package gov.samhsa.c2s.pcm.config;
 
+import gov.samhsa.c2s.pcm.domain.reference.ClinicalDocumentTypeCodeRepository;
+import gov.samhsa.c2s.pcm.domain.reference.PurposeOfUseCodeRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategoryRepository;
 import gov.samhsa.c2s.pcm.infrastructure.ClasspathSqlScriptProvider;
+import gov.samhsa.c2s.pcm.infrastructure.IdempotencyKeyStore;
 import gov.samhsa.c2s.pcm.infrastructure.SqlScriptProvider;
+import gov.samhsa.c2s.pcm.service.reference.ReferenceCodeCache;
+import gov.samhsa.c2s.vss.service.ValueSetChangeBus;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
 @Configuration
 public class ApplicationContextConfig {
 
+    @Value("${c2s.pcm.config.idempotency.ttlMillis}")
+    long idempotencyTtlMillis;
+
+    @Value("${c2s.pcm.config.idempotency.maxKeys}")
+    int idempotencyMaxKeys;
+
+    @Value("${c2s.pcm.config.idempotency.replayTimeoutMillis}")
+    long idempotencyReplayTimeoutMillis;
+
     @Bean
     public SqlScriptProvider sqlScriptProvider() {
         return new ClasspathSqlScriptProvider();
     }
+
+    @Bean(initMethod = "refresh")
+    public ReferenceCodeCache referenceCodeCache(PurposeOfUseCodeRepository purposeOfUseCodeRepository,
+                                                 ValueSetCategoryRepository valueSetCategoryRepository,
+                                                 ClinicalDocumentTypeCodeRepository clinicalDocumentTypeCodeRepository,
+                                                 ValueSetChangeBus valueSetChangeBus) {
+        ReferenceCodeCache referenceCodeCache = new ReferenceCodeCache(purposeOfUseCodeRepository,
+                valueSetCategoryRepository, clinicalDocumentTypeCodeRepository);
+        // value set categories are edited by the admins through the value set services
+        valueSetChangeBus.subscribe(version -> referenceCodeCache.refresh());
+        return referenceCodeCache;
+    }
+
+    @Bean
+    public IdempotencyKeyStore idempotencyKeyStore() {
+        return new IdempotencyKeyStore(idempotencyTtlMillis, idempotencyMaxKeys, idempotencyReplayTimeoutMillis);
+    }
 }
@@ -5,9 +5,11 @@
 import gov.samhsa.c2s.common.document.converter.DocumentXmlConverter;
 import gov.samhsa.c2s.common.document.converter.DocumentXmlConverterImpl;
 import gov.samhsa.c2s.common.document.transformer.XmlTransformer;
-import gov.samhsa.c2s.common.document.transformer.XmlTransformerImpl;
 import gov.samhsa.c2s.common.marshaller.SimpleMarshaller;
 import gov.samhsa.c2s.common.marshaller.SimpleMarshallerImpl;
+import gov.samhsa.c2s.pcm.infrastructure.MarshalledXmlCache;
+import gov.samhsa.c2s.pcm.infrastructure.TemplatesCachingXmlTransformer;
+import gov.samhsa.c2s.pcm.infrastructure.XslTemplatesCache;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -30,7 +32,12 @@ public SimpleMarshaller simpleMarshaller(){
     }
 
     @Bean
-    public XmlTransformer xmlTransformer(){
-        return new XmlTransformerImpl(simpleMarshaller());
+    public XslTemplatesCache xslTemplatesCache(){
+        return new XslTemplatesCache();
+    }
+
+    @Bean
+    public XmlTransformer xmlTransformer(MarshalledXmlCache marshalledXmlCache){
+        return new TemplatesCachingXmlTransformer(simpleMarshaller(), xslTemplatesCache(), marshalledXmlCache);
     }
 }
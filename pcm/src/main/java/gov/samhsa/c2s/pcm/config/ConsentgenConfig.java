@@ -7,12 +7,17 @@
 import gov.samhsa.c2s.common.consentgen.ConsentDtoFactory;
 import gov.samhsa.c2s.common.consentgen.XacmlXslUrlProvider;
 import gov.samhsa.c2s.common.consentgen.pg.XacmlXslUrlProviderImpl;
+import gov.samhsa.c2s.pcm.service.consent.ConsentArtifactGenerator;
 import gov.samhsa.c2s.pcm.service.consentexport.ConsentDtoFactoryImpl;
+import gov.samhsa.c2s.pcm.service.consentexport.ConsentExportContext;
 import gov.samhsa.c2s.pcm.service.consentexport.ConsentExportMapper;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.concurrent.ThreadPoolExecutor;
 
 @Configuration
 public class ConsentgenConfig {
@@ -20,6 +25,15 @@ public class ConsentgenConfig {
     @Value("${c2s.pcm.config.pid.org}")
     private String pcmOrg;
 
+    @Value("${c2s.pcm.config.consentArtifacts.threads}")
+    private int consentArtifactThreads;
+
+    @Value("${c2s.pcm.config.consentArtifacts.queueCapacity}")
+    private int consentArtifactQueueCapacity;
+
+    @Value("${c2s.pcm.config.consentArtifacts.timeoutMillis}")
+    private long consentArtifactTimeoutMillis;
+
     @Bean
     public ConsentBuilder consentBuilder(ConsentDtoFactory consentDtoFactory,
                                          XmlTransformer xmlTransformer) {
@@ -37,7 +51,30 @@ public XacmlXslUrlProvider xacmlXslUrlProvider() {
     @Bean
     public ConsentDtoFactory consentDtoFactory(ConsentRepository consentRepository,
                                                ModelMapper modelMapper,
-                                               ConsentExportMapper consentExportMapper) {
-        return new ConsentDtoFactoryImpl(consentRepository, modelMapper, consentExportMapper);
+                                               ConsentExportMapper consentExportMapper,
+                                               ConsentExportContext consentExportContext) {
+        return new ConsentDtoFactoryImpl(consentRepository, modelMapper, consentExportMapper, consentExportContext);
+    }
+
+    @Bean
+    public ConsentExportContext consentExportContext(ConsentExportMapper consentExportMapper) {
+        return new ConsentExportContext(consentExportMapper);
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor consentArtifactTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(consentArtifactThreads);
+        taskExecutor.setMaxPoolSize(consentArtifactThreads);
+        taskExecutor.setQueueCapacity(consentArtifactQueueCapacity);
+        // when saturated, the saving thread generates the artifact itself
+        taskExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+        taskExecutor.setThreadNamePrefix("pcm-consent-artifacts-");
+        return taskExecutor;
+    }
+
+    @Bean
+    public ConsentArtifactGenerator consentArtifactGenerator() {
+        return new ConsentArtifactGenerator(consentArtifactTaskExecutor(), consentArtifactTimeoutMillis);
     }
 }
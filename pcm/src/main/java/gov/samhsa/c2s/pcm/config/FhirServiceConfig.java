@@ -4,9 +4,16 @@
 import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.client.IGenericClient;
 import ca.uhn.fhir.validation.FhirValidator;
+import gov.samhsa.c2s.pcm.domain.consent.FhirContractPublicationRepository;
+import gov.samhsa.c2s.pcm.service.fhir.FhirContractDebugSink;
+import gov.samhsa.c2s.pcm.service.fhir.FhirContractOutbox;
+import gov.samhsa.c2s.pcm.service.fhir.FhirContractService;
+import gov.samhsa.c2s.pcm.service.fhir.FileFhirContractDebugSink;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 
 @Configuration
 public class FhirServiceConfig {
@@ -17,6 +24,42 @@ public class FhirServiceConfig {
     @Value("${c2s.pcm.config.hie-connection.fhir.ClientSocketTimeoutInMs}")
     String fhirClientSocketTimeout;
 
+    @Value("${c2s.pcm.config.hie-connection.fhir.enabled}")
+    boolean hieEnabled;
+
+    @Value("${c2s.pcm.config.hie-connection.fhir.outbox.pollIntervalMillis}")
+    long outboxPollIntervalMillis;
+
+    @Value("${c2s.pcm.config.hie-connection.fhir.outbox.batchSize}")
+    int outboxBatchSize;
+
+    @Value("${c2s.pcm.config.hie-connection.fhir.outbox.bundleSize}")
+    int outboxBundleSize;
+
+    @Value("${c2s.pcm.config.hie-connection.fhir.outbox.maxAttempts}")
+    int outboxMaxAttempts;
+
+    @Value("${c2s.pcm.config.hie-connection.fhir.outbox.initialBackoffMillis}")
+    long outboxInitialBackoffMillis;
+
+    @Value("${c2s.pcm.config.hie-connection.fhir.outbox.maxBackoffMillis}")
+    long outboxMaxBackoffMillis;
+
+    @Value("${c2s.pcm.config.hie-connection.fhir.outbox.claimTimeoutMillis}")
+    long outboxClaimTimeoutMillis;
+
+    @Value("${c2s.pcm.config.hie-connection.fhir.debugSink.enabled}")
+    boolean debugSinkEnabled;
+
+    @Value("${c2s.pcm.config.hie-connection.fhir.debugSink.sampleRate}")
+    double debugSinkSampleRate;
+
+    @Value("${c2s.pcm.config.hie-connection.fhir.debugSink.queueCapacity}")
+    int debugSinkQueueCapacity;
+
+    @Value("${logging.path}")
+    String logOutputPath;
+
     // Create a context
     FhirContext fhirContext = FhirContext.forDstu2();;
 
@@ -52,4 +95,49 @@ public FhirValidator fhirValidator(){
         FhirValidator fhirValidator = fhirContext.newValidator();
         return fhirValidator;
     }
+
+    @Bean
+    public ThreadPoolTaskExecutor fhirContractDebugSinkTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(1);
+        taskExecutor.setMaxPoolSize(1);
+        // when full, the sink drops the contract
+        taskExecutor.setQueueCapacity(debugSinkQueueCapacity);
+        taskExecutor.setThreadNamePrefix("pcm-fhir-debug-sink-");
+        return taskExecutor;
+    }
+
+    @Bean
+    public FhirContractDebugSink fhirContractDebugSink() {
+        if (!debugSinkEnabled) {
+            return FhirContractDebugSink.NONE;
+        }
+        return new FileFhirContractDebugSink(fhirContext(), fhirContractDebugSinkTaskExecutor(),
+                logOutputPath, debugSinkSampleRate);
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler fhirContractOutboxTaskScheduler() {
+        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(1);
+        taskScheduler.setThreadNamePrefix("pcm-fhir-outbox-");
+        return taskScheduler;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public FhirContractOutbox fhirContractOutbox(FhirContractPublicationRepository fhirContractPublicationRepository,
+                                                 FhirContractService fhirContractService) {
+        // no contracts are added to the outbox while the HIE connection is disabled
+        return new FhirContractOutbox(fhirContractPublicationRepository,
+                fhirContractService,
+                fhirContext(),
+                fhirContractOutboxTaskScheduler(),
+                hieEnabled ? outboxPollIntervalMillis : 0,
+                outboxBatchSize,
+                outboxBundleSize,
+                outboxMaxAttempts,
+                outboxInitialBackoffMillis,
+                outboxMaxBackoffMillis,
+                outboxClaimTimeoutMillis);
+    }
 }
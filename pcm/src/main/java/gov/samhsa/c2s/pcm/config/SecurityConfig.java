@@ -52,6 +52,8 @@ public void configure(HttpSecurity http) throws Exception {
                         // TODO (#29)(BU): remove this permission after VSS is separated
                         .antMatchers(HttpMethod.GET, "/lookupService/**").permitAll()
                         .antMatchers(HttpMethod.POST, "/lookupService/**").permitAll()
+                        .antMatchers(HttpMethod.GET, "/valueSetAdmin/**").access(hasScope("pcm.valueSet_read"))
+                        .antMatchers(HttpMethod.POST, "/valueSetAdmin/**").access(hasScope("pcm.valueSet_create"))
                         .anyRequest().denyAll();
             }
         };
@@ -133,6 +133,22 @@ public class Consent {
 	@NotAudited
 	private byte[] unAttestedPdfConsentRevoke;
 
+	/**
+	 * The fingerprint of the consent content the stored XACML, CDA and PDF
+	 * artifacts were, or are to be, generated from.
+	 */
+	@Column(name = "artifact_fingerprint")
+	@NotAudited
+	private String artifactFingerprint;
+
+	/**
+	 * The fingerprint of the consent terms the stored unattested pdf was
+	 * generated with.
+	 */
+	@Column(name = "pdf_terms_fingerprint")
+	@NotAudited
+	private String pdfTermsFingerprint;
+
 	/** The attested pdf consent. */
 	@OneToOne(cascade = CascadeType.ALL)
 	@Basic(fetch = FetchType.LAZY)
@@ -791,6 +807,22 @@ public void setUnAttestedPdfConsent(byte[] unAttestedPdfConsent) {
 		this.unAttestedPdfConsent = unAttestedPdfConsent;
 	}
 
+	public String getArtifactFingerprint() {
+		return artifactFingerprint;
+	}
+
+	public void setArtifactFingerprint(String artifactFingerprint) {
+		this.artifactFingerprint = artifactFingerprint;
+	}
+
+	public String getPdfTermsFingerprint() {
+		return pdfTermsFingerprint;
+	}
+
+	public void setPdfTermsFingerprint(String pdfTermsFingerprint) {
+		this.pdfTermsFingerprint = pdfTermsFingerprint;
+	}
+
 	public byte[] getUnAttestedPdfConsentRevoke() {
 		return unAttestedPdfConsentRevoke;
 	}
@@ -28,12 +28,16 @@
 import gov.samhsa.c2s.pcm.domain.patient.Patient;
 import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategory;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
 /**
@@ -75,6 +79,124 @@ public interface ConsentRepository extends JpaSpecificationExecutor<Consent>,
 	List<Consent> findAllByDoNotShareSensitivityPolicyCodesValueSetCategory(
 			ValueSetCategory valueSetCategory);
 
+	/**
+	 * Finds which of the given value set categories are among the do not
+	 * share sensitivity policy codes of at least one consent, without loading
+	 * the consents.
+	 *
+	 * @param valueSetCategoryIds
+	 *            the value set category ids
+	 * @return the ids of the value set categories used by consents
+	 */
+	@Query("select code.valueSetCategory.id from Consent c join c.doNotShareSensitivityPolicyCodes code "
+			+ "where code.valueSetCategory.id in ?1 group by code.valueSetCategory.id")
+	List<Long> findDoNotShareValueSetCategoryIds(Collection<Long> valueSetCategoryIds);
+
+	/**
+	 * Finds the consents of a patient which may conflict with a new consent:
+	 * those overlapping its term, sharing one of its purposes of use and not
+	 * revoked. Only the id and the term of the consents are read.
+	 *
+	 * @param username
+	 *            the username of the patient
+	 * @param start
+	 *            the start of the term
+	 * @param end
+	 *            the end of the term
+	 * @param purposeOfUseCodes
+	 *            the purpose of use codes
+	 * @param revokedStatus
+	 *            the status of revoked consents
+	 * @return the id, start date and end date of each consent, by id
+	 */
+	@Query("select distinct c.id, c.startDate, c.endDate from Consent c join c.shareForPurposeOfUseCodes pou "
+			+ "where c.patient.username = ?1 and c.startDate <= ?3 and c.endDate >= ?2 "
+			+ "and pou.purposeOfUseCode.code in ?4 and (c.status <> ?5 "
+			+ "or c.attestedConsent is null or c.attestedConsentRevocation is null) order by c.id")
+	List<Object[]> findConflictCandidatesByPatientUsername(String username, Date start, Date end,
+			Collection<String> purposeOfUseCodes, String revokedStatus);
+
+	/**
+	 * Finds the consents of a patient which may conflict with a new consent,
+	 * see {@link #findConflictCandidatesByPatientUsername}.
+	 *
+	 * @param patientId
+	 *            the patient id
+	 * @param start
+	 *            the start of the term
+	 * @param end
+	 *            the end of the term
+	 * @param purposeOfUseCodes
+	 *            the purpose of use codes
+	 * @param revokedStatus
+	 *            the status of revoked consents
+	 * @return the id, start date and end date of each consent, by id
+	 */
+	@Query("select distinct c.id, c.startDate, c.endDate from Consent c join c.shareForPurposeOfUseCodes pou "
+			+ "where c.patient.id = ?1 and c.startDate <= ?3 and c.endDate >= ?2 "
+			+ "and pou.purposeOfUseCode.code in ?4 and (c.status <> ?5 "
+			+ "or c.attestedConsent is null or c.attestedConsentRevocation is null) order by c.id")
+	List<Object[]> findConflictCandidatesByPatientId(Long patientId, Date start, Date end,
+			Collection<String> purposeOfUseCodes, String revokedStatus);
+
+	/**
+	 * Finds which of the given consents permit one of the given individual
+	 * providers to disclose.
+	 *
+	 * @param ids
+	 *            the consent ids
+	 * @param npis
+	 *            the provider npis
+	 * @return the ids of the matching consents
+	 */
+	@Query("select distinct c.id from Consent c join c.providersPermittedToDisclose p "
+			+ "where c.id in ?1 and p.individualProvider.npi in ?2")
+	List<Long> findIdsByProvidersPermittedToDiscloseNpiIn(Collection<Long> ids, Collection<String> npis);
+
+	/**
+	 * Finds which of the given consents permit one of the given
+	 * organizational providers to disclose.
+	 *
+	 * @param ids
+	 *            the consent ids
+	 * @param npis
+	 *            the provider npis
+	 * @return the ids of the matching consents
+	 */
+	@Query("select distinct c.id from Consent c join c.organizationalProvidersPermittedToDisclose p "
+			+ "where c.id in ?1 and p.OrganizationalProvider.npi in ?2")
+	List<Long> findIdsByOrganizationalProvidersPermittedToDiscloseNpiIn(Collection<Long> ids,
+			Collection<String> npis);
+
+	/**
+	 * Finds which of the given consents disclose to one of the given
+	 * individual providers.
+	 *
+	 * @param ids
+	 *            the consent ids
+	 * @param npis
+	 *            the provider npis
+	 * @return the ids of the matching consents
+	 */
+	@Query("select distinct c.id from Consent c join c.providersDisclosureIsMadeTo p "
+			+ "where c.id in ?1 and p.individualProvider.npi in ?2")
+	List<Long> findIdsByProvidersDisclosureIsMadeToNpiIn(Collection<Long> ids, Collection<String> npis);
+
+	/**
+	 * Finds which of the given consents disclose to one of the given
+	 * organizational providers.
+	 *
+	 * @param ids
+	 *            the consent ids
+	 * @param npis
+	 *            the provider npis
+	 * @return the ids of the matching consents
+	 */
+	@Query("select distinct c.id from Consent c join c.organizationalProvidersDisclosureIsMadeTo p "
+			+ "where c.id in ?1 and p.OrganizationalProvider.npi in ?2")
+	List<Long> findIdsByOrganizationalProvidersDisclosureIsMadeToNpiIn(Collection<Long> ids,
+			Collection<String> npis);
+
 	/**
 	 * Find all by consent reference id.
 	 *
@@ -93,4 +215,86 @@ List<Consent> findAllByDoNotShareSensitivityPolicyCodesValueSetCategory(
 	 */
 	List<Consent> findByPatient(long patientId);
 
+	/**
+	 * Drops the stored artifacts of a consent generated from an earlier
+	 * content, without a new version or audit revision of the consent.
+	 *
+	 * @param id                  the consent id
+	 * @param artifactFingerprint the fingerprint of the current content
+	 * @return the number of updated consents
+	 */
+	@Modifying
+	@Query("update Consent c set c.unAttestedPdfConsent = null, c.xacmlCcd = null, "
+			+ "c.xacmlPdfConsentFrom = null, c.xacmlPdfConsentTo = null, c.exportedCDAR2Consent = null, "
+			+ "c.artifactFingerprint = ?2 where c.id = ?1")
+	int clearArtifacts(Long id, String artifactFingerprint);
+
+	/**
+	 * Stores the unattested consent pdf of a consent, unless its content changed since
+	 * the given fingerprint.
+	 *
+	 * @param id                  the consent id
+	 * @param unAttestedPdfConsent the unattested consent pdf
+	 * @param artifactFingerprint the fingerprint of the content it was generated from
+	 * @param pdfTermsFingerprint the fingerprint of the consent terms it was generated with
+	 * @return the number of updated consents
+	 */
+	@Modifying
+	@Query("update Consent c set c.unAttestedPdfConsent = ?2, c.pdfTermsFingerprint = ?4 "
+			+ "where c.id = ?1 and c.artifactFingerprint = ?3")
+	int storeUnAttestedPdfConsent(Long id, byte[] unAttestedPdfConsent, String artifactFingerprint,
+			String pdfTermsFingerprint);
+
+	/**
+	 * Stores the xacml ccd of a consent, unless its content changed since
+	 * the given fingerprint.
+	 *
+	 * @param id                  the consent id
+	 * @param xacmlCcd the xacml ccd
+	 * @param artifactFingerprint the fingerprint of the content it was generated from
+	 * @return the number of updated consents
+	 */
+	@Modifying
+	@Query("update Consent c set c.xacmlCcd = ?2 where c.id = ?1 and c.artifactFingerprint = ?3")
+	int storeXacmlCcd(Long id, byte[] xacmlCcd, String artifactFingerprint);
+
+	/**
+	 * Stores the xacml pdf consent from of a consent, unless its content changed since
+	 * the given fingerprint.
+	 *
+	 * @param id                  the consent id
+	 * @param xacmlPdfConsentFrom the xacml pdf consent from
+	 * @param artifactFingerprint the fingerprint of the content it was generated from
+	 * @return the number of updated consents
+	 */
+	@Modifying
+	@Query("update Consent c set c.xacmlPdfConsentFrom = ?2 where c.id = ?1 and c.artifactFingerprint = ?3")
+	int storeXacmlPdfConsentFrom(Long id, byte[] xacmlPdfConsentFrom, String artifactFingerprint);
+
+	/**
+	 * Stores the xacml pdf consent to of a consent, unless its content changed since
+	 * the given fingerprint.
+	 *
+	 * @param id                  the consent id
+	 * @param xacmlPdfConsentTo the xacml pdf consent to
+	 * @param artifactFingerprint the fingerprint of the content it was generated from
+	 * @return the number of updated consents
+	 */
+	@Modifying
+	@Query("update Consent c set c.xacmlPdfConsentTo = ?2 where c.id = ?1 and c.artifactFingerprint = ?3")
+	int storeXacmlPdfConsentTo(Long id, byte[] xacmlPdfConsentTo, String artifactFingerprint);
+
+	/**
+	 * Stores the exported CDA R2 consent of a consent, unless its content changed since
+	 * the given fingerprint.
+	 *
+	 * @param id                  the consent id
+	 * @param exportedCDAR2Consent the exported CDA R2 consent
+	 * @param artifactFingerprint the fingerprint of the content it was generated from
+	 * @return the number of updated consents
+	 */
+	@Modifying
+	@Query("update Consent c set c.exportedCDAR2Consent = ?2 where c.id = ?1 and c.artifactFingerprint = ?3")
+	int storeExportedCDAR2Consent(Long id, byte[] exportedCDAR2Consent, String artifactFingerprint);
+
 }
@@ -0,0 +1,121 @@
+package gov.samhsa.c2s.pcm.domain.consent;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.Date;
+
+/**
+ * The FHIR Contract of an attested consent waiting to be published to the
+ * HIE, written in the same transaction as the attestation and published
+ * afterwards by the outbox dispatcher.
+ */
+@Entity
+@Table(name = "fhir_contract_publication", indexes = {
+        @Index(name = "idx_fhir_contract_publication_status_next", columnList = "status,next_attempt_date_time")})
+public class FhirContractPublication {
+
+    @Id
+    @GeneratedValue
+    @Column(name = "id")
+    private Long id;
+
+    @NotNull
+    private Long consentId;
+
+    // the Contract encoded as FHIR json when the consent was attested
+    @NotNull
+    @Lob
+    @Column(columnDefinition = "LONGTEXT")
+    private String contract;
+
+    @NotNull
+    @Size(max = 20)
+    private String status;
+
+    private int attempts;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date nextAttemptDateTime;
+
+    @Size(max = 1000)
+    private String lastError;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date createdDateTime;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date publishedDateTime;
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getConsentId() {
+        return consentId;
+    }
+
+    public void setConsentId(Long consentId) {
+        this.consentId = consentId;
+    }
+
+    public String getContract() {
+        return contract;
+    }
+
+    public void setContract(String contract) {
+        this.contract = contract;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public Date getNextAttemptDateTime() {
+        return nextAttemptDateTime;
+    }
+
+    public void setNextAttemptDateTime(Date nextAttemptDateTime) {
+        this.nextAttemptDateTime = nextAttemptDateTime;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Date getCreatedDateTime() {
+        return createdDateTime;
+    }
+
+    public void setCreatedDateTime(Date createdDateTime) {
+        this.createdDateTime = createdDateTime;
+    }
+
+    public Date getPublishedDateTime() {
+        return publishedDateTime;
+    }
+
+    public void setPublishedDateTime(Date publishedDateTime) {
+        this.publishedDateTime = publishedDateTime;
+    }
+}
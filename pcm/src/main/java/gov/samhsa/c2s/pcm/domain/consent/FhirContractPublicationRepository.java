@@ -0,0 +1,63 @@
+package gov.samhsa.c2s.pcm.domain.consent;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface FhirContractPublicationRepository extends JpaRepository<FhirContractPublication, Long> {
+
+    /**
+     * Finds the publications in a status whose next attempt is due, oldest
+     * first.
+     *
+     * @param status   the status
+     * @param now      the current time
+     * @param pageable the maximum number of publications
+     * @return the due publications
+     */
+    @Query("select p from FhirContractPublication p where p.status = ?1 and p.nextAttemptDateTime <= ?2 order by p.id")
+    List<FhirContractPublication> findDue(String status, Date now, Pageable pageable);
+
+    /**
+     * Claims a due publication for one attempt by moving its next attempt to
+     * the end of the attempt, unless another instance claimed it first. The
+     * publication is attempted again after that time if the attempt never
+     * completes.
+     *
+     * @param id                  the publication id
+     * @param status              the status the publication must still have
+     * @param nextAttemptDateTime the next attempt time the publication must still have
+     * @param leaseDateTime       the end of the attempt
+     * @return 1 if claimed, 0 otherwise
+     */
+    @Transactional
+    @Modifying
+    @Query("update FhirContractPublication p set p.nextAttemptDateTime = ?4 "
+            + "where p.id = ?1 and p.status = ?2 and p.nextAttemptDateTime = ?3")
+    int claim(Long id, String status, Date nextAttemptDateTime, Date leaseDateTime);
+
+    /**
+     * Records the outcome of an attempt.
+     *
+     * @param id                  the publication id
+     * @param status              the new status
+     * @param attempts            the number of attempts made
+     * @param nextAttemptDateTime the time of the next attempt, if any
+     * @param lastError           the error of the attempt, if any
+     * @param publishedDateTime   the time of publication, if published
+     * @return the number of updated publications
+     */
+    @Transactional
+    @Modifying
+    @Query("update FhirContractPublication p set p.status = ?2, p.attempts = ?3, p.nextAttemptDateTime = ?4, "
+            + "p.lastError = ?5, p.publishedDateTime = ?6 where p.id = ?1")
+    int recordAttempt(Long id, String status, int attempts, Date nextAttemptDateTime, String lastError,
+                      Date publishedDateTime);
+}
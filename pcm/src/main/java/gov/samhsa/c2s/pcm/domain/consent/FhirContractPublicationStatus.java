@@ -0,0 +1,11 @@
+package gov.samhsa.c2s.pcm.domain.consent;
+
+public interface FhirContractPublicationStatus {
+
+	/** Waiting for its next attempt. */
+	public static final String PENDING = "PENDING";
+	/** Published to the HIE. */
+	public static final String PUBLISHED = "PUBLISHED";
+	/** Given up on after too many failed attempts. */
+	public static final String DEAD = "DEAD";
+}
@@ -0,0 +1,131 @@
+package gov.samhsa.c2s.pcm.domain.valueset;
+
+import javax.persistence.*;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Size;
+import java.util.Date;
+
+/**
+ * The progress of a value set admin batch upload job, written by the worker
+ * running the job and read by status requests on any instance.
+ */
+@Entity
+@Table(name = "batch_upload_job", indexes = {
+        @Index(name = "idx_batch_upload_job_finished", columnList = "finished_date_time")})
+public class BatchUploadJob {
+
+    @Id
+    @Size(max = 36)
+    @Column(name = "job_id")
+    private String jobId;
+
+    @NotNull
+    @Size(max = 20)
+    private String type;
+
+    @NotNull
+    @Size(max = 20)
+    private String status;
+
+    private int rowsRead;
+
+    private int rowsInserted;
+
+    private int duplicates;
+
+    // the row numbers of the duplicates, separated by commas
+    @Lob
+    @Column(columnDefinition = "LONGTEXT")
+    private String duplicateRows;
+
+    // the errors, one per line
+    @Lob
+    @Column(columnDefinition = "LONGTEXT")
+    private String errors;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date submittedDateTime;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date finishedDateTime;
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public int getRowsRead() {
+        return rowsRead;
+    }
+
+    public void setRowsRead(int rowsRead) {
+        this.rowsRead = rowsRead;
+    }
+
+    public int getRowsInserted() {
+        return rowsInserted;
+    }
+
+    public void setRowsInserted(int rowsInserted) {
+        this.rowsInserted = rowsInserted;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    public void setDuplicates(int duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    public String getDuplicateRows() {
+        return duplicateRows;
+    }
+
+    public void setDuplicateRows(String duplicateRows) {
+        this.duplicateRows = duplicateRows;
+    }
+
+    public String getErrors() {
+        return errors;
+    }
+
+    public void setErrors(String errors) {
+        this.errors = errors;
+    }
+
+    public Date getSubmittedDateTime() {
+        return submittedDateTime;
+    }
+
+    public void setSubmittedDateTime(Date submittedDateTime) {
+        this.submittedDateTime = submittedDateTime;
+    }
+
+    public Date getFinishedDateTime() {
+        return finishedDateTime;
+    }
+
+    public void setFinishedDateTime(Date finishedDateTime) {
+        this.finishedDateTime = finishedDateTime;
+    }
+}
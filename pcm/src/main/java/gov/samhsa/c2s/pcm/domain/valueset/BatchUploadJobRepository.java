@@ -0,0 +1,24 @@
+package gov.samhsa.c2s.pcm.domain.valueset;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+
+@Repository
+public interface BatchUploadJobRepository extends JpaRepository<BatchUploadJob, String> {
+
+    /**
+     * Deletes the jobs which finished before a time.
+     *
+     * @param finishedBefore the time
+     * @return the number of deleted jobs
+     */
+    @Transactional
+    @Modifying
+    @Query("delete from BatchUploadJob j where j.finishedDateTime < ?1")
+    int deleteFinishedBefore(Date finishedBefore);
+}
@@ -26,12 +26,26 @@
 package gov.samhsa.c2s.pcm.domain.valueset;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.stereotype.Repository;
 
+import javax.persistence.LockModeType;
+
 @Repository
 public interface CodeSystemRepository  extends JpaRepository<CodeSystem, Long> {
 
 	CodeSystem findByCodeSystemOId(String codeSystemOid);
-	
+
+	/**
+	 * Finds a code system and locks its row until the end of the current
+	 * transaction, so versions of the code system are created one at a time.
+	 *
+	 * @param codeSystemOid the code system oid
+	 * @return the code system, or null if not found
+	 */
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("select cs from CodeSystem cs where cs.codeSystemOId = ?1")
+	CodeSystem findByCodeSystemOIdForUpdate(String codeSystemOid);
 
 }
@@ -25,12 +25,45 @@
  ******************************************************************************/
 package gov.samhsa.c2s.pcm.domain.valueset;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 public interface CodeSystemVersionRepository  extends JpaRepository<CodeSystemVersion, Long> {
 
 	public List<CodeSystemVersion> findAllByCodeSystemCodeSystemOIdOrderByIdDesc(String codeSystemOid);
 
+	/**
+	 * Finds code system oid, id and name of the latest version of every code
+	 * system.
+	 *
+	 * @return the list of [codeSystemOid, codeSystemVersionId, versionName] rows
+	 */
+	@Query("select cs.codeSystemOId, csv.id, csv.name from CodeSystemVersion csv join csv.codeSystem cs "
+			+ "where csv.id = (select max(v.id) from CodeSystemVersion v where v.codeSystem = cs)")
+	public List<Object[]> findLatestVersionOfEachCodeSystem();
+
+	/**
+	 * Finds code system oid, id and name of the latest version of the code
+	 * systems with the given oids.
+	 *
+	 * @param codeSystemOids the code system oids
+	 * @return the list of [codeSystemOid, codeSystemVersionId, versionName] rows
+	 */
+	@Query("select cs.codeSystemOId, csv.id, csv.name from CodeSystemVersion csv join csv.codeSystem cs "
+			+ "where cs.codeSystemOId in ?1 AND csv.id = (select max(v.id) from CodeSystemVersion v where v.codeSystem = cs)")
+	public List<Object[]> findLatestVersionOfCodeSystemsByCodeSystemOidIn(Collection<String> codeSystemOids);
+
+	/**
+	 * Finds the latest version of a code system.
+	 *
+	 * @param codeSystem the code system
+	 * @return the latest version, or null if the code system has no versions
+	 */
+	@Query("select csv from CodeSystemVersion csv where csv.codeSystem = ?1 "
+			+ "AND csv.id = (select max(v.id) from CodeSystemVersion v where v.codeSystem = ?1)")
+	public CodeSystemVersion findLatestVersionOfCodeSystem(CodeSystem codeSystem);
+
 }
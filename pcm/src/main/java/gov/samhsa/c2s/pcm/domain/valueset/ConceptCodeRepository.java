@@ -25,6 +25,7 @@
  ******************************************************************************/
 package gov.samhsa.c2s.pcm.domain.valueset;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.domain.Page;
@@ -62,6 +63,29 @@ public Page<ConceptCode> findAllByCodeLike(String searchTerm,
 
 	public ConceptCode findByCode(String code);
 
+	/**
+	 * Finds the first page of concept codes in (code, id) order, without
+	 * counting them.
+	 *
+	 * @param pageable the first page, of the page size plus one
+	 * @return the concept codes
+	 */
+	@Query("select c from ConceptCode c order by c.code, c.id")
+	public List<ConceptCode> findFirstOrderByCodeAndId(Pageable pageable);
+
+	/**
+	 * Finds the concept codes following the given code and id in (code, id)
+	 * order, without counting them. The seek uses the index on code and id
+	 * instead of skipping the rows of the previous pages.
+	 *
+	 * @param code the code of the last concept code of the previous page
+	 * @param id the id of the last concept code of the previous page
+	 * @param pageable the first page, of the page size plus one
+	 * @return the concept codes
+	 */
+	@Query("select c from ConceptCode c where c.code > ?1 or (c.code = ?1 and c.id > ?2) order by c.code, c.id")
+	public List<ConceptCode> findAllAfterCodeAndId(String code, Long id, Pageable pageable);
+
 	@Query("SELECT v.name FROM ConceptCode c, ConceptCodeValueSet cv, ValueSet v where c.id = cv.pk.conceptCode "
 			+ "AND cv.pk.valueSet = v.id AND c.code = ?1")
 	public List<String> findValueSetsForConceptCodes(String code);
@@ -80,4 +104,41 @@ public Page<ConceptCode> findAllByCodeLike(String searchTerm,
 	public List<ValueSet> findValueSetNamesFilterByCodeSystem(
 			String codeSystem, String codeSystemVersion);
 
+	/**
+	 * Finds code system oid, concept code and value set category code of every
+	 * concept code that belongs to the latest version of its code system. A
+	 * concept code without any value set is returned once with a null category
+	 * code.
+	 *
+	 * @return the list of [codeSystemOid, code, valueSetCategoryCode] rows
+	 */
+	@Query("select cs.codeSystemOId, c.code, vsc.code from ConceptCode c join c.codeSystemVersion csv join csv.codeSystem cs "
+			+ "left join c.valueSets ccvs left join ccvs.pk.valueSet vs left join vs.valueSetCategory vsc "
+			+ "where csv.id = (select max(v.id) from CodeSystemVersion v where v.codeSystem = cs)")
+	public List<Object[]> findAllCodeAndCategoryCodesOfLatestCodeSystemVersions();
+
+	/**
+	 * Finds code system oid and concept code of every concept code that
+	 * belongs to the latest version of its code system.
+	 *
+	 * @return the list of [codeSystemOid, code] rows
+	 */
+	@Query("select cs.codeSystemOId, c.code from ConceptCode c join c.codeSystemVersion csv join csv.codeSystem cs "
+			+ "where csv.id = (select max(v.id) from CodeSystemVersion v where v.codeSystem = cs)")
+	public List<Object[]> findAllCodesOfLatestCodeSystemVersions();
+
+	/**
+	 * Finds code and value set category code of the given concept codes of a
+	 * code system version. A concept code without any value set is returned
+	 * once with a null category code.
+	 *
+	 * @param codeSystemVersionId the code system version id
+	 * @param codes the codes
+	 * @return the list of [code, valueSetCategoryCode] rows
+	 */
+	@Query("select c.code, vsc.code from ConceptCode c left join c.valueSets ccvs left join ccvs.pk.valueSet vs "
+			+ "left join vs.valueSetCategory vsc where c.codeSystemVersion.id = ?1 AND c.code in ?2")
+	public List<Object[]> findAllCodeAndCategoryCodesByCodeSystemVersionIdAndCodeIn(
+			Long codeSystemVersionId, Collection<String> codes);
+
 }
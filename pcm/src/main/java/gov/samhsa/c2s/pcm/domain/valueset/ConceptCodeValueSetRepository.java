@@ -25,10 +25,12 @@
  ******************************************************************************/
 package gov.samhsa.c2s.pcm.domain.valueset;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Query;
 
 public interface ConceptCodeValueSetRepository extends JpaRepository<ConceptCodeValueSet, ConceptCodeValueSetId>, JpaSpecificationExecutor<ConceptCodeValueSet>{ 
 
@@ -36,4 +38,14 @@ public interface ConceptCodeValueSetRepository extends JpaRepository<ConceptCode
 
 	List<ConceptCodeValueSet> findAllByPkConceptCodeId(Long id);
 
+	/**
+	 * Finds which of the given value sets have at least one concept code.
+	 *
+	 * @param valueSetIds the value set ids
+	 * @return the ids of the value sets with concept codes
+	 */
+	@Query("select ccvs.pk.valueSet.id from ConceptCodeValueSet ccvs where ccvs.pk.valueSet.id in ?1 "
+			+ "group by ccvs.pk.valueSet.id")
+	List<Long> findValueSetIdsWithConceptCodes(Collection<Long> valueSetIds);
+
 }
@@ -25,6 +25,7 @@
  ******************************************************************************/
 package gov.samhsa.c2s.pcm.domain.valueset;
 
+import java.util.Collection;
 import java.util.List;
 
 import org.springframework.data.domain.Page;
@@ -49,4 +50,37 @@ public Page<ValueSet> findAllByCodeLike(String searchTerm,
 	@Query("select DISTINCT vs.id from ValueSet vs where vs.name = ?1")
 	public List<Long> findIdsByName(String name);
 
+	/**
+	 * Finds the first page of value sets in (code, id) order, without
+	 * counting them.
+	 *
+	 * @param pageable the first page, of the page size plus one
+	 * @return the value sets
+	 */
+	@Query("select vs from ValueSet vs order by vs.code, vs.id")
+	public List<ValueSet> findFirstOrderByCodeAndId(Pageable pageable);
+
+	/**
+	 * Finds the value sets following the given code and id in (code, id)
+	 * order, without counting them.
+	 *
+	 * @param code the code of the last value set of the previous page
+	 * @param id the id of the last value set of the previous page
+	 * @param pageable the first page, of the page size plus one
+	 * @return the value sets
+	 */
+	@Query("select vs from ValueSet vs where vs.code > ?1 or (vs.code = ?1 and vs.id > ?2) order by vs.code, vs.id")
+	public List<ValueSet> findAllAfterCodeAndId(String code, Long id, Pageable pageable);
+
+	/**
+	 * Finds which of the given value set categories have at least one value
+	 * set.
+	 *
+	 * @param valueSetCategoryIds the value set category ids
+	 * @return the ids of the value set categories with value sets
+	 */
+	@Query("select vs.valueSetCategory.id from ValueSet vs where vs.valueSetCategory.id in ?1 "
+			+ "group by vs.valueSetCategory.id")
+	public List<Long> findValueSetCategoryIdsWithValueSets(Collection<Long> valueSetCategoryIds);
+
 }
@@ -36,8 +36,8 @@
 import gov.samhsa.c2s.pcm.domain.provider.OrganizationalProvider;
 import gov.samhsa.c2s.pcm.domain.reference.ClinicalDocumentTypeCodeRepository;
 import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategory;
-import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategoryRepository;
 import gov.samhsa.c2s.pcm.infrastructure.exception.ConsentPdfGenerationException;
+import gov.samhsa.c2s.pcm.service.reference.ReferenceCodeCache;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -64,10 +64,10 @@ public class ConsentPdfGeneratorImpl implements ConsentPdfGenerator {
     private ITextPdfService iTextPdfService;
 
     /**
-     * The value set category repository.
+     * The reference code cache.
      */
     @Autowired
-    private ValueSetCategoryRepository valueSetCategoryRepository;
+    private ReferenceCodeCache referenceCodeCache;
 
     /**
      * The clinical document type code repository.
@@ -358,8 +358,8 @@ private PdfPTable createHealthInformationToBeDisclose(Consent consent) {
     private ArrayList<String> getMedicalInformation(Consent consent) {
         Set<String> medicalInformationListToShare = new HashSet<String>();
 
-        List<ValueSetCategory> valueSetCategoryList = valueSetCategoryRepository
-                .findAll();
+        List<ValueSetCategory> valueSetCategoryList = referenceCodeCache
+                .findAllValueSetCategories();
         //All possible VSC
         for (ValueSetCategory valueSetCategory : valueSetCategoryList) {
             String valueSetName = valueSetCategory.getName();
@@ -0,0 +1,191 @@
+package gov.samhsa.c2s.pcm.infrastructure;
+
+import gov.samhsa.c2s.pcm.service.exception.IdempotencyKeyReusedException;
+import gov.samhsa.c2s.pcm.service.exception.IdempotentRequestInProgressException;
+import gov.samhsa.c2s.pcm.service.exception.InternalServerErrorException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The Class IdempotencyKeyStore.
+ * <p>
+ * Remembers the outcome of the requests sent with an idempotency key for a
+ * while, so that a client retrying a request, e.g. after a timeout, gets the
+ * outcome of the original request instead of running it again. A retry
+ * arriving while the original request is still running waits for it, for a
+ * limited time, and is rejected with a conflict if it is still running then.
+ * <p>
+ * Successes and client errors are replayed. A request failing with a server
+ * error, or an exception not mapped to a status, is forgotten so that its
+ * retry runs again. The keys are kept in memory, by instance: a retry routed
+ * to another instance runs again.
+ */
+public class IdempotencyKeyStore {
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The requests by key.
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /**
+     * The time in milliseconds the outcome of a request is kept.
+     */
+    private final long ttlMillis;
+
+    /**
+     * The maximum number of keys kept.
+     */
+    private final int maxKeys;
+
+    /**
+     * The time in milliseconds a retry waits for the original request.
+     */
+    private final long replayTimeoutMillis;
+
+    /**
+     * The time of the next removal of the expired keys.
+     */
+    private volatile long nextSweepMillis;
+
+    /**
+     * Instantiates a new idempotency key store.
+     *
+     * @param ttlMillis           the time in milliseconds the outcome of a request is kept
+     * @param maxKeys             the maximum number of keys kept
+     * @param replayTimeoutMillis the time in milliseconds a retry waits for the original request
+     */
+    public IdempotencyKeyStore(long ttlMillis, int maxKeys, long replayTimeoutMillis) {
+        super();
+        this.ttlMillis = ttlMillis;
+        this.maxKeys = maxKeys;
+        this.replayTimeoutMillis = replayTimeoutMillis;
+    }
+
+    /**
+     * Runs a request once per key, replaying its outcome for the requests
+     * sent again with the same key.
+     *
+     * @param <E>         the type of the checked exception of the request
+     * @param key         the key, or null to run the request regardless
+     * @param fingerprint the fingerprint of the request, which a request
+     *                    sent again with the key must match
+     * @param request     the request
+     * @throws E the exception of the request
+     */
+    public <E extends Exception> void execute(String key, String fingerprint, Request<E> request) throws E {
+        if (key == null) {
+            request.run();
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        sweep(now);
+        if (entries.size() >= maxKeys && !entries.containsKey(key)) {
+            logger.warn("Idempotency key store full with " + maxKeys + " keys, running the request without a key");
+            request.run();
+            return;
+        }
+        final Entry entry = new Entry(fingerprint, now + ttlMillis);
+        final Entry existing = entries.putIfAbsent(key, entry);
+        if (existing != null) {
+            replay(existing, fingerprint);
+            return;
+        }
+
+        try {
+            request.run();
+            entry.outcome.complete(null);
+        } catch (Throwable t) {
+            if (!isReplayable(t)) {
+                entries.remove(key, entry);
+            }
+            entry.outcome.completeExceptionally(t);
+            throw t;
+        }
+    }
+
+    private void replay(Entry entry, String fingerprint) {
+        if (!Objects.equals(entry.fingerprint, fingerprint)) {
+            throw new IdempotencyKeyReusedException("The idempotency key was already used for another request.");
+        }
+        try {
+            entry.outcome.get(replayTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IdempotentRequestInProgressException(
+                    "The request with the idempotency key is still in progress, please try again later.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServerErrorException(e);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new InternalServerErrorException(cause);
+        }
+    }
+
+    private static boolean isReplayable(Throwable t) {
+        if (!(t instanceof RuntimeException)) {
+            return false;
+        }
+        final ResponseStatus responseStatus = AnnotationUtils.findAnnotation(t.getClass(), ResponseStatus.class);
+        return responseStatus != null && responseStatus.value().is4xxClientError();
+    }
+
+    private void sweep(long now) {
+        if (now < nextSweepMillis) {
+            return;
+        }
+        nextSweepMillis = now + Math.max(1000, ttlMillis / 10);
+        entries.values().removeIf(entry -> entry.expiresAtMillis < now && entry.outcome.isDone());
+    }
+
+    /**
+     * A request.
+     *
+     * @param <E> the type of the checked exception of the request
+     */
+    @FunctionalInterface
+    public interface Request<E extends Exception> {
+
+        /**
+         * Runs the request.
+         *
+         * @throws E the exception of the request
+         */
+        void run() throws E;
+    }
+
+    /**
+     * The outcome of a request.
+     */
+    private static final class Entry {
+        private final String fingerprint;
+        private final long expiresAtMillis;
+        private final CompletableFuture<Void> outcome = new CompletableFuture<Void>();
+
+        private Entry(String fingerprint, long expiresAtMillis) {
+            this.fingerprint = fingerprint;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+}
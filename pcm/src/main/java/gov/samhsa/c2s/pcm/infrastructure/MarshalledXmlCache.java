@@ -0,0 +1,42 @@
+package gov.samhsa.c2s.pcm.infrastructure;
+
+/**
+ * The Interface MarshalledXmlCache.
+ * <p>
+ * Lets the objects transformed several times in a row be marshalled to XML
+ * once, by handing out the XML of an earlier marshalling of the same object.
+ */
+public interface MarshalledXmlCache {
+
+    /**
+     * The cache which marshals every object again.
+     */
+    MarshalledXmlCache NONE = (obj, marshalling) -> marshalling.marshal(obj);
+
+    /**
+     * Marshals an object to XML, or returns the XML it was already
+     * marshalled to.
+     *
+     * @param obj         the object
+     * @param marshalling the marshalling of the object
+     * @return the XML
+     * @throws Exception the exception of the marshalling
+     */
+    String marshal(Object obj, Marshalling marshalling) throws Exception;
+
+    /**
+     * Marshals an object to XML.
+     */
+    @FunctionalInterface
+    interface Marshalling {
+
+        /**
+         * Marshals the object.
+         *
+         * @param obj the object
+         * @return the XML
+         * @throws Exception the exception
+         */
+        String marshal(Object obj) throws Exception;
+    }
+}
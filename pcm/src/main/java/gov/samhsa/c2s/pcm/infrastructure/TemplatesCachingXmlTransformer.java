@@ -0,0 +1,74 @@
+package gov.samhsa.c2s.pcm.infrastructure;
+
+import gov.samhsa.c2s.common.document.transformer.XmlTransformerImpl;
+import gov.samhsa.c2s.common.marshaller.SimpleMarshaller;
+import gov.samhsa.c2s.common.param.Params;
+import gov.samhsa.c2s.pcm.infrastructure.exception.XslTransformationException;
+
+import javax.xml.transform.URIResolver;
+import java.util.Optional;
+
+/**
+ * The Class TemplatesCachingXmlTransformer.
+ * <p>
+ * Transforms objects, such as the consent handed over by the consent builder,
+ * with stylesheets compiled once by a {@link XslTemplatesCache} instead of
+ * compiling the stylesheet again for each transformation, and with objects
+ * marshalled through a {@link MarshalledXmlCache}, such as the consent
+ * marshalled once for all of its exports. Transformations with parameters or a URI
+ * resolver are left to the library transformer.
+ */
+public class TemplatesCachingXmlTransformer extends XmlTransformerImpl {
+
+    /**
+     * The marshaller turning the objects into the transformed documents.
+     */
+    private final SimpleMarshaller simpleMarshaller;
+
+    /**
+     * The compiled stylesheets.
+     */
+    private final XslTemplatesCache xslTemplatesCache;
+
+    /**
+     * The XML of the objects already marshalled.
+     */
+    private final MarshalledXmlCache marshalledXmlCache;
+
+    /**
+     * Instantiates a new templates caching xml transformer.
+     *
+     * @param simpleMarshaller   the simple marshaller
+     * @param xslTemplatesCache  the compiled stylesheets
+     * @param marshalledXmlCache the XML of the objects already marshalled
+     */
+    public TemplatesCachingXmlTransformer(SimpleMarshaller simpleMarshaller, XslTemplatesCache xslTemplatesCache,
+                                          MarshalledXmlCache marshalledXmlCache) {
+        super(simpleMarshaller);
+        this.simpleMarshaller = simpleMarshaller;
+        this.xslTemplatesCache = xslTemplatesCache;
+        this.marshalledXmlCache = marshalledXmlCache;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * gov.samhsa.c2s.common.document.transformer.XmlTransformer#transform(java
+     * .lang.Object, java.lang.String, java.util.Optional, java.util.Optional)
+     */
+    @Override
+    public String transform(Object obj, String xslUrl, Optional<Params> params,
+                            Optional<URIResolver> uriResolver) {
+        try {
+            if (params.isPresent() || uriResolver.isPresent()) {
+                return super.transform(obj, xslUrl, params, uriResolver);
+            }
+            return xslTemplatesCache.transform(marshalledXmlCache.marshal(obj, simpleMarshaller::marshal), xslUrl);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new XslTransformationException("Error in transforming with " + xslUrl, e);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package gov.samhsa.c2s.pcm.infrastructure;
+
+import gov.samhsa.c2s.pcm.infrastructure.exception.XslTransformationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The Class XslTemplatesCache.
+ * <p>
+ * Compiles each stylesheet once, keyed by its URL, and hands out a new
+ * {@link Transformer} of the compiled {@link Templates} for every
+ * transformation. Templates are thread-safe while transformers are not, so
+ * the transformers must not be shared between threads.
+ */
+public class XslTemplatesCache {
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The transformer factory compiling the stylesheets, which is not
+     * thread-safe.
+     */
+    private final TransformerFactory transformerFactory;
+
+    /**
+     * The compiled stylesheets by URL.
+     */
+    private final ConcurrentMap<String, Templates> templates = new ConcurrentHashMap<String, Templates>();
+
+    /**
+     * Instantiates a new xsl templates cache using the default JAXP transformer
+     * factory.
+     */
+    public XslTemplatesCache() {
+        this(TransformerFactory.newInstance());
+    }
+
+    /**
+     * Instantiates a new xsl templates cache.
+     *
+     * @param transformerFactory the transformer factory compiling the
+     *                           stylesheets
+     */
+    public XslTemplatesCache(TransformerFactory transformerFactory) {
+        super();
+        this.transformerFactory = transformerFactory;
+    }
+
+    /**
+     * Creates a transformer of the stylesheet, compiling it on first use.
+     *
+     * @param xslUrl the stylesheet URL
+     * @return a transformer to be used by the calling thread only
+     */
+    public Transformer newTransformer(String xslUrl) {
+        Templates compiled = templates.get(xslUrl);
+        if (compiled == null) {
+            compiled = compile(xslUrl);
+        }
+        try {
+            return compiled.newTransformer();
+        } catch (TransformerConfigurationException e) {
+            throw new XslTransformationException("Cannot create a transformer of " + xslUrl, e);
+        }
+    }
+
+    /**
+     * Transforms a document with the stylesheet.
+     *
+     * @param xml    the document
+     * @param xslUrl the stylesheet URL
+     * @return the result
+     */
+    public String transform(String xml, String xslUrl) {
+        final StringWriter result = new StringWriter();
+        try {
+            newTransformer(xslUrl).transform(new StreamSource(new StringReader(xml)), new StreamResult(result));
+        } catch (TransformerException e) {
+            throw new XslTransformationException("Error in transforming with " + xslUrl, e);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Drops the compiled stylesheets, so that changed ones are read again.
+     */
+    public void evictAll() {
+        templates.clear();
+    }
+
+    private Templates compile(String xslUrl) {
+        synchronized (transformerFactory) {
+            Templates compiled = templates.get(xslUrl);
+            if (compiled == null) {
+                final long start = System.currentTimeMillis();
+                try {
+                    // the system id lets relative imports of the stylesheet resolve
+                    compiled = transformerFactory.newTemplates(new StreamSource(xslUrl));
+                } catch (TransformerConfigurationException e) {
+                    throw new XslTransformationException("Cannot compile " + xslUrl, e);
+                }
+                templates.put(xslUrl, compiled);
+                logger.info("Compiled " + xslUrl + " in " + (System.currentTimeMillis() - start) + " ms");
+            }
+            return compiled;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package gov.samhsa.c2s.pcm.infrastructure.exception;
+
+public class XslTransformationException extends RuntimeException {
+
+	private static final long serialVersionUID = 3482916503758265104L;
+
+	public XslTransformationException() {
+		super();
+	}
+
+	public XslTransformationException(String message) {
+		super(message);
+	}
+
+	public XslTransformationException(String message, Throwable cause) {
+		super(message, cause);
+	}
+
+	public XslTransformationException(String message, Throwable cause,
+									  boolean enableSuppression, boolean writableStackTrace) {
+		super(message, cause, enableSuppression, writableStackTrace);
+	}
+
+	public XslTransformationException(Throwable cause) {
+		super(cause);
+	}
+}
@@ -0,0 +1,140 @@
+package gov.samhsa.c2s.pcm.service.consent;
+
+import gov.samhsa.c2s.pcm.domain.consent.Consent;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentRepository;
+
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * The documents generated from a consent and stored with it.
+ */
+public enum ConsentArtifact {
+
+    /**
+     * The consent pdf shown to the patient before signing.
+     */
+    UNATTESTED_PDF_CONSENT("unattested consent pdf",
+            Consent::getUnAttestedPdfConsent, Consent::setUnAttestedPdfConsent,
+            ConsentRepository::storeUnAttestedPdfConsent),
+
+    /**
+     * The XACML policy to give access to the recipient providers for ccd.
+     */
+    XACML_CCD("consent xacml",
+            Consent::getXacmlCcd, Consent::setXacmlCcd,
+            (consentRepository, consentId, artifact, artifactFingerprint, pdfTermsFingerprint) ->
+                    consentRepository.storeXacmlCcd(consentId, artifact, artifactFingerprint)),
+
+    /**
+     * The XACML policy to give access to the disclosing providers for the
+     * consent pdf.
+     */
+    XACML_PDF_CONSENT_FROM("consent pdf xacml for the disclosing providers",
+            Consent::getXacmlPdfConsentFrom, Consent::setXacmlPdfConsentFrom,
+            (consentRepository, consentId, artifact, artifactFingerprint, pdfTermsFingerprint) ->
+                    consentRepository.storeXacmlPdfConsentFrom(consentId, artifact, artifactFingerprint)),
+
+    /**
+     * The XACML policy to give access to the recipient providers for the
+     * consent pdf.
+     */
+    XACML_PDF_CONSENT_TO("consent pdf xacml for the recipient providers",
+            Consent::getXacmlPdfConsentTo, Consent::setXacmlPdfConsentTo,
+            (consentRepository, consentId, artifact, artifactFingerprint, pdfTermsFingerprint) ->
+                    consentRepository.storeXacmlPdfConsentTo(consentId, artifact, artifactFingerprint)),
+
+    /**
+     * The CDA R2 consent directive.
+     */
+    EXPORTED_CDAR2_CONSENT("consent cda r2 directive",
+            Consent::getExportedCDAR2Consent, Consent::setExportedCDAR2Consent,
+            (consentRepository, consentId, artifact, artifactFingerprint, pdfTermsFingerprint) ->
+                    consentRepository.storeExportedCDAR2Consent(consentId, artifact, artifactFingerprint));
+
+    /**
+     * The description used in logs and messages.
+     */
+    private final String description;
+
+    /**
+     * The getter of the stored artifact.
+     */
+    private final Function<Consent, byte[]> getter;
+
+    /**
+     * The setter of the stored artifact.
+     */
+    private final BiConsumer<Consent, byte[]> setter;
+
+    /**
+     * The update storing the artifact without loading the consent.
+     */
+    private final Store store;
+
+    ConsentArtifact(String description, Function<Consent, byte[]> getter,
+                    BiConsumer<Consent, byte[]> setter, Store store) {
+        this.description = description;
+        this.getter = getter;
+        this.setter = setter;
+        this.store = store;
+    }
+
+    /**
+     * Gets the artifact stored with the consent.
+     *
+     * @param consent the consent
+     * @return the artifact, or null when it is not stored
+     */
+    public byte[] get(Consent consent) {
+        return getter.apply(consent);
+    }
+
+    /**
+     * Sets the artifact of the consent.
+     *
+     * @param consent  the consent
+     * @param artifact the artifact
+     */
+    public void set(Consent consent, byte[] artifact) {
+        setter.accept(consent, artifact);
+    }
+
+    /**
+     * Checks if the artifact is generated with the consent terms.
+     *
+     * @return true, if generated with the consent terms
+     */
+    public boolean usesTerms() {
+        return this == UNATTESTED_PDF_CONSENT;
+    }
+
+    /**
+     * Stores the artifact of a consent, unless the consent changed since the
+     * artifact was generated from it.
+     *
+     * @param consentRepository   the consent repository
+     * @param consentId           the consent id
+     * @param artifact            the artifact
+     * @param artifactFingerprint the fingerprint of the consent the artifact
+     *                            was generated from
+     * @param pdfTermsFingerprint the fingerprint of the consent terms, kept
+     *                            with the unattested pdf only
+     * @return true, if stored
+     */
+    public boolean store(ConsentRepository consentRepository, Long consentId, byte[] artifact,
+                         String artifactFingerprint, String pdfTermsFingerprint) {
+        return store.store(consentRepository, consentId, artifact, artifactFingerprint, pdfTermsFingerprint) > 0;
+    }
+
+    @Override
+    public String toString() {
+        return description;
+    }
+
+    @FunctionalInterface
+    private interface Store {
+        int store(ConsentRepository consentRepository, Long consentId, byte[] artifact,
+                  String artifactFingerprint, String pdfTermsFingerprint);
+    }
+}
@@ -0,0 +1,142 @@
+package gov.samhsa.c2s.pcm.service.consent;
+
+import gov.samhsa.c2s.common.consentgen.ConsentGenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.AsyncTaskExecutor;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The Class ConsentArtifactGenerator.
+ * <p>
+ * Generates the documents stored with a consent, which do not depend on each
+ * other, at the same time. The first artifact is generated on the calling
+ * thread, which would otherwise only wait, and the others on a bounded
+ * executor. Only the first one may load lazy state of the entities it is
+ * given; the others must only read state already loaded by the caller.
+ */
+public class ConsentArtifactGenerator {
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The executor generating all artifacts but the first.
+     */
+    private final AsyncTaskExecutor executor;
+
+    /**
+     * The time in milliseconds to wait for all artifacts of a consent.
+     */
+    private final long timeoutMillis;
+
+    /**
+     * Instantiates a new consent artifact generator.
+     *
+     * @param executor      the executor generating all artifacts but the first
+     * @param timeoutMillis the time in milliseconds to wait for all artifacts
+     *                      of a consent
+     */
+    public ConsentArtifactGenerator(AsyncTaskExecutor executor, long timeoutMillis) {
+        super();
+        this.executor = executor;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Generates the artifacts and waits for all of them. When one fails or
+     * they take too long, the others are cancelled and the failure is thrown.
+     *
+     * @param <K>       the type of the artifact names
+     * @param artifacts the artifact generators by artifact name, in order
+     * @return the generated artifacts by artifact name, in the same order
+     * @throws ConsentGenException the consent gen exception
+     */
+    public <K> Map<K, byte[]> generate(Map<K, Artifact> artifacts) throws ConsentGenException {
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        final Iterator<Map.Entry<K, Artifact>> iterator = artifacts.entrySet().iterator();
+        if (!iterator.hasNext()) {
+            return new LinkedHashMap<K, byte[]>();
+        }
+        final Map.Entry<K, Artifact> first = iterator.next();
+
+        final List<K> names = new ArrayList<K>();
+        final List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+        try {
+            while (iterator.hasNext()) {
+                final Map.Entry<K, Artifact> entry = iterator.next();
+                names.add(entry.getKey());
+                futures.add(executor.submit(() -> timed(entry.getKey(), entry.getValue())));
+            }
+
+            final Map<K, byte[]> generated = new LinkedHashMap<K, byte[]>();
+            generated.put(first.getKey(), timed(first.getKey(), first.getValue()));
+            for (int i = 0; i < futures.size(); i++) {
+                generated.put(names.get(i), await(names.get(i), futures.get(i), deadline));
+            }
+            futures.clear();
+            return generated;
+        } finally {
+            // left over only when an artifact failed
+            for (Future<byte[]> future : futures) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private byte[] timed(Object name, Artifact artifact) throws ConsentGenException {
+        final long start = System.nanoTime();
+        final byte[] generated = artifact.generate();
+        logger.debug("Generated " + name + " in "
+                + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        return generated;
+    }
+
+    private byte[] await(Object name, Future<byte[]> future, long deadline) throws ConsentGenException {
+        try {
+            return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof ConsentGenException) {
+                throw (ConsentGenException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new ConsentGenException("Error in generating " + name + ": " + cause);
+        } catch (TimeoutException e) {
+            throw new ConsentGenException("Timed out after " + timeoutMillis + " ms generating " + name);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ConsentGenException("Interrupted while generating " + name);
+        }
+    }
+
+    /**
+     * Generates one artifact of a consent.
+     */
+    public interface Artifact {
+
+        /**
+         * Generates the artifact.
+         *
+         * @return the artifact
+         * @throws ConsentGenException the consent gen exception
+         */
+        byte[] generate() throws ConsentGenException;
+    }
+}
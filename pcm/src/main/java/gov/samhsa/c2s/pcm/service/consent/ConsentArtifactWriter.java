@@ -0,0 +1,65 @@
+package gov.samhsa.c2s.pcm.service.consent;
+
+import gov.samhsa.c2s.pcm.domain.consent.ConsentRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * The Class ConsentArtifactWriter.
+ * <p>
+ * Stores the artifacts of a consent generated the first time they are
+ * requested. The requests reading a consent run in read-only transactions,
+ * which the database does not let write, so the artifacts are stored in a
+ * transaction of their own.
+ */
+@Service
+@Transactional(propagation = Propagation.REQUIRES_NEW)
+public class ConsentArtifactWriter {
+
+    /**
+     * The consent repository.
+     */
+    private final ConsentRepository consentRepository;
+
+    /**
+     * Instantiates a new consent artifact writer.
+     *
+     * @param consentRepository the consent repository
+     */
+    @Autowired
+    public ConsentArtifactWriter(ConsentRepository consentRepository) {
+        super();
+        this.consentRepository = consentRepository;
+    }
+
+    /**
+     * Drops the stored artifacts of a consent generated from an earlier
+     * content.
+     *
+     * @param consentId           the consent id
+     * @param artifactFingerprint the fingerprint of the current content
+     */
+    public void clearArtifacts(Long consentId, String artifactFingerprint) {
+        consentRepository.clearArtifacts(consentId, artifactFingerprint);
+    }
+
+    /**
+     * Stores an artifact of a consent, unless the consent changed since the
+     * artifact was generated from it.
+     *
+     * @param artifact            the artifact
+     * @param consentId           the consent id
+     * @param content             the content of the artifact
+     * @param artifactFingerprint the fingerprint of the consent the artifact
+     *                            was generated from
+     * @param pdfTermsFingerprint the fingerprint of the consent terms, kept
+     *                            with the unattested pdf only
+     * @return true, if stored
+     */
+    public boolean store(ConsentArtifact artifact, Long consentId, byte[] content, String artifactFingerprint,
+                         String pdfTermsFingerprint) {
+        return artifact.store(consentRepository, consentId, content, artifactFingerprint, pdfTermsFingerprint);
+    }
+}
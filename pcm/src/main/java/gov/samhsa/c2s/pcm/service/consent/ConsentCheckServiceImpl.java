@@ -1,11 +1,13 @@
 package gov.samhsa.c2s.pcm.service.consent;
 
 
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
-import gov.samhsa.c2s.pcm.domain.consent.Consent;
 import gov.samhsa.c2s.pcm.domain.consent.ConsentRepository;
-import gov.samhsa.c2s.pcm.domain.patient.PatientRepository;
 import gov.samhsa.c2s.pcm.service.dto.ConsentDto;
 import gov.samhsa.c2s.pcm.service.dto.ConsentValidationDto;
 import org.slf4j.Logger;
@@ -26,10 +28,6 @@ public class ConsentCheckServiceImpl implements ConsentCheckService {
 	@Autowired
 	private ConsentRepository consentRepository;
 
-	/** The patient repository. */
-	@Autowired
-	private PatientRepository patientRepository;
-
 	/** The consent helper. */
 	@Autowired
 	private ConsentHelper consentHelper;
@@ -44,72 +42,79 @@ public class ConsentCheckServiceImpl implements ConsentCheckService {
 	public ConsentValidationDto getConflictConsent(ConsentDto consentDto) {
 
 		ConsentValidationDto consentValidationDto = null;
-		List<Consent> consents;
 
-		// 1. Get all consents for that user
+		// a consent conflicts only when it shares a purpose of use, a provider
+		// permitted to disclose and a provider disclosure is made to
+		Set<String> purposeOfUseCodes = consentDto
+				.getShareForPurposeOfUseCodes();
+		Set<String> toDiscloseNpis = consentHelper
+				.getDtoProviderToDiscloseToNpi(consentDto);
+		Set<String> isMadeToNpis = consentHelper
+				.getDtoProviderIsMadeToNpi(consentDto);
+		if (purposeOfUseCodes == null || purposeOfUseCodes.isEmpty()
+				|| toDiscloseNpis.isEmpty() || isMadeToNpis.isEmpty()) {
+			logger.debug("is conflict found: false");
+			return null;
+		}
+
+		// 1. Get the consents of that user overlapping the consent term,
+		// sharing a purpose of use and not revoked
+		List<Object[]> candidates;
 		if (consentDto.getUsername() != null
 				&& !consentDto.getUsername().isEmpty()) {
-			consents = consentRepository.findAllByPatientUsername(consentDto
-					.getUsername());
+			candidates = consentRepository
+					.findConflictCandidatesByPatientUsername(
+							consentDto.getUsername(),
+							consentDto.getConsentStart(),
+							consentDto.getConsentEnd(), purposeOfUseCodes,
+							ConsentStatus.REVOCATION_REVOKED);
 		} else {
-			consents = consentRepository.findByPatient(patientRepository
-					.findOne(consentDto.getPatientId()));
+			candidates = consentRepository.findConflictCandidatesByPatientId(
+					consentDto.getPatientId(), consentDto.getConsentStart(),
+					consentDto.getConsentEnd(), purposeOfUseCodes,
+					ConsentStatus.REVOCATION_REVOKED);
 		}
-		boolean isConflict = false;
-		for (Consent consent : consents) {
+		List<Long> candidateIds = new ArrayList<Long>();
+		for (Object[] candidate : candidates) {
+			Long id = (Long) candidate[0];
 
 			// editing the existing consent then skip that consent
-			if (consent.getId().toString().equalsIgnoreCase(consentDto.getId()))
+			if (id.toString().equalsIgnoreCase(consentDto.getId()))
 				continue;
 
-			boolean isOverlap = false;
-			boolean isPOUMatch = false;
-			boolean isProviderMatch = false;
-			boolean isConsentRevoked = false;
-			// check if the selected consent terms overlaps with the existing
-			// consent
-			isOverlap = consentHelper.isConsentTermOverlap(consentDto,
-					consent.getStartDate(), consent.getEndDate());
-			if (isOverlap) {
-				// if it overlaps
-				// Check if the selected POU codes belongs to the existing
-				// consent
-				isPOUMatch = consentHelper.isPOUMatches(
-						consentDto.getShareForPurposeOfUseCodes(),
-						consent.getShareForPurposeOfUseCodes());
-				if (isPOUMatch) {
-
-					// check the provider combination match
-					isProviderMatch = consentHelper.isProviderComboMatch(
-							consent, consentDto);
-					if (isProviderMatch) {
-
-						// check if the existing consent is in revoked state
-						// if its revoked then its not a duplicate consent
-						isConsentRevoked = consentHelper
-								.isConsentRevoked(consent);
-						if (!isConsentRevoked) {
-							isConflict = true;
-							consentValidationDto = consentHelper
-									.convertConsentToConsentListDto(consent,
-											consentDto);
-							break;
-						}
-					} else {
-						continue;
-					}
-				} else {
-					// no conflicts so check the next consent
-					continue;
-				}
+			if (consentHelper.isConsentTermOverlap(consentDto,
+					(Date) candidate[1], (Date) candidate[2])) {
+				candidateIds.add(id);
+			}
+		}
 
-			} else {
-				// no conflicts so check the next consent
-				continue;
+		if (!candidateIds.isEmpty()) {
+			// 2. Check the provider combination of the candidates
+			Set<Long> toDiscloseIds = new HashSet<Long>(
+					consentRepository.findIdsByProvidersPermittedToDiscloseNpiIn(
+							candidateIds, toDiscloseNpis));
+			toDiscloseIds.addAll(consentRepository
+					.findIdsByOrganizationalProvidersPermittedToDiscloseNpiIn(
+							candidateIds, toDiscloseNpis));
+			Set<Long> isMadeToIds = new HashSet<Long>(
+					consentRepository.findIdsByProvidersDisclosureIsMadeToNpiIn(
+							candidateIds, isMadeToNpis));
+			isMadeToIds.addAll(consentRepository
+					.findIdsByOrganizationalProvidersDisclosureIsMadeToNpiIn(
+							candidateIds, isMadeToNpis));
+
+			for (Long id : candidateIds) {
+				if (toDiscloseIds.contains(id) && isMadeToIds.contains(id)) {
+					// only the conflicting consent is loaded
+					consentValidationDto = consentHelper
+							.convertConsentToConsentListDto(
+									consentRepository.findOne(id), consentDto);
+					break;
+				}
 			}
 		}
 
-		logger.debug("is conflict found: " + isConflict);
+		logger.debug("is conflict found: " + (consentValidationDto != null));
 		return consentValidationDto;
 	}
 }
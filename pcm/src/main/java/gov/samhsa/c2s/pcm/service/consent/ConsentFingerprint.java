@@ -0,0 +1,128 @@
+package gov.samhsa.c2s.pcm.service.consent;
+
+import gov.samhsa.c2s.pcm.domain.consent.Consent;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentDoNotShareClinicalDocumentTypeCode;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentDoNotShareSensitivityPolicyCode;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentIndividualProviderDisclosureIsMadeTo;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentIndividualProviderPermittedToDisclose;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentOrganizationalProviderDisclosureIsMadeTo;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentOrganizationalProviderPermittedToDisclose;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentShareForPurposeOfUseCode;
+import gov.samhsa.c2s.pcm.domain.patient.Patient;
+import gov.samhsa.c2s.pcm.domain.provider.AbstractProvider;
+import gov.samhsa.c2s.pcm.domain.reference.ClinicalConceptCode;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The Class ConsentFingerprint.
+ * <p>
+ * Digests everything the XACML, CDA and PDF artifacts of a consent are
+ * generated from, so that stored artifacts can be told apart from the ones
+ * of an earlier content of the same consent: the consent, the versions of
+ * its patient, legal representative and providers, which change with any of
+ * their details, and the display names of its codes. The consent terms,
+ * which only the unattested pdf is generated with, are digested apart.
+ */
+public final class ConsentFingerprint {
+
+    private ConsentFingerprint() {
+    }
+
+    /**
+     * Computes the fingerprint of a consent.
+     *
+     * @param consent the consent
+     * @return the SHA-256 of its content, in hex
+     */
+    public static String of(Consent consent) {
+        final StringBuilder content = new StringBuilder();
+        append(content, consent.getConsentReferenceId());
+        append(content, consent.getName());
+        append(content, consent.getDescription());
+        append(content, versionOf(consent.getPatient()));
+        append(content, versionOf(consent.getLegalRepresentative()));
+        append(content, timeOf(consent.getStartDate()));
+        append(content, timeOf(consent.getEndDate()));
+        append(content, timeOf(consent.getCreatedDateTime()));
+        append(content, sorted(consent.getProvidersPermittedToDisclose(),
+                (ConsentIndividualProviderPermittedToDisclose p) -> versionOf(p.getIndividualProvider())));
+        append(content, sorted(consent.getProvidersDisclosureIsMadeTo(),
+                (ConsentIndividualProviderDisclosureIsMadeTo p) -> versionOf(p.getIndividualProvider())));
+        append(content, sorted(consent.getOrganizationalProvidersPermittedToDisclose(),
+                (ConsentOrganizationalProviderPermittedToDisclose p) -> versionOf(p.getOrganizationalProvider())));
+        append(content, sorted(consent.getOrganizationalProvidersDisclosureIsMadeTo(),
+                (ConsentOrganizationalProviderDisclosureIsMadeTo p) -> versionOf(p.getOrganizationalProvider())));
+        append(content, sorted(consent.getDoNotShareClinicalDocumentTypeCodes(),
+                (ConsentDoNotShareClinicalDocumentTypeCode c) -> c.getClinicalDocumentTypeCode().getCode()
+                        + "|" + c.getClinicalDocumentTypeCode().getDisplayName()));
+        append(content, sorted(consent.getDoNotShareSensitivityPolicyCodes(),
+                (ConsentDoNotShareSensitivityPolicyCode c) -> c.getValueSetCategory().getCode()
+                        + "|" + c.getValueSetCategory().getName()));
+        append(content, sorted(consent.getShareForPurposeOfUseCodes(),
+                (ConsentShareForPurposeOfUseCode c) -> c.getPurposeOfUseCode().getCode()
+                        + "|" + c.getPurposeOfUseCode().getDisplayName()));
+        append(content, sorted(consent.getDoNotShareClinicalConceptCodes(),
+                (ClinicalConceptCode c) -> c.getCodeSystem() + "|" + c.getCode() + "|" + c.getDisplayName()));
+        return sha256(content.toString());
+    }
+
+    /**
+     * Computes the fingerprint of the consent terms the unattested pdf is
+     * generated with.
+     *
+     * @param terms the consent terms text, or null when none is enabled
+     * @return the SHA-256 of the terms, in hex
+     */
+    public static String ofTerms(String terms) {
+        final StringBuilder content = new StringBuilder();
+        append(content, terms);
+        return sha256(content.toString());
+    }
+
+    private static void append(StringBuilder content, Object value) {
+        // the length prefix keeps adjacent values from running into each other
+        final String text = String.valueOf(value);
+        content.append(text.length()).append(':').append(text).append(';');
+    }
+
+    private static String versionOf(Patient patient) {
+        return patient == null ? null : patient.getId() + "@" + patient.getVersion();
+    }
+
+    private static String versionOf(AbstractProvider provider) {
+        return provider == null ? null : provider.getNpi() + "@" + provider.getId() + "@" + provider.getVersion();
+    }
+
+    private static Long timeOf(Date date) {
+        return date == null ? null : date.getTime();
+    }
+
+    private static <T> List<String> sorted(Collection<T> values, Function<T, String> key) {
+        if (values == null) {
+            return null;
+        }
+        return values.stream()
+                .map(value -> value == null ? null : key.apply(value))
+                .map(String::valueOf)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static String sha256(String content) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return String.format("%064x", new BigInteger(1, digest.digest(content.getBytes(StandardCharsets.UTF_8))));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
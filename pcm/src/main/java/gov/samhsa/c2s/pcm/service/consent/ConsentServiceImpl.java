@@ -31,14 +31,15 @@
 import gov.samhsa.c2s.pcm.domain.provider.*;
 import gov.samhsa.c2s.pcm.domain.reference.*;
 import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategory;
-import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategoryRepository;
 import gov.samhsa.c2s.pcm.infrastructure.AbstractConsentRevokationPdfGenerator;
 import gov.samhsa.c2s.pcm.infrastructure.dto.PatientDto;
+import gov.samhsa.c2s.pcm.service.consentexport.ConsentExportContext;
 import gov.samhsa.c2s.pcm.service.consentexport.ConsentExportService;
 import gov.samhsa.c2s.pcm.service.dto.*;
 import gov.samhsa.c2s.pcm.service.exception.AttestedConsentException;
-import gov.samhsa.c2s.pcm.service.fhir.FhirContractService;
+import gov.samhsa.c2s.pcm.service.fhir.FhirContractOutbox;
 import gov.samhsa.c2s.pcm.service.patient.PatientService;
+import gov.samhsa.c2s.pcm.service.reference.ReferenceCodeCache;
 import gov.samhsa.c2s.common.consentgen.ConsentBuilder;
 import gov.samhsa.c2s.common.consentgen.ConsentGenException;
 import gov.samhsa.c2s.common.document.accessor.DocumentAccessor;
@@ -47,6 +48,7 @@
 import gov.samhsa.c2s.common.util.UniqueValueGeneratorException;
 import gov.samhsa.c2s.pcm.infrastructure.PhrService;
 import gov.samhsa.c2s.pcm.service.exception.AttestedConsentRevocationException;
+import gov.samhsa.c2s.pcm.service.exception.InternalServerErrorException;
 import gov.samhsa.c2s.pcm.service.exception.XacmlNotFoundException;
 import org.modelmapper.ModelMapper;
 import org.slf4j.Logger;
@@ -102,6 +104,13 @@ public class ConsentServiceImpl implements ConsentService {
     @Value("${c2s.pcm.config.hie-connection.fhir.enabled}")
     private String hieEnable;
 
+    /**
+     * Whether the consent artifacts are generated the first time they are
+     * requested instead of when the consent is saved.
+     */
+    @Value("${c2s.pcm.config.consentArtifacts.lazy:false}")
+    private boolean lazyArtifacts;
+
     /**
      * The consent repository.
      */
@@ -133,40 +142,46 @@ public class ConsentServiceImpl implements ConsentService {
     private OrganizationalProviderRepository organizationalProviderRepository;
 
     /**
-     * The clinical document type code repository.
+     * The reference code cache.
      */
     @Autowired
-    private ClinicalDocumentTypeCodeRepository clinicalDocumentTypeCodeRepository;
+    private ReferenceCodeCache referenceCodeCache;
 
     /**
-     * The value set category repository.
+     * The consent revokation pdf generator.
      */
     @Autowired
-    private ValueSetCategoryRepository valueSetCategoryRepository;
+    private AbstractConsentRevokationPdfGenerator consentRevokationPdfGenerator;
 
     /**
-     * The purpose of use code repository.
+     * The consent export service.
      */
     @Autowired
-    private PurposeOfUseCodeRepository purposeOfUseCodeRepository;
+    private ConsentExportService consentExportService;
 
     /**
-     * The consent revokation pdf generator.
+     * The consent builder.
      */
     @Autowired
-    private AbstractConsentRevokationPdfGenerator consentRevokationPdfGenerator;
+    private ConsentBuilder consentBuilder;
 
     /**
-     * The consent export service.
+     * The consent export context.
      */
     @Autowired
-    private ConsentExportService consentExportService;
+    private ConsentExportContext consentExportContext;
 
     /**
-     * The consent builder.
+     * The consent artifact generator.
      */
     @Autowired
-    private ConsentBuilder consentBuilder;
+    private ConsentArtifactGenerator consentArtifactGenerator;
+
+    /**
+     * The consent artifact writer.
+     */
+    @Autowired
+    private ConsentArtifactWriter consentArtifactWriter;
 
     /**
      * The consent factory.
@@ -224,7 +239,7 @@ public class ConsentServiceImpl implements ConsentService {
     private ConsentRevocationTermsVersionsService consentRevocationTermsVersionsService;
 
     @Autowired
-    FhirContractService fhirContractService;
+    FhirContractOutbox fhirContractOutbox;
 
     /**
      * The model mapper.
@@ -338,7 +353,7 @@ public List<ConsentListDto> consentListToConsentListDtosConverter(
                     .getShareForPurposeOfUseCodes()) {
 
                 String code = item.getPurposeOfUseCode().getCode();
-                shareForPurposeOfUse.add(purposeOfUseCodeRepository.findByCode(code));
+                shareForPurposeOfUse.add(referenceCodeCache.findPurposeOfUseCode(code));
             }
 
             final Set<String> consentDoNotShareClinicalConceptCodes = new HashSet<String>();
@@ -518,8 +533,8 @@ public ConsentAttestationDto getConsentAttestationDto(String userName, Long cons
             }
 
             final Set<String> shareSensitivityPolicyDisplayName = new HashSet<String>();
-            List<ValueSetCategory> valueSetCategoryList = valueSetCategoryRepository
-                    .findAll();
+            List<ValueSetCategory> valueSetCategoryList = referenceCodeCache
+                    .findAllValueSetCategories();
             //All possible VSC
             for (ValueSetCategory valueSetCategory : valueSetCategoryList) {
                 String valueSetName = valueSetCategory.getName();
@@ -873,14 +888,13 @@ public List<Consent> findConsentEntries(int firstResult, int maxResults) {
      * @return the consent pdf dto
      */
     @Override
-    @Transactional(readOnly = true)
     public ConsentPdfDto findConsentPdfDto(Long consentId) {
         final Consent consent = consentRepository.findOne(consentId);
         final ConsentPdfDto consentPdfDto = makeConsentPdfDto();
         if (consent.getStatus().equals(ConsentStatus.CONSENT_SIGNED) || consent.getStatus().equals(ConsentStatus.REVOCATION_REVOKED)) {
                 consentPdfDto.setContent(consent.getAttestedConsent().getAttestedPdfConsent());
         } else {
-            consentPdfDto.setContent(consent.getUnAttestedPdfConsent());
+            consentPdfDto.setContent(findArtifact(consent, ConsentArtifact.UNATTESTED_PDF_CONSENT));
         }
 
         consentPdfDto.setFilename(consent.getPatient().getFirstName() + "_"
@@ -934,10 +948,6 @@ public void attestConsent(AttestationDto attestationDto) {
         //Updating the patient data with data from phr api
         PatientDto patientDto = phrService.getPatientProfile();
 
-        if(null != hieEnable && hieEnable.equalsIgnoreCase("true")){
-            fhirContractService.publishFhirContractToHie(consent,patientDto);
-        }
-
         if (consent != null && consent.getAttestedConsent() == null && patientDto!= null && consentId != null && attesterIdAddress != null) {
             patientService.updatePatientFromPHR(patientDto);
             Patient patient = patientRepository.findByUsername(patientDto.getEmail());
@@ -965,10 +975,18 @@ public void attestConsent(AttestationDto attestationDto) {
             String term = consentTerms.getConsentTermsText();
             attestedConsent.setAttestedPdfConsent(consentPdfGenerator.generate42CfrPart2Pdf(consent,patient, true, attestedOn, term));
 
+            if (lazyArtifacts) {
+                completeArtifacts(consent, patient, term);
+            }
             consent.setAttestedConsent(attestedConsent);
             consent.setSignedDate(new Date());
             consent.setStatus(ConsentStatus.CONSENT_SIGNED);
             consentRepository.save(consent);
+
+            if(null != hieEnable && hieEnable.equalsIgnoreCase("true")){
+                // published to the HIE once this transaction commits
+                fhirContractOutbox.enqueue(consent, patientDto);
+            }
         }else {
             logger.error("Error in creating attested consent");
             throw new AttestedConsentRevocationException("Error in creating attested consent");
@@ -1130,9 +1148,8 @@ public List<String> getIdsToTag(List<String> originalC32Ids,
      * .lang.Long)
      */
     @Override
-    @Transactional(readOnly = true)
     public byte[] getXacmlCcd(Long consentId) {
-        return consentRepository.findOne(consentId).getXacmlCcd();
+        return findArtifact(consentRepository.findOne(consentId), ConsentArtifact.XACML_CCD);
     }
 
     /*
@@ -1143,7 +1160,7 @@ public byte[] getXacmlCcd(Long consentId) {
      * .lang.Long)
      */
     public byte[] getConsentDirective(Long consentId) {
-        return consentRepository.findOne(consentId).getExportedCDAR2Consent();
+        return findArtifact(consentRepository.findOne(consentId), ConsentArtifact.EXPORTED_CDAR2_CONSENT);
     }
 
     /**
@@ -1350,8 +1367,8 @@ public Object saveConsent(ConsentDto consentDto, long patientId)
             final Set<ConsentDoNotShareClinicalDocumentTypeCode> doNotShareClinicalDocumentTypeCodes = new HashSet<ConsentDoNotShareClinicalDocumentTypeCode>();
             for (final String item : consentDto
                     .getDoNotShareClinicalDocumentTypeCodes()) {
-                final ClinicalDocumentTypeCode clinicalDocumentTypeCode = clinicalDocumentTypeCodeRepository
-                        .findByCode(item);
+                final ClinicalDocumentTypeCode clinicalDocumentTypeCode = referenceCodeCache
+                        .findClinicalDocumentTypeCode(item);
                 final ConsentDoNotShareClinicalDocumentTypeCode consentDoNotShareClinicalDocumentTypeCode = new ConsentDoNotShareClinicalDocumentTypeCode(
                         clinicalDocumentTypeCode);
                 doNotShareClinicalDocumentTypeCodes
@@ -1366,8 +1383,8 @@ public Object saveConsent(ConsentDto consentDto, long patientId)
             final Set<ConsentDoNotShareSensitivityPolicyCode> doNotShareSensitivityPolicyCodes = new HashSet<ConsentDoNotShareSensitivityPolicyCode>();
             for (final String item : consentDto
                     .getDoNotShareSensitivityPolicyCodes()) {
-                final ValueSetCategory valueSetCategory = valueSetCategoryRepository
-                        .findByCode(item);
+                final ValueSetCategory valueSetCategory = referenceCodeCache
+                        .findValueSetCategory(item);
                 final ConsentDoNotShareSensitivityPolicyCode consentDoNotShareSensitivityPolicyCode = new ConsentDoNotShareSensitivityPolicyCode(
                         valueSetCategory);
                 doNotShareSensitivityPolicyCodes
@@ -1381,8 +1398,8 @@ public Object saveConsent(ConsentDto consentDto, long patientId)
         if (consentDto.getShareForPurposeOfUseCodes() != null) {
             final Set<ConsentShareForPurposeOfUseCode> shareForPurposeOfUseCodes = new HashSet<ConsentShareForPurposeOfUseCode>();
             for (final String item : consentDto.getShareForPurposeOfUseCodes()) {
-                final PurposeOfUseCode purposeOfUseCode = purposeOfUseCodeRepository
-                        .findByCode(item);
+                final PurposeOfUseCode purposeOfUseCode = referenceCodeCache
+                        .findPurposeOfUseCode(item);
                 final ConsentShareForPurposeOfUseCode consentShareForPurposeOfUseCode = new ConsentShareForPurposeOfUseCode(
                         purposeOfUseCode);
                 shareForPurposeOfUseCodes.add(consentShareForPurposeOfUseCode);
@@ -1420,38 +1437,181 @@ public Object saveConsent(ConsentDto consentDto, long patientId)
         consent.setName("Consent");
         consent.setDescription("This is a consent made by "
                 + patient.getFirstName() + " " + patient.getLastName());
-        String terms = consentTermsVersionsService.getEnabledConsentTermsVersion().getConsentTermsText();
 
-        consent.setUnAttestedPdfConsent(consentPdfGenerator.generate42CfrPart2Pdf(consent,patient, false, null, terms));
+        final String terms = enabledConsentTermsText();
+        consent.setArtifactFingerprint(ConsentFingerprint.of(consent));
+        consent.setPdfTermsFingerprint(ConsentFingerprint.ofTerms(terms));
+        if (lazyArtifacts) {
+            // generated the first time they are requested, see findArtifact
+            for (final ConsentArtifact artifact : ConsentArtifact.values()) {
+                artifact.set(consent, null);
+            }
+        } else {
+            final Map<ConsentArtifact, ConsentArtifactGenerator.Artifact> artifacts = new LinkedHashMap<ConsentArtifact, ConsentArtifactGenerator.Artifact>();
+            for (final ConsentArtifact artifact : ConsentArtifact.values()) {
+                artifacts.put(artifact, artifactGenerator(artifact, consent, patient, terms));
+            }
 
-        try {
+            final Map<ConsentArtifact, byte[]> generated;
+            // maps the consent once on this thread, as the session must not be
+            // used by the threads generating the artifacts, and shares the
+            // mapped and marshalled consent between the exports
+            try (ConsentExportContext.Export export = consentExportContext.open(consent)) {
+                generated = consentArtifactGenerator.generate(artifacts);
+            } catch (final ConsentGenException e) {
+                logger.error("Error in saving consent in xacml format", e);
+                throw new ConsentGenException(e.getMessage());
+            }
+            for (final Map.Entry<ConsentArtifact, byte[]> artifact : generated.entrySet()) {
+                artifact.getKey().set(consent, artifact.getValue());
+            }
+        }
 
+        if (consent.getId() != null) {
+            consentRepository.save(consent);
+        } else {
+            consentFactory.createNewConsent(consent);
+        }
 
-            consent.setXacmlCcd(consentExportService.exportConsent2XACML(
-                    consent).getBytes());
+        return consentDto;
+    }
 
-            // set xacml for consentFrom provider to give access
-            // to consent pdf
-            consent.setXacmlPdfConsentFrom(consentExportService
-                    .exportConsent2XacmlPdfConsentFrom(consent).getBytes());
+    /**
+     * Finds an artifact of a consent. The stored artifacts are returned as
+     * they are, except for a consent saved with lazy artifacts and not yet
+     * attested, whose artifact is generated and stored when it was not yet,
+     * or when the consent changed since it was generated; the unattested pdf
+     * is also generated again when the consent terms changed. The artifacts
+     * of an attested consent are the ones it was signed with. The consent
+     * itself is left untouched, so it gets no new version or audit revision.
+     * The artifact is stored by the consent artifact writer, in a transaction
+     * of its own, as the consents are read in read-only transactions.
+     *
+     * @param consent  the consent
+     * @param artifact the artifact
+     * @return the artifact
+     */
+    private byte[] findArtifact(Consent consent, ConsentArtifact artifact) {
+        final byte[] stored = artifact.get(consent);
+        final boolean regenerable = lazyArtifacts && ConsentStatus.CONSENT_SAVED.equals(consent.getStatus());
+        if (stored != null && !regenerable) {
+            return stored;
+        }
 
-            consent.setXacmlPdfConsentTo(consentExportService
-                    .exportConsent2XacmlPdfConsentTo(consent).getBytes());
+        final String terms = enabledConsentTermsText();
+        final String pdfTermsFingerprint = ConsentFingerprint.ofTerms(terms);
+        if (!regenerable) {
+            // missing, e.g. of a consent attested before its artifacts were
+            // requested: generated once and kept from then on
+            return generateArtifact(consent, artifact, terms, consent.getArtifactFingerprint(), pdfTermsFingerprint);
+        }
 
-            consent.setExportedCDAR2Consent(consentExportService.exportConsent2CDAR2ConsentDirective(consent).getBytes());
+        final String artifactFingerprint = ConsentFingerprint.of(consent);
+        // consents saved before the fingerprints were kept have all artifacts
+        if (stored != null && (consent.getArtifactFingerprint() == null
+                || artifactFingerprint.equals(consent.getArtifactFingerprint()))
+                && (!artifact.usesTerms() || consent.getPdfTermsFingerprint() == null
+                || pdfTermsFingerprint.equals(consent.getPdfTermsFingerprint()))) {
+            return stored;
+        }
+        if (!artifactFingerprint.equals(consent.getArtifactFingerprint())) {
+            consentArtifactWriter.clearArtifacts(consent.getId(), artifactFingerprint);
+        }
+        return generateArtifact(consent, artifact, terms, artifactFingerprint, pdfTermsFingerprint);
+    }
 
-        } catch (final ConsentGenException e) {
-            logger.error("Error in saving consent in xacml format", e);
-            throw new ConsentGenException(e.getMessage());
+    /**
+     * Generates an artifact of a consent and stores it, unless the consent
+     * changed since the given fingerprint.
+     *
+     * @param consent             the consent
+     * @param artifact            the artifact
+     * @param terms               the consent terms text, only used by the pdf
+     * @param artifactFingerprint the fingerprint of the consent
+     * @param pdfTermsFingerprint the fingerprint of the consent terms
+     * @return the artifact
+     */
+    private byte[] generateArtifact(Consent consent, ConsentArtifact artifact, String terms,
+                                    String artifactFingerprint, String pdfTermsFingerprint) {
+        final byte[] generated = generate(artifact, consent, consent.getPatient(), terms);
+        if (artifactFingerprint != null) {
+            consentArtifactWriter.store(artifact, consent.getId(), generated, artifactFingerprint, pdfTermsFingerprint);
         }
+        return generated;
+    }
 
-        if (consent.getId() != null) {
-            consentRepository.save(consent);
-        } else {
-            consentFactory.createNewConsent(consent);
+    /**
+     * Generates the lazy artifacts of a consent about to be attested that
+     * were not generated yet, or were generated from an earlier content, so
+     * that the attested consent keeps the artifacts it was signed with.
+     *
+     * @param consent the consent
+     * @param patient the patient
+     * @param terms   the consent terms text
+     */
+    private void completeArtifacts(Consent consent, Patient patient, String terms) {
+        final String artifactFingerprint = ConsentFingerprint.of(consent);
+        final String pdfTermsFingerprint = ConsentFingerprint.ofTerms(terms);
+        final boolean stale = consent.getArtifactFingerprint() != null
+                && !artifactFingerprint.equals(consent.getArtifactFingerprint());
+        for (final ConsentArtifact artifact : ConsentArtifact.values()) {
+            final boolean staleTerms = artifact.usesTerms() && consent.getPdfTermsFingerprint() != null
+                    && !pdfTermsFingerprint.equals(consent.getPdfTermsFingerprint());
+            if (stale || staleTerms || artifact.get(consent) == null) {
+                artifact.set(consent, generate(artifact, consent, patient, terms));
+            }
         }
+        consent.setArtifactFingerprint(artifactFingerprint);
+        consent.setPdfTermsFingerprint(pdfTermsFingerprint);
+    }
 
-        return consentDto;
+    private byte[] generate(ConsentArtifact artifact, Consent consent, Patient patient, String terms) {
+        try {
+            return artifactGenerator(artifact, consent, patient, terms).generate();
+        } catch (final ConsentGenException e) {
+            logger.error("Error in generating " + artifact + " of consent " + consent.getId(), e);
+            throw new InternalServerErrorException("Error in generating " + artifact + " of consent " + consent.getId(), e);
+        }
+    }
+
+    /**
+     * Gets the text of the enabled consent terms.
+     *
+     * @return the consent terms text, or null when none is enabled
+     */
+    private String enabledConsentTermsText() {
+        final ConsentTermsVersions consentTermsVersions = consentTermsVersionsService.getEnabledConsentTermsVersion();
+        return consentTermsVersions == null ? null : consentTermsVersions.getConsentTermsText();
+    }
+
+    /**
+     * Gets the generator of an artifact of a consent. The builder is called
+     * directly rather than through the export service, so that artifacts
+     * generated on other threads do not each open a transaction.
+     *
+     * @param artifact the artifact
+     * @param consent  the consent
+     * @param patient  the patient
+     * @param terms    the consent terms text, only used by the pdf
+     * @return the artifact generator
+     */
+    private ConsentArtifactGenerator.Artifact artifactGenerator(ConsentArtifact artifact, Consent consent,
+                                                                Patient patient, String terms) {
+        switch (artifact) {
+            case UNATTESTED_PDF_CONSENT:
+                return () -> consentPdfGenerator.generate42CfrPart2Pdf(consent, patient, false, null, terms);
+            case XACML_CCD:
+                return () -> consentBuilder.buildConsent2Xacml(consent).getBytes();
+            case XACML_PDF_CONSENT_FROM:
+                // xacml for consentFrom provider to give access to consent pdf
+                return () -> consentBuilder.buildConsent2XacmlPdfConsentFrom(consent).getBytes();
+            case XACML_PDF_CONSENT_TO:
+                return () -> consentBuilder.buildConsent2XacmlPdfConsentTo(consent).getBytes();
+            case EXPORTED_CDAR2_CONSENT:
+                return () -> consentBuilder.buildConsent2Cdar2ConsentDirective(consent).getBytes();
+            default:
+                throw new IllegalArgumentException("Unknown consent artifact: " + artifact);
+        }
     }
 
     /**
@@ -1619,7 +1779,7 @@ private String findConsentXACMLById(Long consentId) {
 
         if (consentRepository.findOne(consentId) != null) {
             final Consent consent = consentRepository.findOne(consentId);
-            final byte[] xacmlByte = consent.getXacmlCcd();
+            final byte[] xacmlByte = findArtifact(consent, ConsentArtifact.XACML_CCD);
             try {
                 xacmlFile = new String(xacmlByte, "UTF-8");
             } catch (final UnsupportedEncodingException e) {
@@ -1634,7 +1794,7 @@ private String findConsentXACMLById(Long consentId) {
     public XacmlDto findXACMLForCCDByConsentId(Long consentId) {
         Assert.notNull(consentId, "Consent ID is required to find XACML");
         byte[] xacmlForCCD = Optional.ofNullable(consentRepository.findOne(consentId))
-                .map(Consent::getXacmlCcd)
+                .map(consent -> findArtifact(consent, ConsentArtifact.XACML_CCD))
                 .orElseThrow(() -> new XacmlNotFoundException("XACML for CCD not found with consent id: " + consentId));
         return new XacmlDto(xacmlForCCD);
     }
@@ -29,20 +29,27 @@ public class ConsentDtoFactoryImpl implements ConsentDtoFactory {
      * The consent export mapper.
      */
     private ConsentExportMapper consentExportMapper;
+    /**
+     * The consent export context.
+     */
+    private ConsentExportContext consentExportContext;
 
     /**
      * Instantiates a new consent dto factory impl.
      *
-     * @param consentRepository   the consent repository
-     * @param modelMapper         the model mapper
-     * @param consentExportMapper the consent export mapper
+     * @param consentRepository    the consent repository
+     * @param modelMapper          the model mapper
+     * @param consentExportMapper  the consent export mapper
+     * @param consentExportContext the consent export context
      */
     public ConsentDtoFactoryImpl(ConsentRepository consentRepository,
-                                 ModelMapper modelMapper, ConsentExportMapper consentExportMapper) {
+                                 ModelMapper modelMapper, ConsentExportMapper consentExportMapper,
+                                 ConsentExportContext consentExportContext) {
         super();
         this.consentRepository = consentRepository;
         this.modelMapper = modelMapper;
         this.consentExportMapper = consentExportMapper;
+        this.consentExportContext = consentExportContext;
     }
 
     /*
@@ -73,7 +80,11 @@ public ConsentDto createConsentDto(Object obj) {
                 Consent consent = consentRepository.findOne(consentId);
                 consentDto = consentExportMapper.map(consent);
             } else if (obj instanceof Consent) {
-                consentDto = consentExportMapper.map((Consent) obj);
+                // shared by all exports of a consent being exported
+                consentDto = consentExportContext.findConsentDto((Consent) obj);
+                if (consentDto == null) {
+                    consentDto = consentExportMapper.map((Consent) obj);
+                }
             }
         }
         return consentDto;
@@ -0,0 +1,135 @@
+package gov.samhsa.c2s.pcm.service.consentexport;
+
+import gov.samhsa.c2s.common.consentgen.ConsentDto;
+import gov.samhsa.c2s.pcm.domain.consent.Consent;
+import gov.samhsa.c2s.pcm.infrastructure.MarshalledXmlCache;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The Class ConsentExportContext.
+ * <p>
+ * Lets the exports of a consent run at the same time share the work they
+ * have in common. While an export is open, the consent is mapped to a
+ * {@link ConsentDto} once, which the consent dto factory hands to every
+ * export of that consent, and the dto is marshalled to XML once, which the
+ * xml transformer reuses for every stylesheet. The exports must not change
+ * the dto they are given.
+ */
+public class ConsentExportContext implements MarshalledXmlCache {
+
+    /**
+     * The open exports by consent.
+     */
+    private final Map<Consent, Export> exportsByConsent = Collections
+            .synchronizedMap(new IdentityHashMap<Consent, Export>());
+
+    /**
+     * The open exports by consent dto.
+     */
+    private final Map<Object, Export> exportsByConsentDto = Collections
+            .synchronizedMap(new IdentityHashMap<Object, Export>());
+
+    /**
+     * The consent export mapper.
+     */
+    private final ConsentExportMapper consentExportMapper;
+
+    /**
+     * Instantiates a new consent export context.
+     *
+     * @param consentExportMapper the consent export mapper
+     */
+    public ConsentExportContext(ConsentExportMapper consentExportMapper) {
+        super();
+        this.consentExportMapper = consentExportMapper;
+    }
+
+    /**
+     * Opens the export of a consent, mapping it on the calling thread, which
+     * also loads any lazy state of the consent the exports read.
+     *
+     * @param consent the consent
+     * @return the export, to be closed once all exports of the consent are
+     * done
+     */
+    public Export open(Consent consent) {
+        final Export export = new Export(consent, consentExportMapper.map(consent));
+        exportsByConsent.put(consent, export);
+        exportsByConsentDto.put(export.consentDto, export);
+        return export;
+    }
+
+    /**
+     * Finds the dto of a consent being exported.
+     *
+     * @param consent the consent
+     * @return the consent dto, or null when the consent is not being exported
+     */
+    public ConsentDto findConsentDto(Consent consent) {
+        final Export export = exportsByConsent.get(consent);
+        return export == null ? null : export.consentDto;
+    }
+
+    /**
+     * Marshals an object to XML, only once for the dto of a consent being
+     * exported.
+     *
+     * @param obj         the object
+     * @param marshalling the marshalling of the object
+     * @return the XML
+     * @throws Exception the exception of the marshalling
+     */
+    @Override
+    public String marshal(Object obj, Marshalling marshalling) throws Exception {
+        final Export export = exportsByConsentDto.get(obj);
+        if (export == null) {
+            return marshalling.marshal(obj);
+        }
+        synchronized (export) {
+            if (export.xml == null) {
+                export.xml = marshalling.marshal(obj);
+            }
+            return export.xml;
+        }
+    }
+
+    /**
+     * The export of a consent.
+     */
+    public class Export implements AutoCloseable {
+
+        /**
+         * The consent.
+         */
+        private final Consent consent;
+
+        /**
+         * The consent dto.
+         */
+        private final ConsentDto consentDto;
+
+        /**
+         * The marshalled consent dto, once marshalled.
+         */
+        private String xml;
+
+        private Export(Consent consent, ConsentDto consentDto) {
+            this.consent = consent;
+            this.consentDto = consentDto;
+        }
+
+        /*
+         * (non-Javadoc)
+         *
+         * @see java.lang.AutoCloseable#close()
+         */
+        @Override
+        public void close() {
+            exportsByConsent.remove(consent);
+            exportsByConsentDto.remove(consentDto);
+        }
+    }
+}
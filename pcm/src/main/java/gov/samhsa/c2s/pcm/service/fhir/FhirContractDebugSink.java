@@ -0,0 +1,27 @@
+package gov.samhsa.c2s.pcm.service.fhir;
+
+import ca.uhn.fhir.model.dstu2.resource.Contract;
+
+/**
+ * The Interface FhirContractDebugSink.
+ * <p>
+ * Receives the FHIR Contracts being built, for debugging.
+ */
+@FunctionalInterface
+public interface FhirContractDebugSink {
+
+    /**
+     * A sink ignoring all contracts.
+     */
+    FhirContractDebugSink NONE = (contract, name) -> {
+    };
+
+    /**
+     * Writes a contract, without making the caller wait for it. The contract
+     * may be changed by the caller once this returns.
+     *
+     * @param contract the contract
+     * @param name     the name of the stage of the contract
+     */
+    void write(Contract contract, String name);
+}
@@ -0,0 +1,314 @@
+package gov.samhsa.c2s.pcm.service.fhir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.resource.Contract;
+import ca.uhn.fhir.parser.IParser;
+import gov.samhsa.c2s.pcm.domain.consent.Consent;
+import gov.samhsa.c2s.pcm.domain.consent.FhirContractPublication;
+import gov.samhsa.c2s.pcm.domain.consent.FhirContractPublicationRepository;
+import gov.samhsa.c2s.pcm.domain.consent.FhirContractPublicationStatus;
+import gov.samhsa.c2s.pcm.infrastructure.dto.PatientDto;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * The Class FhirContractOutbox.
+ * <p>
+ * Publishes the FHIR Contracts of attested consents to the HIE without
+ * making the attestation wait for it. The contract is written to the
+ * {@link FhirContractPublication} table in the transaction of the
+ * attestation, so it is published if and only if the attestation commits,
+ * and every instance polls the table for due publications. Failed
+ * publications are retried with exponential backoff, up to a maximum number
+ * of attempts after which they are left in the
+ * {@link FhirContractPublicationStatus#DEAD} status for an operator.
+ * <p>
+ * The publications claimed by a poll are sent in batch Bundles of up to the
+ * bundle size, which turns a backlog of contracts into a few round trips to
+ * the HIE. The outcome of each contract of a bundle is recorded on its own,
+ * so only the contracts the HIE rejected are retried.
+ * <p>
+ * A contract is published at least once: an instance stopped between
+ * publishing a contract and recording it publishes it again once its claim
+ * expires.
+ */
+public class FhirContractOutbox {
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The fhir contract publication repository.
+     */
+    private final FhirContractPublicationRepository fhirContractPublicationRepository;
+
+    /**
+     * The fhir contract service.
+     */
+    private final FhirContractService fhirContractService;
+
+    /**
+     * The fhir context, creating a json parser per call since parsers are not thread-safe.
+     */
+    private final FhirContext fhirContext;
+
+    /**
+     * The task scheduler polling for due publications.
+     */
+    private final TaskScheduler taskScheduler;
+
+    /**
+     * The delay in milliseconds between two polls, or 0 not to poll.
+     */
+    private final long pollIntervalMillis;
+
+    /**
+     * The maximum number of publications attempted per poll.
+     */
+    private final int batchSize;
+
+    /**
+     * The maximum number of contracts published in one bundle; 1 publishes
+     * each contract on its own.
+     */
+    private final int bundleSize;
+
+    /**
+     * The number of attempts after which a publication is given up on.
+     */
+    private final int maxAttempts;
+
+    /**
+     * The delay in milliseconds before the first retry, doubled for each
+     * further retry.
+     */
+    private final long initialBackoffMillis;
+
+    /**
+     * The maximum delay in milliseconds between two retries.
+     */
+    private final long maxBackoffMillis;
+
+    /**
+     * The time in milliseconds an attempt may take before another instance
+     * attempts the publication again.
+     */
+    private final long claimTimeoutMillis;
+
+    /**
+     * The scheduled polls.
+     */
+    private ScheduledFuture<?> polling;
+
+    /**
+     * Instantiates a new fhir contract outbox.
+     *
+     * @param fhirContractPublicationRepository the fhir contract publication repository
+     * @param fhirContractService               the fhir contract service
+     * @param fhirContext                       the fhir context
+     * @param taskScheduler                     the task scheduler polling for due publications
+     * @param pollIntervalMillis                the delay in milliseconds between two polls, or 0 not to poll
+     * @param batchSize                         the maximum number of publications attempted per poll
+     * @param bundleSize                        the maximum number of contracts published in one bundle
+     * @param maxAttempts                       the number of attempts after which a publication is given up on
+     * @param initialBackoffMillis              the delay in milliseconds before the first retry
+     * @param maxBackoffMillis                  the maximum delay in milliseconds between two retries
+     * @param claimTimeoutMillis                the time in milliseconds an attempt may take
+     */
+    public FhirContractOutbox(FhirContractPublicationRepository fhirContractPublicationRepository,
+                              FhirContractService fhirContractService,
+                              FhirContext fhirContext,
+                              TaskScheduler taskScheduler,
+                              long pollIntervalMillis,
+                              int batchSize,
+                              int bundleSize,
+                              int maxAttempts,
+                              long initialBackoffMillis,
+                              long maxBackoffMillis,
+                              long claimTimeoutMillis) {
+        super();
+        this.fhirContractPublicationRepository = fhirContractPublicationRepository;
+        this.fhirContractService = fhirContractService;
+        this.fhirContext = fhirContext;
+        this.taskScheduler = taskScheduler;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.batchSize = batchSize;
+        this.bundleSize = Math.max(1, bundleSize);
+        this.maxAttempts = maxAttempts;
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.claimTimeoutMillis = claimTimeoutMillis;
+    }
+
+    /**
+     * Starts polling for due publications.
+     */
+    public void start() {
+        if (pollIntervalMillis > 0) {
+            polling = taskScheduler.scheduleWithFixedDelay(this::dispatch, pollIntervalMillis);
+        }
+    }
+
+    /**
+     * Stops polling for due publications.
+     */
+    public void stop() {
+        if (polling != null) {
+            polling.cancel(false);
+        }
+    }
+
+    /**
+     * Adds the contract of a consent to the outbox, in the current
+     * transaction. The contract is created now, while the patient profile is
+     * at hand, and published by the next poll after the transaction commits.
+     *
+     * @param consent    the attested consent
+     * @param patientDto the patient
+     */
+    public void enqueue(Consent consent, PatientDto patientDto) {
+        final Contract contract = fhirContractService.createFhirContract(consent, patientDto);
+        final Date now = new Date();
+
+        final FhirContractPublication publication = new FhirContractPublication();
+        publication.setConsentId(consent.getId());
+        publication.setContract(fhirContext.newJsonParser().encodeResourceToString(contract));
+        publication.setStatus(FhirContractPublicationStatus.PENDING);
+        publication.setAttempts(0);
+        publication.setNextAttemptDateTime(now);
+        publication.setCreatedDateTime(now);
+        fhirContractPublicationRepository.save(publication);
+    }
+
+    /**
+     * Attempts the due publications, in bundles of up to the bundle size.
+     *
+     * @return the number of contracts published
+     */
+    public int dispatch() {
+        int published = 0;
+        try {
+            final List<FhirContractPublication> due = fhirContractPublicationRepository.findDue(
+                    FhirContractPublicationStatus.PENDING, new Date(), new PageRequest(0, batchSize));
+            final List<FhirContractPublication> claimed = new ArrayList<FhirContractPublication>(due.size());
+            for (FhirContractPublication publication : due) {
+                if (claim(publication)) {
+                    claimed.add(publication);
+                }
+            }
+            for (int from = 0; from < claimed.size(); from += bundleSize) {
+                published += attempt(claimed.subList(from, Math.min(from + bundleSize, claimed.size())));
+            }
+        } catch (RuntimeException e) {
+            // keeps polling; the publications are attempted again next time
+            logger.error("Error in dispatching FHIR contracts: " + e.getMessage(), e);
+        }
+        return published;
+    }
+
+    private boolean claim(FhirContractPublication publication) {
+        // zero rows when attempted by another instance
+        return fhirContractPublicationRepository.claim(publication.getId(), FhirContractPublicationStatus.PENDING,
+                publication.getNextAttemptDateTime(), new Date(System.currentTimeMillis() + claimTimeoutMillis)) > 0;
+    }
+
+    private int attempt(List<FhirContractPublication> publications) {
+        final long startMillis = System.currentTimeMillis();
+        final List<FhirContractPublication> parsed = new ArrayList<FhirContractPublication>(publications.size());
+        final List<Contract> contracts = new ArrayList<Contract>(publications.size());
+        final IParser fhirJsonParser = fhirContext.newJsonParser();
+        for (FhirContractPublication publication : publications) {
+            try {
+                contracts.add(fhirJsonParser.parseResource(Contract.class, publication.getContract()));
+                parsed.add(publication);
+            } catch (RuntimeException e) {
+                recordFailure(publication, String.valueOf(e.getMessage()), e);
+            }
+        }
+        if (contracts.isEmpty()) {
+            return 0;
+        }
+
+        final List<FhirContractPublicationOutcome> outcomes;
+        try {
+            outcomes = publish(contracts);
+        } catch (RuntimeException e) {
+            // no entry of the bundle is known to be published
+            for (FhirContractPublication publication : parsed) {
+                recordFailure(publication, String.valueOf(e.getMessage()), e);
+            }
+            return 0;
+        }
+
+        int published = 0;
+        for (int i = 0; i < parsed.size(); i++) {
+            final FhirContractPublication publication = parsed.get(i);
+            final FhirContractPublicationOutcome outcome = outcomes.get(i);
+            if (outcome.isPublished()) {
+                fhirContractPublicationRepository.recordAttempt(publication.getId(),
+                        FhirContractPublicationStatus.PUBLISHED, publication.getAttempts() + 1, null, null,
+                        new Date());
+                published++;
+            } else {
+                recordFailure(publication, outcome.getError(), null);
+            }
+        }
+        logger.debug("Published " + published + " of " + parsed.size() + " FHIR contracts in "
+                + (System.currentTimeMillis() - startMillis) + " ms");
+        return published;
+    }
+
+    private List<FhirContractPublicationOutcome> publish(List<Contract> contracts) {
+        if (contracts.size() == 1) {
+            fhirContractService.publishFhirContractToHie(contracts.get(0));
+            return Collections.singletonList(FhirContractPublicationOutcome.published());
+        }
+        return fhirContractService.publishFhirContractsToHie(contracts);
+    }
+
+    private void recordFailure(FhirContractPublication publication, String message, Exception e) {
+        final int attempts = publication.getAttempts() + 1;
+        final String error = abbreviate(message);
+        if (attempts >= maxAttempts) {
+            logger.error("Giving up on publishing the FHIR contract of consent " + publication.getConsentId()
+                    + " after " + attempts + " attempts: " + error, e);
+            fhirContractPublicationRepository.recordAttempt(publication.getId(),
+                    FhirContractPublicationStatus.DEAD, attempts, null, error, null);
+        } else {
+            final long backoffMillis = backoffMillis(attempts);
+            logger.warn("Error in publishing the FHIR contract of consent " + publication.getConsentId()
+                    + ", attempt " + attempts + ", retrying in " + backoffMillis + " ms: " + error);
+            fhirContractPublicationRepository.recordAttempt(publication.getId(),
+                    FhirContractPublicationStatus.PENDING, attempts,
+                    new Date(System.currentTimeMillis() + backoffMillis), error, null);
+        }
+    }
+
+    /**
+     * Gets the delay before the retry following a number of failed attempts.
+     *
+     * @param attempts the number of failed attempts
+     * @return the delay in milliseconds
+     */
+    long backoffMillis(int attempts) {
+        long backoffMillis = initialBackoffMillis;
+        for (int i = 1; i < attempts && backoffMillis < maxBackoffMillis; i++) {
+            backoffMillis *= 2;
+        }
+        return Math.min(backoffMillis, maxBackoffMillis);
+    }
+
+    private static String abbreviate(String error) {
+        return error.length() <= 1000 ? error : error.substring(0, 1000);
+    }
+}
@@ -0,0 +1,70 @@
+package gov.samhsa.c2s.pcm.service.fhir;
+
+/**
+ * The Class FhirContractPublicationOutcome.
+ * <p>
+ * The outcome of publishing one FHIR Contract of a bundle to the HIE.
+ */
+public final class FhirContractPublicationOutcome {
+
+    /**
+     * The outcome of a published contract.
+     */
+    private static final FhirContractPublicationOutcome PUBLISHED = new FhirContractPublicationOutcome(null);
+
+    /**
+     * The error, or null if the contract was published.
+     */
+    private final String error;
+
+    private FhirContractPublicationOutcome(String error) {
+        this.error = error;
+    }
+
+    /**
+     * Gets the outcome of a published contract.
+     *
+     * @return the outcome
+     */
+    public static FhirContractPublicationOutcome published() {
+        return PUBLISHED;
+    }
+
+    /**
+     * Gets the outcome of a contract the HIE did not accept.
+     *
+     * @param error the error
+     * @return the outcome
+     */
+    public static FhirContractPublicationOutcome failed(String error) {
+        return new FhirContractPublicationOutcome(error);
+    }
+
+    /**
+     * Checks if the contract was published.
+     *
+     * @return true, if published
+     */
+    public boolean isPublished() {
+        return error == null;
+    }
+
+    /**
+     * Gets the error.
+     *
+     * @return the error, or null if the contract was published
+     */
+    public String getError() {
+        return error;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return isPublished() ? "published" : "failed: " + error;
+    }
+}
@@ -4,9 +4,20 @@
 import gov.samhsa.c2s.pcm.domain.consent.Consent;
 import gov.samhsa.c2s.pcm.infrastructure.dto.PatientDto;
 
+import java.util.List;
+
 public interface FhirContractService {
     public Contract createFhirContract(Consent consent, PatientDto patientDto);
     public void publishFhirContractToHie(Contract fhirContract);
     public void publishFhirContractToHie(Consent consent, PatientDto patientDto);
 
+    /**
+     * Publishes FHIR Contracts to the HIE in a single batch Bundle, in which
+     * each contract is accepted or rejected on its own.
+     *
+     * @param fhirContracts the fhir contracts
+     * @return the outcome of each contract, in the order of the contracts
+     */
+    public List<FhirContractPublicationOutcome> publishFhirContractsToHie(List<Contract> fhirContracts);
+
 }
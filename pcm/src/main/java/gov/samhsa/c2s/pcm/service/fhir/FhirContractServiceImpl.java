@@ -1,12 +1,13 @@
 package gov.samhsa.c2s.pcm.service.fhir;
 
-import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.model.dstu2.composite.CodeableConceptDt;
 import ca.uhn.fhir.model.dstu2.composite.CodingDt;
 import ca.uhn.fhir.model.dstu2.composite.PeriodDt;
 import ca.uhn.fhir.model.dstu2.composite.ResourceReferenceDt;
 import ca.uhn.fhir.model.dstu2.resource.*;
+import ca.uhn.fhir.model.dstu2.valueset.BundleTypeEnum;
 import ca.uhn.fhir.model.dstu2.valueset.ContractTypeCodesEnum;
+import ca.uhn.fhir.model.dstu2.valueset.HTTPVerbEnum;
 import ca.uhn.fhir.model.dstu2.valueset.ListModeEnum;
 import ca.uhn.fhir.model.dstu2.valueset.ListStatusEnum;
 import ca.uhn.fhir.model.primitive.DateTimeDt;
@@ -20,15 +21,12 @@
 import gov.samhsa.c2s.pcm.service.dto.SpecificMedicalInfoDto;
 import gov.samhsa.c2s.pcm.domain.reference.ClinicalConceptCode;
 import gov.samhsa.c2s.pcm.service.dto.SensitivePolicyCodeEnum;
-import org.apache.commons.io.FileUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
-import java.io.IOException;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.function.Function;
@@ -41,7 +39,7 @@ public class FhirContractServiceImpl implements FhirContractService {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Autowired
-    private FhirContext fhirContext;
+    private FhirContractDebugSink fhirContractDebugSink;
 
     @Autowired
     private IGenericClient fhirClient;
@@ -64,9 +62,6 @@ public class FhirContractServiceImpl implements FhirContractService {
     @Value("${c2s.pcm.config.pou.system}")
     private String pouSystem;
 
-    @Value("${logging.path}")
-    private String logOutputPath;
-
     @Value("${c2s.pcm.config.hie-connection.fhir.keepExcludeList}")
     private String keepExcludeList;
 
@@ -91,6 +86,45 @@ public void publishFhirContractToHie(Consent consent, PatientDto patientDto) {
         publishFhirContractToHie(createFhirContract(consent, patientDto));
     }
 
+    @Override
+    public List<FhirContractPublicationOutcome> publishFhirContractsToHie(List<Contract> fhirContracts) {
+        // a batch rather than a transaction Bundle, so that a rejected contract does not fail the others
+        final Bundle bundle = new Bundle();
+        bundle.setType(BundleTypeEnum.BATCH);
+        for (Contract fhirContract : fhirContracts) {
+            bundle.addEntry().setResource(fhirContract)
+                    .getRequest().setMethod(HTTPVerbEnum.POST).setUrl("Contract");
+        }
+
+        final Bundle response = fhirClient.transaction().withBundle(bundle).execute();
+
+        // the response has one entry per request entry, in the same order
+        final List<Bundle.Entry> responseEntries = response == null ? Collections.emptyList() : response.getEntry();
+        final List<FhirContractPublicationOutcome> outcomes = new ArrayList<>(fhirContracts.size());
+        for (int i = 0; i < fhirContracts.size(); i++) {
+            outcomes.add(i < responseEntries.size()
+                    ? toPublicationOutcome(responseEntries.get(i))
+                    : FhirContractPublicationOutcome.failed("No response entry from the HIE"));
+        }
+        return outcomes;
+    }
+
+    private static FhirContractPublicationOutcome toPublicationOutcome(Bundle.Entry responseEntry) {
+        final String status = responseEntry.getResponse().getStatus();
+        if (status != null && status.startsWith("2")) {
+            return FhirContractPublicationOutcome.published();
+        }
+        final StringBuilder error = new StringBuilder("HIE response status ").append(status);
+        if (responseEntry.getResource() instanceof OperationOutcome) {
+            for (OperationOutcome.Issue issue : ((OperationOutcome) responseEntry.getResource()).getIssue()) {
+                if (issue.getDiagnostics() != null) {
+                    error.append(": ").append(issue.getDiagnostics());
+                }
+            }
+        }
+        return FhirContractPublicationOutcome.failed(error.toString());
+    }
+
     @Override
     public Contract createFhirContract(Consent consent, PatientDto patientDto) {
         Contract contract = consentDtoToContract.apply(consent, patientDto);
@@ -137,8 +171,7 @@ private Contract createGranularConsent(Consent consent, PatientDto patientDto) {
             fhirContract.getTerm().get(0).getSubject().setReference("#" + incudeListResource.getId());
             fhirContract.getContained().getContainedResources().add(incudeListResource);
         }
-       //TODO (#19): write log only in debug mode
-        createContracttoLogMessage(fhirContract, "GranularConsent");
+        fhirContractDebugSink.write(fhirContract, "GranularConsent");
         return fhirContract;
 
     }
@@ -255,8 +288,7 @@ private Contract createBasicConsent(Consent consent, PatientDto patientDto) {
         DateTimeDt issuedDateTime = new DateTimeDt();
         issuedDateTime.setValue(Calendar.getInstance().getTime());
         contract.setIssued(issuedDateTime);
-        //TODO (#20): write log only in debug mode
-        createContracttoLogMessage(contract, "BasicConsent");
+        fhirContractDebugSink.write(contract, "BasicConsent");
         return contract;
     }
 
@@ -316,19 +348,6 @@ public String apply(PurposeOfUseCode pou) {
         }
     };
 
-    private void createContracttoLogMessage(Contract contract, String currentTest) {
-        String xmlEncodedGranularConsent = fhirContext.newXmlParser().setPrettyPrint(true)
-                .encodeResourceToString(contract);
-        try {
-            FileUtils.writeStringToFile(new File(logOutputPath + "/XML/" + currentTest + ".xml"), xmlEncodedGranularConsent);
-            String jsonEncodedGranularConsent = fhirContext.newJsonParser().setPrettyPrint(true)
-                    .encodeResourceToString(contract);
-            FileUtils.writeStringToFile(new File(logOutputPath + "/JSON/" + currentTest + ".json"), jsonEncodedGranularConsent);
-        } catch (IOException e) {
-            logger.warn(e.getMessage(), e);
-        }
-    }
-
     public List<String> getConsentObligations(Consent consent) {
         final Set<String> obligationCodes = new HashSet<String>();
 
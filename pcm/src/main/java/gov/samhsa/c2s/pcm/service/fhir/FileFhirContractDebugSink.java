@@ -0,0 +1,95 @@
+package gov.samhsa.c2s.pcm.service.fhir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.resource.Contract;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The Class FileFhirContractDebugSink.
+ * <p>
+ * Writes a sample of the contracts as XML and JSON files, under the
+ * {@code XML} and {@code JSON} directories of the output path, one file per
+ * stage name holding the latest contract of that stage. A sampled contract
+ * is encoded by the caller, since the caller goes on building it, with
+ * parsers created for the call as parsers are not thread-safe, and
+ * written by the task executor; contracts the executor has no room for are
+ * dropped rather than slowing down the caller.
+ */
+public class FileFhirContractDebugSink implements FhirContractDebugSink {
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The fhir context.
+     */
+    private final FhirContext fhirContext;
+
+    /**
+     * The task executor writing the files.
+     */
+    private final TaskExecutor taskExecutor;
+
+    /**
+     * The output path.
+     */
+    private final String outputPath;
+
+    /**
+     * The fraction of the contracts written, from 0 to 1.
+     */
+    private final double sampleRate;
+
+    /**
+     * Instantiates a new file fhir contract debug sink.
+     *
+     * @param fhirContext  the fhir context
+     * @param taskExecutor the task executor writing the files
+     * @param outputPath   the output path
+     * @param sampleRate   the fraction of the contracts written, from 0 to 1
+     */
+    public FileFhirContractDebugSink(FhirContext fhirContext, TaskExecutor taskExecutor,
+                                     String outputPath, double sampleRate) {
+        super();
+        this.fhirContext = fhirContext;
+        this.taskExecutor = taskExecutor;
+        this.outputPath = outputPath;
+        this.sampleRate = sampleRate;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.pcm.service.fhir.FhirContractDebugSink#write(ca.uhn.fhir.model.dstu2.resource.Contract, java.lang.String)
+     */
+    @Override
+    public void write(Contract contract, String name) {
+        if (sampleRate <= 0 || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return;
+        }
+        final String xml = fhirContext.newXmlParser().setPrettyPrint(true).encodeResourceToString(contract);
+        final String json = fhirContext.newJsonParser().setPrettyPrint(true).encodeResourceToString(contract);
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    FileUtils.writeStringToFile(new File(outputPath + "/XML/" + name + ".xml"), xml);
+                    FileUtils.writeStringToFile(new File(outputPath + "/JSON/" + name + ".json"), json);
+                } catch (IOException e) {
+                    logger.warn(e.getMessage(), e);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            logger.debug("Dropped the " + name + " FHIR contract: the debug sink queue is full");
+        }
+    }
+}
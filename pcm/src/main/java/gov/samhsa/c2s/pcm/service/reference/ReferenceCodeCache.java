@@ -0,0 +1,149 @@
+package gov.samhsa.c2s.pcm.service.reference;
+
+import gov.samhsa.c2s.pcm.domain.reference.ClinicalDocumentTypeCode;
+import gov.samhsa.c2s.pcm.domain.reference.ClinicalDocumentTypeCodeRepository;
+import gov.samhsa.c2s.pcm.domain.reference.PurposeOfUseCode;
+import gov.samhsa.c2s.pcm.domain.reference.PurposeOfUseCodeRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategory;
+import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategoryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * The Class ReferenceCodeCache.
+ * <p>
+ * Keeps the purpose of use codes, the value set categories and the clinical
+ * document type codes in memory, by code, so that assembling and listing
+ * consents does not query these small tables for every code. All rows are
+ * loaded by {@link #refresh()} at startup and whenever the value set data
+ * changes; a code missing from the cache is read through to its repository,
+ * which picks up rows added without a refresh.
+ * <p>
+ * The cached entities are detached and shared between threads; they must
+ * only be read and referenced by other entities, never changed.
+ */
+public class ReferenceCodeCache {
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The purpose of use code repository.
+     */
+    private final PurposeOfUseCodeRepository purposeOfUseCodeRepository;
+
+    /**
+     * The value set category repository.
+     */
+    private final ValueSetCategoryRepository valueSetCategoryRepository;
+
+    /**
+     * The clinical document type code repository.
+     */
+    private final ClinicalDocumentTypeCodeRepository clinicalDocumentTypeCodeRepository;
+
+    /**
+     * The cached codes, replaced as a whole on refresh.
+     */
+    private volatile Codes codes = new Codes();
+
+    /**
+     * Instantiates a new reference code cache.
+     *
+     * @param purposeOfUseCodeRepository         the purpose of use code repository
+     * @param valueSetCategoryRepository         the value set category repository
+     * @param clinicalDocumentTypeCodeRepository the clinical document type code repository
+     */
+    public ReferenceCodeCache(PurposeOfUseCodeRepository purposeOfUseCodeRepository,
+                              ValueSetCategoryRepository valueSetCategoryRepository,
+                              ClinicalDocumentTypeCodeRepository clinicalDocumentTypeCodeRepository) {
+        super();
+        this.purposeOfUseCodeRepository = purposeOfUseCodeRepository;
+        this.valueSetCategoryRepository = valueSetCategoryRepository;
+        this.clinicalDocumentTypeCodeRepository = clinicalDocumentTypeCodeRepository;
+    }
+
+    /**
+     * Loads all codes, replacing the ones cached so far.
+     */
+    public void refresh() {
+        final Codes loaded = new Codes();
+        for (PurposeOfUseCode purposeOfUseCode : purposeOfUseCodeRepository.findAll()) {
+            loaded.purposeOfUseCodes.put(purposeOfUseCode.getCode(), purposeOfUseCode);
+        }
+        for (ValueSetCategory valueSetCategory : valueSetCategoryRepository.findAll()) {
+            loaded.valueSetCategories.put(valueSetCategory.getCode(), valueSetCategory);
+        }
+        for (ClinicalDocumentTypeCode clinicalDocumentTypeCode : clinicalDocumentTypeCodeRepository.findAll()) {
+            loaded.clinicalDocumentTypeCodes.put(clinicalDocumentTypeCode.getCode(), clinicalDocumentTypeCode);
+        }
+        codes = loaded;
+        logger.info("Loaded " + loaded.purposeOfUseCodes.size() + " purpose of use codes, "
+                + loaded.valueSetCategories.size() + " value set categories and "
+                + loaded.clinicalDocumentTypeCodes.size() + " clinical document type codes");
+    }
+
+    /**
+     * Finds a purpose of use code.
+     *
+     * @param code the code
+     * @return the purpose of use code, or null if there is none
+     */
+    public PurposeOfUseCode findPurposeOfUseCode(String code) {
+        return find(codes.purposeOfUseCodes, code, purposeOfUseCodeRepository::findByCode);
+    }
+
+    /**
+     * Finds a value set category.
+     *
+     * @param code the code
+     * @return the value set category, or null if there is none
+     */
+    public ValueSetCategory findValueSetCategory(String code) {
+        return find(codes.valueSetCategories, code, valueSetCategoryRepository::findByCode);
+    }
+
+    /**
+     * Finds all value set categories.
+     *
+     * @return the value set categories
+     */
+    public List<ValueSetCategory> findAllValueSetCategories() {
+        return new ArrayList<ValueSetCategory>(codes.valueSetCategories.values());
+    }
+
+    /**
+     * Finds a clinical document type code.
+     *
+     * @param code the code
+     * @return the clinical document type code, or null if there is none
+     */
+    public ClinicalDocumentTypeCode findClinicalDocumentTypeCode(String code) {
+        return find(codes.clinicalDocumentTypeCodes, code, clinicalDocumentTypeCodeRepository::findByCode);
+    }
+
+    private static <T> T find(ConcurrentMap<String, T> cached, String code, Function<String, T> repository) {
+        if (code == null) {
+            return null;
+        }
+        // unknown codes are not cached, so that they are found once added
+        return cached.computeIfAbsent(code, repository);
+    }
+
+    /**
+     * The cached codes of each table, by code.
+     */
+    private static final class Codes {
+        private final ConcurrentMap<String, PurposeOfUseCode> purposeOfUseCodes = new ConcurrentHashMap<String, PurposeOfUseCode>();
+        private final ConcurrentMap<String, ValueSetCategory> valueSetCategories = new ConcurrentHashMap<String, ValueSetCategory>();
+        private final ConcurrentMap<String, ClinicalDocumentTypeCode> clinicalDocumentTypeCodes = new ConcurrentHashMap<String, ClinicalDocumentTypeCode>();
+    }
+}
@@ -25,6 +25,8 @@
  ******************************************************************************/
 package gov.samhsa.c2s.pcm.web;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.samhsa.c2s.pcm.infrastructure.IdempotencyKeyStore;
 import gov.samhsa.c2s.pcm.infrastructure.eventlistener.EventService;
 import gov.samhsa.c2s.pcm.service.consent.ConsentHelper;
 import gov.samhsa.c2s.pcm.service.consent.ConsentService;
@@ -40,13 +42,13 @@
 import gov.samhsa.c2s.pcm.service.fhir.FhirContractService;
 import gov.samhsa.c2s.pcm.service.notification.NotificationService;
 import gov.samhsa.c2s.vss.service.dto.ValueSetCategoryFieldsDto;
-import org.codehaus.jackson.map.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.security.oauth2.resource.ResourceServerProperties;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.*;
 
 import javax.servlet.http.HttpServletRequest;
@@ -62,6 +64,10 @@
 public class ConsentRestController {
 
     public final static Long SAMPLE_C32_ID = new Long(-1);
+    /**
+     * The header of the key identifying a request and its retries.
+     */
+    public final static String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
     /**
      * The C32_ do c_ code.
      */
@@ -107,6 +113,12 @@ public class ConsentRestController {
     @Autowired
     private FhirContractService fhirContractService;
 
+    @Autowired
+    private IdempotencyKeyStore idempotencyKeyStore;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
     @RequestMapping(value = "consents/pageNumber/{pageNumber}")
     public ConsentsListDto listConsents(@PathVariable("pageNumber") String pageNumber) {
         // FIXME (#7): remove this line when patient creation concept in PCM is finalized
@@ -154,8 +166,17 @@ public ConsentDto getConsent(Principal principal, @PathVariable("consentId") Str
 
     @RequestMapping(value = "consents", method = RequestMethod.POST)
     public void consentAddPost(Principal principal, @RequestBody ConsentDto consentDto,
-                               @RequestParam(value = "ICD9", required = false) HashSet<String> icd9)
+                               @RequestParam(value = "ICD9", required = false) HashSet<String> icd9,
+                               @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey)
             throws ConsentGenException, IOException {
+        // a retry with the same key gets the outcome of the first request instead of saving the consent again
+        final String key = idempotencyKey == null ? null : principal.getName() + " " + idempotencyKey;
+        final String fingerprint = key == null ? null : DigestUtils.md5DigestAsHex(
+                objectMapper.writeValueAsBytes(Arrays.asList(consentDto, icd9)));
+        idempotencyKeyStore.execute(key, fingerprint, () -> addConsent(principal, consentDto, icd9));
+    }
+
+    private void addConsent(Principal principal, ConsentDto consentDto, HashSet<String> icd9) throws IOException {
         consentDto.setUsername(principal.getName());
 
         final Set<String> isMadeTo = new HashSet<String>();
@@ -243,10 +264,9 @@ public void consentAddPost(Principal principal, @RequestBody ConsentDto consentD
                     final ConsentValidationDto conDto = (ConsentValidationDto) obj;
 
                     // duplicate policy found
-                    final ObjectMapper mapper = new ObjectMapper();
                     String errorMessage = null;
 
-                    errorMessage = mapper.writeValueAsString(conDto);
+                    errorMessage = objectMapper.writeValueAsString(conDto);
 
                     throw new ConflictingConsentException(errorMessage);
                 }
@@ -349,10 +369,9 @@ public void updateConsents(Principal principal, @RequestBody ConsentDto consentD
                     final ConsentValidationDto conDto = (ConsentValidationDto) obj;
 
                     // duplicate policy found
-                    final ObjectMapper mapper = new ObjectMapper();
                     String errorMessage = null;
 
-                    errorMessage = mapper.writeValueAsString(conDto);
+                    errorMessage = objectMapper.writeValueAsString(conDto);
 
                     throw new ConflictingConsentException(errorMessage);
                 }
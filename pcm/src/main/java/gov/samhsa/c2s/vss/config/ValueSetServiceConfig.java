@@ -5,8 +5,15 @@
 import gov.samhsa.c2s.vss.service.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.metrics.CounterService;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
 
 @Configuration
 public class ValueSetServiceConfig {
@@ -14,6 +21,33 @@ public class ValueSetServiceConfig {
     @Value("${c2s.vss.config.conceptCodeListPageSize}")
     private int conceptCodeListPageSize;
 
+    @Value("${c2s.vss.config.importChunkSize}")
+    private int importChunkSize;
+
+    @Value("${c2s.vss.config.jdbcBatchSize}")
+    private int jdbcBatchSize;
+
+    @Value("${c2s.vss.config.lookupIndex.enabled}")
+    private boolean lookupIndexEnabled;
+
+    @Value("${c2s.vss.config.searchIndex.enabled}")
+    private boolean searchIndexEnabled;
+
+    @Value("${c2s.vss.config.changeBus.pollIntervalMillis}")
+    private long changeBusPollIntervalMillis;
+
+    @Value("${c2s.vss.config.batchUpload.threads}")
+    private int batchUploadThreads;
+
+    @Value("${c2s.vss.config.batchUpload.queueCapacity}")
+    private int batchUploadQueueCapacity;
+
+    @Value("${c2s.vss.config.batchUpload.jobRetentionMinutes}")
+    private long batchUploadJobRetentionMinutes;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
     @Autowired
     private ConsentRepository consentRepository;
 
@@ -22,12 +56,148 @@ public class ValueSetServiceConfig {
 
     @Bean
     public ValueSetMgmtHelper valueSetMgmtHelper() {
-        return new ValueSetMgmtHelper(conceptCodeListPageSize);
+        return new ValueSetMgmtHelper(conceptCodeListPageSize, importChunkSize);
+    }
+
+    @Bean(initMethod = "rebuild")
+    public ValueSetLookupIndex valueSetLookupIndex(ConceptCodeRepository conceptCodeRepository,
+                                                   CodeSystemVersionRepository codeSystemVersionRepository) {
+        return new ValueSetLookupIndex(lookupIndexEnabled, conceptCodeRepository, codeSystemVersionRepository);
+    }
+
+    @Bean
+    public ThreadPoolTaskScheduler valueSetChangeBusTaskScheduler() {
+        ThreadPoolTaskScheduler taskScheduler = new ThreadPoolTaskScheduler();
+        taskScheduler.setPoolSize(1);
+        taskScheduler.setThreadNamePrefix("vss-change-bus-");
+        return taskScheduler;
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    public ValueSetChangeBus valueSetChangeBus(JdbcOperations jdbcOperations,
+                                              ValueSetLookupIndex valueSetLookupIndex,
+                                              CodeSystemVersionCache codeSystemVersionCache,
+                                              ConceptCodeSearchIndex conceptCodeSearchIndex) {
+        ValueSetChangeBus valueSetChangeBus = new DatabasePollingValueSetChangeBus(jdbcOperations,
+                valueSetChangeBusTaskScheduler(), changeBusPollIntervalMillis);
+        valueSetChangeBus.subscribe(version -> codeSystemVersionCache.evictAll());
+        valueSetChangeBus.subscribe(version -> valueSetLookupIndex.rebuild());
+        valueSetChangeBus.subscribe(version -> conceptCodeSearchIndex.invalidate());
+        return valueSetChangeBus;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor conceptCodeSearchIndexTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(1);
+        taskExecutor.setMaxPoolSize(1);
+        taskExecutor.setThreadNamePrefix("vss-search-index-");
+        return taskExecutor;
+    }
+
+    @Bean(initMethod = "rebuild")
+    public ConceptCodeSearchIndex conceptCodeSearchIndex(JdbcOperations jdbcOperations) {
+        return new ConceptCodeSearchIndex(searchIndexEnabled, jdbcOperations,
+                conceptCodeSearchIndexTaskExecutor());
+    }
+
+    @Bean
+    public CodeSystemVersionCache codeSystemVersionCache(CodeSystemVersionRepository codeSystemVersionRepository) {
+        return new CodeSystemVersionCache(codeSystemVersionRepository);
+    }
+
+    @Bean
+    public ConceptCodeBatchWriter conceptCodeBatchWriter(JdbcOperations jdbcOperations) {
+        return new ConceptCodeBatchWriter(jdbcOperations, entityManager, jdbcBatchSize);
+    }
+
+    @Bean
+    public CodeSystemVersionDiffImporter codeSystemVersionDiffImporter(JdbcOperations jdbcOperations,
+                                                                       ConceptCodeBatchWriter conceptCodeBatchWriter) {
+        return new CodeSystemVersionDiffImporter(jdbcOperations, entityManager, conceptCodeBatchWriter,
+                jdbcBatchSize);
+    }
+
+    @Bean
+    public ApproximateRowCounter approximateRowCounter(JdbcOperations jdbcOperations) {
+        return new ApproximateRowCounter(jdbcOperations);
+    }
+
+    @Bean
+    public ConceptCodeExportService conceptCodeExportService(JdbcOperations jdbcOperations) {
+        return new ConceptCodeExportServiceImpl(jdbcOperations);
+    }
+
+    @Bean
+    public ConceptCodeService conceptCodeService(ConceptCodeRepository conceptCodeRepository,
+                                                 ValueSetRepository valueSetRepository,
+                                                 CodeSystemRepository codeSystemRepository,
+                                                 CodeSystemVersionRepository codeSystemVersionRepository,
+                                                 ConceptCodeValueSetRepository conceptCodeValueSetRepository,
+                                                 ValueSetChangeBus valueSetChangeBus,
+                                                 CodeSystemVersionCache codeSystemVersionCache,
+                                                 ConceptCodeBatchWriter conceptCodeBatchWriter,
+                                                 ConceptCodeSearchIndex conceptCodeSearchIndex,
+                                                 ApproximateRowCounter approximateRowCounter,
+                                                 CodeSystemVersionDiffImporter codeSystemVersionDiffImporter) {
+        return new ConceptCodeServiceImpl(conceptCodeListPageSize,
+                conceptCodeRepository,
+                valueSetRepository,
+                codeSystemRepository,
+                codeSystemVersionRepository,
+                conceptCodeValueSetRepository,
+                valueSetMgmtHelper(),
+                valueSetChangeBus,
+                codeSystemVersionCache,
+                conceptCodeBatchWriter,
+                conceptCodeSearchIndex,
+                approximateRowCounter,
+                codeSystemVersionDiffImporter);
+    }
+
+    @Bean
+    public ValueSetService valueSetService(ValueSetRepository valueSetRepository,
+                                           ConceptCodeValueSetRepository conceptCodeValueSetRepository,
+                                           ValueSetChangeBus valueSetChangeBus,
+                                           ApproximateRowCounter approximateRowCounter) {
+        return new ValueSetServiceImpl(conceptCodeListPageSize,
+                valueSetRepository,
+                valueSetCategoryRepository,
+                conceptCodeValueSetRepository,
+                valueSetMgmtHelper(),
+                valueSetChangeBus,
+                approximateRowCounter);
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor batchUploadTaskExecutor() {
+        ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(batchUploadThreads);
+        taskExecutor.setMaxPoolSize(batchUploadThreads);
+        taskExecutor.setQueueCapacity(batchUploadQueueCapacity);
+        taskExecutor.setThreadNamePrefix("vss-batch-upload-");
+        return taskExecutor;
+    }
+
+    @Bean
+    public BatchUploadJobService batchUploadJobService(ConceptCodeService conceptCodeService,
+                                                       ValueSetService valueSetService,
+                                                       ValueSetChangeBus valueSetChangeBus,
+                                                       BatchUploadJobRepository batchUploadJobRepository) {
+        return new BatchUploadJobServiceImpl(conceptCodeService,
+                valueSetService,
+                valueSetMgmtHelper(),
+                valueSetChangeBus,
+                batchUploadJobRepository,
+                batchUploadTaskExecutor(),
+                batchUploadJobRetentionMinutes);
     }
 
     @Bean
-    public ValueSetCategoryService valueSetCategoryService() {
-        return new ValueSetCategoryServiceImpl(valueSetCategoryRepository, consentRepository, valueSetMgmtHelper());
+    public ValueSetCategoryService valueSetCategoryService(ValueSetRepository valueSetRepository,
+                                                           ValueSetChangeBus valueSetChangeBus) {
+        return new ValueSetCategoryServiceImpl(valueSetCategoryRepository, consentRepository, valueSetRepository,
+                valueSetMgmtHelper(), valueSetChangeBus);
     }
 
     @Bean
@@ -35,12 +205,18 @@ public ValueSetLookupService valueSetLookupService(ConceptCodeRepository concept
                                                        ValueSetRepository valueSetRepository,
                                                        CodeSystemRepository codeSystemRepository,
                                                        CodeSystemVersionRepository codeSystemVersionRepository,
-                                                       ConceptCodeValueSetRepository conceptCodeValueSetRepository) {
+                                                       ConceptCodeValueSetRepository conceptCodeValueSetRepository,
+                                                       ValueSetLookupIndex valueSetLookupIndex,
+                                                       CounterService counterService,
+                                                       CodeSystemVersionCache codeSystemVersionCache) {
         return new ValueSetLookupServiceImpl(conceptCodeRepository,
                 valueSetRepository,
                 codeSystemRepository,
                 codeSystemVersionRepository,
                 conceptCodeValueSetRepository,
-                valueSetMgmtHelper());
+                valueSetMgmtHelper(),
+                valueSetLookupIndex,
+                counterService,
+                codeSystemVersionCache);
     }
 }
@@ -0,0 +1,85 @@
+package gov.samhsa.c2s.vss.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcOperations;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class ApproximateRowCounter.
+ * <p>
+ * Reads the estimated number of rows of a table from the MySQL table
+ * statistics instead of counting them. InnoDB estimates can be off by a few
+ * tens of percent, which is fine for showing the rough size of a listing.
+ * Estimates are cached for a minute.
+ */
+public class ApproximateRowCounter {
+
+    private static final String SELECT_TABLE_ROWS_SQL = "select table_rows from information_schema.tables "
+            + "where table_schema = database() and table_name = ?";
+
+    private static final long CACHE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The jdbc operations.
+     */
+    private final JdbcOperations jdbcOperations;
+
+    /**
+     * The cached estimates by table name.
+     */
+    private final ConcurrentMap<String, Estimate> estimates = new ConcurrentHashMap<String, Estimate>();
+
+    /**
+     * Instantiates a new approximate row counter.
+     *
+     * @param jdbcOperations the jdbc operations
+     */
+    public ApproximateRowCounter(JdbcOperations jdbcOperations) {
+        super();
+        this.jdbcOperations = jdbcOperations;
+    }
+
+    /**
+     * Gets the estimated number of rows of a table.
+     *
+     * @param tableName the table name
+     * @return the estimated number of rows, or null if not available
+     */
+    public Long countRows(String tableName) {
+        Estimate estimate = estimates.get(tableName);
+        long now = System.currentTimeMillis();
+        if (estimate != null && now - estimate.time < CACHE_MILLIS) {
+            return estimate.rows;
+        }
+        try {
+            List<Long> rows = jdbcOperations.queryForList(SELECT_TABLE_ROWS_SQL, Long.class, tableName);
+            Long estimated = rows.isEmpty() ? null : rows.get(0);
+            estimates.put(tableName, new Estimate(estimated, now));
+            return estimated;
+        } catch (DataAccessException e) {
+            logger.debug("Unable to estimate the rows of " + tableName + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static final class Estimate {
+        private final Long rows;
+        private final long time;
+
+        private Estimate(Long rows, long time) {
+            this.rows = rows;
+            this.time = time;
+        }
+    }
+}
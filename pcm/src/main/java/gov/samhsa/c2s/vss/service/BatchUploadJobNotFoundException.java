@@ -0,0 +1,23 @@
+package gov.samhsa.c2s.vss.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * The Class BatchUploadJobNotFoundException.
+ */
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class BatchUploadJobNotFoundException extends RuntimeException {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = -2290134813706478216L;
+
+	/**
+	 * Instantiates a new batch upload job not found exception.
+	 *
+	 * @param msg the msg
+	 */
+	public BatchUploadJobNotFoundException(String msg) {
+		super(msg);
+	}
+}
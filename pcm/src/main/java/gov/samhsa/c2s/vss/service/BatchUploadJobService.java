@@ -0,0 +1,50 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.vss.service.dto.BatchUploadJobDto;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The Interface BatchUploadJobService.
+ * <p>
+ * Runs concept code and value set batch uploads in the background. Rows are
+ * committed chunk by chunk, so a failing chunk does not roll back the rows
+ * loaded before it.
+ */
+public interface BatchUploadJobService {
+
+    /**
+     * Submits a concept code batch upload.
+     *
+     * @param file                the file
+     * @param codeSystemId        the code system id
+     * @param codeSystemVersionId the code system version id
+     * @param valueSetIds         the value set ids
+     * @param userName            the user name
+     * @return the queued job
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    BatchUploadJobDto submitConceptCodeBatchUpload(MultipartFile file, String codeSystemId,
+                                                   Long codeSystemVersionId, List<Long> valueSetIds,
+                                                   String userName) throws IOException;
+
+    /**
+     * Submits a value set batch upload.
+     *
+     * @param file     the file
+     * @param userName the user name
+     * @return the queued job
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    BatchUploadJobDto submitValueSetBatchUpload(MultipartFile file, String userName) throws IOException;
+
+    /**
+     * Finds the progress of a job.
+     *
+     * @param jobId the job id
+     * @return the job
+     */
+    BatchUploadJobDto findJob(String jobId);
+}
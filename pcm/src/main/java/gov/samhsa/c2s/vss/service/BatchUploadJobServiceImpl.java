@@ -0,0 +1,401 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.valueset.BatchUploadJob;
+import gov.samhsa.c2s.pcm.domain.valueset.BatchUploadJobRepository;
+import gov.samhsa.c2s.vss.service.dto.BatchUploadJobDto;
+import gov.samhsa.c2s.vss.service.dto.BatchUploadJobDto.Status;
+import gov.samhsa.c2s.vss.service.dto.BatchUploadJobDto.Type;
+import org.apache.poi.POIXMLException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class BatchUploadJobServiceImpl.
+ * <p>
+ * The uploaded file is moved to a temporary file before the request returns,
+ * and read by a worker thread of the task executor. Each chunk of rows handed
+ * over by {@link ValueSetMgmtHelper} is written in its own transaction. When
+ * a chunk fails, its rows are reported as errors and the job goes on with the
+ * next chunk. Problems with the file itself, such as a wrong header, end the
+ * job.
+ * <p>
+ * The progress of a job is saved after each chunk, so status requests can be
+ * answered by any instance. Jobs are deleted some time after they finish. The
+ * executor queue is bounded, since each queued job holds a temporary file, and
+ * uploads are rejected while it is full. A job whose instance stops while the
+ * job is queued or running keeps its last saved progress until it is deleted
+ * with the jobs finished before it, and has to be uploaded again.
+ */
+public class BatchUploadJobServiceImpl implements BatchUploadJobService {
+
+    /**
+     * The maximum number of errors and duplicate row numbers listed for a job.
+     */
+    static final int MAX_LISTED_ROWS = 1000;
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The concept code service.
+     */
+    private final ConceptCodeService conceptCodeService;
+
+    /**
+     * The value set service.
+     */
+    private final ValueSetService valueSetService;
+
+    /**
+     * The value set mgmt helper.
+     */
+    private final ValueSetMgmtHelper valueSetMgmtHelper;
+
+    /**
+     * The value set change bus.
+     */
+    private final ValueSetChangeBus valueSetChangeBus;
+
+    /**
+     * The task executor running the jobs.
+     */
+    private final TaskExecutor taskExecutor;
+
+    /**
+     * How long a finished job is kept, in milliseconds.
+     */
+    private final long jobRetentionMillis;
+
+    /**
+     * The batch upload job repository.
+     */
+    private final BatchUploadJobRepository batchUploadJobRepository;
+
+    /**
+     * Instantiates a new batch upload job service impl.
+     *
+     * @param conceptCodeService       the concept code service
+     * @param valueSetService          the value set service
+     * @param valueSetMgmtHelper       the value set mgmt helper
+     * @param valueSetChangeBus        the value set change bus
+     * @param batchUploadJobRepository the batch upload job repository
+     * @param taskExecutor             the task executor running the jobs
+     * @param jobRetentionMinutes      how long a finished job is kept, in minutes
+     */
+    public BatchUploadJobServiceImpl(ConceptCodeService conceptCodeService,
+                                     ValueSetService valueSetService,
+                                     ValueSetMgmtHelper valueSetMgmtHelper,
+                                     ValueSetChangeBus valueSetChangeBus,
+                                     BatchUploadJobRepository batchUploadJobRepository,
+                                     TaskExecutor taskExecutor,
+                                     long jobRetentionMinutes) {
+        super();
+        this.conceptCodeService = conceptCodeService;
+        this.valueSetService = valueSetService;
+        this.valueSetMgmtHelper = valueSetMgmtHelper;
+        this.valueSetChangeBus = valueSetChangeBus;
+        this.batchUploadJobRepository = batchUploadJobRepository;
+        this.taskExecutor = taskExecutor;
+        this.jobRetentionMillis = TimeUnit.MINUTES.toMillis(jobRetentionMinutes);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.BatchUploadJobService#
+     * submitConceptCodeBatchUpload(org.springframework.web.multipart.MultipartFile,
+     * java.lang.String, java.lang.Long, java.util.List, java.lang.String)
+     */
+    @Override
+    public BatchUploadJobDto submitConceptCodeBatchUpload(MultipartFile file, final String codeSystemId,
+                                                          final Long codeSystemVersionId, final List<Long> valueSetIds,
+                                                          final String userName) throws IOException {
+        return submit(Type.CONCEPT_CODES, file, (job, inputStream) -> {
+            final ConceptCodeBatchWriter.Batch[] batch = {null};
+            valueSetMgmtHelper.readConceptCodesFromFile(inputStream, codeSystemId, codeSystemVersionId, valueSetIds,
+                    userName, (rows, offset) -> {
+                        job.rowsRead(rows.size());
+                        if (batch[0] == null) {
+                            batch[0] = conceptCodeService.openConceptCodeBatch(codeSystemVersionId, valueSetIds);
+                        }
+                        try {
+                            job.conceptCodesCommitted(conceptCodeService.addConceptCodes(batch[0], rows), offset);
+                        } catch (RuntimeException e) {
+                            // the batch remembers the rolled back rows as
+                            // loaded, so it is reloaded for the next chunk
+                            batch[0] = null;
+                            job.chunkFailed(offset, rows.size(), e);
+                        }
+                        save(job);
+                    });
+            if (job.hasInsertedRows()) {
+                valueSetChangeBus.publishAfterCommit();
+            }
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.BatchUploadJobService#
+     * submitValueSetBatchUpload(org.springframework.web.multipart.MultipartFile,
+     * java.lang.String)
+     */
+    @Override
+    public BatchUploadJobDto submitValueSetBatchUpload(MultipartFile file, final String userName)
+            throws IOException {
+        return submit(Type.VALUE_SETS, file, (job, inputStream) ->
+                valueSetMgmtHelper.readValueSetsFromFile(inputStream, userName, (rows, offset) -> {
+                    job.rowsRead(rows.size());
+                    try {
+                        job.rowsCommitted(valueSetService.addValueSets(rows, offset));
+                    } catch (ValueSetNotFoundException | RuntimeException e) {
+                        job.chunkFailed(offset, rows.size(), e);
+                    }
+                    save(job);
+                }));
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.BatchUploadJobService#findJob(java.lang.String)
+     */
+    @Override
+    public BatchUploadJobDto findJob(String jobId) {
+        BatchUploadJob job = jobId == null ? null : batchUploadJobRepository.findOne(jobId);
+        if (job == null || isFinishedBefore(job, retentionStart())) {
+            throw new BatchUploadJobNotFoundException("No batch upload job found with an id: " + jobId);
+        }
+        return toDto(job);
+    }
+
+    private BatchUploadJobDto submit(Type type, MultipartFile file, Upload upload) throws IOException {
+        if (file.isEmpty()) {
+            throw new InvalidCSVException("File cannot be empty");
+        }
+        purgeFinishedJobs();
+
+        File uploadFile = File.createTempFile("vss-batch-upload", ".xlsx");
+        try {
+            // the multipart file is cleaned up when the request completes
+            file.transferTo(uploadFile);
+        } catch (IOException | RuntimeException e) {
+            deleteQuietly(uploadFile);
+            throw e;
+        }
+
+        Job job = new Job(UUID.randomUUID().toString(), type);
+        final BatchUploadJob queued;
+        try {
+            queued = save(job);
+        } catch (RuntimeException e) {
+            deleteQuietly(uploadFile);
+            throw e;
+        }
+        try {
+            taskExecutor.execute(() -> run(job, uploadFile, upload));
+        } catch (TaskRejectedException e) {
+            batchUploadJobRepository.delete(job.jobId);
+            deleteQuietly(uploadFile);
+            throw new BatchUploadQueueFullException(
+                    "Too many batch uploads are waiting. Please try again later.", e);
+        }
+        logger.info("Queued " + type + " batch upload job: " + job.jobId);
+        return toDto(queued);
+    }
+
+    private void run(Job job, File uploadFile, Upload upload) {
+        job.start();
+        save(job);
+        try (InputStream inputStream = new FileInputStream(uploadFile)) {
+            upload.run(job, inputStream);
+            job.finish(Status.COMPLETED, null);
+        } catch (InvalidCSVException | ValueSetNotFoundException e) {
+            job.finish(Status.FAILED, e.getMessage() != null ? e.getMessage() : "Value Set not found");
+        } catch (CodeSystemNotFoundException e) {
+            job.finish(Status.FAILED, "Code System Version not found");
+        } catch (POIXMLException e) {
+            logger.debug("Incorrect file format: " + e.getMessage());
+            job.finish(Status.FAILED, "Incorrect file format. File should be a correct .xslx file");
+        } catch (IOException e) {
+            logger.debug("Unable to open file: " + e.getMessage());
+            job.finish(Status.FAILED, "Unable to open file");
+        } catch (RuntimeException e) {
+            logger.error("Batch upload job " + job.jobId + " failed", e);
+            job.finish(Status.FAILED, "An error occurred. Please check with administrator: " + e.getMessage());
+        } finally {
+            deleteQuietly(uploadFile);
+        }
+        try {
+            save(job);
+        } catch (RuntimeException e) {
+            logger.error("Unable to save the outcome of batch upload job " + job.jobId, e);
+        }
+        logger.info("Finished batch upload job: " + job.jobId);
+    }
+
+    private BatchUploadJob save(Job job) {
+        return batchUploadJobRepository.save(job.toEntity());
+    }
+
+    private void purgeFinishedJobs() {
+        batchUploadJobRepository.deleteFinishedBefore(retentionStart());
+    }
+
+    private Date retentionStart() {
+        return new Date(System.currentTimeMillis() - jobRetentionMillis);
+    }
+
+    private static boolean isFinishedBefore(BatchUploadJob job, Date time) {
+        return job.getFinishedDateTime() != null && job.getFinishedDateTime().before(time);
+    }
+
+    private static BatchUploadJobDto toDto(BatchUploadJob job) {
+        BatchUploadJobDto dto = new BatchUploadJobDto();
+        dto.setJobId(job.getJobId());
+        dto.setType(Type.valueOf(job.getType()));
+        dto.setStatus(Status.valueOf(job.getStatus()));
+        dto.setRowsRead(job.getRowsRead());
+        dto.setRowsInserted(job.getRowsInserted());
+        dto.setDuplicates(job.getDuplicates());
+        List<Integer> duplicateRows = new ArrayList<Integer>();
+        if (job.getDuplicateRows() != null && !job.getDuplicateRows().isEmpty()) {
+            for (String row : job.getDuplicateRows().split(",")) {
+                duplicateRows.add(Integer.valueOf(row));
+            }
+        }
+        dto.setDuplicateRows(duplicateRows);
+        List<String> errors = new ArrayList<String>();
+        if (job.getErrors() != null && !job.getErrors().isEmpty()) {
+            for (String error : job.getErrors().split("\n")) {
+                errors.add(error);
+            }
+        }
+        dto.setErrors(errors);
+        dto.setSubmittedTime(job.getSubmittedDateTime());
+        dto.setFinishedTime(job.getFinishedDateTime());
+        return dto;
+    }
+
+    private void deleteQuietly(File file) {
+        if (!file.delete()) {
+            logger.debug("Unable to delete batch upload file: " + file);
+        }
+    }
+
+    /**
+     * Reads an uploaded file and writes its rows.
+     */
+    private interface Upload {
+        void run(Job job, InputStream inputStream) throws IOException, ValueSetNotFoundException,
+                CodeSystemNotFoundException;
+    }
+
+    /**
+     * The progress of a job, updated by its worker thread and saved after
+     * each change.
+     */
+    private static final class Job {
+        private final String jobId;
+        private final Type type;
+        private final Date submittedTime = new Date();
+        private final List<Integer> duplicateRows = new ArrayList<Integer>();
+        private final List<String> errors = new ArrayList<String>();
+        private Status status = Status.QUEUED;
+        private int rowsRead;
+        private int rowsInserted;
+        private int duplicates;
+        private Date finishedTime;
+
+        private Job(String jobId, Type type) {
+            this.jobId = jobId;
+            this.type = type;
+        }
+
+        private void start() {
+            status = Status.RUNNING;
+        }
+
+        private void rowsRead(int rows) {
+            rowsRead += rows;
+        }
+
+        private void rowsCommitted(int rows) {
+            rowsInserted += rows;
+        }
+
+        private void conceptCodesCommitted(int[] inserted, int offset) {
+            for (int i = 0; i < inserted.length; i++) {
+                if (inserted[i] > 0) {
+                    rowsInserted++;
+                } else {
+                    duplicates++;
+                    if (duplicateRows.size() < MAX_LISTED_ROWS) {
+                        // adjusting for header row
+                        duplicateRows.add(offset + i + 2);
+                    }
+                }
+            }
+        }
+
+        private void chunkFailed(int offset, int rows, Exception e) {
+            // adjusting for header row
+            addError("Rows " + (offset + 2) + " to " + (offset + rows + 1) + " were not saved: "
+                    + e.getMessage());
+        }
+
+        private boolean hasInsertedRows() {
+            return rowsInserted > 0;
+        }
+
+        private void finish(Status finalStatus, String error) {
+            if (error != null) {
+                addError(error);
+            }
+            status = finalStatus;
+            finishedTime = new Date();
+        }
+
+        private void addError(String error) {
+            if (errors.size() < MAX_LISTED_ROWS) {
+                // errors are saved one per line
+                errors.add(error.replaceAll("\\s*[\\r\\n]+\\s*", " "));
+            }
+        }
+
+        private BatchUploadJob toEntity() {
+            BatchUploadJob job = new BatchUploadJob();
+            job.setJobId(jobId);
+            job.setType(type.name());
+            job.setStatus(status.name());
+            job.setRowsRead(rowsRead);
+            job.setRowsInserted(rowsInserted);
+            job.setDuplicates(duplicates);
+            StringBuilder rows = new StringBuilder();
+            for (Integer row : duplicateRows) {
+                rows.append(rows.length() > 0 ? "," : "").append(row);
+            }
+            job.setDuplicateRows(rows.toString());
+            job.setErrors(String.join("\n", errors));
+            job.setSubmittedDateTime(submittedTime);
+            job.setFinishedDateTime(finishedTime);
+            return job;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package gov.samhsa.c2s.vss.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+/**
+ * The Class BatchUploadQueueFullException.
+ */
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public class BatchUploadQueueFullException extends RuntimeException {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 4520631781930460529L;
+
+	/**
+	 * Instantiates a new batch upload queue full exception.
+	 *
+	 * @param msg the msg
+	 * @param cause the cause
+	 */
+	public BatchUploadQueueFullException(String msg, Throwable cause) {
+		super(msg, cause);
+	}
+}
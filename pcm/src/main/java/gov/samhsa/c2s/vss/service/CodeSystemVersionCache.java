@@ -0,0 +1,132 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.valueset.CodeSystemVersionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The Class CodeSystemVersionCache.
+ * <p>
+ * Maps code system oids to the id and name of the latest version of the code
+ * system. Entries are loaded on first use with a single row query and evicted
+ * when a version of the code system is created, updated or deleted.
+ */
+public class CodeSystemVersionCache {
+
+    /**
+     * Marker for oids without any code system version.
+     */
+    private static final LatestVersion NONE = new LatestVersion(null, null);
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The code system version repository.
+     */
+    private final CodeSystemVersionRepository codeSystemVersionRepository;
+
+    /**
+     * The latest versions by code system oid.
+     */
+    private final ConcurrentMap<String, LatestVersion> latestVersions = new ConcurrentHashMap<String, LatestVersion>();
+
+    /**
+     * Instantiates a new code system version cache.
+     *
+     * @param codeSystemVersionRepository the code system version repository
+     */
+    public CodeSystemVersionCache(CodeSystemVersionRepository codeSystemVersionRepository) {
+        super();
+        this.codeSystemVersionRepository = codeSystemVersionRepository;
+    }
+
+    /**
+     * Finds the latest version of a code system.
+     *
+     * @param codeSystemOid the code system oid
+     * @return the latest version, or null if the code system has no versions
+     */
+    public LatestVersion findLatestVersion(String codeSystemOid) {
+        if (codeSystemOid == null) {
+            return null;
+        }
+        // computeIfAbsent blocks evictions of the same oid while loading, so a
+        // load that started before a commit can never outlive its eviction
+        LatestVersion latestVersion = latestVersions.computeIfAbsent(codeSystemOid, this::load);
+        return latestVersion == NONE ? null : latestVersion;
+    }
+
+    /**
+     * Evicts a code system once the current transaction commits, or
+     * immediately when there is no active transaction.
+     *
+     * @param codeSystemOid the code system oid
+     */
+    public void evictAfterCommit(final String codeSystemOid) {
+        if (codeSystemOid == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            latestVersions.remove(codeSystemOid);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    latestVersions.remove(codeSystemOid);
+                }
+            }
+        });
+    }
+
+    /**
+     * Evicts every code system, after changes made on another instance whose
+     * code systems are not known.
+     */
+    public void evictAll() {
+        latestVersions.clear();
+    }
+
+    private LatestVersion load(String codeSystemOid) {
+        List<Object[]> rows = codeSystemVersionRepository
+                .findLatestVersionOfCodeSystemsByCodeSystemOidIn(Collections.singleton(codeSystemOid));
+        if (rows.isEmpty()) {
+            logger.debug("No CodeSystem found with the oid: " + codeSystemOid);
+            return NONE;
+        }
+        Object[] row = rows.get(0);
+        return new LatestVersion((Long) row[1], (String) row[2]);
+    }
+
+    /**
+     * The id and name of the latest version of a code system.
+     */
+    public static final class LatestVersion {
+        private final Long id;
+        private final String name;
+
+        LatestVersion(Long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+}
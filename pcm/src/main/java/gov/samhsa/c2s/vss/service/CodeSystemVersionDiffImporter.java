@@ -0,0 +1,286 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.audit.RevisionInfoEntity;
+import gov.samhsa.c2s.vss.service.dto.CodeSystemVersionDiffDto;
+import gov.samhsa.c2s.vss.service.dto.CodeSystemVersionDiffDto.RenamedConceptCode;
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeDto;
+import org.hibernate.envers.RevisionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcOperations;
+
+import javax.persistence.EntityManager;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The Class CodeSystemVersionDiffImporter.
+ * <p>
+ * Loads a new code system version as a diff against the version it replaces.
+ * The codes of the base version are held in memory and the uploaded rows are
+ * compared with them there. The base codes are copied into the new version
+ * and their value set memberships carried forward with set based statements
+ * run in the database, so only the added, removed and renamed codes are sent
+ * from the application. The writes join the surrounding JPA transaction.
+ * <p>
+ * Codes are compared by {@link ConceptCodeBatchWriter#codeKey(String)}, as
+ * the database compares them, so an uploaded code differing from a base code
+ * only in case matches it and keeps the stored code.
+ */
+public class CodeSystemVersionDiffImporter {
+
+    private static final String SELECT_BASE_CONCEPT_CODES_SQL = "select code, name, description "
+            + "from concept_code where fk_code_system_version_id = ?";
+
+    private static final String COPY_CONCEPT_CODES_SQL = "insert into concept_code (creation_time, "
+            + "modification_time, user_name, code, name, description, fk_code_system_version_id) "
+            + "select ?, ?, ?, code, name, description, ? from concept_code where fk_code_system_version_id = ?";
+
+    private static final String UPDATE_CONCEPT_CODE_SQL = "update concept_code set name = ?, description = ? "
+            + "where fk_code_system_version_id = ? and code = ?";
+
+    private static final String DELETE_CONCEPT_CODE_SQL = "delete from concept_code "
+            + "where fk_code_system_version_id = ? and code = ?";
+
+    private static final String COPY_CONCEPT_CODE_VALUE_SETS_SQL = "insert into conceptcode_valueset "
+            + "(fk_concept_code_id, fk_valueset_id) select n.concept_code_id, ccvs.fk_valueset_id "
+            + "from concept_code o join conceptcode_valueset ccvs on ccvs.fk_concept_code_id = o.concept_code_id "
+            + "join concept_code n on n.code = o.code and n.fk_code_system_version_id = ? "
+            + "where o.fk_code_system_version_id = ?";
+
+    private static final String INSERT_COPIED_CONCEPT_CODE_AUD_SQL = "insert into concept_code_aud "
+            + "(concept_code_id, rev, revtype, description, fk_code_system_version_id) "
+            + "select c.concept_code_id, ?, ?, c.description, c.fk_code_system_version_id from concept_code c "
+            + "where c.fk_code_system_version_id = ? and not exists (select 1 from concept_code_aud a "
+            + "where a.concept_code_id = c.concept_code_id and a.rev = ?)";
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The jdbc operations.
+     */
+    private final JdbcOperations jdbcOperations;
+
+    /**
+     * The entity manager.
+     */
+    private final EntityManager entityManager;
+
+    /**
+     * The concept code batch writer, which inserts the added codes.
+     */
+    private final ConceptCodeBatchWriter conceptCodeBatchWriter;
+
+    /**
+     * The number of statements sent to the database in one JDBC batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Instantiates a new code system version diff importer.
+     *
+     * @param jdbcOperations         the jdbc operations
+     * @param entityManager          the entity manager
+     * @param conceptCodeBatchWriter the concept code batch writer
+     * @param batchSize              the number of statements sent in one JDBC batch
+     */
+    public CodeSystemVersionDiffImporter(JdbcOperations jdbcOperations, EntityManager entityManager,
+                                         ConceptCodeBatchWriter conceptCodeBatchWriter, int batchSize) {
+        super();
+        this.jdbcOperations = jdbcOperations;
+        this.entityManager = entityManager;
+        this.conceptCodeBatchWriter = conceptCodeBatchWriter;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Opens a diff of a new, still empty code system version against a base
+     * version, and loads the codes of the base version.
+     *
+     * @param baseCodeSystemVersionId the base code system version id, or
+     *                                null to import every code as added
+     * @param codeSystemVersionId     the new code system version id
+     * @param userName                the user name
+     * @return the diff
+     */
+    public Diff open(Long baseCodeSystemVersionId, Long codeSystemVersionId, String userName) {
+        // opened first, while the new version has no codes to load
+        ConceptCodeBatchWriter.Batch batch = conceptCodeBatchWriter.open(codeSystemVersionId,
+                Collections.<Long>emptyList());
+        Diff diff = new Diff(baseCodeSystemVersionId, codeSystemVersionId, userName, batch);
+        if (baseCodeSystemVersionId != null) {
+            jdbcOperations.query(SELECT_BASE_CONCEPT_CODES_SQL, rs -> {
+                String code = rs.getString(1);
+                diff.baseConceptCodes.put(ConceptCodeBatchWriter.codeKey(code),
+                        new BaseConceptCode(code, rs.getString(2), emptyIfNull(rs.getString(3))));
+            }, baseCodeSystemVersionId);
+        }
+        logger.debug("Loaded " + diff.baseConceptCodes.size()
+                + " concept codes of base code system version: " + baseCodeSystemVersionId);
+        return diff;
+    }
+
+    private static String emptyIfNull(String description) {
+        return description != null ? description : "";
+    }
+
+    /**
+     * A code of the base version.
+     */
+    private static final class BaseConceptCode {
+        private final String code;
+        private final String name;
+        private final String description;
+        private boolean imported;
+
+        private BaseConceptCode(String code, String name, String description) {
+            this.code = code;
+            this.name = name;
+            this.description = description;
+        }
+    }
+
+    /**
+     * The comparison of the uploaded codes with a base version, whose
+     * changes are written to the new version as the rows are added.
+     */
+    public class Diff {
+
+        private final Long baseCodeSystemVersionId;
+
+        private final Long codeSystemVersionId;
+
+        private final String userName;
+
+        private final ConceptCodeBatchWriter.Batch batch;
+
+        /**
+         * The codes of the base version, by code key.
+         */
+        private final Map<String, BaseConceptCode> baseConceptCodes = new HashMap<String, BaseConceptCode>();
+
+        /**
+         * The keys of the added codes.
+         */
+        private final Set<String> addedCodes = new HashSet<String>();
+
+        private final CodeSystemVersionDiffDto report = new CodeSystemVersionDiffDto();
+
+        private boolean copied;
+
+        Diff(Long baseCodeSystemVersionId, Long codeSystemVersionId, String userName,
+             ConceptCodeBatchWriter.Batch batch) {
+            this.baseCodeSystemVersionId = baseCodeSystemVersionId;
+            this.codeSystemVersionId = codeSystemVersionId;
+            this.userName = userName;
+            this.batch = batch;
+        }
+
+        /**
+         * Compares a chunk of uploaded codes with the base version and writes
+         * the added and renamed ones.
+         *
+         * @param conceptCodeDtos the concept code dtos
+         */
+        public void add(List<ConceptCodeDto> conceptCodeDtos) {
+            copyBaseConceptCodes();
+            List<Object[]> renamed = new ArrayList<Object[]>();
+            for (ConceptCodeDto conceptCodeDto : conceptCodeDtos) {
+                String code = conceptCodeDto.getCode();
+                String codeKey = ConceptCodeBatchWriter.codeKey(code);
+                String description = emptyIfNull(conceptCodeDto.getDescription());
+                BaseConceptCode base = baseConceptCodes.get(codeKey);
+                if (base == null) {
+                    if (addedCodes.add(codeKey)) {
+                        batch.add(conceptCodeDto);
+                        report.getAddedCodes().add(code);
+                    } else {
+                        report.setDuplicates(report.getDuplicates() + 1);
+                    }
+                } else if (base.imported) {
+                    report.setDuplicates(report.getDuplicates() + 1);
+                } else {
+                    base.imported = true;
+                    if (base.name.equals(conceptCodeDto.getName()) && base.description.equals(description)) {
+                        report.setUnchanged(report.getUnchanged() + 1);
+                    } else {
+                        renamed.add(new Object[]{conceptCodeDto.getName(), description, codeSystemVersionId, base.code});
+                        report.getRenamedCodes().add(new RenamedConceptCode(base.code, base.name,
+                                conceptCodeDto.getName()));
+                    }
+                }
+            }
+            batch.flush();
+            batchUpdate(UPDATE_CONCEPT_CODE_SQL, renamed);
+        }
+
+        /**
+         * Removes the base codes missing from the upload, carries the value
+         * set memberships of the remaining codes forward and audits the
+         * copied codes.
+         *
+         * @return the change report
+         */
+        public CodeSystemVersionDiffDto finish() {
+            copyBaseConceptCodes();
+            List<Object[]> removed = new ArrayList<Object[]>();
+            for (BaseConceptCode base : baseConceptCodes.values()) {
+                if (!base.imported) {
+                    removed.add(new Object[]{codeSystemVersionId, base.code});
+                    report.getRemovedCodes().add(base.code);
+                }
+            }
+            batchUpdate(DELETE_CONCEPT_CODE_SQL, removed);
+            Collections.sort(report.getRemovedCodes());
+
+            if (baseCodeSystemVersionId != null) {
+                report.setValueSetMembershipsCarriedForward(jdbcOperations.update(COPY_CONCEPT_CODE_VALUE_SETS_SQL,
+                        codeSystemVersionId, baseCodeSystemVersionId));
+
+                // the copies bypass hibernate, so they are added to the
+                // envers revision of the transaction by hand; the added codes
+                // were audited by the batch writer
+                RevisionInfoEntity revision = conceptCodeBatchWriter.currentConceptCodeAddRevision();
+                jdbcOperations.update(INSERT_COPIED_CONCEPT_CODE_AUD_SQL, revision.getId(),
+                        RevisionType.ADD.getRepresentation(), codeSystemVersionId, revision.getId());
+            }
+
+            report.setBaseCodeSystemVersionId(baseCodeSystemVersionId);
+            report.setCodeSystemVersionId(codeSystemVersionId);
+            logger.info("Imported code system version " + codeSystemVersionId + " from base version "
+                    + baseCodeSystemVersionId + ": " + report.getUnchanged() + " unchanged, "
+                    + report.getAddedCodes().size() + " added, " + report.getRemovedCodes().size()
+                    + " removed, " + report.getRenamedCodes().size() + " renamed");
+            return report;
+        }
+
+        private void copyBaseConceptCodes() {
+            if (copied || baseCodeSystemVersionId == null) {
+                return;
+            }
+            copied = true;
+            // make pending changes of the transaction visible to the statement
+            entityManager.flush();
+            Timestamp now = new Timestamp(System.currentTimeMillis() / 1000 * 1000);
+            int rows = jdbcOperations.update(COPY_CONCEPT_CODES_SQL, now, now, userName, codeSystemVersionId,
+                    baseCodeSystemVersionId);
+            logger.debug("Copied " + rows + " concept codes of code system version " + baseCodeSystemVersionId
+                    + " to code system version " + codeSystemVersionId);
+        }
+
+        private void batchUpdate(String sql, List<Object[]> rows) {
+            for (int from = 0; from < rows.size(); from += batchSize) {
+                jdbcOperations.batchUpdate(sql, rows.subList(from, Math.min(from + batchSize, rows.size())));
+            }
+        }
+    }
+}
@@ -35,6 +35,14 @@ public class CodeSystemVersionServiceImpl implements CodeSystemVersionService {
      * The code system repository.
      */
     private CodeSystemRepository codeSystemRepository;
+    /**
+     * The value set change bus.
+     */
+    private ValueSetChangeBus valueSetChangeBus;
+    /**
+     * The code system version cache.
+     */
+    private CodeSystemVersionCache codeSystemVersionCache;
 
     /**
      * Instantiates a new code system version service impl.
@@ -42,15 +50,21 @@ public class CodeSystemVersionServiceImpl implements CodeSystemVersionService {
      * @param codeSystemVersionRepository the code system version repository
      * @param codeSystemRepository        the code system repository
      * @param codeSystemVersionMgmtHelper the code system version mgmt helper
+     * @param valueSetChangeBus           the value set change bus
+     * @param codeSystemVersionCache      the code system version cache
      */
     public CodeSystemVersionServiceImpl(
             CodeSystemVersionRepository codeSystemVersionRepository,
             CodeSystemRepository codeSystemRepository,
-            ValueSetMgmtHelper codeSystemVersionMgmtHelper) {
+            ValueSetMgmtHelper codeSystemVersionMgmtHelper,
+            ValueSetChangeBus valueSetChangeBus,
+            CodeSystemVersionCache codeSystemVersionCache) {
         super();
         this.codeSystemVersionRepository = codeSystemVersionRepository;
         this.codeSystemRepository = codeSystemRepository;
         this.codeSystemVersionMgmtHelper = codeSystemVersionMgmtHelper;
+        this.valueSetChangeBus = valueSetChangeBus;
+        this.codeSystemVersionCache = codeSystemVersionCache;
     }
 
     /*
@@ -86,6 +100,8 @@ public CodeSystemVersionDto create(CodeSystemVersionDto created)
         // refere codesystemversion category id to the codesystemversion entity
         // object
         codeSystemVersion.setCodeSystem(selected);
+        valueSetChangeBus.publishAfterCommit();
+        codeSystemVersionCache.evictAfterCommit(selected.getCodeSystemOId());
         CodeSystemVersionDto codeSystemVersionDto = codeSystemVersionMgmtHelper
                 .createCodeSystemVersionDtoFromEntity(codeSystemVersion);
         codeSystemVersionDto.setCodeSystemName(selected.getName());
@@ -114,6 +130,11 @@ public CodeSystemVersionDto delete(Long codeSystemVersionId)
             throw new CodeSystemVersionNotFoundException();
         }
         codeSystemVersionRepository.delete(deleted);
+        valueSetChangeBus.publishAfterCommit();
+        if (deleted.getCodeSystem() != null) {
+            codeSystemVersionCache.evictAfterCommit(deleted.getCodeSystem()
+                    .getCodeSystemOId());
+        }
         return codeSystemVersionMgmtHelper
                 .createCodeSystemVersionDtoFromEntity(deleted);
     }
@@ -192,6 +213,8 @@ public CodeSystemVersionDto update(CodeSystemVersionDto updated)
         // code system association change
         Long selCodeSystemId = updated.getCodeSystemId();
         Long origCodeSystemId = codeSystemVersion.getCodeSystem().getId();
+        codeSystemVersionCache.evictAfterCommit(codeSystemVersion
+                .getCodeSystem().getCodeSystemOId());
 
         if ((null != selCodeSystemId && null != origCodeSystemId)
                 && selCodeSystemId.equals(origCodeSystemId)) {
@@ -209,7 +232,10 @@ public CodeSystemVersionDto update(CodeSystemVersionDto updated)
             }
             // save the association
             codeSystemVersion.setCodeSystem(codeSystem);
+            codeSystemVersionCache.evictAfterCommit(codeSystem
+                    .getCodeSystemOId());
         }
+        valueSetChangeBus.publishAfterCommit();
         return codeSystemVersionMgmtHelper
                 .createCodeSystemVersionDtoFromEntity(codeSystemVersion);
     }
@@ -0,0 +1,305 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.audit.RevisionInfoEntity;
+import gov.samhsa.c2s.pcm.domain.valueset.ConceptCode;
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeDto;
+import org.hibernate.envers.AuditReaderFactory;
+import org.hibernate.envers.RevisionType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcOperations;
+
+import javax.persistence.EntityManager;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The Class ConceptCodeBatchWriter.
+ * <p>
+ * Bulk ingest path for concept code batch uploads. The codes of the target
+ * code system version and their value set associations are loaded once into
+ * memory, uploaded rows are checked against them there, and the new
+ * concept_code, concept_code_aud and conceptcode_valueset rows are written
+ * with JDBC batch statements. The writes join the surrounding JPA
+ * transaction.
+ * <p>
+ * Codes are compared with {@link #codeKey(String)}, the way the unique key of
+ * concept_code compares them, so that a code differing from another only in
+ * case is found as a duplicate rather than failing the insert.
+ */
+public class ConceptCodeBatchWriter {
+
+    private static final String SELECT_CONCEPT_CODES_SQL = "select c.concept_code_id, c.code, ccvs.fk_valueset_id "
+            + "from concept_code c left join conceptcode_valueset ccvs on ccvs.fk_concept_code_id = c.concept_code_id "
+            + "where c.fk_code_system_version_id = ?";
+
+    private static final String INSERT_CONCEPT_CODE_SQL = "insert into concept_code (creation_time, "
+            + "modification_time, user_name, code, name, description, fk_code_system_version_id) "
+            + "values (?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SELECT_CONCEPT_CODE_IDS_SQL = "select code, concept_code_id from concept_code "
+            + "where fk_code_system_version_id = ? and code in ";
+
+    private static final String INSERT_CONCEPT_CODE_AUD_SQL = "insert into concept_code_aud (concept_code_id, rev, "
+            + "revtype, description, fk_code_system_version_id) values (?, ?, ?, ?, ?)";
+
+    private static final String INSERT_CONCEPT_CODE_VALUE_SET_SQL = "insert into conceptcode_valueset "
+            + "(fk_concept_code_id, fk_valueset_id) values (?, ?)";
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The jdbc operations.
+     */
+    private final JdbcOperations jdbcOperations;
+
+    /**
+     * The entity manager.
+     */
+    private final EntityManager entityManager;
+
+    /**
+     * The number of statements sent to the database in one JDBC batch.
+     */
+    private final int batchSize;
+
+    /**
+     * Instantiates a new concept code batch writer.
+     *
+     * @param jdbcOperations the jdbc operations
+     * @param entityManager  the entity manager
+     * @param batchSize      the number of statements sent in one JDBC batch
+     */
+    public ConceptCodeBatchWriter(JdbcOperations jdbcOperations, EntityManager entityManager, int batchSize) {
+        super();
+        this.jdbcOperations = jdbcOperations;
+        this.entityManager = entityManager;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets the key comparing concept codes the way the database does under
+     * the default case-insensitive collation of the concept_code unique key,
+     * which ignores case and trailing spaces.
+     *
+     * @param code the code
+     * @return the key
+     */
+    static String codeKey(String code) {
+        int end = code.length();
+        while (end > 0 && code.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return code.substring(0, end).toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Opens a batch for adding concept codes to a code system version and
+     * value sets, and loads the codes the version already has.
+     *
+     * @param codeSystemVersionId the code system version id
+     * @param valueSetIds         the value set ids
+     * @return the batch
+     */
+    public Batch open(Long codeSystemVersionId, List<Long> valueSetIds) {
+        // make pending changes of the transaction visible to the queries
+        entityManager.flush();
+        Batch batch = new Batch(codeSystemVersionId, valueSetIds);
+        jdbcOperations.query(SELECT_CONCEPT_CODES_SQL, rs -> {
+            String code = codeKey(rs.getString(2));
+            ExistingConceptCode existing = batch.existingConceptCodes.get(code);
+            if (existing == null) {
+                existing = new ExistingConceptCode(rs.getLong(1));
+                batch.existingConceptCodes.put(code, existing);
+            }
+            long valueSetId = rs.getLong(3);
+            if (!rs.wasNull()) {
+                Integer valueSetIndex = batch.valueSetIndexes.get(valueSetId);
+                if (valueSetIndex != null) {
+                    existing.valueSets.set(valueSetIndex);
+                }
+            }
+        }, codeSystemVersionId);
+        logger.debug("Loaded " + batch.existingConceptCodes.size()
+                + " concept codes of code system version: " + codeSystemVersionId);
+        return batch;
+    }
+
+    /**
+     * A concept code already stored, or added by the batch.
+     */
+    private static final class ExistingConceptCode {
+        private Long id;
+        private final BitSet valueSets = new BitSet();
+
+        private ExistingConceptCode(Long id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Concept codes and associations added to one code system version and
+     * set of value sets, which are written on {@link #flush()}.
+     */
+    public class Batch {
+
+        private final Long codeSystemVersionId;
+
+        private final List<Long> valueSetIds;
+
+        private final Map<Long, Integer> valueSetIndexes = new HashMap<Long, Integer>();
+
+        /**
+         * The stored and added codes, by code key.
+         */
+        private final Map<String, ExistingConceptCode> existingConceptCodes = new HashMap<String, ExistingConceptCode>();
+
+        private final List<ConceptCodeDto> newConceptCodes = new ArrayList<ConceptCodeDto>();
+
+        private final List<String> newAssociationCodes = new ArrayList<String>();
+
+        private final List<Long> newAssociationValueSetIds = new ArrayList<Long>();
+
+        Batch(Long codeSystemVersionId, List<Long> valueSetIds) {
+            this.codeSystemVersionId = codeSystemVersionId;
+            this.valueSetIds = valueSetIds;
+            for (int i = 0; i < valueSetIds.size(); i++) {
+                valueSetIndexes.put(valueSetIds.get(i), i);
+            }
+        }
+
+        /**
+         * Adds a concept code, or the associations with the value sets it is
+         * not yet in.
+         *
+         * @param conceptCodeDto the concept code dto
+         * @return the number of code and value set associations added, 0 if
+         * the code is already in all of the value sets
+         */
+        public int add(ConceptCodeDto conceptCodeDto) {
+            String code = codeKey(conceptCodeDto.getCode());
+            ExistingConceptCode existing = existingConceptCodes.get(code);
+            if (existing == null) {
+                existing = new ExistingConceptCode(null);
+                existing.valueSets.set(0, valueSetIds.size());
+                existingConceptCodes.put(code, existing);
+                newConceptCodes.add(conceptCodeDto);
+                for (Long valueSetId : valueSetIds) {
+                    addAssociation(code, valueSetId);
+                }
+                return valueSetIds.size();
+            }
+
+            int added = 0;
+            for (int i = existing.valueSets.nextClearBit(0); i < valueSetIds.size();
+                 i = existing.valueSets.nextClearBit(i + 1)) {
+                existing.valueSets.set(i);
+                addAssociation(code, valueSetIds.get(i));
+                added++;
+            }
+            return added;
+        }
+
+        /**
+         * Writes the concept codes and associations added since the last
+         * flush.
+         */
+        public void flush() {
+            if (!newConceptCodes.isEmpty()) {
+                insertConceptCodes();
+                newConceptCodes.clear();
+            }
+            if (!newAssociationCodes.isEmpty()) {
+                List<Object[]> associations = new ArrayList<Object[]>(newAssociationCodes.size());
+                for (int i = 0; i < newAssociationCodes.size(); i++) {
+                    associations.add(new Object[]{existingConceptCodes.get(newAssociationCodes.get(i)).id,
+                            newAssociationValueSetIds.get(i)});
+                }
+                batchUpdate(INSERT_CONCEPT_CODE_VALUE_SET_SQL, associations);
+                newAssociationCodes.clear();
+                newAssociationValueSetIds.clear();
+            }
+        }
+
+        private void addAssociation(String code, Long valueSetId) {
+            newAssociationCodes.add(code);
+            newAssociationValueSetIds.add(valueSetId);
+        }
+
+        private void insertConceptCodes() {
+            Timestamp now = new Timestamp(System.currentTimeMillis() / 1000 * 1000);
+            List<Object[]> rows = new ArrayList<Object[]>(newConceptCodes.size());
+            for (ConceptCodeDto conceptCodeDto : newConceptCodes) {
+                rows.add(new Object[]{now, now, conceptCodeDto.getUserName(), conceptCodeDto.getCode(),
+                        conceptCodeDto.getName(), description(conceptCodeDto), codeSystemVersionId});
+            }
+            batchUpdate(INSERT_CONCEPT_CODE_SQL, rows);
+
+            // the generated ids are read back rather than taken from the
+            // batch, as not every driver returns keys for batched inserts
+            for (int from = 0; from < newConceptCodes.size(); from += batchSize) {
+                List<ConceptCodeDto> chunk = newConceptCodes.subList(from,
+                        Math.min(from + batchSize, newConceptCodes.size()));
+                Object[] args = new Object[chunk.size() + 1];
+                args[0] = codeSystemVersionId;
+                for (int i = 0; i < chunk.size(); i++) {
+                    args[i + 1] = chunk.get(i).getCode();
+                }
+                String sql = SELECT_CONCEPT_CODE_IDS_SQL
+                        + "(" + String.join(", ", Collections.nCopies(chunk.size(), "?")) + ")";
+                jdbcOperations.query(sql, rs -> {
+                    existingConceptCodes.get(codeKey(rs.getString(1))).id = rs.getLong(2);
+                }, args);
+            }
+
+            // the rows bypass hibernate, so they are added to the envers
+            // revision of the transaction by hand
+            RevisionInfoEntity revision = currentConceptCodeAddRevision();
+            Byte revisionType = RevisionType.ADD.getRepresentation();
+            List<Object[]> auditRows = new ArrayList<Object[]>(newConceptCodes.size());
+            for (ConceptCodeDto conceptCodeDto : newConceptCodes) {
+                auditRows.add(new Object[]{existingConceptCodes.get(codeKey(conceptCodeDto.getCode())).id, revision.getId(),
+                        revisionType, description(conceptCodeDto), codeSystemVersionId});
+            }
+            batchUpdate(INSERT_CONCEPT_CODE_AUD_SQL, auditRows);
+        }
+
+        private String description(ConceptCodeDto conceptCodeDto) {
+            return conceptCodeDto.getDescription() != null ? conceptCodeDto.getDescription() : "";
+        }
+    }
+
+    /**
+     * Gets the envers revision of the current transaction, recording in it
+     * that concept codes were added. Used for concept_code rows written
+     * without hibernate.
+     *
+     * @return the revision
+     */
+    RevisionInfoEntity currentConceptCodeAddRevision() {
+        RevisionInfoEntity revision = AuditReaderFactory.get(entityManager)
+                .getCurrentRevision(RevisionInfoEntity.class, true);
+        Byte revisionType = RevisionType.ADD.getRepresentation();
+        if (revision.getModifiedEntityTypes().stream().noneMatch(
+                type -> ConceptCode.class.getName().equals(type.getEntityClassName())
+                        && revisionType.equals(type.getRevisionType()))) {
+            revision.addModifiedEntityType(ConceptCode.class.getName(), revisionType, revision);
+        }
+        return revision;
+    }
+
+    private void batchUpdate(String sql, List<Object[]> rows) {
+        for (int from = 0; from < rows.size(); from += batchSize) {
+            jdbcOperations.batchUpdate(sql, rows.subList(from, Math.min(from + batchSize, rows.size())));
+        }
+    }
+}
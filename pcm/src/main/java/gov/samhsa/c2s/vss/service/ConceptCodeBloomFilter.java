@@ -0,0 +1,103 @@
+package gov.samhsa.c2s.vss.service;
+
+/**
+ * The Class ConceptCodeBloomFilter.
+ * <p>
+ * Compact probabilistic set of code system oid and concept code pairs. A
+ * negative answer is definite, a positive answer may be a false positive at
+ * roughly the configured probability. Instances are filled once and then only
+ * read, so they can be shared between threads once published.
+ */
+class ConceptCodeBloomFilter {
+
+    /**
+     * The bits.
+     */
+    private final long[] bits;
+
+    /**
+     * The number of bits.
+     */
+    private final long bitSize;
+
+    /**
+     * The number of hash functions.
+     */
+    private final int hashFunctions;
+
+    /**
+     * Instantiates a new concept code bloom filter sized for the expected
+     * number of entries.
+     *
+     * @param expectedEntries          the expected number of entries
+     * @param falsePositiveProbability the false positive probability
+     */
+    ConceptCodeBloomFilter(int expectedEntries, double falsePositiveProbability) {
+        long n = Math.max(expectedEntries, 1);
+        long m = (long) Math.ceil(-n * Math.log(falsePositiveProbability) / (Math.log(2) * Math.log(2)));
+        this.bits = new long[(int) ((Math.max(m, 64) + 63) >>> 6)];
+        this.bitSize = (long) bits.length << 6;
+        this.hashFunctions = Math.max(1, (int) Math.round((double) m / n * Math.log(2)));
+    }
+
+    /**
+     * Adds a concept code.
+     *
+     * @param codeSystemOid the code system oid
+     * @param code          the code
+     */
+    void put(String codeSystemOid, String code) {
+        long hash = hash(codeSystemOid, code);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            long index = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitSize;
+            bits[(int) (index >>> 6)] |= 1L << index;
+        }
+    }
+
+    /**
+     * Checks if the concept code might have been added.
+     *
+     * @param codeSystemOid the code system oid
+     * @param code          the code
+     * @return false, if the concept code was definitely never added
+     */
+    boolean mightContain(String codeSystemOid, String code) {
+        long hash = hash(codeSystemOid, code);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashFunctions; i++) {
+            long index = ((hash1 + i * hash2) & Integer.MAX_VALUE) % bitSize;
+            if ((bits[(int) (index >>> 6)] & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 64 bit FNV-1a hash of the oid and code, with a separator so that
+     * different splits of the same characters do not collide.
+     */
+    private static long hash(String codeSystemOid, String code) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, codeSystemOid);
+        hash = (hash ^ '|') * 0x100000001b3L;
+        hash = hash(hash, code);
+        // final avalanche so that both halves are usable as independent hashes
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long hash(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xff)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
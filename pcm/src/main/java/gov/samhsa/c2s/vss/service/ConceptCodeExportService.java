@@ -0,0 +1,54 @@
+package gov.samhsa.c2s.vss.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The Interface ConceptCodeExportService.
+ * <p>
+ * Exports concept codes in the layout read by the concept code batch upload,
+ * followed by the code system and code system version of each code.
+ */
+public interface ConceptCodeExportService {
+
+    /**
+     * Exports the concept codes matching all the given filters, ordered by
+     * code. Filters left null are ignored, so with no filter every concept
+     * code is exported. Rows are written while they are read from the
+     * database.
+     *
+     * @param valueSetId          the value set id, or null
+     * @param codeSystemVersionId the code system version id, or null
+     * @param valueSetCategoryId  the value set category id, or null
+     * @param format              the format
+     * @param out                 the output stream, left open
+     * @return the number of exported concept codes
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    long exportConceptCodes(Long valueSetId, Long codeSystemVersionId, Long valueSetCategoryId,
+                            Format format, OutputStream out) throws IOException;
+
+    /**
+     * The export file formats.
+     */
+    enum Format {
+        CSV("text/csv", "csv"),
+        XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx");
+
+        private final String contentType;
+        private final String extension;
+
+        Format(String contentType, String extension) {
+            this.contentType = contentType;
+            this.extension = extension;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+}
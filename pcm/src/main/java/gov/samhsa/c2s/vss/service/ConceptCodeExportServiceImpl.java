@@ -0,0 +1,265 @@
+package gov.samhsa.c2s.vss.service;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Class ConceptCodeExportServiceImpl.
+ * <p>
+ * Rows are read through a forward-only, read-only statement whose fetch size
+ * makes MySQL Connector/J stream them one at a time instead of buffering the
+ * whole result, and each row is written out as soon as it is read. CSV is
+ * written straight to the output stream. XLSX goes through the SXSSF
+ * streaming workbook, which keeps a small window of rows in memory and
+ * flushes the rest to a temporary file until the workbook is written.
+ */
+public class ConceptCodeExportServiceImpl implements ConceptCodeExportService {
+
+    private static final String SELECT_CONCEPT_CODES_SQL = "select c.code, c.name, c.description, cs.name, "
+            + "csv.version_name from concept_code c "
+            + "join code_system_version csv on csv.code_system_version_id = c.fk_code_system_version_id "
+            + "join code_system cs on cs.code_system_id = csv.fk_code_system_id where 1 = 1";
+
+    private static final String CODE_SYSTEM_VERSION_FILTER_SQL = " and c.fk_code_system_version_id = ?";
+
+    private static final String VALUE_SET_FILTER_SQL = " and exists (select 1 from conceptcode_valueset ccvs "
+            + "where ccvs.fk_concept_code_id = c.concept_code_id and ccvs.fk_valueset_id = ?)";
+
+    private static final String VALUE_SET_CATEGORY_FILTER_SQL = " and exists (select 1 from conceptcode_valueset ccvs "
+            + "join value_set vs on vs.valueset_id = ccvs.fk_valueset_id "
+            + "where ccvs.fk_concept_code_id = c.concept_code_id and vs.fk_valueset_cat_id = ?)";
+
+    private static final String ORDER_BY_SQL = " order by c.code, c.concept_code_id";
+
+    /**
+     * The fetch size that makes MySQL Connector/J stream the rows of a
+     * forward-only, read-only result set.
+     */
+    private static final int STREAMING_FETCH_SIZE = Integer.MIN_VALUE;
+
+    private static final String[] HEADER = {"Code", "Name", "Description", "Code System", "Code System Version"};
+
+    /**
+     * The number of XLSX rows kept in memory before they are flushed to the
+     * temporary file.
+     */
+    private static final int XLSX_ROW_WINDOW = 100;
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The jdbc operations.
+     */
+    private final JdbcOperations jdbcOperations;
+
+    /**
+     * Instantiates a new concept code export service impl.
+     *
+     * @param jdbcOperations the jdbc operations
+     */
+    public ConceptCodeExportServiceImpl(JdbcOperations jdbcOperations) {
+        super();
+        this.jdbcOperations = jdbcOperations;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.ConceptCodeExportService#
+     * exportConceptCodes(java.lang.Long, java.lang.Long, java.lang.Long,
+     * gov.samhsa.c2s.vss.service.ConceptCodeExportService.Format,
+     * java.io.OutputStream)
+     */
+    @Override
+    public long exportConceptCodes(Long valueSetId, Long codeSystemVersionId, Long valueSetCategoryId,
+                                   Format format, OutputStream out) throws IOException {
+        StringBuilder sql = new StringBuilder(SELECT_CONCEPT_CODES_SQL);
+        List<Long> args = new ArrayList<Long>();
+        if (codeSystemVersionId != null) {
+            sql.append(CODE_SYSTEM_VERSION_FILTER_SQL);
+            args.add(codeSystemVersionId);
+        }
+        if (valueSetId != null) {
+            sql.append(VALUE_SET_FILTER_SQL);
+            args.add(valueSetId);
+        }
+        if (valueSetCategoryId != null) {
+            sql.append(VALUE_SET_CATEGORY_FILTER_SQL);
+            args.add(valueSetCategoryId);
+        }
+        sql.append(ORDER_BY_SQL);
+
+        long start = System.currentTimeMillis();
+        final RowWriter rowWriter = (format == Format.XLSX) ? new XlsxRowWriter(out) : new CsvRowWriter(out);
+        final long[] rows = {0};
+        try {
+            rowWriter.write(HEADER);
+            jdbcOperations.query(connection -> {
+                PreparedStatement ps = connection.prepareStatement(sql.toString(), ResultSet.TYPE_FORWARD_ONLY,
+                        ResultSet.CONCUR_READ_ONLY);
+                ps.setFetchSize(STREAMING_FETCH_SIZE);
+                for (int i = 0; i < args.size(); i++) {
+                    ps.setLong(i + 1, args.get(i));
+                }
+                return ps;
+            }, (RowCallbackHandler) rs -> {
+                try {
+                    rowWriter.write(new String[]{rs.getString(1), rs.getString(2), rs.getString(3),
+                            rs.getString(4), rs.getString(5)});
+                } catch (IOException e) {
+                    // stops reading when the client has gone away
+                    throw new UncheckedIOException(e);
+                }
+                rows[0]++;
+            });
+            rowWriter.finish();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            rowWriter.close();
+        }
+        logger.info("Exported " + rows[0] + " concept codes as " + format + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return rows[0];
+    }
+
+    /**
+     * Writes rows of an export.
+     */
+    private interface RowWriter {
+        void write(String[] values) throws IOException;
+
+        void finish() throws IOException;
+
+        void close();
+    }
+
+    /**
+     * Writes RFC 4180 CSV in UTF-8.
+     */
+    private static final class CsvRowWriter implements RowWriter {
+        private final Writer writer;
+
+        private CsvRowWriter(OutputStream out) {
+            this.writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void write(String[] values) throws IOException {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeValue(values[i]);
+            }
+            writer.write("\r\n");
+        }
+
+        private void writeValue(String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            boolean quoted = false;
+            for (int i = 0; i < value.length() && !quoted; i++) {
+                char c = value.charAt(i);
+                quoted = c == ',' || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quoted) {
+                writer.write(value);
+                return;
+            }
+            writer.write('"');
+            writer.write(value.replace("\"", "\"\""));
+            writer.write('"');
+        }
+
+        @Override
+        public void finish() throws IOException {
+            // the output stream belongs to the caller, so it is flushed but
+            // not closed
+            writer.flush();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Writes an XLSX workbook with the SXSSF streaming writer. Rows beyond the
+     * row limit of a sheet continue on a new sheet, under the same header.
+     */
+    private static final class XlsxRowWriter implements RowWriter {
+        private static final int MAX_ROWS_PER_SHEET = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+        private final OutputStream out;
+        private final SXSSFWorkbook workbook;
+        private String[] header;
+        private Sheet sheet;
+        private int rowNum;
+
+        private XlsxRowWriter(OutputStream out) {
+            this.out = out;
+            this.workbook = new SXSSFWorkbook(XLSX_ROW_WINDOW);
+            this.workbook.setCompressTempFiles(true);
+        }
+
+        @Override
+        public void write(String[] values) throws IOException {
+            if (header == null) {
+                header = values;
+            }
+            if (sheet == null || rowNum == MAX_ROWS_PER_SHEET) {
+                int sheetNumber = workbook.getNumberOfSheets() + 1;
+                sheet = workbook.createSheet(sheetNumber == 1 ? "Concept Codes" : "Concept Codes " + sheetNumber);
+                rowNum = 0;
+                if (values != header) {
+                    writeRow(header);
+                }
+            }
+            writeRow(values);
+        }
+
+        private void writeRow(String[] values) {
+            Row row = sheet.createRow(rowNum++);
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    row.createCell(i).setCellValue(values[i]);
+                }
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            workbook.write(out);
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            // deletes the temporary files backing the sheets
+            workbook.dispose();
+        }
+    }
+}
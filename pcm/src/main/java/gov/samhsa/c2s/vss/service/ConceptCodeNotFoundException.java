@@ -11,4 +11,8 @@ public ConceptCodeNotFoundException() {
 	public ConceptCodeNotFoundException(String message) {
 		super(message);
 	}
+
+	public ConceptCodeNotFoundException(String message, boolean writableStackTrace) {
+		super(message, null, false, writableStackTrace);
+	}
 }
@@ -0,0 +1,605 @@
+package gov.samhsa.c2s.vss.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcOperations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * The Class ConceptCodeSearchIndex.
+ * <p>
+ * In-memory trigram index of the codes and names of all concept codes, used by
+ * the concept code admin search instead of the {@code like '%term%'} queries
+ * of {@link gov.samhsa.c2s.pcm.domain.valueset.ConceptCodeRepository}. The
+ * index returns the ids of one page of matching concept codes, in the same
+ * order and with the same filters as the repository queries. The order is
+ * the one the database returns the concept codes in, by code or name and
+ * then id, so both paths page in the collation order of the database.
+ * <p>
+ * The index is built from a few plain JDBC queries and replaced as a whole.
+ * It is invalidated through the {@link ValueSetChangeBus} whenever the value
+ * set data changes, and rebuilt in the background; searches return null
+ * until then so that callers fall back to the database.
+ */
+public class ConceptCodeSearchIndex {
+
+    private static final String SELECT_CODE_SYSTEM_VERSIONS_SQL = "select csv.code_system_version_id, "
+            + "cs.name, csv.version_name from code_system_version csv "
+            + "join code_system cs on cs.code_system_id = csv.fk_code_system_id";
+
+    private static final String SELECT_VALUE_SETS_SQL = "select valueset_id, code, name from value_set";
+
+    private static final String SELECT_CONCEPT_CODES_SQL = "select concept_code_id, code, name, "
+            + "fk_code_system_version_id from concept_code order by code, concept_code_id";
+
+    private static final String SELECT_CONCEPT_CODE_IDS_BY_NAME_SQL = "select concept_code_id "
+            + "from concept_code order by name, concept_code_id";
+
+    private static final String SELECT_CONCEPT_CODE_VALUE_SETS_SQL = "select fk_concept_code_id, fk_valueset_id "
+            + "from conceptcode_valueset";
+
+    /**
+     * The length of the indexed substrings.
+     */
+    private static final int GRAM_LENGTH = 3;
+
+    private static final int[] EMPTY = new int[0];
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Whether searches are served from the index.
+     */
+    private final boolean enabled;
+
+    /**
+     * The jdbc operations.
+     */
+    private final JdbcOperations jdbcOperations;
+
+    /**
+     * The number of value set data changes seen, compared with the count a
+     * snapshot was loaded at to tell whether it is out of date.
+     */
+    private final AtomicLong changes = new AtomicLong();
+
+    /**
+     * The task executor running the background rebuilds.
+     */
+    private final TaskExecutor taskExecutor;
+
+    /**
+     * Whether a background rebuild is queued or running.
+     */
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    /**
+     * The current snapshot, replaced atomically on rebuild.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Instantiates a new concept code search index.
+     *
+     * @param enabled        whether searches are served from the index
+     * @param jdbcOperations the jdbc operations
+     * @param taskExecutor   the task executor running the background rebuilds
+     */
+    public ConceptCodeSearchIndex(boolean enabled,
+                                  JdbcOperations jdbcOperations,
+                                  TaskExecutor taskExecutor) {
+        super();
+        this.enabled = enabled;
+        this.jdbcOperations = jdbcOperations;
+        this.taskExecutor = taskExecutor;
+    }
+
+    /**
+     * Finds the ids of a page of concept codes whose code contains the search
+     * term, ordered by code. Matches the semantics of
+     * {@code ConceptCodeRepository#findAllByCodeLike}, with each argument
+     * wrapped in wildcards.
+     *
+     * @param searchTerm        the search term
+     * @param codeSystem        the code system name filter
+     * @param codeSystemVersion the code system version name filter
+     * @param valueSetCode      the value set code filter
+     * @param pageRequest       the page request
+     * @return the page of concept code ids, or null if the index is disabled
+     * or out of date
+     */
+    public Page<Long> findAllByCode(String searchTerm, String codeSystem, String codeSystemVersion,
+                                    String valueSetCode, PageRequest pageRequest) {
+        Snapshot current = getCurrentSnapshot();
+        if (current == null) {
+            return null;
+        }
+        BitSet valueSets = current.matchValueSets(current.valueSetCodes, likePattern(contains(valueSetCode)));
+        return current.search(current.byCode, searchTerm, codeSystem, codeSystemVersion, valueSets, pageRequest);
+    }
+
+    /**
+     * Finds the ids of a page of concept codes whose name contains the search
+     * term, ordered by name. Matches the semantics of
+     * {@code ConceptCodeRepository#findAllByName}, where the value set name is
+     * a like pattern on its own.
+     *
+     * @param searchTerm        the search term
+     * @param codeSystem        the code system name filter
+     * @param codeSystemVersion the code system version name filter
+     * @param valueSetName      the value set name like pattern
+     * @param pageRequest       the page request
+     * @return the page of concept code ids, or null if the index is disabled
+     * or out of date
+     */
+    public Page<Long> findAllByName(String searchTerm, String codeSystem, String codeSystemVersion,
+                                    String valueSetName, PageRequest pageRequest) {
+        Snapshot current = getCurrentSnapshot();
+        if (current == null) {
+            return null;
+        }
+        BitSet valueSets = current.matchValueSets(current.valueSetNames, likePattern(valueSetName));
+        return current.search(current.byName, searchTerm, codeSystem, codeSystemVersion, valueSets, pageRequest);
+    }
+
+    /**
+     * Marks the index out of date after a change of the value set data and
+     * schedules a rebuild. Searches fall back to the database until the
+     * rebuild has completed.
+     */
+    public void invalidate() {
+        if (!enabled) {
+            return;
+        }
+        changes.incrementAndGet();
+        scheduleRebuild();
+    }
+
+    /**
+     * Reloads the index from the database and swaps it in. If the reload
+     * fails, the index stays out of date and searches keep falling back to
+     * the database.
+     */
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        // read the change count first, so that changes made during the load
+        // trigger another rebuild
+        long generation = changes.get();
+        try {
+            snapshot = load(generation);
+            logger.info("Concept code search index rebuilt with " + snapshot.ids.length + " concept codes in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (RuntimeException e) {
+            logger.error("Unable to rebuild concept code search index", e);
+        }
+    }
+
+    private Snapshot getCurrentSnapshot() {
+        if (!enabled) {
+            return null;
+        }
+        Snapshot current = snapshot;
+        if (current != null && current.generation == changes.get()) {
+            return current;
+        }
+        scheduleRebuild();
+        return null;
+    }
+
+    private void scheduleRebuild() {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            taskExecutor.execute(() -> {
+                try {
+                    rebuild();
+                } finally {
+                    rebuilding.set(false);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            rebuilding.set(false);
+            logger.warn("Unable to schedule concept code search index rebuild: " + e.getMessage());
+        }
+    }
+
+    private Snapshot load(long generation) {
+        Map<Long, Integer> codeSystemVersionOrdinals = new HashMap<Long, Integer>();
+        List<String> codeSystemNames = new ArrayList<String>();
+        List<String> codeSystemVersionNames = new ArrayList<String>();
+        jdbcOperations.query(SELECT_CODE_SYSTEM_VERSIONS_SQL, rs -> {
+            codeSystemVersionOrdinals.put(rs.getLong(1), codeSystemNames.size());
+            codeSystemNames.add(lowerCase(rs.getString(2)));
+            codeSystemVersionNames.add(lowerCase(rs.getString(3)));
+        });
+
+        Map<Long, Integer> valueSetOrdinals = new HashMap<Long, Integer>();
+        List<String> valueSetCodes = new ArrayList<String>();
+        List<String> valueSetNames = new ArrayList<String>();
+        jdbcOperations.query(SELECT_VALUE_SETS_SQL, rs -> {
+            valueSetOrdinals.put(rs.getLong(1), valueSetCodes.size());
+            valueSetCodes.add(lowerCase(rs.getString(2)));
+            valueSetNames.add(lowerCase(rs.getString(3)));
+        });
+
+        // concept codes are numbered in code order
+        Map<Long, Integer> docs = new HashMap<Long, Integer>();
+        LongList ids = new LongList();
+        List<String> codes = new ArrayList<String>();
+        List<String> names = new ArrayList<String>();
+        IntList codeSystemVersionOfDoc = new IntList();
+        jdbcOperations.query(SELECT_CONCEPT_CODES_SQL, rs -> {
+            docs.put(rs.getLong(1), codes.size());
+            ids.add(rs.getLong(1));
+            codes.add(lowerCase(rs.getString(2)));
+            names.add(lowerCase(rs.getString(3)));
+            Integer ordinal = codeSystemVersionOrdinals.get(rs.getLong(4));
+            codeSystemVersionOfDoc.add(ordinal == null ? -1 : ordinal);
+        });
+
+        IntList byName = new IntList();
+        jdbcOperations.query(SELECT_CONCEPT_CODE_IDS_BY_NAME_SQL, rs -> {
+            Integer doc = docs.get(rs.getLong(1));
+            if (doc != null) {
+                byName.add(doc);
+            }
+        });
+        int[] byCode = new int[codes.size()];
+        for (int doc = 0; doc < byCode.length; doc++) {
+            byCode[doc] = doc;
+        }
+
+        List<int[]> membershipRows = new ArrayList<int[]>();
+        int[] valueSetCounts = new int[codes.size() + 1];
+        jdbcOperations.query(SELECT_CONCEPT_CODE_VALUE_SETS_SQL, rs -> {
+            Integer doc = docs.get(rs.getLong(1));
+            Integer valueSet = valueSetOrdinals.get(rs.getLong(2));
+            if (doc != null && valueSet != null) {
+                membershipRows.add(new int[]{doc, valueSet});
+                valueSetCounts[doc + 1]++;
+            }
+        });
+        // value sets of each concept code, as offsets into a single array
+        int[] valueSetStart = new int[codes.size() + 1];
+        for (int doc = 0; doc < codes.size(); doc++) {
+            valueSetStart[doc + 1] = valueSetStart[doc] + valueSetCounts[doc + 1];
+        }
+        int[] valueSetsOfDoc = new int[membershipRows.size()];
+        int[] next = Arrays.copyOf(valueSetStart, codes.size());
+        for (int[] row : membershipRows) {
+            valueSetsOfDoc[next[row[0]]++] = row[1];
+        }
+
+        String[] codeArray = codes.toArray(new String[codes.size()]);
+        String[] nameArray = names.toArray(new String[names.size()]);
+        return new Snapshot(generation, ids.toArray(),
+                codeSystemNames.toArray(new String[codeSystemNames.size()]),
+                codeSystemVersionNames.toArray(new String[codeSystemVersionNames.size()]),
+                valueSetCodes.toArray(new String[valueSetCodes.size()]),
+                valueSetNames.toArray(new String[valueSetNames.size()]),
+                codeSystemVersionOfDoc.toArray(), valueSetStart, valueSetsOfDoc,
+                Ordering.build(codeArray, byCode), Ordering.build(nameArray, byName.toArray()));
+    }
+
+    private static String contains(String term) {
+        return "%" + term + "%";
+    }
+
+    private static String lowerCase(String value) {
+        return value == null ? null : value.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Compiles a like pattern, matched case insensitively as with the
+     * default MySQL collation. A null pattern matches nothing.
+     */
+    static Pattern likePattern(String like) {
+        if (like == null) {
+            return null;
+        }
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : like.toLowerCase(Locale.ROOT).toCharArray()) {
+            if (c == '%' || c == '_') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '%' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    private static boolean matches(Pattern pattern, String value) {
+        return pattern != null && value != null && pattern.matcher(value).matches();
+    }
+
+    /**
+     * An immutable view of the index.
+     */
+    private static final class Snapshot {
+        private final long generation;
+        private final long[] ids;
+        private final String[] codeSystemNames;
+        private final String[] codeSystemVersionNames;
+        private final String[] valueSetCodes;
+        private final String[] valueSetNames;
+        private final int[] codeSystemVersionOfDoc;
+        private final int[] valueSetStart;
+        private final int[] valueSetsOfDoc;
+        private final Ordering byCode;
+        private final Ordering byName;
+
+        private Snapshot(long generation, long[] ids, String[] codeSystemNames, String[] codeSystemVersionNames,
+                         String[] valueSetCodes, String[] valueSetNames, int[] codeSystemVersionOfDoc,
+                         int[] valueSetStart, int[] valueSetsOfDoc, Ordering byCode, Ordering byName) {
+            this.generation = generation;
+            this.ids = ids;
+            this.codeSystemNames = codeSystemNames;
+            this.codeSystemVersionNames = codeSystemVersionNames;
+            this.valueSetCodes = valueSetCodes;
+            this.valueSetNames = valueSetNames;
+            this.codeSystemVersionOfDoc = codeSystemVersionOfDoc;
+            this.valueSetStart = valueSetStart;
+            this.valueSetsOfDoc = valueSetsOfDoc;
+            this.byCode = byCode;
+            this.byName = byName;
+        }
+
+        private BitSet matchValueSets(String[] values, Pattern pattern) {
+            BitSet matching = new BitSet(values.length);
+            for (int i = 0; i < values.length; i++) {
+                if (matches(pattern, values[i])) {
+                    matching.set(i);
+                }
+            }
+            return matching;
+        }
+
+        private Page<Long> search(Ordering ordering, String searchTerm, String codeSystem,
+                                  String codeSystemVersion, BitSet valueSets, PageRequest pageRequest) {
+            // the code system and version filters only depend on the version,
+            // so they are evaluated once for each version
+            Pattern codeSystemPattern = likePattern(contains(codeSystem));
+            Pattern codeSystemVersionPattern = likePattern(contains(codeSystemVersion));
+            BitSet codeSystemVersions = new BitSet(codeSystemNames.length);
+            for (int i = 0; i < codeSystemNames.length; i++) {
+                if (matches(codeSystemPattern, codeSystemNames[i])
+                        && matches(codeSystemVersionPattern, codeSystemVersionNames[i])) {
+                    codeSystemVersions.set(i);
+                }
+            }
+
+            int first = pageRequest.getOffset();
+            int last = first + pageRequest.getPageSize();
+            List<Long> content = new ArrayList<Long>();
+            int total = 0;
+            if (!codeSystemVersions.isEmpty() && !valueSets.isEmpty()) {
+                Candidates candidates = ordering.candidates(searchTerm);
+                for (int i = 0; i < candidates.size(); i++) {
+                    int position = candidates.get(i);
+                    int doc = ordering.docs[position];
+                    int codeSystemVersionOrdinal = codeSystemVersionOfDoc[doc];
+                    if (codeSystemVersionOrdinal < 0 || !codeSystemVersions.get(codeSystemVersionOrdinal)
+                            || !inAnyValueSet(doc, valueSets) || !candidates.matches(ordering.texts[position])) {
+                        continue;
+                    }
+                    if (total >= first && total < last) {
+                        content.add(ids[doc]);
+                    }
+                    total++;
+                }
+            }
+            return new PageImpl<Long>(content, pageRequest, total);
+        }
+
+        private boolean inAnyValueSet(int doc, BitSet valueSets) {
+            for (int i = valueSetStart[doc]; i < valueSetStart[doc + 1]; i++) {
+                if (valueSets.get(valueSetsOfDoc[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The concept codes in the order the database sorted them by one of their
+     * texts, with a trigram index of that text. Posting lists hold positions
+     * in the sort order, so matches come out already sorted.
+     */
+    private static final class Ordering {
+        private final int[] docs;
+        private final String[] texts;
+        private final Map<Long, int[]> postings;
+
+        private Ordering(int[] docs, String[] texts, Map<Long, int[]> postings) {
+            this.docs = docs;
+            this.texts = texts;
+            this.postings = postings;
+        }
+
+        private static Ordering build(String[] textOfDoc, int[] sorted) {
+            int[] docs = new int[sorted.length];
+            String[] texts = new String[sorted.length];
+            Map<Long, IntList> building = new HashMap<Long, IntList>();
+            for (int position = 0; position < sorted.length; position++) {
+                docs[position] = sorted[position];
+                texts[position] = textOfDoc[sorted[position]];
+                String text = texts[position];
+                if (text == null) {
+                    continue;
+                }
+                for (int i = 0; i + GRAM_LENGTH <= text.length(); i++) {
+                    Long gram = gram(text, i);
+                    IntList positions = building.get(gram);
+                    if (positions == null) {
+                        positions = new IntList();
+                        building.put(gram, positions);
+                    }
+                    // a text repeating a trigram is listed once
+                    if (positions.isEmpty() || positions.last() != position) {
+                        positions.add(position);
+                    }
+                }
+            }
+            Map<Long, int[]> postings = new HashMap<Long, int[]>(building.size() * 4 / 3 + 1);
+            for (Map.Entry<Long, IntList> entry : building.entrySet()) {
+                postings.put(entry.getKey(), entry.getValue().toArray());
+            }
+            return new Ordering(docs, texts, postings);
+        }
+
+        private Candidates candidates(String searchTerm) {
+            String like = contains(searchTerm);
+            String term = lowerCase(String.valueOf(searchTerm));
+            if (term.length() < GRAM_LENGTH || term.indexOf('%') >= 0 || term.indexOf('_') >= 0) {
+                // too short or a pattern of its own, check every text
+                return new Candidates(null, docs.length, likePattern(like), null);
+            }
+
+            List<int[]> lists = new ArrayList<int[]>();
+            for (int i = 0; i + GRAM_LENGTH <= term.length(); i++) {
+                int[] positions = postings.get(gram(term, i));
+                if (positions == null) {
+                    return new Candidates(EMPTY, 0, null, term);
+                }
+                lists.add(positions);
+            }
+            lists.sort(Comparator.comparingInt(positions -> positions.length));
+            int[] positions = lists.get(0);
+            int size = positions.length;
+            for (int i = 1; i < lists.size() && size > 0; i++) {
+                int[] intersection = new int[size];
+                size = intersect(positions, size, lists.get(i), intersection);
+                positions = intersection;
+            }
+            return new Candidates(positions, size, null, term);
+        }
+
+        private static int intersect(int[] a, int aSize, int[] b, int[] target) {
+            int size = 0;
+            int i = 0;
+            int j = 0;
+            while (i < aSize && j < b.length) {
+                if (a[i] < b[j]) {
+                    i++;
+                } else if (a[i] > b[j]) {
+                    j++;
+                } else {
+                    target[size++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return size;
+        }
+
+        private static Long gram(String text, int start) {
+            return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16)
+                    | text.charAt(start + 2);
+        }
+    }
+
+    /**
+     * The sorted positions which may match a search term, with the check
+     * that confirms a match.
+     */
+    private static final class Candidates {
+        private final int[] positions;
+        private final int size;
+        private final Pattern pattern;
+        private final String term;
+
+        private Candidates(int[] positions, int size, Pattern pattern, String term) {
+            this.positions = positions;
+            this.size = size;
+            this.pattern = pattern;
+            this.term = term;
+        }
+
+        private int size() {
+            return size;
+        }
+
+        private int get(int i) {
+            return positions == null ? i : positions[i];
+        }
+
+        private boolean matches(String text) {
+            // trigrams only narrow down the candidates, the whole term still
+            // has to be found in the text
+            return pattern != null ? ConceptCodeSearchIndex.matches(pattern, text)
+                    : text != null && text.contains(term);
+        }
+    }
+
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private int last() {
+            return values[size - 1];
+        }
+
+        private int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    private static final class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        private long[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
@@ -6,6 +6,7 @@
 import java.util.Map;
 
 import gov.samhsa.c2s.pcm.domain.valueset.ValueSet;
+import gov.samhsa.c2s.vss.service.dto.CodeSystemVersionDiffDto;
 import gov.samhsa.c2s.vss.service.dto.ConceptCodeVSCSDto;
 import gov.samhsa.c2s.vss.service.dto.ConceptCodeDto;
 import org.springframework.transaction.annotation.Transactional;
@@ -53,6 +54,18 @@ public ConceptCodeDto create(ConceptCodeDto created) throws ValueSetNotFoundExce
 	 * @return the list
 	 */
 	public Map<String, Object> findAll(int pageNumber);
+
+	/**
+	 * Find a page of all concept codes in (code, id) order, following the
+	 * page the token was issued for. Unlike {@link #findAll(int)}, the rows of
+	 * the previous pages are not skipped over and the rows are not counted,
+	 * so every page takes about the same time.
+	 *
+	 * @param pageToken the next page token of the previous page, or null for the first page
+	 * @param approximateTotal whether to include the estimated number of concept codes
+	 * @return the page, with a null next page token on the last page
+	 */
+	public Map<String, Object> findAllByPageToken(String pageToken, boolean approximateTotal);
 	
 	/**
 	 * Find all by code.
@@ -127,6 +140,50 @@ public ConceptCodeDto conceptCodeBatchUpload(ConceptCodeDto conceptCodeDto, Mult
 												 String codeSystemId, Long codeSystemVersionId, List<Long> valueSetIds) throws IOException,
 			ValueSetNotFoundException, CodeSystemNotFoundException;
 
+	/**
+	 * Opens a batch for adding uploaded concept codes to a code system version
+	 * and value sets.
+	 *
+	 * @param codeSystemVersionId the code system version id
+	 * @param valueSetIds the value set ids
+	 * @return the batch
+	 * @throws CodeSystemNotFoundException the code system not found exception
+	 * @throws ValueSetNotFoundException the value set not found exception
+	 */
+	public ConceptCodeBatchWriter.Batch openConceptCodeBatch(Long codeSystemVersionId, List<Long> valueSetIds)
+			throws CodeSystemNotFoundException, ValueSetNotFoundException;
+
+	/**
+	 * Adds a chunk of uploaded concept codes to a batch and writes them in one
+	 * transaction.
+	 *
+	 * @param batch the batch
+	 * @param conceptCodeDtos the concept code dtos
+	 * @return the number of code and value set associations added for each
+	 * concept code, 0 for duplicates
+	 */
+	public int[] addConceptCodes(ConceptCodeBatchWriter.Batch batch, List<ConceptCodeDto> conceptCodeDtos);
+
+	/**
+	 * Creates a new version of a code system from a file listing all of its
+	 * concept codes. The file is compared with the latest version of the code
+	 * system, and only the added, removed and renamed codes are written; the
+	 * other codes are carried forward along with their value set memberships.
+	 *
+	 * @param codeSystemOid the code system oid
+	 * @param versionName the name of the new version
+	 * @param description the description of the new version
+	 * @param userName the user name
+	 * @param file the file
+	 * @return the change report
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 * @throws CodeSystemNotFoundException the code system not found exception
+	 * @throws ValueSetNotFoundException the value set not found exception
+	 */
+	public CodeSystemVersionDiffDto importCodeSystemVersion(String codeSystemOid, String versionName,
+			String description, String userName, MultipartFile file) throws IOException,
+			CodeSystemNotFoundException, ValueSetNotFoundException;
+
 	/**
 	 * Find value sets by code system.
 	 *
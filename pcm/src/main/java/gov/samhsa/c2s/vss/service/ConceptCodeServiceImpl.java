@@ -1,6 +1,7 @@
 package gov.samhsa.c2s.vss.service;
 
 import gov.samhsa.c2s.pcm.domain.valueset.*;
+import gov.samhsa.c2s.vss.service.dto.CodeSystemVersionDiffDto;
 import gov.samhsa.c2s.vss.service.dto.ConceptCodeDto;
 import gov.samhsa.c2s.vss.service.dto.ConceptCodeVSCSDto;
 import org.apache.poi.POIXMLException;
@@ -8,6 +9,7 @@
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.domain.Sort.Direction;
@@ -17,6 +19,7 @@
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -59,6 +62,30 @@ public class ConceptCodeServiceImpl implements ConceptCodeService {
      * The value set repository.
      */
     private ValueSetRepository valueSetRepository;
+    /**
+     * The value set change bus.
+     */
+    private ValueSetChangeBus valueSetChangeBus;
+    /**
+     * The code system version cache.
+     */
+    private CodeSystemVersionCache codeSystemVersionCache;
+    /**
+     * The concept code batch writer.
+     */
+    private ConceptCodeBatchWriter conceptCodeBatchWriter;
+    /**
+     * The concept code search index.
+     */
+    private ConceptCodeSearchIndex conceptCodeSearchIndex;
+    /**
+     * The approximate row counter.
+     */
+    private ApproximateRowCounter approximateRowCounter;
+    /**
+     * The code system version diff importer.
+     */
+    private CodeSystemVersionDiffImporter codeSystemVersionDiffImporter;
 
     /**
      * Instantiates a new concept code service impl.
@@ -70,6 +97,12 @@ public class ConceptCodeServiceImpl implements ConceptCodeService {
      * @param codeSystemVersionRepository   the code system version repository
      * @param conceptCodeValueSetRepository the concept code value set repository
      * @param valueSetMgmtHelper            the value set mgmt helper
+     * @param valueSetChangeBus             the value set change bus
+     * @param codeSystemVersionCache        the code system version cache
+     * @param conceptCodeBatchWriter        the concept code batch writer
+     * @param conceptCodeSearchIndex        the concept code search index
+     * @param approximateRowCounter         the approximate row counter
+     * @param codeSystemVersionDiffImporter the code system version diff importer
      */
     public ConceptCodeServiceImpl(int conceptCodePageSize,
                                   ConceptCodeRepository conceptCodeRepository,
@@ -77,7 +110,13 @@ public ConceptCodeServiceImpl(int conceptCodePageSize,
                                   CodeSystemRepository codeSystemRepository,
                                   CodeSystemVersionRepository codeSystemVersionRepository,
                                   ConceptCodeValueSetRepository conceptCodeValueSetRepository,
-                                  ValueSetMgmtHelper valueSetMgmtHelper) {
+                                  ValueSetMgmtHelper valueSetMgmtHelper,
+                                  ValueSetChangeBus valueSetChangeBus,
+                                  CodeSystemVersionCache codeSystemVersionCache,
+                                  ConceptCodeBatchWriter conceptCodeBatchWriter,
+                                  ConceptCodeSearchIndex conceptCodeSearchIndex,
+                                  ApproximateRowCounter approximateRowCounter,
+                                  CodeSystemVersionDiffImporter codeSystemVersionDiffImporter) {
         super();
         CONCEPT_CODE_PAGE_SIZE = conceptCodePageSize;
         this.conceptCodeRepository = conceptCodeRepository;
@@ -86,6 +125,12 @@ public ConceptCodeServiceImpl(int conceptCodePageSize,
         this.codeSystemVersionRepository = codeSystemVersionRepository;
         this.conceptCodeValueSetRepository = conceptCodeValueSetRepository;
         this.valueSetMgmtHelper = valueSetMgmtHelper;
+        this.valueSetChangeBus = valueSetChangeBus;
+        this.codeSystemVersionCache = codeSystemVersionCache;
+        this.conceptCodeBatchWriter = conceptCodeBatchWriter;
+        this.conceptCodeSearchIndex = conceptCodeSearchIndex;
+        this.approximateRowCounter = approximateRowCounter;
+        this.codeSystemVersionDiffImporter = codeSystemVersionDiffImporter;
     }
 
     /*
@@ -106,6 +151,7 @@ public ConceptCodeDto delete(Long conceptCodeId)
             throw new ConceptCodeNotFoundException();
         }
         conceptCodeRepository.delete(deleted);
+        valueSetChangeBus.publishAfterCommit();
         return valueSetMgmtHelper.createConceptCodeDtoFromEntity(deleted);
     }
 
@@ -219,6 +265,7 @@ public ConceptCodeDto update(ConceptCodeDto updated)
 
         // set the selected ones back to concept code
         conceptCode.setValueSets(selCodeValueSets);
+        valueSetChangeBus.publishAfterCommit();
 
         return valueSetMgmtHelper.createConceptCodeDtoFromEntity(conceptCode);
     }
@@ -274,6 +321,48 @@ public Map<String, Object> findAll(int pageNumber) {
         return pageResultsMap;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * gov.samhsa.c2s.vss.service.ConceptCodeService#findAllByPageToken(java.
+     * lang.String, boolean)
+     */
+    @Override
+    public Map<String, Object> findAllByPageToken(String pageToken, boolean approximateTotal) {
+        logger.debug("Finding conceptCodes after page token: " + pageToken);
+        // one more row than the page size tells whether there is a next page
+        PageRequest pageRequest = new PageRequest(0, CONCEPT_CODE_PAGE_SIZE + 1);
+        List<ConceptCode> conceptCodes;
+        if (StringUtils.isEmpty(pageToken)) {
+            conceptCodes = conceptCodeRepository.findFirstOrderByCodeAndId(pageRequest);
+        } else {
+            KeysetPageToken previous = KeysetPageToken.decode(pageToken);
+            conceptCodes = conceptCodeRepository.findAllAfterCodeAndId(previous.getCode(), previous.getId(),
+                    pageRequest);
+        }
+
+        String nextPageToken = null;
+        if (conceptCodes.size() > CONCEPT_CODE_PAGE_SIZE) {
+            conceptCodes = conceptCodes.subList(0, CONCEPT_CODE_PAGE_SIZE);
+            ConceptCode last = conceptCodes.get(CONCEPT_CODE_PAGE_SIZE - 1);
+            nextPageToken = new KeysetPageToken(last.getCode(), last.getId()).encode();
+        }
+
+        Map<String, Object> pageResultsMap = new HashMap<String, Object>();
+        pageResultsMap.put("conceptCodes", valueSetMgmtHelper
+                .convertConceptCodeEntitiesToDtos(conceptCodes));
+        pageResultsMap.put("nextPageToken", nextPageToken);
+        pageResultsMap.put("itemsPerPage", CONCEPT_CODE_PAGE_SIZE);
+        pageResultsMap.put("numberOfElements", conceptCodes.size());
+        if (approximateTotal) {
+            pageResultsMap.put("approximateTotalNumberOfConceptCodes",
+                    approximateRowCounter.countRows("concept_code"));
+        }
+
+        return pageResultsMap;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -285,12 +374,15 @@ public Map<String, Object> findAll(int pageNumber) {
     public Map<String, Object> findAllByCode(String searchTerm,
                                              String codeSystem, String codeSystemVersion, String valueSetName,
                                              int pageNumber) {
-        Sort sort = new Sort(new Order(Direction.ASC, "code"));
+        // ties are ordered by id, as in the search index
+        Sort sort = new Sort(new Order(Direction.ASC, "code"), new Order(Direction.ASC, "id"));
         PageRequest pageRequest = new PageRequest(pageNumber,
                 CONCEPT_CODE_PAGE_SIZE, sort);
 
-        Page<ConceptCode> pagedConceptCodes = conceptCodeRepository
-                .findAllByCodeLike("%" + searchTerm + "%", "%" + codeSystem
+        Page<Long> pagedIds = conceptCodeSearchIndex.findAllByCode(searchTerm,
+                codeSystem, codeSystemVersion, valueSetName, pageRequest);
+        Page<ConceptCode> pagedConceptCodes = (pagedIds != null) ? findAllByIds(pagedIds, pageRequest)
+                : conceptCodeRepository.findAllByCodeLike("%" + searchTerm + "%", "%" + codeSystem
                         + "%", "%" + codeSystemVersion + "%", "%"
                         + valueSetName + "%", pageRequest);
         logger.debug("Total Concept Codes: "
@@ -324,15 +416,18 @@ public Map<String, Object> findAllByCode(String searchTerm,
     public Map<String, Object> findAllByName(String searchTerm,
                                              String codeSystem, String codeSystemVersion, String valueSetName,
                                              int pageNumber) {
-        Sort sort = new Sort(new Order(Direction.ASC, "name"));
+        // ties are ordered by id, as in the search index
+        Sort sort = new Sort(new Order(Direction.ASC, "name"), new Order(Direction.ASC, "id"));
         PageRequest pageRequest = new PageRequest(pageNumber,
                 CONCEPT_CODE_PAGE_SIZE, sort);
 
         if (StringUtils.isEmpty(valueSetName))
             valueSetName = "%";
 
-        Page<ConceptCode> pagedConceptCodes = conceptCodeRepository
-                .findAllByName("%" + searchTerm + "%", "%" + codeSystem + "%",
+        Page<Long> pagedIds = conceptCodeSearchIndex.findAllByName(searchTerm,
+                codeSystem, codeSystemVersion, valueSetName, pageRequest);
+        Page<ConceptCode> pagedConceptCodes = (pagedIds != null) ? findAllByIds(pagedIds, pageRequest)
+                : conceptCodeRepository.findAllByName("%" + searchTerm + "%", "%" + codeSystem + "%",
                         "%" + codeSystemVersion + "%", valueSetName,
                         pageRequest);
         logger.debug("Total Concept Codes: "
@@ -503,6 +598,7 @@ public ConceptCodeDto create(ConceptCodeDto created)
         if (!isNewVS) {
             throw new DuplicateConceptCodeException();
         }
+        valueSetChangeBus.publishAfterCommit();
         return conceptCodeDto;
 
     }
@@ -526,27 +622,34 @@ public ConceptCodeDto conceptCodeBatchUpload(ConceptCodeDto conceptCodeDto,
         String userName = conceptCodeDto.getUserName();
 
         try {
-            List<ConceptCodeDto> listOfConceptCodeDtos = valueSetMgmtHelper
-                    .readConceptCodesFromFile(file, codeSystemId,
-                            codeSystemVersionId, valueSetIds, userName);
-
-            int rowsUpdated = 0;
+            final Long selectedCsvId = codeSystemVersionId;
+            final ConceptCodeBatchWriter.Batch[] batch = {null};
+            final int[] rowsUpdated = {0};
             // for batch upload
-            List<Integer> listOfDuplicateCodes = new ArrayList<Integer>();
-
-            // iterate rows with value set fields
-            for (int i = 0; i < listOfConceptCodeDtos.size(); i++) {
-
-                try {
-                    conceptCodeDto = create(listOfConceptCodeDtos.get(i));
-                    rowsUpdated = rowsUpdated
-                            + conceptCodeDto.getConceptCodesInserted();
-                } catch (DuplicateConceptCodeException e) {
-                    // adjusting for header row
-                    listOfDuplicateCodes.add(i + 2);
-                }
+            final List<Integer> listOfDuplicateCodes = new ArrayList<Integer>();
+
+            // rows with value set fields are handed over in chunks while the
+            // file is read, deduplicated in memory and written chunk by chunk
+            try (InputStream inputStream = file.getInputStream()) {
+                valueSetMgmtHelper.readConceptCodesFromFile(inputStream, codeSystemId,
+                        selectedCsvId, valueSetIds, userName, (rows, offset) -> {
+                            if (batch[0] == null) {
+                                batch[0] = openConceptCodeBatch(selectedCsvId, valueSetIds);
+                            }
+                            int[] inserted = addConceptCodes(batch[0], rows);
+                            for (int i = 0; i < inserted.length; i++) {
+                                if (inserted[i] == 0) {
+                                    // adjusting for header row
+                                    listOfDuplicateCodes.add(offset + i + 2);
+                                }
+                                rowsUpdated[0] = rowsUpdated[0] + inserted[i];
+                            }
+                        });
+            }
+            if (rowsUpdated[0] > 0) {
+                valueSetChangeBus.publishAfterCommit();
             }
-            conceptCodeDto.setConceptCodesInserted(rowsUpdated);
+            conceptCodeDto.setConceptCodesInserted(rowsUpdated[0]);
             conceptCodeDto.setListOfDuplicatesCodes(listOfDuplicateCodes);
 
         } catch (ValueSetNotFoundException ex) {
@@ -578,6 +681,98 @@ public ConceptCodeDto conceptCodeBatchUpload(ConceptCodeDto conceptCodeDto,
         return conceptCodeDto;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.ConceptCodeService#openConceptCodeBatch
+     * (java.lang.Long, java.util.List)
+     */
+    @Override
+    @Transactional
+    public ConceptCodeBatchWriter.Batch openConceptCodeBatch(Long codeSystemVersionId, List<Long> valueSetIds)
+            throws CodeSystemNotFoundException, ValueSetNotFoundException {
+        if (codeSystemVersionRepository.findOne(codeSystemVersionId) == null) {
+            logger.debug("No Code System version found with an id: "
+                    + codeSystemVersionId);
+            throw new CodeSystemNotFoundException();
+        }
+        for (Long valueSetId : valueSetIds) {
+            if (valueSetRepository.findOne(valueSetId) == null) {
+                logger.debug("No valueSet found with an id: " + valueSetId);
+                throw new ValueSetNotFoundException();
+            }
+        }
+        return conceptCodeBatchWriter.open(codeSystemVersionId, valueSetIds);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.ConceptCodeService#addConceptCodes
+     * (gov.samhsa.c2s.vss.service.ConceptCodeBatchWriter.Batch, java.util.List)
+     */
+    @Override
+    @Transactional
+    public int[] addConceptCodes(ConceptCodeBatchWriter.Batch batch, List<ConceptCodeDto> conceptCodeDtos) {
+        int[] inserted = new int[conceptCodeDtos.size()];
+        for (int i = 0; i < conceptCodeDtos.size(); i++) {
+            inserted[i] = batch.add(conceptCodeDtos.get(i));
+        }
+        batch.flush();
+        return inserted;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.ConceptCodeService#importCodeSystemVersion
+     * (java.lang.String, java.lang.String, java.lang.String, java.lang.String,
+     * org.springframework.web.multipart.MultipartFile)
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public CodeSystemVersionDiffDto importCodeSystemVersion(String codeSystemOid, String versionName,
+                                                            String description, String userName,
+                                                            MultipartFile file) throws IOException,
+            CodeSystemNotFoundException, ValueSetNotFoundException {
+        if (file.isEmpty()) {
+            throw new InvalidCSVException("File cannot be empty");
+        }
+        // the code system row stays locked until the import commits, so a
+        // concurrent import of the same code system diffs against this one
+        CodeSystem codeSystem = codeSystemRepository.findByCodeSystemOIdForUpdate(codeSystemOid);
+        if (codeSystem == null) {
+            logger.debug("No CodeSystem found with the oid: " + codeSystemOid);
+            throw new CodeSystemNotFoundException();
+        }
+        // the version the new one replaces, looked up before it is created
+        CodeSystemVersion baseVersion = codeSystemVersionRepository.findLatestVersionOfCodeSystem(codeSystem);
+
+        CodeSystemVersion codeSystemVersion = CodeSystemVersion
+                .getBuilder(null, versionName, userName)
+                .description(description != null ? description : "").build();
+        codeSystemVersion.setCodeSystem(codeSystem);
+        codeSystemVersion = codeSystemVersionRepository.save(codeSystemVersion);
+        final Long codeSystemVersionId = codeSystemVersion.getId();
+
+        final CodeSystemVersionDiffImporter.Diff diff = codeSystemVersionDiffImporter.open(
+                baseVersion != null ? baseVersion.getId() : null, codeSystemVersionId, userName);
+        try (InputStream inputStream = file.getInputStream()) {
+            valueSetMgmtHelper.readCodeSystemVersionFromFile(inputStream, codeSystem.getName(), codeSystemVersionId,
+                    userName, (rows, offset) -> diff.add(rows));
+        }
+        CodeSystemVersionDiffDto report = diff.finish();
+        report.setCodeSystemName(codeSystem.getName());
+        report.setCodeSystemVersionName(codeSystemVersion.getName());
+        if (baseVersion != null) {
+            report.setBaseCodeSystemVersionName(baseVersion.getName());
+        }
+
+        valueSetChangeBus.publishAfterCommit();
+        codeSystemVersionCache.evictAfterCommit(codeSystemOid);
+        return report;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -637,4 +832,30 @@ private List<Long> getAllValueSetIdsForConceptCode(Long conceptCodeId) {
         }
         return selValueSetIds;
     }
+
+    /**
+     * Loads the concept codes of a page of ids found by the search index,
+     * keeping the order of the ids. Concept codes deleted since the index was
+     * built are left out.
+     *
+     * @param pagedIds    the paged ids
+     * @param pageRequest the page request
+     * @return the paged concept codes
+     */
+    private Page<ConceptCode> findAllByIds(Page<Long> pagedIds, PageRequest pageRequest) {
+        Map<Long, ConceptCode> conceptCodesById = new HashMap<Long, ConceptCode>();
+        if (pagedIds.hasContent()) {
+            for (ConceptCode conceptCode : conceptCodeRepository.findAll(pagedIds.getContent())) {
+                conceptCodesById.put(conceptCode.getId(), conceptCode);
+            }
+        }
+        List<ConceptCode> conceptCodes = new ArrayList<ConceptCode>();
+        for (Long id : pagedIds.getContent()) {
+            ConceptCode conceptCode = conceptCodesById.get(id);
+            if (conceptCode != null) {
+                conceptCodes.add(conceptCode);
+            }
+        }
+        return new PageImpl<ConceptCode>(conceptCodes, pageRequest, pagedIds.getTotalElements());
+    }
 }
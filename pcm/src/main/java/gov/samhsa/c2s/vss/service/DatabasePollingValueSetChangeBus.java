@@ -0,0 +1,224 @@
+package gov.samhsa.c2s.vss.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * The Class DatabasePollingValueSetChangeBus.
+ * <p>
+ * Keeps the version of the value set data in a single row of the
+ * value_set_change_version table, so it needs nothing but the database the
+ * instances already share. Publishing increments the version just before the
+ * transaction of the change commits, and hands the call of the local
+ * subscribers to the task scheduler right after, so the committing request
+ * does not wait for the subscribers to reload their data. Every instance
+ * polls the version at a fixed delay on the same scheduler and calls its
+ * subscribers when it went up, so the other instances see a change within
+ * one poll interval.
+ */
+public class DatabasePollingValueSetChangeBus implements ValueSetChangeBus {
+
+    private static final String INCREMENT_VERSION_SQL = "update value_set_change_version "
+            + "set version = version + 1, last_updated_date_time = ? where id = 1";
+
+    private static final String SELECT_VERSION_SQL = "select version from value_set_change_version where id = 1";
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The jdbc operations.
+     */
+    private final JdbcOperations jdbcOperations;
+
+    /**
+     * The task scheduler running the polls and the deliveries.
+     */
+    private final TaskScheduler taskScheduler;
+
+    /**
+     * The delay between two polls in milliseconds, 0 to not poll.
+     */
+    private final long pollIntervalMillis;
+
+    /**
+     * The listeners.
+     */
+    private final List<ValueSetChangeListener> listeners = new CopyOnWriteArrayList<ValueSetChangeListener>();
+
+    /**
+     * The version of the latest change delivered to the listeners.
+     */
+    private volatile long version;
+
+    /**
+     * The scheduled poll.
+     */
+    private ScheduledFuture<?> poll;
+
+    /**
+     * Instantiates a new database polling value set change bus.
+     *
+     * @param jdbcOperations     the jdbc operations
+     * @param taskScheduler      the task scheduler running the polls and
+     *                           the deliveries
+     * @param pollIntervalMillis the delay between two polls in milliseconds,
+     *                           0 to only deliver local changes
+     */
+    public DatabasePollingValueSetChangeBus(JdbcOperations jdbcOperations, TaskScheduler taskScheduler,
+                                            long pollIntervalMillis) {
+        super();
+        this.jdbcOperations = jdbcOperations;
+        this.taskScheduler = taskScheduler;
+        this.pollIntervalMillis = pollIntervalMillis;
+    }
+
+    /**
+     * Reads the current version and starts polling. The data loaded at
+     * startup is up to date with the current version, so it is not
+     * delivered.
+     */
+    public synchronized void start() {
+        Long current = readVersion();
+        if (current != null) {
+            version = current;
+        }
+        if (pollIntervalMillis > 0 && poll == null) {
+            poll = taskScheduler.scheduleWithFixedDelay(this::poll, pollIntervalMillis);
+        }
+        logger.info("Value set change bus started at version " + version
+                + (poll != null ? ", polling every " + pollIntervalMillis + " ms" : ", not polling"));
+    }
+
+    /**
+     * Stops polling.
+     */
+    public synchronized void stop() {
+        if (poll != null) {
+            poll.cancel(false);
+            poll = null;
+        }
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.ValueSetChangeBus#publishAfterCommit()
+     */
+    @Override
+    public void publishAfterCommit() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            deliverLater(incrementVersion());
+            return;
+        }
+        if (TransactionSynchronizationManager.hasResource(this)) {
+            return;
+        }
+        TransactionSynchronizationManager.bindResource(this, Boolean.TRUE);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            private long published;
+
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                // incremented last, so the row lock serializing concurrent
+                // changes is held as briefly as possible
+                published = incrementVersion();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(DatabasePollingValueSetChangeBus.this);
+                if (status == STATUS_COMMITTED) {
+                    deliverLater(published);
+                }
+            }
+        });
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.ValueSetChangeBus#subscribe(gov.samhsa.c2s.vss.service.ValueSetChangeListener)
+     */
+    @Override
+    public void subscribe(ValueSetChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.ValueSetChangeBus#getVersion()
+     */
+    @Override
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Reads the version and delivers it if other instances changed the value
+     * set data since the last delivery.
+     */
+    public void poll() {
+        Long current = readVersion();
+        if (current != null && current > version) {
+            logger.debug("Value set data changed on another instance, version: " + current);
+            deliver(current);
+        }
+    }
+
+    private long incrementVersion() {
+        jdbcOperations.update(INCREMENT_VERSION_SQL, new Timestamp(System.currentTimeMillis()));
+        return jdbcOperations.queryForObject(SELECT_VERSION_SQL, Long.class);
+    }
+
+    private Long readVersion() {
+        try {
+            List<Long> versions = jdbcOperations.queryForList(SELECT_VERSION_SQL, Long.class);
+            return versions.isEmpty() ? null : versions.get(0);
+        } catch (DataAccessException e) {
+            logger.warn("Unable to read the value set change version: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private void deliverLater(long changed) {
+        try {
+            taskScheduler.schedule(() -> deliver(changed), new Date());
+        } catch (TaskRejectedException e) {
+            // the version is already incremented, so the next poll delivers it
+            logger.warn("Unable to schedule delivery of value set change version " + changed + ": "
+                    + e.getMessage());
+        }
+    }
+
+    private synchronized void deliver(long changed) {
+        // a change can be seen both locally and by a poll, and a poll can
+        // already have delivered a later change
+        if (changed <= version) {
+            return;
+        }
+        version = changed;
+        for (ValueSetChangeListener listener : listeners) {
+            try {
+                listener.valueSetDataChanged(changed);
+            } catch (RuntimeException e) {
+                logger.error("Value set change listener failed for version " + changed, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package gov.samhsa.c2s.vss.service;
+
+import java.util.List;
+
+/**
+ * The Interface ImportChunkHandler.
+ * <p>
+ * Receives the rows of a batch upload file in chunks, as they are read.
+ *
+ * @param <T> the row type
+ */
+public interface ImportChunkHandler<T> {
+
+    /**
+     * Handles the next chunk of rows.
+     *
+     * @param rows   the rows of the chunk
+     * @param offset the number of rows handed over in previous chunks
+     * @throws ValueSetNotFoundException   the value set not found exception
+     * @throws CodeSystemNotFoundException the code system not found exception
+     */
+    void handle(List<T> rows, int offset) throws ValueSetNotFoundException,
+            CodeSystemNotFoundException;
+}
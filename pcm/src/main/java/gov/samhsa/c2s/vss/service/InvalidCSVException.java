@@ -1,8 +1,12 @@
 package gov.samhsa.c2s.vss.service;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
 /**
  * The Class InvalidCSVException.
  */
+@ResponseStatus(HttpStatus.BAD_REQUEST)
 public class InvalidCSVException extends RuntimeException {
 
 	/** The Constant serialVersionUID. */
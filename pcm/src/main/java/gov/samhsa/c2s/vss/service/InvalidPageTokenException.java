@@ -0,0 +1,20 @@
+package gov.samhsa.c2s.vss.service;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.BAD_REQUEST)
+public class InvalidPageTokenException extends RuntimeException {
+
+	/** The Constant serialVersionUID. */
+	private static final long serialVersionUID = 4467051820273816214L;
+
+	/**
+	 * Instantiates a new invalid page token exception.
+	 *
+	 * @param msg the msg
+	 */
+	public InvalidPageTokenException(String msg) {
+		super(msg);
+	}
+}
@@ -0,0 +1,68 @@
+package gov.samhsa.c2s.vss.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The Class KeysetPageToken.
+ * <p>
+ * The position of a keyset page: the code and id of the last row of the
+ * previous page, for listings ordered by (code, id). Clients receive it as
+ * an opaque URL safe string and send it back unchanged to get the next page.
+ */
+final class KeysetPageToken {
+
+    /**
+     * The code of the last row of the previous page.
+     */
+    private final String code;
+
+    /**
+     * The id of the last row of the previous page.
+     */
+    private final Long id;
+
+    KeysetPageToken(String code, Long id) {
+        this.code = code;
+        this.id = id;
+    }
+
+    String getCode() {
+        return code;
+    }
+
+    Long getId() {
+        return id;
+    }
+
+    /**
+     * Encodes the token.
+     *
+     * @return the opaque token
+     */
+    String encode() {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((id + ":" + code).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes a token returned by {@link #encode()}.
+     *
+     * @param token the opaque token
+     * @return the page token
+     * @throws InvalidPageTokenException if the token was not issued by this class
+     */
+    static KeysetPageToken decode(String token) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf(':');
+            if (separator > 0) {
+                return new KeysetPageToken(decoded.substring(separator + 1),
+                        Long.valueOf(decoded.substring(0, separator)));
+            }
+        } catch (IllegalArgumentException e) {
+            // not base64 or not a number, reported below
+        }
+        throw new InvalidPageTokenException("Invalid page token: " + token);
+    }
+}
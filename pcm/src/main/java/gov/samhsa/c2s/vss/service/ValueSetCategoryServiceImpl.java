@@ -4,6 +4,7 @@
 import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategory;
 import gov.samhsa.c2s.vss.service.dto.ValueSetCategoryDto;
 import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategoryRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ValueSetRepository;
 import gov.samhsa.c2s.vss.service.dto.ValueSetCategoryFieldsDto;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,22 +34,36 @@ public class ValueSetCategoryServiceImpl implements ValueSetCategoryService {
      * The consent repository.
      */
     private ConsentRepository consentRepository;
+    /**
+     * The value set repository.
+     */
+    private ValueSetRepository valueSetRepository;
+    /**
+     * The value set change bus.
+     */
+    private ValueSetChangeBus valueSetChangeBus;
 
     /**
      * Instantiates a new value set category service impl.
      *
      * @param valueSetCategoryRepository the value set category repository
      * @param consentRepository          the consent repository
+     * @param valueSetRepository         the value set repository
      * @param valueSetMgmtHelper         the value set mgmt helper
+     * @param valueSetChangeBus          the value set change bus
      */
     public ValueSetCategoryServiceImpl(
             ValueSetCategoryRepository valueSetCategoryRepository,
             ConsentRepository consentRepository,
-            ValueSetMgmtHelper valueSetMgmtHelper) {
+            ValueSetRepository valueSetRepository,
+            ValueSetMgmtHelper valueSetMgmtHelper,
+            ValueSetChangeBus valueSetChangeBus) {
         super();
         this.valueSetCategoryRepository = valueSetCategoryRepository;
         this.consentRepository = consentRepository;
+        this.valueSetRepository = valueSetRepository;
         this.valueSetMgmtHelper = valueSetMgmtHelper;
+        this.valueSetChangeBus = valueSetChangeBus;
     }
 
     /*
@@ -69,6 +84,7 @@ public ValueSetCategoryDto create(ValueSetCategoryDto created) {
                 .getBuilder(created.getCode(), created.getName(),
                         created.getUserName()).description(description).build();
         valueSetCategory = valueSetCategoryRepository.save(valueSetCategory);
+        valueSetChangeBus.publishAfterCommit();
         return valueSetMgmtHelper.createValuesetCategoryDtoFromEntity(
                 valueSetCategory, consentRepository);
     }
@@ -93,6 +109,7 @@ public ValueSetCategoryDto delete(Long valueSetCategoryId)
             throw new ValueSetCategoryNotFoundException();
         }
         valueSetCategoryRepository.delete(deleted);
+        valueSetChangeBus.publishAfterCommit();
         return valueSetMgmtHelper.createValuesetCategoryDtoFromEntity(deleted,
                 consentRepository);
     }
@@ -110,7 +127,7 @@ public List<ValueSetCategoryDto> findAll() {
         List<ValueSetCategory> valueSetCategories = valueSetCategoryRepository
                 .findAll();
         return valueSetMgmtHelper.convertValueSetCategoryEntitiesToDtos(
-                valueSetCategories, consentRepository);
+                valueSetCategories, valueSetRepository, consentRepository);
     }
 
     /*
@@ -152,6 +169,7 @@ public ValueSetCategoryDto update(ValueSetCategoryDto updated)
 
         valueSetCategory.update(updated.getCode(), updated.getName(),
                 updated.getDescription(), updated.getUserName());
+        valueSetChangeBus.publishAfterCommit();
         return valueSetMgmtHelper.createValuesetCategoryDtoFromEntity(
                 valueSetCategory, consentRepository);
     }
@@ -0,0 +1,33 @@
+package gov.samhsa.c2s.vss.service;
+
+/**
+ * The Interface ValueSetChangeBus.
+ * <p>
+ * Tells every PCM instance that the value set data changed, so that their
+ * in-memory copies of it are refreshed. Each change gets a new, increasing
+ * version shared by all instances; subscribers are called once for each
+ * version they see, possibly skipping versions that came in together.
+ */
+public interface ValueSetChangeBus {
+
+    /**
+     * Publishes a change of the value set data once the current transaction
+     * commits, or immediately when there is no active transaction. Any number
+     * of calls within the same transaction publish a single change.
+     */
+    void publishAfterCommit();
+
+    /**
+     * Subscribes to the changes published by this and the other instances.
+     *
+     * @param listener the listener
+     */
+    void subscribe(ValueSetChangeListener listener);
+
+    /**
+     * Gets the version of the latest change seen by this instance.
+     *
+     * @return the version
+     */
+    long getVersion();
+}
@@ -0,0 +1,16 @@
+package gov.samhsa.c2s.vss.service;
+
+/**
+ * The Interface ValueSetChangeListener.
+ * <p>
+ * Refreshes data derived from the value set data when it changes.
+ */
+public interface ValueSetChangeListener {
+
+    /**
+     * Called after the value set data changed, on this or another instance.
+     *
+     * @param version the version of the change
+     */
+    void valueSetDataChanged(long version);
+}
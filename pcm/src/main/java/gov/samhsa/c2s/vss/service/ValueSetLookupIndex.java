@@ -0,0 +1,270 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.valueset.CodeSystemVersionRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ConceptCodeRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The Class ValueSetLookupIndex.
+ * <p>
+ * Immutable in-memory index of the value set category codes of every concept
+ * code in the latest version of its code system, keyed by code system oid and
+ * code. The index is loaded in one query and replaced as a whole whenever the
+ * value set data changes, so lookups never hit the database.
+ * <p>
+ * When the full index is disabled, only a compact bloom filter of the code
+ * system oid and code pairs is loaded instead, so that codes which are in none
+ * of the code systems can be rejected without a database lookup. The full
+ * index answers misses exactly, so it does not keep a filter.
+ * <p>
+ * The index is rebuilt by the {@link ValueSetChangeBus} subscription made in
+ * the configuration, after changes made on this or another instance. The bus
+ * calls it on its own thread, and lookups keep using the previous snapshot
+ * until the new one is loaded.
+ */
+public class ValueSetLookupIndex {
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The false positive probability of the negative lookup filter.
+     */
+    private static final double FILTER_FALSE_POSITIVE_PROBABILITY = 0.01;
+
+    /**
+     * Whether lookups are served from the index.
+     */
+    private final boolean enabled;
+
+    /**
+     * The concept code repository.
+     */
+    private final ConceptCodeRepository conceptCodeRepository;
+
+    /**
+     * The code system version repository.
+     */
+    private final CodeSystemVersionRepository codeSystemVersionRepository;
+
+    /**
+     * The current snapshot, replaced atomically on rebuild.
+     */
+    private volatile Snapshot snapshot;
+
+    /**
+     * Instantiates a new value set lookup index.
+     *
+     * @param enabled                     whether lookups are served from the index
+     * @param conceptCodeRepository       the concept code repository
+     * @param codeSystemVersionRepository the code system version repository
+     */
+    public ValueSetLookupIndex(boolean enabled,
+                               ConceptCodeRepository conceptCodeRepository,
+                               CodeSystemVersionRepository codeSystemVersionRepository) {
+        super();
+        this.enabled = enabled;
+        this.conceptCodeRepository = conceptCodeRepository;
+        this.codeSystemVersionRepository = codeSystemVersionRepository;
+    }
+
+    /**
+     * Checks if lookups are served from the index. When disabled, only the
+     * negative lookup filter is loaded and callers resolve value set categories
+     * from the database after checking it.
+     *
+     * @return true, if enabled
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Finds the value set category codes of a concept code.
+     *
+     * @param code          the code
+     * @param codeSystemOid the code system oid
+     * @return the value set category codes
+     * @throws CodeSystemVersionNotFoundException the code system version not found exception
+     * @throws ConceptCodeNotFoundException       the concept code not found exception
+     */
+    public Set<String> findValueSetCategoryCodes(String code, String codeSystemOid)
+            throws CodeSystemVersionNotFoundException, ConceptCodeNotFoundException {
+        Snapshot current = getSnapshot();
+
+        String latestVersionName = current.latestVersionNames.get(codeSystemOid);
+        if (latestVersionName == null) {
+            logger.debug("No CodeSystem found with the oid: " + codeSystemOid);
+            throw new CodeSystemVersionNotFoundException(
+                    codeSystemVersionNotFoundMessage(codeSystemOid));
+        }
+
+        Map<String, Set<String>> categoryCodesByCode = current.categoryCodes.get(codeSystemOid);
+        Set<String> categoryCodes = (categoryCodesByCode == null) ? null : categoryCodesByCode.get(code);
+        if (categoryCodes == null) {
+            // misses are the common case, so skip filling in the stack trace
+            throw new ConceptCodeNotFoundException(
+                    conceptCodeNotFoundMessage(codeSystemOid, latestVersionName), false);
+        }
+
+        // callers are allowed to modify the returned set
+        return new HashSet<String>(categoryCodes);
+    }
+
+    /**
+     * Checks the negative lookup filter for a concept code. Returns the reason
+     * the concept code cannot be found when the code system is known and the
+     * code is definitely not in its latest version, or null when it might be.
+     * Unknown code systems are left to the regular lookup to report. The filter
+     * is only loaded when the index is disabled, otherwise this always returns
+     * null.
+     *
+     * @param code          the code
+     * @param codeSystemOid the code system oid
+     * @return the miss message, or null if the concept code might exist
+     */
+    public String findMissMessage(String code, String codeSystemOid) {
+        Snapshot current = getSnapshot();
+
+        String latestVersionName = current.latestVersionNames.get(codeSystemOid);
+        if (current.knownCodes == null || latestVersionName == null
+                || current.knownCodes.mightContain(codeSystemOid, code)) {
+            return null;
+        }
+        return conceptCodeNotFoundMessage(codeSystemOid, latestVersionName);
+    }
+
+    /**
+     * Reloads the index from the database and swaps it in. If the reload
+     * fails, the previous snapshot is kept.
+     */
+    public synchronized void rebuild() {
+        long start = System.currentTimeMillis();
+        try {
+            snapshot = load();
+            logger.info("Value set lookup " + (enabled ? "index" : "filter") + " rebuilt with " + snapshot.size
+                    + " concept codes in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (RuntimeException e) {
+            logger.error("Unable to rebuild value set lookup index, keeping previous snapshot", e);
+            if (snapshot == null) {
+                throw e;
+            }
+        }
+    }
+
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    rebuild();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    private Snapshot load() {
+        Map<String, String> latestVersionNames = new HashMap<String, String>();
+        for (Object[] row : codeSystemVersionRepository.findLatestVersionOfEachCodeSystem()) {
+            latestVersionNames.put((String) row[0], (String) row[2]);
+        }
+
+        if (!enabled) {
+            List<Object[]> rows = conceptCodeRepository.findAllCodesOfLatestCodeSystemVersions();
+            ConceptCodeBloomFilter knownCodes = new ConceptCodeBloomFilter(rows.size(),
+                    FILTER_FALSE_POSITIVE_PROBABILITY);
+            for (Object[] row : rows) {
+                knownCodes.put((String) row[0], (String) row[1]);
+            }
+            return new Snapshot(Collections.unmodifiableMap(latestVersionNames),
+                    Collections.<String, Map<String, Set<String>>>emptyMap(), knownCodes, rows.size());
+        }
+
+        List<Object[]> rows = conceptCodeRepository.findAllCodeAndCategoryCodesOfLatestCodeSystemVersions();
+        Map<String, Map<String, Set<String>>> building = new HashMap<String, Map<String, Set<String>>>();
+        for (Object[] row : rows) {
+            String codeSystemOid = (String) row[0];
+            String code = (String) row[1];
+            String categoryCode = (String) row[2];
+
+            Map<String, Set<String>> categoryCodesByCode = building.get(codeSystemOid);
+            if (categoryCodesByCode == null) {
+                categoryCodesByCode = new HashMap<String, Set<String>>();
+                building.put(codeSystemOid, categoryCodesByCode);
+            }
+            Set<String> categoryCodes = categoryCodesByCode.get(code);
+            if (categoryCodes == null) {
+                categoryCodes = new HashSet<String>();
+                categoryCodesByCode.put(code, categoryCodes);
+            }
+            if (categoryCode != null) {
+                categoryCodes.add(categoryCode);
+            }
+        }
+
+        // most codes share one of a handful of category combinations, so keep a
+        // single unmodifiable instance of each distinct combination
+        Map<Set<String>, Set<String>> canonicalSets = new HashMap<Set<String>, Set<String>>();
+        Map<String, Map<String, Set<String>>> categoryCodes = new HashMap<String, Map<String, Set<String>>>();
+        int size = 0;
+        for (Map.Entry<String, Map<String, Set<String>>> codeSystemEntry : building.entrySet()) {
+            Map<String, Set<String>> categoryCodesByCode = new HashMap<String, Set<String>>(
+                    codeSystemEntry.getValue().size() * 4 / 3 + 1);
+            for (Map.Entry<String, Set<String>> codeEntry : codeSystemEntry.getValue().entrySet()) {
+                Set<String> canonical = canonicalSets.get(codeEntry.getValue());
+                if (canonical == null) {
+                    canonical = Collections.unmodifiableSet(codeEntry.getValue());
+                    canonicalSets.put(codeEntry.getValue(), canonical);
+                }
+                categoryCodesByCode.put(codeEntry.getKey(), canonical);
+                size++;
+            }
+            categoryCodes.put(codeSystemEntry.getKey(), Collections.unmodifiableMap(categoryCodesByCode));
+        }
+
+        return new Snapshot(Collections.unmodifiableMap(latestVersionNames),
+                Collections.unmodifiableMap(categoryCodes), null, size);
+    }
+
+    private static String codeSystemVersionNotFoundMessage(String codeSystemOid) {
+        return "No Code System Versions found for the given codesystem oid"
+                + codeSystemOid;
+    }
+
+    private static String conceptCodeNotFoundMessage(String codeSystemOid, String latestVersionName) {
+        return "No Concept Code found for the given Code System  oid: "
+                + codeSystemOid + " And its latest version name: "
+                + latestVersionName;
+    }
+
+    /**
+     * An immutable view of the index.
+     */
+    private static final class Snapshot {
+        private final Map<String, String> latestVersionNames;
+        private final Map<String, Map<String, Set<String>>> categoryCodes;
+        private final ConceptCodeBloomFilter knownCodes;
+        private final int size;
+
+        private Snapshot(Map<String, String> latestVersionNames,
+                         Map<String, Map<String, Set<String>>> categoryCodes,
+                         ConceptCodeBloomFilter knownCodes, int size) {
+            this.latestVersionNames = latestVersionNames;
+            this.categoryCodes = categoryCodes;
+            this.knownCodes = knownCodes;
+            this.size = size;
+        }
+    }
+}
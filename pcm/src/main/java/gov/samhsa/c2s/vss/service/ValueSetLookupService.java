@@ -1,9 +1,12 @@
 package gov.samhsa.c2s.vss.service;
 
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeAndCodeSystemOidDto;
 import gov.samhsa.c2s.vss.service.dto.ValueSetQueryDto;
 import gov.samhsa.c2s.vss.service.dto.ValueSetQueryListDto;
 import gov.samhsa.c2s.vss.service.dto.ValueSetLookUpDto;
 
+import java.util.List;
+
 public interface ValueSetLookupService {
 
     public ValueSetLookUpDto lookupValueSetCategories(String code, String codeSystemOid) throws CodeSystemVersionNotFoundException, ConceptCodeNotFoundException, ValueSetNotFoundException;
@@ -12,4 +15,14 @@ public interface ValueSetLookupService {
 
     public ValueSetQueryListDto restfulValueSetCategories(ValueSetQueryListDto valueSetQueryListDtos) throws CodeSystemVersionNotFoundException, ConceptCodeNotFoundException, ValueSetNotFoundException;
 
+    /**
+     * Looks up the value set categories of many concept codes at once. The
+     * results are returned in the order of the given codes; a code that cannot
+     * be resolved gets an error message instead of failing the whole lookup.
+     *
+     * @param conceptCodeAndCodeSystemOidDtos the concept codes and their code system oids
+     * @return the value set query dtos
+     */
+    public List<ValueSetQueryDto> restfulValueSetCategories(List<ConceptCodeAndCodeSystemOidDto> conceptCodeAndCodeSystemOidDtos);
+
 }
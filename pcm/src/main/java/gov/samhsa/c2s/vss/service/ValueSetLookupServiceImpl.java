@@ -1,14 +1,21 @@
 package gov.samhsa.c2s.vss.service;
 
 import gov.samhsa.c2s.pcm.domain.valueset.*;
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeAndCodeSystemOidDto;
 import gov.samhsa.c2s.vss.service.dto.ValueSetQueryDto;
 import gov.samhsa.c2s.vss.service.dto.ValueSetQueryListDto;
 import gov.samhsa.c2s.vss.service.dto.ValueSetLookUpDto;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -20,6 +27,18 @@ public class ValueSetLookupServiceImpl implements ValueSetLookupService {
      * The logger.
      */
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    /**
+     * The maximum number of values bound to a single IN list.
+     */
+    private static final int LOOKUP_CHUNK_SIZE = 500;
+    /**
+     * The error message of a query without concept code.
+     */
+    private static final String CONCEPT_CODE_REQUIRED = "Concept code is required";
+    /**
+     * The counter of lookups rejected by the negative lookup filter.
+     */
+    static final String FILTERED_MISSES_METRIC = "counter.vss.lookup.filteredMisses";
     /**
      * The code system repository.
      */
@@ -44,6 +63,18 @@ public class ValueSetLookupServiceImpl implements ValueSetLookupService {
      * The value set repository.
      */
     private ValueSetRepository valueSetRepository;
+    /**
+     * The value set lookup index.
+     */
+    private ValueSetLookupIndex valueSetLookupIndex;
+    /**
+     * The code system version cache.
+     */
+    private CodeSystemVersionCache codeSystemVersionCache;
+    /**
+     * The counter service.
+     */
+    private CounterService counterService;
 
     /**
      * Instantiates a new value set lookup service impl.
@@ -54,6 +85,9 @@ public class ValueSetLookupServiceImpl implements ValueSetLookupService {
      * @param codeSystemVersionRepository   the code system version repository
      * @param conceptCodeValueSetRepository the concept code value set repository
      * @param valueSetMgmtHelper            the value set mgmt helper
+     * @param valueSetLookupIndex           the value set lookup index
+     * @param counterService                the counter service
+     * @param codeSystemVersionCache        the code system version cache
      */
     public ValueSetLookupServiceImpl(
             ConceptCodeRepository conceptCodeRepository,
@@ -61,7 +95,10 @@ public ValueSetLookupServiceImpl(
             CodeSystemRepository codeSystemRepository,
             CodeSystemVersionRepository codeSystemVersionRepository,
             ConceptCodeValueSetRepository conceptCodeValueSetRepository,
-            ValueSetMgmtHelper valueSetMgmtHelper) {
+            ValueSetMgmtHelper valueSetMgmtHelper,
+            ValueSetLookupIndex valueSetLookupIndex,
+            CounterService counterService,
+            CodeSystemVersionCache codeSystemVersionCache) {
         super();
         this.conceptCodeRepository = conceptCodeRepository;
         this.valueSetRepository = valueSetRepository;
@@ -69,6 +106,9 @@ public ValueSetLookupServiceImpl(
         this.codeSystemVersionRepository = codeSystemVersionRepository;
         this.conceptCodeValueSetRepository = conceptCodeValueSetRepository;
         this.valueSetMgmtHelper = valueSetMgmtHelper;
+        this.valueSetLookupIndex = valueSetLookupIndex;
+        this.counterService = counterService;
+        this.codeSystemVersionCache = codeSystemVersionCache;
     }
 
     /*
@@ -126,16 +166,158 @@ public ValueSetQueryListDto restfulValueSetCategories(
         Set<ValueSetQueryDto> valueSetQueryDtos = valueSetQueryListDtos
                 .getValueSetQueryDtos();
 
+        resolveValueSetCategories(valueSetQueryDtos);
         for (ValueSetQueryDto valueSetQueryDto : valueSetQueryDtos) {
-            valueSetQueryDto.setVsCategoryCodes(valueSetCategoriesInSet(
-                    valueSetQueryDto.getConceptCode(),
-                    valueSetQueryDto.getCodeSystemOid()));
             logger.debug("ValueSetQueryDto : " + valueSetQueryDto);
         }
 
         return valueSetQueryListDtos;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.consent2share.service.valueset.ValueSetLookupService#
+     * restfulValueSetCategories(java.util.List)
+     */
+    @Override
+    public List<ValueSetQueryDto> restfulValueSetCategories(
+            List<ConceptCodeAndCodeSystemOidDto> conceptCodeAndCodeSystemOidDtos) {
+        List<ValueSetQueryDto> valueSetQueryDtos = new ArrayList<ValueSetQueryDto>(
+                conceptCodeAndCodeSystemOidDtos.size());
+        for (ConceptCodeAndCodeSystemOidDto conceptCodeAndCodeSystemOidDto : conceptCodeAndCodeSystemOidDtos) {
+            ValueSetQueryDto valueSetQueryDto = new ValueSetQueryDto();
+            valueSetQueryDto.setConceptCode(conceptCodeAndCodeSystemOidDto.getConceptCode());
+            valueSetQueryDto.setCodeSystemOid(conceptCodeAndCodeSystemOidDto.getCodeSystemOid());
+            valueSetQueryDtos.add(valueSetQueryDto);
+        }
+
+        resolveValueSetCategories(valueSetQueryDtos);
+
+        return valueSetQueryDtos;
+    }
+
+    /**
+     * Resolves the value set categories of each of the given queries. A query
+     * that cannot be resolved gets an error message instead of failing the
+     * whole batch.
+     *
+     * @param valueSetQueryDtos the value set query dtos
+     */
+    private void resolveValueSetCategories(Collection<ValueSetQueryDto> valueSetQueryDtos) {
+        for (ValueSetQueryDto valueSetQueryDto : valueSetQueryDtos) {
+            valueSetQueryDto.setConceptCode(trim(valueSetQueryDto.getConceptCode()));
+            valueSetQueryDto.setCodeSystemOid(trim(valueSetQueryDto.getCodeSystemOid()));
+        }
+        if (!valueSetLookupIndex.isEnabled()) {
+            resolveFromRepositories(valueSetQueryDtos);
+            return;
+        }
+        for (ValueSetQueryDto valueSetQueryDto : valueSetQueryDtos) {
+            if (isBlank(valueSetQueryDto.getConceptCode())) {
+                valueSetQueryDto.setErrorMessage(CONCEPT_CODE_REQUIRED);
+                continue;
+            }
+            try {
+                valueSetQueryDto.setVsCategoryCodes(valueSetCategoriesInSet(
+                        valueSetQueryDto.getConceptCode(),
+                        valueSetQueryDto.getCodeSystemOid()));
+            } catch (CodeSystemVersionNotFoundException | ConceptCodeNotFoundException | ValueSetNotFoundException e) {
+                logger.debug(e.getMessage());
+                valueSetQueryDto.setErrorMessage(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Resolves the value set categories of the given queries with a few
+     * set-based queries, one per chunk of distinct codes of the latest version
+     * of each code system. Codes are matched the way the concept code unique
+     * key compares them, so a code that differs from the stored one only in
+     * case still resolves.
+     *
+     * @param valueSetQueryDtos the value set query dtos
+     */
+    private void resolveFromRepositories(Collection<ValueSetQueryDto> valueSetQueryDtos) {
+        // group the queries by code system oid and code key
+        Map<String, Map<String, List<ValueSetQueryDto>>> queriesByOid = new HashMap<String, Map<String, List<ValueSetQueryDto>>>();
+        for (ValueSetQueryDto valueSetQueryDto : valueSetQueryDtos) {
+            if (isBlank(valueSetQueryDto.getConceptCode())) {
+                valueSetQueryDto.setErrorMessage(CONCEPT_CODE_REQUIRED);
+                continue;
+            }
+            if (isFilteredMiss(valueSetQueryDto)) {
+                continue;
+            }
+            Map<String, List<ValueSetQueryDto>> queriesByCode = queriesByOid.get(valueSetQueryDto.getCodeSystemOid());
+            if (queriesByCode == null) {
+                queriesByCode = new HashMap<String, List<ValueSetQueryDto>>();
+                queriesByOid.put(valueSetQueryDto.getCodeSystemOid(), queriesByCode);
+            }
+            String codeKey = ConceptCodeBatchWriter.codeKey(valueSetQueryDto.getConceptCode());
+            List<ValueSetQueryDto> queries = queriesByCode.get(codeKey);
+            if (queries == null) {
+                queries = new ArrayList<ValueSetQueryDto>();
+                queriesByCode.put(codeKey, queries);
+            }
+            queries.add(valueSetQueryDto);
+        }
+        if (queriesByOid.isEmpty()) {
+            return;
+        }
+
+        for (Map.Entry<String, Map<String, List<ValueSetQueryDto>>> oidEntry : queriesByOid.entrySet()) {
+            String codeSystemOid = oidEntry.getKey();
+            Map<String, List<ValueSetQueryDto>> queriesByCode = oidEntry.getValue();
+            // 1.Get the latest code system version of the code system oid
+            CodeSystemVersionCache.LatestVersion latestVersion = codeSystemVersionCache
+                    .findLatestVersion(codeSystemOid);
+            if (latestVersion == null) {
+                logger.debug("No CodeSystem found with the oid: " + codeSystemOid);
+                setErrorMessage(queriesByCode.values(),
+                        "No Code System Versions found for the given codesystem oid"
+                                + codeSystemOid);
+                continue;
+            }
+
+            // 2.Get the category codes of all the requested codes of the
+            // latest version
+            List<String> requestedCodes = new ArrayList<String>(queriesByCode.size());
+            for (List<ValueSetQueryDto> queries : queriesByCode.values()) {
+                requestedCodes.add(queries.get(0).getConceptCode());
+            }
+            Map<String, Set<String>> categoryCodesByCode = new HashMap<String, Set<String>>();
+            for (List<String> codes : chunk(requestedCodes)) {
+                for (Object[] row : conceptCodeRepository
+                        .findAllCodeAndCategoryCodesByCodeSystemVersionIdAndCodeIn(latestVersion.getId(), codes)) {
+                    String codeKey = ConceptCodeBatchWriter.codeKey((String) row[0]);
+                    Set<String> categoryCodes = categoryCodesByCode.get(codeKey);
+                    if (categoryCodes == null) {
+                        categoryCodes = new HashSet<String>();
+                        categoryCodesByCode.put(codeKey, categoryCodes);
+                    }
+                    if (row[1] != null) {
+                        categoryCodes.add((String) row[1]);
+                    }
+                }
+            }
+
+            for (Map.Entry<String, List<ValueSetQueryDto>> codeEntry : queriesByCode.entrySet()) {
+                Set<String> categoryCodes = categoryCodesByCode.get(codeEntry.getKey());
+                if (categoryCodes == null) {
+                    setErrorMessage(Collections.singleton(codeEntry.getValue()),
+                            "No Concept Code found for the given Code System  oid: "
+                                    + codeSystemOid + " And its latest version name: "
+                                    + latestVersion.getName());
+                    continue;
+                }
+                for (ValueSetQueryDto valueSetQueryDto : codeEntry.getValue()) {
+                    valueSetQueryDto.setVsCategoryCodes(new HashSet<String>(categoryCodes));
+                }
+            }
+        }
+    }
+
     /**
      * Value set categories in set.
      *
@@ -150,25 +332,38 @@ private Set<String> valueSetCategoriesInSet(String code,
                                                 String codeSystemOid) throws CodeSystemVersionNotFoundException,
             ConceptCodeNotFoundException, ValueSetNotFoundException {
 
-        Set<String> vsCategories = new HashSet<String>();
-
         // validate the inputs
         if (null == code || code.length() <= 0) {
             throw new ConceptCodeNotFoundException();
         }
 
+        if (valueSetLookupIndex.isEnabled()) {
+            // Resolve the categories of the concept code in the latest version
+            // of the code system from the preloaded index
+            return valueSetLookupIndex.findValueSetCategoryCodes(code.trim(),
+                    codeSystemOid);
+        }
+
+        // Reject codes that are definitely not in the code system without
+        // looking them up
+        String missMessage = valueSetLookupIndex.findMissMessage(code.trim(), codeSystemOid);
+        if (missMessage != null) {
+            counterService.increment(FILTERED_MISSES_METRIC);
+            throw new ConceptCodeNotFoundException(missMessage, false);
+        }
+
+        Set<String> vsCategories = new HashSet<String>();
+
         // 1.Get latest version of Code System version for the given code system
         // oid
-        List<CodeSystemVersion> codeSystemVersions = codeSystemVersionRepository
-                .findAllByCodeSystemCodeSystemOIdOrderByIdDesc(codeSystemOid);
-        if (codeSystemVersions == null || codeSystemVersions.size() <= 0) {
+        CodeSystemVersionCache.LatestVersion codeSystemVersion = codeSystemVersionCache
+                .findLatestVersion(codeSystemOid);
+        if (codeSystemVersion == null) {
             logger.debug("No CodeSystem found with the oid: " + codeSystemOid);
             throw new CodeSystemVersionNotFoundException(
                     "No Code System Versions found for the given codesystem oid"
                             + codeSystemOid);
         }
-        // Get the latest version
-        CodeSystemVersion codeSystemVersion = codeSystemVersions.get(0);
 
         // 2.Get the concept code for the given code and the latest code system
         // version
@@ -197,4 +392,40 @@ private Set<String> valueSetCategoriesInSet(String code,
 
         return vsCategories;
     }
+
+    private boolean isFilteredMiss(ValueSetQueryDto valueSetQueryDto) {
+        String missMessage = valueSetLookupIndex.findMissMessage(valueSetQueryDto.getConceptCode(),
+                valueSetQueryDto.getCodeSystemOid());
+        if (missMessage == null) {
+            return false;
+        }
+        counterService.increment(FILTERED_MISSES_METRIC);
+        valueSetQueryDto.setErrorMessage(missMessage);
+        return true;
+    }
+
+    private void setErrorMessage(Collection<List<ValueSetQueryDto>> queries, String errorMessage) {
+        logger.debug(errorMessage);
+        for (List<ValueSetQueryDto> valueSetQueryDtos : queries) {
+            for (ValueSetQueryDto valueSetQueryDto : valueSetQueryDtos) {
+                valueSetQueryDto.setErrorMessage(errorMessage);
+            }
+        }
+    }
+
+    private static <T> List<List<T>> chunk(List<T> values) {
+        List<List<T>> chunks = new ArrayList<List<T>>();
+        for (int i = 0; i < values.size(); i += LOOKUP_CHUNK_SIZE) {
+            chunks.add(values.subList(i, Math.min(i + LOOKUP_CHUNK_SIZE, values.size())));
+        }
+        return chunks;
+    }
+
+    private static boolean isBlank(String value) {
+        return value == null || value.trim().length() == 0;
+    }
+
+    private static String trim(String value) {
+        return value == null ? null : value.trim();
+    }
 }
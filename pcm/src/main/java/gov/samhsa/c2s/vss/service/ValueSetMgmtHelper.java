@@ -3,18 +3,12 @@
 import gov.samhsa.c2s.pcm.domain.consent.ConsentRepository;
 import gov.samhsa.c2s.pcm.domain.valueset.*;
 import gov.samhsa.c2s.vss.service.dto.*;
-import gov.samhsa.c2s.pcm.domain.consent.Consent;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.DataFormatter;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.*;
 
 /**
@@ -42,6 +36,11 @@ public class ValueSetMgmtHelper {
      */
     private static final int CONCEPTCODES_DESC_CELL_NUM = 2;
 
+    /**
+     * The Constant CONCEPTCODES_CELL_COUNT.
+     */
+    private static final int CONCEPTCODES_CELL_COUNT = 3;
+
     /**
      * The Constant CODE_FIELD.
      */
@@ -82,19 +81,31 @@ public class ValueSetMgmtHelper {
      */
     private static final int VALUE_SET_DESC_CELL_NUM = 3;
 
+    /**
+     * The Constant VALUE_SET_CELL_COUNT.
+     */
+    private static final int VALUE_SET_CELL_COUNT = 4;
+
     /**
      * The concept code list page size.
      */
     private final int conceptCodeListPageSize;
 
+    /**
+     * The number of rows handed over at a time when reading upload files.
+     */
+    private final int importChunkSize;
+
     /**
      * Instantiates a new value set mgmt helper.
      *
      * @param conceptCodeListPageSize the concept code list page size
+     * @param importChunkSize         the import chunk size
      */
-    public ValueSetMgmtHelper(int conceptCodeListPageSize) {
+    public ValueSetMgmtHelper(int conceptCodeListPageSize, int importChunkSize) {
         super();
         this.conceptCodeListPageSize = conceptCodeListPageSize;
+        this.importChunkSize = importChunkSize;
     }
 
     // Code System
@@ -272,19 +283,38 @@ public List<CSVersionsDto> createCSVersionsDTOFormEntity(
     // Value Set Category
 
     /**
-     * Convert value set category entities to dtos.
+     * Convert value set category entities to dtos. Whether each category can
+     * be deleted is decided with one grouped query for value sets and one for
+     * consents, for all the categories at once.
      *
      * @param valueSetCategories the value set categories
+     * @param valueSetRepository the value set repository
      * @param consentRepository  the consent repository
      * @return the list
      */
     public List<ValueSetCategoryDto> convertValueSetCategoryEntitiesToDtos(
             List<ValueSetCategory> valueSetCategories,
+            ValueSetRepository valueSetRepository,
             ConsentRepository consentRepository) {
+        List<Long> valueSetCategoryIds = new ArrayList<Long>();
+        for (ValueSetCategory valueSetCategory : valueSetCategories) {
+            valueSetCategoryIds.add(valueSetCategory.getId());
+        }
+        Set<Long> inUse = new HashSet<Long>();
+        if (!valueSetCategoryIds.isEmpty()) {
+            inUse.addAll(valueSetRepository
+                    .findValueSetCategoryIdsWithValueSets(valueSetCategoryIds));
+            inUse.addAll(consentRepository
+                    .findDoNotShareValueSetCategoryIds(valueSetCategoryIds));
+        }
+
         List<ValueSetCategoryDto> valueSetCategoryDtos = new ArrayList<ValueSetCategoryDto>();
         for (ValueSetCategory valueSetCategory : valueSetCategories) {
-            ValueSetCategoryDto valueSetCategoryDto = createValuesetCategoryDtoFromEntity(
-                    valueSetCategory, consentRepository);
+            ValueSetCategoryDto valueSetCategoryDto = createValuesetCategoryDtoFromEntityWithoutDeletable(
+                    valueSetCategory);
+            if (inUse.contains(valueSetCategory.getId())) {
+                valueSetCategoryDto.setDeletable(false);
+            }
             valueSetCategoryDtos.add(valueSetCategoryDto);
         }
         return valueSetCategoryDtos;
@@ -300,27 +330,40 @@ public List<ValueSetCategoryDto> convertValueSetCategoryEntitiesToDtos(
     public ValueSetCategoryDto createValuesetCategoryDtoFromEntity(
             ValueSetCategory valueSetCategory,
             ConsentRepository consentRepository) {
-        ValueSetCategoryDto valueSetCategoryDto = new ValueSetCategoryDto();
-        valueSetCategoryDto.setCode(valueSetCategory.getCode());
-        valueSetCategoryDto.setDescription(valueSetCategory.getDescription());
-        valueSetCategoryDto.setName(valueSetCategory.getName());
-        valueSetCategoryDto.setId(valueSetCategory.getId());
+        ValueSetCategoryDto valueSetCategoryDto = createValuesetCategoryDtoFromEntityWithoutDeletable(
+                valueSetCategory);
         // is it eligible to delete
         // check if any value sets are associated to this category
         List<ValueSet> valueSets = valueSetCategory.getValueSets();
         if (null != valueSets && valueSets.size() > 0) {
             valueSetCategoryDto.setDeletable(false);
         }
-        // TODO (#31): check if consents are created with not to share these categories
-        List<Consent> consentS = consentRepository
-                .findAllByDoNotShareSensitivityPolicyCodesValueSetCategory(valueSetCategory);
-        if (null != consentS && consentS.size() > 0) {
+        // check if consents are created with not to share these categories
+        if (valueSetCategory.getId() != null && !consentRepository
+                .findDoNotShareValueSetCategoryIds(Collections.singletonList(valueSetCategory.getId()))
+                .isEmpty()) {
             valueSetCategoryDto.setDeletable(false);
         }
 
         return valueSetCategoryDto;
     }
 
+    /**
+     * Creates the valueset category dto from entity.
+     *
+     * @param valueSetCategory the value set category
+     * @return the value set category dto
+     */
+    public ValueSetCategoryDto createValuesetCategoryDtoFromEntityWithoutDeletable(
+            ValueSetCategory valueSetCategory) {
+        ValueSetCategoryDto valueSetCategoryDto = new ValueSetCategoryDto();
+        valueSetCategoryDto.setCode(valueSetCategory.getCode());
+        valueSetCategoryDto.setDescription(valueSetCategory.getDescription());
+        valueSetCategoryDto.setName(valueSetCategory.getName());
+        valueSetCategoryDto.setId(valueSetCategory.getId());
+        return valueSetCategoryDto;
+    }
+
     /**
      * Convert value set category entities to map.
      *
@@ -504,233 +547,189 @@ public ValueSetLookUpDto convertSetToDto(Set<String> catCodes) {
     }
 
     /**
-     * Read concept codes from file.
+     * Read concept codes from file. The rows are read one at a time and handed
+     * over to the chunk handler in chunks of the import chunk size.
      *
-     * @param file                the file
+     * @param inputStream         the input stream of the file
      * @param codeSystemId        the code system id
      * @param codeSystemVersionId the code system version id
      * @param valueSetIds         the value set ids
      * @param userName            the user name
-     * @return the list
-     * @throws IOException Signals that an I/O exception has occurred.
+     * @param chunkHandler        the chunk handler
+     * @throws IOException                 Signals that an I/O exception has occurred.
+     * @throws ValueSetNotFoundException   the value set not found exception
+     * @throws CodeSystemNotFoundException the code system not found exception
      */
-    public List<ConceptCodeDto> readConceptCodesFromFile(MultipartFile file,
-                                                         String codeSystemId, Long codeSystemVersionId,
-                                                         List<Long> valueSetIds, String userName) throws IOException {
+    public void readConceptCodesFromFile(InputStream inputStream,
+                                         String codeSystemId, Long codeSystemVersionId,
+                                         List<Long> valueSetIds, String userName,
+                                         ImportChunkHandler<ConceptCodeDto> chunkHandler)
+            throws IOException, ValueSetNotFoundException, CodeSystemNotFoundException {
 
         validateInputs(codeSystemId, codeSystemVersionId, valueSetIds);
+        readConceptCodeRows(inputStream, codeSystemId, codeSystemVersionId, valueSetIds, userName, chunkHandler);
+    }
 
-        List<ConceptCodeDto> listOfConceptCodesDtos = new ArrayList<ConceptCodeDto>();
-        ConceptCodeDto conceptCodeDto;
-
-        // Get the workbook instance for XLS file
-        XSSFWorkbook workbook = new XSSFWorkbook(file.getInputStream());
-
-        // Get first sheet from the workbook
-        XSSFSheet sheet = workbook.getSheetAt(0);
-
-        // Iterate through each rows from first sheet
-        Iterator<Row> rowIterator = sheet.iterator();
+    /**
+     * Read the concept codes of a code system version from file. The file
+     * has the layout of a concept code batch upload, but the codes are not
+     * added to value sets.
+     *
+     * @param inputStream         the input stream of the file
+     * @param codeSystemId        the code system id
+     * @param codeSystemVersionId the code system version id
+     * @param userName            the user name
+     * @param chunkHandler        the chunk handler
+     * @throws IOException                 Signals that an I/O exception has occurred.
+     * @throws ValueSetNotFoundException   the value set not found exception
+     * @throws CodeSystemNotFoundException the code system not found exception
+     */
+    public void readCodeSystemVersionFromFile(InputStream inputStream,
+                                              String codeSystemId, Long codeSystemVersionId, String userName,
+                                              ImportChunkHandler<ConceptCodeDto> chunkHandler)
+            throws IOException, ValueSetNotFoundException, CodeSystemNotFoundException {
+        readConceptCodeRows(inputStream, codeSystemId, codeSystemVersionId, Collections.<Long>emptyList(),
+                userName, chunkHandler);
+    }
 
-        Row row = null;
+    private void readConceptCodeRows(InputStream inputStream,
+                                     String codeSystemId, Long codeSystemVersionId,
+                                     List<Long> valueSetIds, String userName,
+                                     ImportChunkHandler<ConceptCodeDto> chunkHandler)
+            throws IOException, ValueSetNotFoundException, CodeSystemNotFoundException {
 
-        // reading header row
-        if (rowIterator.hasNext()) {
-            Row headerRow = rowIterator.next();
+        try (XlsxSheetReader sheetReader = new XlsxSheetReader(inputStream, CONCEPTCODES_CELL_COUNT)) {
 
+            // reading header row
+            String[] headerRow = sheetReader.nextRow();
             if (headerRow != null) {
-                if (headerRow.getCell(CONCEPTCODES_CODE_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL) == null
-                        || headerRow.getCell(CONCEPTCODES_NAME_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL) == null
-                        || headerRow.getCell(CONCEPTCODES_DESC_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL) == null) {
+                if (headerRow[CONCEPTCODES_CODE_CELL_NUM] == null
+                        || headerRow[CONCEPTCODES_NAME_CELL_NUM] == null
+                        || headerRow[CONCEPTCODES_DESC_CELL_NUM] == null) {
                     throw new InvalidCSVException(
                             "Header row values in file should be in the following format: Code, Name, Description");
 
-                } else if (!getCellValueAsString(
-                        headerRow.getCell(CONCEPTCODES_CODE_CELL_NUM,
-                                Row.RETURN_BLANK_AS_NULL)).equalsIgnoreCase(
-                        CODE_FIELD)
-                        || !getCellValueAsString(
-                        headerRow.getCell(CONCEPTCODES_NAME_CELL_NUM,
-                                Row.RETURN_BLANK_AS_NULL))
-                        .equalsIgnoreCase(NAME_FIELD)
-                        || !getCellValueAsString(
-                        headerRow.getCell(CONCEPTCODES_DESC_CELL_NUM,
-                                Row.RETURN_BLANK_AS_NULL))
-                        .equalsIgnoreCase(DESC_FIELD)) {
+                } else if (!headerRow[CONCEPTCODES_CODE_CELL_NUM].equalsIgnoreCase(CODE_FIELD)
+                        || !headerRow[CONCEPTCODES_NAME_CELL_NUM].equalsIgnoreCase(NAME_FIELD)
+                        || !headerRow[CONCEPTCODES_DESC_CELL_NUM].equalsIgnoreCase(DESC_FIELD)) {
                     throw new InvalidCSVException(
                             "Header row values in excel file should be in the following format: Code, Name, Description");
                 }
             }
-        }
-
-        // iterate rows with value set fields
-        while (rowIterator.hasNext()) {
-            row = rowIterator.next();
-            conceptCodeDto = new ConceptCodeDto();
 
-            if (row != null) {
+            List<ConceptCodeDto> chunk = new ArrayList<ConceptCodeDto>(importChunkSize);
+            int offset = 0;
 
-                Cell codeCell = row.getCell(CONCEPTCODES_CODE_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL);
-                Cell nameCell = row.getCell(CONCEPTCODES_NAME_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL);
-                Cell descriptionCell = row.getCell(CONCEPTCODES_DESC_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL);
+            // iterate rows with value set fields
+            String[] row;
+            while ((row = sheetReader.nextRow()) != null) {
+                String code = row[CONCEPTCODES_CODE_CELL_NUM];
+                String name = row[CONCEPTCODES_NAME_CELL_NUM];
 
                 // ignore empty row and throw error on missing fields
-                if (codeCell == null || nameCell == null) {
+                if (code == null || name == null) {
 
-                    if (codeCell != null || nameCell != null) {
+                    if (code != null || name != null) {
                         throw new InvalidCSVException(
                                 "Cannot add value set. Required field(s) empty for row: "
-                                        + (row.getRowNum() + 1));
+                                        + sheetReader.getRowNumber());
                     }
                 } else {
+                    ConceptCodeDto conceptCodeDto = new ConceptCodeDto();
                     conceptCodeDto.setCodeSystemName(codeSystemId);
                     conceptCodeDto.setCodeSystemVersionId(codeSystemVersionId);
                     conceptCodeDto.setValueSetIds(valueSetIds);
                     conceptCodeDto.setUserName(userName);
-                    conceptCodeDto.setCode(getCellValueAsString(codeCell));
-                    conceptCodeDto.setName(getCellValueAsString(nameCell));
-                    conceptCodeDto
-                            .setDescription(getCellValueAsString(descriptionCell));
-
-                    listOfConceptCodesDtos.add(conceptCodeDto);
+                    conceptCodeDto.setCode(code);
+                    conceptCodeDto.setName(name);
+                    conceptCodeDto.setDescription(row[CONCEPTCODES_DESC_CELL_NUM]);
+
+                    chunk.add(conceptCodeDto);
+                    if (chunk.size() == importChunkSize) {
+                        chunkHandler.handle(chunk, offset);
+                        offset += chunk.size();
+                        chunk = new ArrayList<ConceptCodeDto>(importChunkSize);
+                    }
                 }
             }
+            if (!chunk.isEmpty()) {
+                chunkHandler.handle(chunk, offset);
+            }
         }
-
-        return listOfConceptCodesDtos;
     }
 
     /**
-     * Read value sets from file.
+     * Read value sets from file. The rows are read one at a time and handed
+     * over to the chunk handler in chunks of the import chunk size.
      *
-     * @param file     the file
-     * @param userName the user name
-     * @return the list
-     * @throws IOException Signals that an I/O exception has occurred.
+     * @param inputStream  the input stream of the file
+     * @param userName     the user name
+     * @param chunkHandler the chunk handler
+     * @throws IOException                 Signals that an I/O exception has occurred.
+     * @throws ValueSetNotFoundException   the value set not found exception
+     * @throws CodeSystemNotFoundException the code system not found exception
      */
-    public List<ValueSetDto> readValueSetsFromFile(MultipartFile file,
-                                                   String userName) throws IOException {
-        List<ValueSetDto> listOfvalueSets = new ArrayList<ValueSetDto>();
-
-        // Get the workbook instance for XLS file
-        XSSFWorkbook workbook = new XSSFWorkbook(file.getInputStream());
+    public void readValueSetsFromFile(InputStream inputStream, String userName,
+                                      ImportChunkHandler<ValueSetDto> chunkHandler)
+            throws IOException, ValueSetNotFoundException, CodeSystemNotFoundException {
 
-        // Get first sheet from the workbook
-        XSSFSheet sheet = workbook.getSheetAt(0);
-
-        // Iterate through each rows from first sheet
-        Iterator<Row> rowIterator = sheet.iterator();
-
-        Row row = null;
-
-        if (rowIterator.hasNext()) {
-            Row headerRow = rowIterator.next();
+        try (XlsxSheetReader sheetReader = new XlsxSheetReader(inputStream, VALUE_SET_CELL_COUNT)) {
 
+            String[] headerRow = sheetReader.nextRow();
             if (headerRow != null) {
-                if (headerRow.getCell(VALUE_SET_CODE_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL) == null
-                        || headerRow.getCell(VALUE_SET_NAME_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL) == null
-                        || headerRow.getCell(VALUE_SET_CATEGORY_NAME_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL) == null
-                        || headerRow.getCell(VALUE_SET_DESC_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL) == null) {
+                if (headerRow[VALUE_SET_CODE_CELL_NUM] == null
+                        || headerRow[VALUE_SET_NAME_CELL_NUM] == null
+                        || headerRow[VALUE_SET_CATEGORY_NAME_CELL_NUM] == null
+                        || headerRow[VALUE_SET_DESC_CELL_NUM] == null) {
                     throw new InvalidCSVException(
                             "Header row values in file should be in the following format: Code, Name, Category Name, Description");
 
-                } else if (!getCellValueAsString(
-                        headerRow.getCell(VALUE_SET_CODE_CELL_NUM,
-                                Row.RETURN_BLANK_AS_NULL)).equalsIgnoreCase(
-                        CODE_FIELD)
-                        || !getCellValueAsString(
-                        headerRow.getCell(VALUE_SET_NAME_CELL_NUM,
-                                Row.RETURN_BLANK_AS_NULL))
-                        .equalsIgnoreCase(NAME_FIELD)
-                        || !getCellValueAsString(
-                        headerRow.getCell(
-                                VALUE_SET_CATEGORY_NAME_CELL_NUM,
-                                Row.RETURN_BLANK_AS_NULL))
-                        .equalsIgnoreCase(CATEGORY_NAME_FIELD)
-                        || !getCellValueAsString(
-                        headerRow.getCell(VALUE_SET_DESC_CELL_NUM,
-                                Row.RETURN_BLANK_AS_NULL))
-                        .equalsIgnoreCase(DESC_FIELD)) {
+                } else if (!headerRow[VALUE_SET_CODE_CELL_NUM].equalsIgnoreCase(CODE_FIELD)
+                        || !headerRow[VALUE_SET_NAME_CELL_NUM].equalsIgnoreCase(NAME_FIELD)
+                        || !headerRow[VALUE_SET_CATEGORY_NAME_CELL_NUM].equalsIgnoreCase(CATEGORY_NAME_FIELD)
+                        || !headerRow[VALUE_SET_DESC_CELL_NUM].equalsIgnoreCase(DESC_FIELD)) {
                     throw new InvalidCSVException(
                             "Header row values in excel file should be in the following format: Code, Name, Category Name, Description");
                 }
             }
-        }
 
-        // iterate rows with value set fields
-        while (rowIterator.hasNext()) {
-            row = rowIterator.next();
-            ValueSetDto valueSetDto = new ValueSetDto();
+            List<ValueSetDto> chunk = new ArrayList<ValueSetDto>(importChunkSize);
+            int offset = 0;
 
-            if (row != null) {
-
-                Cell codeCell = row.getCell(VALUE_SET_CODE_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL);
-                Cell nameCell = row.getCell(VALUE_SET_NAME_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL);
-                Cell categoryNameCell = row.getCell(
-                        VALUE_SET_CATEGORY_NAME_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL);
-                Cell descriptionCell = row.getCell(VALUE_SET_DESC_CELL_NUM,
-                        Row.RETURN_BLANK_AS_NULL);
+            // iterate rows with value set fields
+            String[] row;
+            while ((row = sheetReader.nextRow()) != null) {
+                String code = row[VALUE_SET_CODE_CELL_NUM];
+                String name = row[VALUE_SET_NAME_CELL_NUM];
+                String categoryName = row[VALUE_SET_CATEGORY_NAME_CELL_NUM];
 
                 // ignore empty row and throw error on missing fields
-                if (codeCell == null || nameCell == null
-                        || categoryNameCell == null) {
+                if (code == null || name == null || categoryName == null) {
 
-                    if (codeCell != null || nameCell != null
-                            || categoryNameCell != null) {
+                    if (code != null || name != null || categoryName != null) {
                         throw new InvalidCSVException(
                                 "Required field(s) empty for row: "
-                                        + (row.getRowNum() + 1));
+                                        + sheetReader.getRowNumber());
                     }
                 } else {
+                    ValueSetDto valueSetDto = new ValueSetDto();
                     valueSetDto.setUserName(userName);
-                    valueSetDto.setCode(getCellValueAsString(codeCell));
-                    valueSetDto.setName(getCellValueAsString(nameCell));
-                    valueSetDto
-                            .setDescription(getCellValueAsString(descriptionCell));
-                    valueSetDto
-                            .setValueSetCatName(getCellValueAsString(categoryNameCell));
-
-                    listOfvalueSets.add(valueSetDto);
-
+                    valueSetDto.setCode(code);
+                    valueSetDto.setName(name);
+                    valueSetDto.setDescription(row[VALUE_SET_DESC_CELL_NUM]);
+                    valueSetDto.setValueSetCatName(categoryName);
+
+                    chunk.add(valueSetDto);
+                    if (chunk.size() == importChunkSize) {
+                        chunkHandler.handle(chunk, offset);
+                        offset += chunk.size();
+                        chunk = new ArrayList<ValueSetDto>(importChunkSize);
+                    }
                 }
             }
-        }
-
-        return listOfvalueSets;
-    }
-
-    /**
-     * Gets the cell value as string.
-     *
-     * @param cell the cell
-     * @return the cell value as string
-     */
-    public String getCellValueAsString(Cell cell) {
-        if (cell == null) {
-            return null;
-        } else if (cell.getCellType() == Cell.CELL_TYPE_STRING) {
-            logger.info("TEST: " + cell.toString());
-            return cell.toString();
-        } else if (cell.getCellType() == Cell.CELL_TYPE_NUMERIC) {
-            DataFormatter formatter = new DataFormatter();
-            String formattedValue = formatter.formatCellValue(cell);
-            return formattedValue;
-        } else {
-            throw new InvalidCSVException(
-                    "Value stored in cell is invalid! Valid types are Numbers or Strings.");
+            if (!chunk.isEmpty()) {
+                chunkHandler.handle(chunk, offset);
+            }
         }
     }
 
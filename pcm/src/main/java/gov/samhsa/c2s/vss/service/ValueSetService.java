@@ -48,6 +48,16 @@ public ValueSetDto create(ValueSetDto created)
      */
     public Map<String, Object> findAll(int pageNumber);
 
+    /**
+     * Find a page of all value sets in (code, id) order, following the page
+     * the token was issued for, without counting the value sets.
+     *
+     * @param pageToken        the next page token of the previous page, or null for the first page
+     * @param approximateTotal whether to include the estimated number of value sets
+     * @return the page, with a null next page token on the last page
+     */
+    public Map<String, Object> findAllByPageToken(String pageToken, boolean approximateTotal);
+
     /**
      * Finds ValueSet by id.
      *
@@ -111,6 +121,18 @@ public Map<String, Object> findAllByCode(String searchTerm,
     public ValueSetDto valueSetBatchUpload(ValueSetDto valueSetDto,
                                            MultipartFile file) throws Exception;
 
+    /**
+     * Saves a chunk of value sets read from a batch upload file in one
+     * transaction.
+     *
+     * @param valueSetDtos the value set dtos
+     * @param offset       the number of rows read from the file before the chunk
+     * @return the number of value sets saved
+     * @throws ValueSetNotFoundException the value set not found exception
+     */
+    public int addValueSets(List<ValueSetDto> valueSetDtos, int offset)
+            throws ValueSetNotFoundException;
+
     /**
      * Find all without deletable.
      *
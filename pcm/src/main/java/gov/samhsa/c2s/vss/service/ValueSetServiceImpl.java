@@ -13,12 +13,17 @@
 import org.springframework.data.domain.Sort.Direction;
 import org.springframework.data.domain.Sort.Order;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * The Class ValueSetServiceImpl.
@@ -51,6 +56,14 @@ public class ValueSetServiceImpl implements ValueSetService {
      * The value set category repository.
      */
     private ValueSetCategoryRepository valueSetCategoryRepository;
+    /**
+     * The value set change bus.
+     */
+    private ValueSetChangeBus valueSetChangeBus;
+    /**
+     * The approximate row counter.
+     */
+    private ApproximateRowCounter approximateRowCounter;
 
     /**
      * Instantiates a new value set service impl.
@@ -60,18 +73,24 @@ public class ValueSetServiceImpl implements ValueSetService {
      * @param valueSetCategoryRepository    the value set category repository
      * @param conceptCodeValueSetRepository the concept code value set repository
      * @param valueSetMgmtHelper            the value set mgmt helper
+     * @param valueSetChangeBus             the value set change bus
+     * @param approximateRowCounter         the approximate row counter
      */
     public ValueSetServiceImpl(int valueSetPageSize,
                                ValueSetRepository valueSetRepository,
                                ValueSetCategoryRepository valueSetCategoryRepository,
                                ConceptCodeValueSetRepository conceptCodeValueSetRepository,
-                               ValueSetMgmtHelper valueSetMgmtHelper) {
+                               ValueSetMgmtHelper valueSetMgmtHelper,
+                               ValueSetChangeBus valueSetChangeBus,
+                               ApproximateRowCounter approximateRowCounter) {
         super();
         VALUE_SET_PAGE_SIZE = valueSetPageSize;
         this.valueSetRepository = valueSetRepository;
         this.valueSetCategoryRepository = valueSetCategoryRepository;
         this.conceptCodeValueSetRepository = conceptCodeValueSetRepository;
         this.valueSetMgmtHelper = valueSetMgmtHelper;
+        this.valueSetChangeBus = valueSetChangeBus;
+        this.approximateRowCounter = approximateRowCounter;
     }
 
     /*
@@ -144,6 +163,7 @@ public ValueSetDto delete(Long valueSetId) throws ValueSetNotFoundException {
                             + valueSetId);
         }
         valueSetRepository.delete(deleted);
+        valueSetChangeBus.publishAfterCommit();
         return valueSetMgmtHelper.createValuesetDtoFromEntity(deleted);
     }
 
@@ -217,6 +237,7 @@ public ValueSetDto update(ValueSetDto updated)
             }
             // save the association
             valueSet.setValueSetCategory(valueSetCategory);
+            valueSetChangeBus.publishAfterCommit();
         }
 
         return valueSetMgmtHelper.createValuesetDtoFromEntity(valueSet);
@@ -300,6 +321,47 @@ public Map<String, Object> findAll(int pageNumber) {
         return pageResultsMap;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see
+     * gov.samhsa.c2s.vss.service.ValueSetService#findAllByPageToken(java.lang
+     * .String, boolean)
+     */
+    @Override
+    public Map<String, Object> findAllByPageToken(String pageToken, boolean approximateTotal) {
+        logger.debug("Finding valueSets after page token: " + pageToken);
+        // one more row than the page size tells whether there is a next page
+        PageRequest pageRequest = new PageRequest(0, VALUE_SET_PAGE_SIZE + 1);
+        List<ValueSet> valueSets;
+        if (StringUtils.isEmpty(pageToken)) {
+            valueSets = valueSetRepository.findFirstOrderByCodeAndId(pageRequest);
+        } else {
+            KeysetPageToken previous = KeysetPageToken.decode(pageToken);
+            valueSets = valueSetRepository.findAllAfterCodeAndId(previous.getCode(), previous.getId(),
+                    pageRequest);
+        }
+
+        String nextPageToken = null;
+        if (valueSets.size() > VALUE_SET_PAGE_SIZE) {
+            valueSets = valueSets.subList(0, VALUE_SET_PAGE_SIZE);
+            ValueSet last = valueSets.get(VALUE_SET_PAGE_SIZE - 1);
+            nextPageToken = new KeysetPageToken(last.getCode(), last.getId()).encode();
+        }
+
+        Map<String, Object> pageResultsMap = new HashMap<String, Object>();
+        pageResultsMap.put("valueSets", setDeletableToValueSetDto(valueSets));
+        pageResultsMap.put("nextPageToken", nextPageToken);
+        pageResultsMap.put("itemsPerPage", VALUE_SET_PAGE_SIZE);
+        pageResultsMap.put("numberOfElements", valueSets.size());
+        if (approximateTotal) {
+            pageResultsMap.put("approximateTotalNumberOfValueSets",
+                    approximateRowCounter.countRows("value_set"));
+        }
+
+        return pageResultsMap;
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -380,49 +442,33 @@ public Map<String, Object> findAllByCode(String searchTerm,
     public ValueSetDto valueSetBatchUpload(ValueSetDto valueSetDto,
                                            MultipartFile file) throws IOException, ValueSetNotFoundException {
 
-        String userName = valueSetDto.getUserName();
-        int rowsUpdated = 0;
-        int rowNum = 1;
+        final String userName = valueSetDto.getUserName();
+        final int[] rowsUpdated = {0};
+        final int[] rowNum = {1};
 
         validateCSV(file);
 
         try {
 
-            List<ValueSetDto> listOfValueSetsDtos = valueSetMgmtHelper
-                    .readValueSetsFromFile(file, userName);
-
-            for (int i = 0; i < listOfValueSetsDtos.size(); i++) {
-                ValueSetDto batchValueSetDto = listOfValueSetsDtos.get(i);
-                ValueSet valueSet = new ValueSet();
-
-                ValueSetCategory valueSetCategory = valueSetCategoryRepository
-                        .findByName(batchValueSetDto.getValueSetCatName());
-
-                if (valueSetCategory == null) {
-                    throw new ValueSetNotFoundException(
-                            "Invalid Value Set Category for row: " + (i + 1));
-
-                }
-
-                valueSet.setUserName(userName);
-                valueSet.setCode(batchValueSetDto.getCode());
-                valueSet.setName(batchValueSetDto.getName());
-                valueSet.setDescription(batchValueSetDto.getDescription());
-                valueSet.setValueSetCategory(valueSetCategory);
-
-                valueSetRepository.save(valueSet);
-                rowsUpdated++;
-                rowNum++;
+            // rows are handed over in chunks while the file is read
+            try (InputStream inputStream = file.getInputStream()) {
+                valueSetMgmtHelper.readValueSetsFromFile(inputStream, userName, (rows, offset) -> {
+                    for (int i = 0; i < rows.size(); i++) {
+                        saveBatchValueSet(rows.get(i), userName, offset + i + 1);
+                        rowsUpdated[0]++;
+                        rowNum[0]++;
+                    }
+                });
             }
 
-            valueSetDto.setRowsUpdated(rowsUpdated);
+            valueSetDto.setRowsUpdated(rowsUpdated[0]);
         } catch (DataIntegrityViolationException ex) {
             logger.debug("Cannot add value set. There is an error with file at row: "
                     + ex.getMessage());
             valueSetDto.setError(true);
             valueSetDto
                     .setErrorMessage("Cannot add value set. There is an error with file at row: "
-                            + (rowNum + 1));
+                            + (rowNum[0] + 1));
             throw ex;
         } catch (ValueSetNotFoundException ex) {
             logger.debug("Missing required field while doing batch upload: "
@@ -454,6 +500,52 @@ public ValueSetDto valueSetBatchUpload(ValueSetDto valueSetDto,
         return valueSetDto;
     }
 
+    /*
+     * (non-Javadoc)
+     *
+     * @see gov.samhsa.c2s.vss.service.ValueSetService#addValueSets(java.util.List, int)
+     */
+    @Override
+    @Transactional(rollbackFor = ValueSetNotFoundException.class)
+    public int addValueSets(List<ValueSetDto> valueSetDtos, int offset)
+            throws ValueSetNotFoundException {
+        for (int i = 0; i < valueSetDtos.size(); i++) {
+            ValueSetDto batchValueSetDto = valueSetDtos.get(i);
+            saveBatchValueSet(batchValueSetDto, batchValueSetDto.getUserName(), offset + i + 1);
+        }
+        return valueSetDtos.size();
+    }
+
+    /**
+     * Saves a value set read from a batch upload file.
+     *
+     * @param batchValueSetDto the batch value set dto
+     * @param userName         the user name
+     * @param rowNumber        the row number used in error messages
+     * @throws ValueSetNotFoundException the value set not found exception
+     */
+    private void saveBatchValueSet(ValueSetDto batchValueSetDto, String userName, int rowNumber)
+            throws ValueSetNotFoundException {
+        ValueSet valueSet = new ValueSet();
+
+        ValueSetCategory valueSetCategory = valueSetCategoryRepository
+                .findByName(batchValueSetDto.getValueSetCatName());
+
+        if (valueSetCategory == null) {
+            throw new ValueSetNotFoundException(
+                    "Invalid Value Set Category for row: " + rowNumber);
+
+        }
+
+        valueSet.setUserName(userName);
+        valueSet.setCode(batchValueSetDto.getCode());
+        valueSet.setName(batchValueSetDto.getName());
+        valueSet.setDescription(batchValueSetDto.getDescription());
+        valueSet.setValueSetCategory(valueSetCategory);
+
+        valueSetRepository.save(valueSet);
+    }
+
     /**
      * This setter method should be used only by unit tests.
      *
@@ -472,12 +564,20 @@ protected void setValueSetRepository(ValueSetRepository valueSetRepository) {
     protected List<ValueSetDto> setDeletableToValueSetDto(
             List<ValueSet> valueSets) {
         List<ValueSetDto> valueSetDtos = valueSetMgmtHelper
-                .convertValueSetEntitiesToDtos(valueSets);
-        // setting deletable flag to each dto
+                .convertValueSetEntitiesToDtosWithoutDeletable(valueSets);
+        List<Long> valueSetIds = new ArrayList<Long>();
+        for (ValueSetDto valueSetDto : valueSetDtos) {
+            valueSetIds.add(valueSetDto.getId());
+        }
+        if (valueSetIds.isEmpty()) {
+            return valueSetDtos;
+        }
+        // setting deletable flag to each dto, with a single query for all of
+        // them
+        Set<Long> inUse = new HashSet<Long>(conceptCodeValueSetRepository
+                .findValueSetIdsWithConceptCodes(valueSetIds));
         for (ValueSetDto valueSetDto : valueSetDtos) {
-            List<ConceptCodeValueSet> cValueSets = conceptCodeValueSetRepository
-                    .findAllByPkValueSetId(valueSetDto.getId());
-            if (null != cValueSets && cValueSets.size() > 0) {
+            if (inUse.contains(valueSetDto.getId())) {
                 valueSetDto.setDeletable(false);
             }
         }
@@ -0,0 +1,302 @@
+package gov.samhsa.c2s.vss.service;
+
+import org.apache.poi.POIXMLException;
+import org.apache.poi.openxml4j.exceptions.InvalidOperationException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+
+/**
+ * The Class XlsxSheetReader.
+ * <p>
+ * Reads the first sheet of an .xlsx file one row at a time with
+ * {@link XSSFReader}, so that only the current row, the shared strings and
+ * the styles of the workbook are held in memory. Cells are formatted the way
+ * the upload screens always read them: strings as is, numbers with
+ * {@link DataFormatter}, and any other cell type is rejected.
+ */
+class XlsxSheetReader implements Closeable {
+
+    /**
+     * The xml input factory, which does not resolve DTDs or external entities.
+     */
+    private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+    /**
+     * The logger.
+     */
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * The number of leading columns returned for each row.
+     */
+    private final int columnCount;
+
+    /**
+     * The data formatter.
+     */
+    private final DataFormatter dataFormatter = new DataFormatter();
+
+    /**
+     * The copy of the uploaded file the package is read from.
+     */
+    private File file;
+
+    /**
+     * The package.
+     */
+    private OPCPackage opcPackage;
+
+    /**
+     * The shared strings.
+     */
+    private ReadOnlySharedStringsTable sharedStrings;
+
+    /**
+     * The styles.
+     */
+    private StylesTable styles;
+
+    /**
+     * The sheet data.
+     */
+    private InputStream sheetData;
+
+    /**
+     * The sheet data reader.
+     */
+    private XMLStreamReader reader;
+
+    /**
+     * The 1-based number of the last row returned.
+     */
+    private int rowNumber;
+
+    /**
+     * Opens the first sheet of an .xlsx file.
+     *
+     * @param inputStream the input stream of the file, which is not closed
+     * @param columnCount the number of leading columns to return for each row
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    XlsxSheetReader(InputStream inputStream, int columnCount) throws IOException {
+        this.columnCount = columnCount;
+        // the package needs random access to its parts, so it is read from
+        // a file rather than buffered in memory
+        file = File.createTempFile("vss-upload", ".xlsx");
+        try {
+            Files.copy(inputStream, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            opcPackage = OPCPackage.open(file, PackageAccess.READ);
+            XSSFReader xssfReader = new XSSFReader(opcPackage);
+            sharedStrings = new ReadOnlySharedStringsTable(opcPackage);
+            styles = xssfReader.getStylesTable();
+            Iterator<InputStream> sheets = xssfReader.getSheetsData();
+            if (!sheets.hasNext()) {
+                throw new POIXMLException("The workbook has no sheets");
+            }
+            sheetData = sheets.next();
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(sheetData);
+        } catch (OpenXML4JException | InvalidOperationException | SAXException | XMLStreamException e) {
+            close();
+            throw new POIXMLException(e);
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next row of the sheet. Rows which are not stored in the file
+     * are skipped.
+     *
+     * @return the values of the leading columns, null for blank cells, or null
+     * at the end of the sheet
+     */
+    String[] nextRow() {
+        try {
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && "row".equals(reader.getLocalName())) {
+                    return readRow();
+                }
+            }
+            return null;
+        } catch (XMLStreamException e) {
+            throw new POIXMLException(e);
+        }
+    }
+
+    /**
+     * Gets the 1-based number of the last row returned by {@link #nextRow()}.
+     *
+     * @return the row number
+     */
+    int getRowNumber() {
+        return rowNumber;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                logger.debug("Unable to close sheet reader: " + e.getMessage());
+            }
+            reader = null;
+        }
+        if (sheetData != null) {
+            try {
+                sheetData.close();
+            } catch (IOException e) {
+                logger.debug("Unable to close sheet data: " + e.getMessage());
+            }
+            sheetData = null;
+        }
+        if (opcPackage != null) {
+            // read only packages are released with revert rather than close
+            opcPackage.revert();
+            opcPackage = null;
+        }
+        if (file != null) {
+            if (!file.delete()) {
+                logger.debug("Unable to delete upload copy: " + file);
+            }
+            file = null;
+        }
+    }
+
+    private String[] readRow() throws XMLStreamException {
+        String reference = reader.getAttributeValue(null, "r");
+        rowNumber = reference == null ? rowNumber + 1 : Integer.parseInt(reference);
+
+        String[] values = new String[columnCount];
+        int nextColumn = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT && "c".equals(reader.getLocalName())) {
+                int column = columnIndex(reader.getAttributeValue(null, "r"), nextColumn);
+                nextColumn = column + 1;
+                String value = readCell(column < columnCount);
+                if (column < columnCount) {
+                    values[column] = value;
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && "row".equals(reader.getLocalName())) {
+                break;
+            }
+        }
+        return values;
+    }
+
+    private String readCell(boolean required) throws XMLStreamException {
+        String type = reader.getAttributeValue(null, "t");
+        String style = reader.getAttributeValue(null, "s");
+
+        boolean formula = false;
+        String value = null;
+        StringBuilder inlineString = null;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("f".equals(name)) {
+                    formula = true;
+                } else if ("v".equals(name)) {
+                    value = reader.getElementText();
+                } else if ("t".equals(name)) {
+                    if (inlineString == null) {
+                        inlineString = new StringBuilder();
+                    }
+                    inlineString.append(reader.getElementText());
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && "c".equals(reader.getLocalName())) {
+                break;
+            }
+        }
+        if (!required) {
+            return null;
+        }
+
+        if (formula) {
+            throw invalidCell();
+        } else if ("s".equals(type)) {
+            return value == null ? null : sharedStrings.getEntryAt(Integer.parseInt(value));
+        } else if ("inlineStr".equals(type)) {
+            return inlineString == null ? "" : inlineString.toString();
+        } else if (type == null || "n".equals(type)) {
+            return value == null ? null : formatNumber(value, style);
+        } else {
+            throw invalidCell();
+        }
+    }
+
+    private String formatNumber(String value, String style) {
+        int formatIndex = 0;
+        String formatString = null;
+        if (style != null) {
+            XSSFCellStyle cellStyle = styles.getStyleAt(Integer.parseInt(style));
+            formatIndex = cellStyle.getDataFormat();
+            formatString = cellStyle.getDataFormatString();
+        }
+        if (formatString == null) {
+            formatString = BuiltinFormats.getBuiltinFormat(formatIndex);
+        }
+        return dataFormatter.formatRawCellContents(Double.parseDouble(value), formatIndex, formatString);
+    }
+
+    private static InvalidCSVException invalidCell() {
+        return new InvalidCSVException(
+                "Value stored in cell is invalid! Valid types are Numbers or Strings.");
+    }
+
+    /**
+     * Gets the 0-based column index of a cell reference such as "AB12".
+     */
+    private static int columnIndex(String reference, int defaultIndex) {
+        if (reference == null) {
+            return defaultIndex;
+        }
+        int column = 0;
+        for (int i = 0; i < reference.length(); i++) {
+            char c = reference.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            column = column * 26 + (c - 'A' + 1);
+        }
+        return column - 1;
+    }
+
+    private static XMLInputFactory createXmlInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
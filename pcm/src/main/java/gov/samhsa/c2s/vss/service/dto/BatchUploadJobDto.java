@@ -0,0 +1,154 @@
+package gov.samhsa.c2s.vss.service.dto;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The Class BatchUploadJobDto.
+ */
+public class BatchUploadJobDto {
+
+    /**
+     * The kind of rows a batch upload job loads.
+     */
+    public enum Type {
+        CONCEPT_CODES, VALUE_SETS
+    }
+
+    /**
+     * The states of a batch upload job.
+     */
+    public enum Status {
+        QUEUED, RUNNING, COMPLETED, FAILED
+    }
+
+    /**
+     * The job id.
+     */
+    private String jobId;
+
+    /**
+     * The type.
+     */
+    private Type type;
+
+    /**
+     * The status.
+     */
+    private Status status;
+
+    /**
+     * The number of rows read from the file.
+     */
+    private int rowsRead;
+
+    /**
+     * The number of rows committed.
+     */
+    private int rowsInserted;
+
+    /**
+     * The number of rows which were already loaded.
+     */
+    private int duplicates;
+
+    /**
+     * The row numbers of the duplicates.
+     */
+    private List<Integer> duplicateRows;
+
+    /**
+     * The errors.
+     */
+    private List<String> errors;
+
+    /**
+     * The submitted time.
+     */
+    private Date submittedTime;
+
+    /**
+     * The finished time.
+     */
+    private Date finishedTime;
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(String jobId) {
+        this.jobId = jobId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public int getRowsRead() {
+        return rowsRead;
+    }
+
+    public void setRowsRead(int rowsRead) {
+        this.rowsRead = rowsRead;
+    }
+
+    public int getRowsInserted() {
+        return rowsInserted;
+    }
+
+    public void setRowsInserted(int rowsInserted) {
+        this.rowsInserted = rowsInserted;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    public void setDuplicates(int duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    public List<Integer> getDuplicateRows() {
+        return duplicateRows;
+    }
+
+    public void setDuplicateRows(List<Integer> duplicateRows) {
+        this.duplicateRows = duplicateRows;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+
+    public Date getSubmittedTime() {
+        return submittedTime;
+    }
+
+    public void setSubmittedTime(Date submittedTime) {
+        this.submittedTime = submittedTime;
+    }
+
+    public Date getFinishedTime() {
+        return finishedTime;
+    }
+
+    public void setFinishedTime(Date finishedTime) {
+        this.finishedTime = finishedTime;
+    }
+}
@@ -0,0 +1,211 @@
+package gov.samhsa.c2s.vss.service.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Class CodeSystemVersionDiffDto.
+ * <p>
+ * The change report of a code system version import: the codes of the new
+ * version compared with the codes of the version it was based on.
+ */
+public class CodeSystemVersionDiffDto {
+
+    /**
+     * A code whose name or description differs from the base version.
+     */
+    public static class RenamedConceptCode {
+
+        /**
+         * The code.
+         */
+        private String code;
+
+        /**
+         * The name in the base version.
+         */
+        private String oldName;
+
+        /**
+         * The name in the new version.
+         */
+        private String newName;
+
+        public RenamedConceptCode() {
+        }
+
+        public RenamedConceptCode(String code, String oldName, String newName) {
+            this.code = code;
+            this.oldName = oldName;
+            this.newName = newName;
+        }
+
+        public String getCode() {
+            return code;
+        }
+
+        public void setCode(String code) {
+            this.code = code;
+        }
+
+        public String getOldName() {
+            return oldName;
+        }
+
+        public void setOldName(String oldName) {
+            this.oldName = oldName;
+        }
+
+        public String getNewName() {
+            return newName;
+        }
+
+        public void setNewName(String newName) {
+            this.newName = newName;
+        }
+    }
+
+    /**
+     * The code system name.
+     */
+    private String codeSystemName;
+
+    /**
+     * The id of the imported code system version.
+     */
+    private Long codeSystemVersionId;
+
+    /**
+     * The name of the imported code system version.
+     */
+    private String codeSystemVersionName;
+
+    /**
+     * The id of the base code system version, null for the first version of
+     * a code system.
+     */
+    private Long baseCodeSystemVersionId;
+
+    /**
+     * The name of the base code system version.
+     */
+    private String baseCodeSystemVersionName;
+
+    /**
+     * The number of codes carried forward unchanged.
+     */
+    private int unchanged;
+
+    /**
+     * The codes not in the base version.
+     */
+    private List<String> addedCodes = new ArrayList<String>();
+
+    /**
+     * The codes of the base version missing from the import.
+     */
+    private List<String> removedCodes = new ArrayList<String>();
+
+    /**
+     * The renamed codes.
+     */
+    private List<RenamedConceptCode> renamedCodes = new ArrayList<RenamedConceptCode>();
+
+    /**
+     * The number of value set memberships carried forward.
+     */
+    private int valueSetMembershipsCarriedForward;
+
+    /**
+     * The number of rows skipped because their code was already imported.
+     */
+    private int duplicates;
+
+    public String getCodeSystemName() {
+        return codeSystemName;
+    }
+
+    public void setCodeSystemName(String codeSystemName) {
+        this.codeSystemName = codeSystemName;
+    }
+
+    public Long getCodeSystemVersionId() {
+        return codeSystemVersionId;
+    }
+
+    public void setCodeSystemVersionId(Long codeSystemVersionId) {
+        this.codeSystemVersionId = codeSystemVersionId;
+    }
+
+    public String getCodeSystemVersionName() {
+        return codeSystemVersionName;
+    }
+
+    public void setCodeSystemVersionName(String codeSystemVersionName) {
+        this.codeSystemVersionName = codeSystemVersionName;
+    }
+
+    public Long getBaseCodeSystemVersionId() {
+        return baseCodeSystemVersionId;
+    }
+
+    public void setBaseCodeSystemVersionId(Long baseCodeSystemVersionId) {
+        this.baseCodeSystemVersionId = baseCodeSystemVersionId;
+    }
+
+    public String getBaseCodeSystemVersionName() {
+        return baseCodeSystemVersionName;
+    }
+
+    public void setBaseCodeSystemVersionName(String baseCodeSystemVersionName) {
+        this.baseCodeSystemVersionName = baseCodeSystemVersionName;
+    }
+
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    public void setUnchanged(int unchanged) {
+        this.unchanged = unchanged;
+    }
+
+    public List<String> getAddedCodes() {
+        return addedCodes;
+    }
+
+    public void setAddedCodes(List<String> addedCodes) {
+        this.addedCodes = addedCodes;
+    }
+
+    public List<String> getRemovedCodes() {
+        return removedCodes;
+    }
+
+    public void setRemovedCodes(List<String> removedCodes) {
+        this.removedCodes = removedCodes;
+    }
+
+    public List<RenamedConceptCode> getRenamedCodes() {
+        return renamedCodes;
+    }
+
+    public void setRenamedCodes(List<RenamedConceptCode> renamedCodes) {
+        this.renamedCodes = renamedCodes;
+    }
+
+    public int getValueSetMembershipsCarriedForward() {
+        return valueSetMembershipsCarriedForward;
+    }
+
+    public void setValueSetMembershipsCarriedForward(int valueSetMembershipsCarriedForward) {
+        this.valueSetMembershipsCarriedForward = valueSetMembershipsCarriedForward;
+    }
+
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+    public void setDuplicates(int duplicates) {
+        this.duplicates = duplicates;
+    }
+}
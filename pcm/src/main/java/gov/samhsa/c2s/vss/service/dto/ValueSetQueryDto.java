@@ -10,6 +10,8 @@ public class ValueSetQueryDto {
 	
 	private Set<String> vsCategoryCodes;
 
+	private String errorMessage;
+
 	public String getConceptCode() {
 		return conceptCode;
 	}
@@ -33,5 +35,13 @@ public Set<String> getVsCategoryCodes() {
 	public void setVsCategoryCodes(Set<String> vsCategoryCodes) {
 		this.vsCategoryCodes = vsCategoryCodes;
 	}
+
+	public String getErrorMessage() {
+		return errorMessage;
+	}
+
+	public void setErrorMessage(String errorMessage) {
+		this.errorMessage = errorMessage;
+	}
 	
 }
@@ -0,0 +1,41 @@
+package gov.samhsa.c2s.vss.web;
+
+import gov.samhsa.c2s.vss.service.CodeSystemNotFoundException;
+import gov.samhsa.c2s.vss.service.ConceptCodeService;
+import gov.samhsa.c2s.vss.service.ValueSetNotFoundException;
+import gov.samhsa.c2s.vss.service.dto.CodeSystemVersionDiffDto;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.security.Principal;
+
+/**
+ * Imports new code system versions from a file listing all of their concept
+ * codes, and returns the change report against the previous version.
+ */
+@RestController
+public class CodeSystemVersionImportRestController {
+    protected static final String CODE_SYSTEM_VERSION_IMPORT = "/valueSetAdmin/codeSystemVersions/import";
+
+    @Resource
+    private ConceptCodeService conceptCodeService;
+
+    @RequestMapping(value = CODE_SYSTEM_VERSION_IMPORT, method = RequestMethod.POST)
+    @ResponseStatus(HttpStatus.CREATED)
+    public CodeSystemVersionDiffDto importCodeSystemVersion(
+            Principal principal,
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("codeSystemOid") String codeSystemOid,
+            @RequestParam("name") String name,
+            @RequestParam(value = "description", required = false) String description)
+            throws IOException, CodeSystemNotFoundException, ValueSetNotFoundException {
+        return conceptCodeService.importCodeSystemVersion(codeSystemOid, name, description, principal.getName(), file);
+    }
+}
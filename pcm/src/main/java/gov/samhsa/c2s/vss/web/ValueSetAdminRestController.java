@@ -0,0 +1,42 @@
+package gov.samhsa.c2s.vss.web;
+
+import gov.samhsa.c2s.vss.service.ConceptCodeService;
+import gov.samhsa.c2s.vss.service.ValueSetService;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.Map;
+
+/**
+ * Lists concept codes and value sets page by page. Each page carries the
+ * token of the next page, which is passed back to fetch it; a token which was
+ * not issued by these endpoints is rejected with 400.
+ */
+@RestController
+public class ValueSetAdminRestController {
+    protected static final String CONCEPT_CODE_LIST = "/valueSetAdmin/conceptCodes";
+    protected static final String VALUE_SET_LIST = "/valueSetAdmin/valueSets";
+
+    @Resource
+    private ConceptCodeService conceptCodeService;
+
+    @Resource
+    private ValueSetService valueSetService;
+
+    @RequestMapping(value = CONCEPT_CODE_LIST, method = RequestMethod.GET)
+    public Map<String, Object> conceptCodes(
+            @RequestParam(value = "pageToken", required = false) String pageToken,
+            @RequestParam(value = "approximateTotal", defaultValue = "false") boolean approximateTotal) {
+        return conceptCodeService.findAllByPageToken(pageToken, approximateTotal);
+    }
+
+    @RequestMapping(value = VALUE_SET_LIST, method = RequestMethod.GET)
+    public Map<String, Object> valueSets(
+            @RequestParam(value = "pageToken", required = false) String pageToken,
+            @RequestParam(value = "approximateTotal", defaultValue = "false") boolean approximateTotal) {
+        return valueSetService.findAllByPageToken(pageToken, approximateTotal);
+    }
+}
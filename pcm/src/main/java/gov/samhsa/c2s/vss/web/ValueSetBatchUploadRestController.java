@@ -0,0 +1,63 @@
+package gov.samhsa.c2s.vss.web;
+
+import gov.samhsa.c2s.vss.service.BatchUploadJobService;
+import gov.samhsa.c2s.vss.service.dto.BatchUploadJobDto;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.security.Principal;
+import java.util.List;
+
+/**
+ * Accepts concept code and value set batch uploads as background jobs. The
+ * upload requests return as soon as the file is received, with the id of the
+ * job whose progress can be polled on the job status endpoint.
+ */
+@RestController
+public class ValueSetBatchUploadRestController {
+    protected static final String CONCEPT_CODE_BATCH_UPLOAD = "/valueSetAdmin/conceptCodes/batchUpload";
+    protected static final String VALUE_SET_BATCH_UPLOAD = "/valueSetAdmin/valueSets/batchUpload";
+    protected static final String BATCH_UPLOAD_JOB = "/valueSetAdmin/batchUploadJobs/{jobId}";
+
+    @Resource
+    private BatchUploadJobService batchUploadJobService;
+
+    @RequestMapping(value = CONCEPT_CODE_BATCH_UPLOAD, method = RequestMethod.POST)
+    public ResponseEntity<BatchUploadJobDto> conceptCodeBatchUpload(
+            Principal principal,
+            @RequestParam("file") MultipartFile file,
+            @RequestParam("codeSystemId") String codeSystemId,
+            @RequestParam("codeSystemVersionId") Long codeSystemVersionId,
+            @RequestParam("valueSetIds") List<Long> valueSetIds) throws IOException {
+        return accepted(batchUploadJobService.submitConceptCodeBatchUpload(file, codeSystemId,
+                codeSystemVersionId, valueSetIds, principal.getName()));
+    }
+
+    @RequestMapping(value = VALUE_SET_BATCH_UPLOAD, method = RequestMethod.POST)
+    public ResponseEntity<BatchUploadJobDto> valueSetBatchUpload(
+            Principal principal,
+            @RequestParam("file") MultipartFile file) throws IOException {
+        return accepted(batchUploadJobService.submitValueSetBatchUpload(file, principal.getName()));
+    }
+
+    @RequestMapping(value = BATCH_UPLOAD_JOB, method = RequestMethod.GET)
+    public BatchUploadJobDto batchUploadJob(@PathVariable("jobId") String jobId) {
+        return batchUploadJobService.findJob(jobId);
+    }
+
+    private ResponseEntity<BatchUploadJobDto> accepted(BatchUploadJobDto job) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED)
+                .location(ServletUriComponentsBuilder.fromCurrentContextPath()
+                        .path(BATCH_UPLOAD_JOB).buildAndExpand(job.getJobId()).toUri())
+                .body(job);
+    }
+}
@@ -0,0 +1,41 @@
+package gov.samhsa.c2s.vss.web;
+
+import gov.samhsa.c2s.vss.service.ConceptCodeExportService;
+import gov.samhsa.c2s.vss.service.ConceptCodeExportService.Format;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Streams concept code exports. The file is written to the response while
+ * the concept codes are read, so the response is not buffered in memory
+ * whatever the number of exported codes.
+ */
+@RestController
+public class ValueSetExportRestController {
+    protected static final String CONCEPT_CODE_EXPORT = "/valueSetAdmin/conceptCodes/export";
+
+    @Resource
+    private ConceptCodeExportService conceptCodeExportService;
+
+    @RequestMapping(value = CONCEPT_CODE_EXPORT, method = RequestMethod.GET)
+    public void exportConceptCodes(
+            @RequestParam(value = "format", defaultValue = "CSV") Format format,
+            @RequestParam(value = "valueSetId", required = false) Long valueSetId,
+            @RequestParam(value = "codeSystemVersionId", required = false) Long codeSystemVersionId,
+            @RequestParam(value = "valueSetCategoryId", required = false) Long valueSetCategoryId,
+            HttpServletResponse response) throws IOException {
+        response.setContentType(format.getContentType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+                "attachment; filename=\"concept-codes." + format.getExtension() + "\"");
+        conceptCodeExportService.exportConceptCodes(valueSetId, codeSystemVersionId, valueSetCategoryId,
+                format, response.getOutputStream());
+        response.flushBuffer();
+    }
+}
@@ -1,5 +1,6 @@
 package gov.samhsa.c2s.vss.web;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import gov.samhsa.c2s.vss.service.ConceptCodeNotFoundException;
 import gov.samhsa.c2s.vss.service.CodeSystemVersionNotFoundException;
 import gov.samhsa.c2s.vss.service.ValueSetLookupService;
@@ -9,28 +10,44 @@
 import gov.samhsa.c2s.vss.service.dto.ValueSetQueryListDto;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-import static java.util.stream.Collectors.toList;
-
 @RestController
 public class ValueSetLookupRestController {
     protected static final String REDIRECT_MAPPING_LIST = "/lookupService";
     protected static final String MULTIPLE_VALUESET_LOOKUP = "/lookupService/multipleValueset";
     protected static final String REST_MAPPING_LIST = "/lookupService/rest";
+    protected static final String STREAM_MAPPING_LIST = "/lookupService/valueSetCategories/stream";
+    protected static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    /**
+     * The maximum number of streamed codes resolved and written back together.
+     */
+    private static final int STREAM_BATCH_SIZE = 200;
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     @Resource
     private ValueSetLookupService lookupService;
 
+    @Autowired
+    private ObjectMapper objectMapper;
+
     /**
      * Processes create conceptCode requests.
      *
@@ -53,27 +70,87 @@ public ValueSetQueryDto lookupValuesetCategories(
     public List<ValueSetQueryDto> lookupValuesetCategoriesOfMultipleCodesAndCodeSystemSet(
             @RequestParam(value = "code:codeSystemOid") List<String> codeAndCodeSystemPairList,
             Model model) {
-        List<ValueSetQueryDto> valueSetQueryDtoList = new ArrayList<ValueSetQueryDto>();
+        List<ConceptCodeAndCodeSystemOidDto> conceptCodeAndCodeSystemOidDtos = new ArrayList<ConceptCodeAndCodeSystemOidDto>();
         for (String codeAndCodeSystemPair : codeAndCodeSystemPairList) {
             List<String> spilitedCodeAndCodeSystem = new ArrayList<String>(
                     Arrays.asList(codeAndCodeSystemPair.split(":")));
             if (spilitedCodeAndCodeSystem.size() != 2)
                 continue;
-            String code = spilitedCodeAndCodeSystem.get(0);
-            String codeSystemOid = spilitedCodeAndCodeSystem.get(1);
-            logger.debug("Rendering Concept Code list page");
-            ValueSetQueryDto valueSetQueryDto = getValueSetQueryDto(code, codeSystemOid);
-            valueSetQueryDtoList.add(valueSetQueryDto);
+            ConceptCodeAndCodeSystemOidDto conceptCodeAndCodeSystemOidDto = new ConceptCodeAndCodeSystemOidDto();
+            conceptCodeAndCodeSystemOidDto.setConceptCode(spilitedCodeAndCodeSystem.get(0));
+            conceptCodeAndCodeSystemOidDto.setCodeSystemOid(spilitedCodeAndCodeSystem.get(1));
+            conceptCodeAndCodeSystemOidDtos.add(conceptCodeAndCodeSystemOidDto);
         }
 
-        return valueSetQueryDtoList;
+        logger.debug("Looking up value set categories of " + conceptCodeAndCodeSystemOidDtos.size() + " concept codes");
+        return lookupService.restfulValueSetCategories(conceptCodeAndCodeSystemOidDtos);
     }
 
     @RequestMapping(value = "/lookupService/valueSetCategories", method = RequestMethod.POST)
     public List<ValueSetQueryDto> lookupValueSetCategories(@Valid @RequestBody List<ConceptCodeAndCodeSystemOidDto> conceptCodeAndCodeSystemOidDtos) {
-        return conceptCodeAndCodeSystemOidDtos.stream()
-                .map(dto -> getValueSetQueryDto(dto.getConceptCode(), dto.getCodeSystemOid()))
-                .collect(toList());
+        return lookupService.restfulValueSetCategories(conceptCodeAndCodeSystemOidDtos);
+    }
+
+    /**
+     * Streams value set category lookups. The request body is read as
+     * newline-delimited JSON {@link ConceptCodeAndCodeSystemOidDto} objects and
+     * one {@link ValueSetQueryDto} line is written back per request line, in
+     * the same order. Lines are resolved in small batches and flushed as soon
+     * as they resolve, so only one batch is held in memory at a time and the
+     * caller can consume results while it is still uploading.
+     *
+     * @param request  the request
+     * @param response the response
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    @RequestMapping(value = STREAM_MAPPING_LIST, method = RequestMethod.POST, consumes = APPLICATION_NDJSON_VALUE)
+    public void streamValueSetCategories(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setContentType(APPLICATION_NDJSON_VALUE);
+        response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+        OutputStream out = response.getOutputStream();
+        List<ValueSetQueryDto> batch = new ArrayList<ValueSetQueryDto>(STREAM_BATCH_SIZE);
+        List<ConceptCodeAndCodeSystemOidDto> pending = new ArrayList<ConceptCodeAndCodeSystemOidDto>(STREAM_BATCH_SIZE);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().length() > 0) {
+                try {
+                    pending.add(objectMapper.readValue(line, ConceptCodeAndCodeSystemOidDto.class));
+                } catch (IOException e) {
+                    logger.debug("Malformed lookup line: " + e.getMessage());
+                    // keep the output aligned with the input lines
+                    batch.addAll(lookupService.restfulValueSetCategories(pending));
+                    pending.clear();
+                    ValueSetQueryDto malformed = new ValueSetQueryDto();
+                    malformed.setErrorMessage("Malformed concept code and code system oid");
+                    batch.add(malformed);
+                }
+            }
+            // write back whatever is resolved once the batch is full or the
+            // caller has not sent anything more yet
+            if (pending.size() + batch.size() >= STREAM_BATCH_SIZE || !reader.ready()) {
+                writeBatch(out, batch, pending);
+            }
+        }
+        writeBatch(out, batch, pending);
+    }
+
+    private void writeBatch(OutputStream out, List<ValueSetQueryDto> batch,
+                            List<ConceptCodeAndCodeSystemOidDto> pending) throws IOException {
+        if (!pending.isEmpty()) {
+            batch.addAll(lookupService.restfulValueSetCategories(pending));
+            pending.clear();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        for (ValueSetQueryDto valueSetQueryDto : batch) {
+            out.write(objectMapper.writeValueAsBytes(valueSetQueryDto));
+            out.write('\n');
+        }
+        out.flush();
+        batch.clear();
     }
 
     /**
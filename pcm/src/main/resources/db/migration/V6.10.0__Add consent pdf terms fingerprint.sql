@@ -0,0 +1 @@
+ALTER TABLE `pcm`.`consent` ADD `pdf_terms_fingerprint` VARCHAR(64) NULL;
@@ -0,0 +1 @@
+ALTER TABLE `pcm`.`concept_code` ADD INDEX `idx_concept_code_code_id` (`code`, `concept_code_id`);
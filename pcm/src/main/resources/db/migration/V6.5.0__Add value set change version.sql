@@ -0,0 +1,7 @@
+CREATE TABLE `pcm`.`value_set_change_version` (
+  `id` INT NOT NULL,
+  `version` BIGINT NOT NULL,
+  `last_updated_date_time` DATETIME NULL,
+  PRIMARY KEY (`id`));
+
+INSERT INTO `pcm`.`value_set_change_version` (`id`, `version`, `last_updated_date_time`) VALUES (1, 0, NOW());
@@ -0,0 +1 @@
+ALTER TABLE `pcm`.`consent` ADD `artifact_fingerprint` VARCHAR(64) NULL;
@@ -0,0 +1 @@
+ALTER TABLE `pcm`.`consent` ADD INDEX `idx_consent_patient_end_date_start_date` (`patient`, `end_date`, `start_date`);
@@ -0,0 +1,14 @@
+CREATE TABLE `pcm`.`fhir_contract_publication` (
+  `id` BIGINT AUTO_INCREMENT NOT NULL,
+  `consent_id` BIGINT NOT NULL,
+  `contract` LONGTEXT NOT NULL,
+  `status` VARCHAR(20) NOT NULL,
+  `attempts` INT NOT NULL DEFAULT 0,
+  `next_attempt_date_time` DATETIME NULL,
+  `last_error` VARCHAR(1000) NULL,
+  `created_date_time` DATETIME NULL,
+  `published_date_time` DATETIME NULL,
+  CONSTRAINT `PK_FHIR_CONTRACT_PUBLICATION` PRIMARY KEY (`id`),
+  CONSTRAINT `FK_FHIR_CONTRACT_PUBLICATION_CONSENT` FOREIGN KEY (`consent_id`) REFERENCES `pcm`.`consent` (`id`));
+
+ALTER TABLE `pcm`.`fhir_contract_publication` ADD INDEX `idx_fhir_contract_publication_status_next` (`status`, `next_attempt_date_time`);
@@ -0,0 +1,14 @@
+CREATE TABLE `pcm`.`batch_upload_job` (
+  `job_id` VARCHAR(36) NOT NULL,
+  `type` VARCHAR(20) NOT NULL,
+  `status` VARCHAR(20) NOT NULL,
+  `rows_read` INT NOT NULL DEFAULT 0,
+  `rows_inserted` INT NOT NULL DEFAULT 0,
+  `duplicates` INT NOT NULL DEFAULT 0,
+  `duplicate_rows` LONGTEXT NULL,
+  `errors` LONGTEXT NULL,
+  `submitted_date_time` DATETIME NULL,
+  `finished_date_time` DATETIME NULL,
+  CONSTRAINT `PK_BATCH_UPLOAD_JOB` PRIMARY KEY (`job_id`));
+
+ALTER TABLE `pcm`.`batch_upload_job` ADD INDEX `idx_batch_upload_job_finished` (`finished_date_time`);
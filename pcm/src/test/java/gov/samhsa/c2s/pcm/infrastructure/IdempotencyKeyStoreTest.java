@@ -0,0 +1,230 @@
+package gov.samhsa.c2s.pcm.infrastructure;
+
+import gov.samhsa.c2s.pcm.service.exception.ConflictingConsentException;
+import gov.samhsa.c2s.pcm.service.exception.IdempotencyKeyReusedException;
+import gov.samhsa.c2s.pcm.service.exception.IdempotentRequestInProgressException;
+import gov.samhsa.c2s.pcm.service.exception.InternalServerErrorException;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IdempotencyKeyStoreTest {
+
+    private final IdempotencyKeyStore sut = new IdempotencyKeyStore(60000, 100, 5000);
+
+    private final AtomicInteger runs = new AtomicInteger();
+
+    @Test
+    public void testExecute_runs_request_once_per_key() {
+        // Act
+        sut.execute("alice k1", "f1", runs::incrementAndGet);
+        sut.execute("alice k1", "f1", runs::incrementAndGet);
+
+        // Assert
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testExecute_runs_request_without_key_every_time() {
+        // Act
+        sut.execute(null, null, runs::incrementAndGet);
+        sut.execute(null, null, runs::incrementAndGet);
+
+        // Assert
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testExecute_runs_requests_with_other_keys() {
+        // Act
+        sut.execute("alice k1", "f1", runs::incrementAndGet);
+        sut.execute("alice k2", "f1", runs::incrementAndGet);
+
+        // Assert
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testExecute_replays_client_error() {
+        // Arrange
+        ConflictingConsentException conflict = new ConflictingConsentException("conflict");
+        try {
+            sut.execute("alice k1", "f1", () -> {
+                runs.incrementAndGet();
+                throw conflict;
+            });
+            fail();
+        } catch (ConflictingConsentException e) {
+            assertSame(conflict, e);
+        }
+
+        // Act
+        try {
+            sut.execute("alice k1", "f1", runs::incrementAndGet);
+            fail();
+        } catch (ConflictingConsentException e) {
+            // Assert
+            assertSame(conflict, e);
+        }
+        assertEquals(1, runs.get());
+    }
+
+    @Test
+    public void testExecute_runs_again_after_server_error() {
+        // Arrange
+        try {
+            sut.execute("alice k1", "f1", () -> {
+                runs.incrementAndGet();
+                throw new InternalServerErrorException("try again later");
+            });
+            fail();
+        } catch (InternalServerErrorException e) {
+            // expected
+        }
+
+        // Act
+        sut.execute("alice k1", "f1", runs::incrementAndGet);
+
+        // Assert
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testExecute_runs_again_after_checked_exception() throws IOException {
+        // Arrange
+        try {
+            sut.execute("alice k1", "f1", () -> {
+                runs.incrementAndGet();
+                throw new IOException("not serializable");
+            });
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        // Act
+        sut.execute("alice k1", "f1", runs::incrementAndGet);
+
+        // Assert
+        assertEquals(2, runs.get());
+    }
+
+    @Test(expected = IdempotencyKeyReusedException.class)
+    public void testExecute_rejects_key_reused_for_other_request() {
+        // Arrange
+        sut.execute("alice k1", "f1", runs::incrementAndGet);
+
+        // Act
+        sut.execute("alice k1", "f2", runs::incrementAndGet);
+    }
+
+    @Test
+    public void testExecute_runs_request_again_once_expired() throws InterruptedException {
+        // Arrange
+        IdempotencyKeyStore sut = new IdempotencyKeyStore(0, 100, 5000);
+        sut.execute("alice k1", "f1", runs::incrementAndGet);
+        // the expired keys are removed at most once a second
+        Thread.sleep(1100);
+
+        // Act
+        sut.execute("alice k1", "f1", runs::incrementAndGet);
+
+        // Assert
+        assertEquals(2, runs.get());
+    }
+
+    @Test
+    public void testExecute_runs_requests_without_key_when_full() {
+        // Arrange
+        IdempotencyKeyStore sut = new IdempotencyKeyStore(60000, 1, 5000);
+        sut.execute("alice k1", "f1", runs::incrementAndGet);
+
+        // Act
+        sut.execute("alice k2", "f1", runs::incrementAndGet);
+        sut.execute("alice k2", "f1", runs::incrementAndGet);
+
+        // Assert
+        assertEquals(3, runs.get());
+    }
+
+    @Test
+    public void testExecute_retry_waits_for_running_request() throws Exception {
+        // Arrange
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> original = executor.submit(() -> {
+                sut.execute("alice k1", "f1", () -> {
+                    runs.incrementAndGet();
+                    started.countDown();
+                    release.await();
+                });
+                return null;
+            });
+            started.await();
+
+            // Act
+            Future<?> retry = executor.submit(() -> sut.execute("alice k1", "f1", runs::incrementAndGet));
+            release.countDown();
+            original.get(5, TimeUnit.SECONDS);
+            retry.get(5, TimeUnit.SECONDS);
+
+            // Assert
+            assertEquals(1, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExecute_retry_gives_up_waiting_for_hanging_request() throws Exception {
+        // Arrange
+        IdempotencyKeyStore sut = new IdempotencyKeyStore(60000, 100, 100);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> original = executor.submit(() -> {
+                sut.execute("alice k1", "f1", () -> {
+                    runs.incrementAndGet();
+                    started.countDown();
+                    release.await();
+                });
+                return null;
+            });
+            started.await();
+
+            // Act
+            Future<?> retry = executor.submit(() -> sut.execute("alice k1", "f1", runs::incrementAndGet));
+            try {
+                retry.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                // Assert
+                assertTrue(e.getCause() instanceof IdempotentRequestInProgressException);
+            }
+            assertEquals(1, runs.get());
+
+            // the original request still completes, and its outcome is replayed
+            release.countDown();
+            original.get(5, TimeUnit.SECONDS);
+            sut.execute("alice k1", "f1", runs::incrementAndGet);
+            assertEquals(1, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
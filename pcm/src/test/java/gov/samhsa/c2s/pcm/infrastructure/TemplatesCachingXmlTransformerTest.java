@@ -0,0 +1,114 @@
+package gov.samhsa.c2s.pcm.infrastructure;
+
+import gov.samhsa.c2s.common.document.transformer.XmlTransformerImpl;
+import gov.samhsa.c2s.common.marshaller.SimpleMarshaller;
+import gov.samhsa.c2s.common.marshaller.SimpleMarshallerImpl;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class TemplatesCachingXmlTransformerTest {
+
+    private static final String XML_STYLESHEET = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+            + "<xsl:output method=\"xml\" indent=\"yes\" encoding=\"UTF-8\"/>"
+            + "<xsl:template match=\"/consent\"><policy id=\"{@id}\"><subject>Policy for <xsl:value-of select=\"patient\"/>"
+            + "</subject><xsl:copy-of select=\"purposes\"/></policy></xsl:template>"
+            + "</xsl:stylesheet>";
+
+    private static final String TEXT_STYLESHEET = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+            + "<xsl:output method=\"text\"/>"
+            + "<xsl:template match=\"/consent\">Policy for <xsl:value-of select=\"patient\"/></xsl:template>"
+            + "</xsl:stylesheet>";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    SimpleMarshaller simpleMarshaller;
+
+    XmlTransformerImpl libraryTransformer;
+
+    TemplatesCachingXmlTransformer sut;
+
+    TestConsent consent;
+
+    @Before
+    public void setUp() {
+        simpleMarshaller = new SimpleMarshallerImpl();
+        libraryTransformer = new XmlTransformerImpl(simpleMarshaller);
+        sut = new TemplatesCachingXmlTransformer(simpleMarshaller, new XslTemplatesCache(), MarshalledXmlCache.NONE);
+        consent = new TestConsent();
+        consent.id = "consent-1";
+        consent.patient = "Alice O'Hara & Élise";
+        consent.purposes = "<treatment/>";
+    }
+
+    @Test
+    public void testTransform_xml_output_is_byte_identical_to_library() throws Exception {
+        final String xslUrl = stylesheet("xml.xsl", XML_STYLESHEET);
+
+        final String expected = libraryTransformer.transform(consent, xslUrl, Optional.empty(), Optional.empty());
+
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8),
+                sut.transform(consent, xslUrl, Optional.empty(), Optional.empty()).getBytes(StandardCharsets.UTF_8));
+        // the compiled stylesheet is reused by the next transformation
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8),
+                sut.transform(consent, xslUrl, Optional.empty(), Optional.empty()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTransform_text_output_is_byte_identical_to_library() throws Exception {
+        final String xslUrl = stylesheet("text.xsl", TEXT_STYLESHEET);
+
+        final String expected = libraryTransformer.transform(consent, xslUrl, Optional.empty(), Optional.empty());
+
+        assertArrayEquals(expected.getBytes(StandardCharsets.UTF_8),
+                sut.transform(consent, xslUrl, Optional.empty(), Optional.empty()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTransform_marshals_through_cache() throws Exception {
+        final String xslUrl = stylesheet("text.xsl", TEXT_STYLESHEET);
+        final AtomicInteger marshalled = new AtomicInteger();
+        final String xml = simpleMarshaller.marshal(consent);
+        sut = new TemplatesCachingXmlTransformer(simpleMarshaller, new XslTemplatesCache(), (obj, marshalling) -> {
+            marshalled.incrementAndGet();
+            return xml;
+        });
+
+        assertEquals("Policy for Alice O'Hara & Élise",
+                sut.transform(consent, xslUrl, Optional.empty(), Optional.empty()));
+        assertEquals(1, marshalled.get());
+    }
+
+    private String stylesheet(String name, String stylesheet) throws Exception {
+        final File xsl = temporaryFolder.newFile(name);
+        Files.write(xsl.toPath(), stylesheet.getBytes(StandardCharsets.UTF_8));
+        return xsl.toURI().toString();
+    }
+
+    @XmlRootElement(name = "consent")
+    @XmlAccessorType(XmlAccessType.FIELD)
+    public static class TestConsent {
+
+        @XmlAttribute
+        String id;
+
+        String patient;
+
+        String purposes;
+    }
+}
@@ -0,0 +1,90 @@
+package gov.samhsa.c2s.pcm.infrastructure;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+
+public class XslTemplatesCacheTest {
+
+    private static final String XML = "<consent><patient>Alice</patient></consent>";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    File xsl;
+
+    String xslUrl;
+
+    XslTemplatesCache sut;
+
+    @Before
+    public void setUp() throws Exception {
+        xsl = temporaryFolder.newFile("consent.xsl");
+        writeStylesheet("Policy for ");
+        xslUrl = xsl.toURI().toString();
+        sut = new XslTemplatesCache();
+    }
+
+    @Test
+    public void testTransform() {
+        assertEquals("Policy for Alice", sut.transform(XML, xslUrl));
+    }
+
+    @Test
+    public void testTransform_compiles_stylesheet_once() throws Exception {
+        sut.transform(XML, xslUrl);
+        writeStylesheet("Changed policy for ");
+
+        assertEquals("Policy for Alice", sut.transform(XML, xslUrl));
+
+        sut.evictAll();
+        assertEquals("Changed policy for Alice", sut.transform(XML, xslUrl));
+    }
+
+    @Test
+    public void testNewTransformer_hands_out_a_transformer_per_call() {
+        assertNotSame(sut.newTransformer(xslUrl), sut.newTransformer(xslUrl));
+    }
+
+    @Test
+    public void testTransform_concurrently() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Callable<String>> transformations = new ArrayList<Callable<String>>();
+            for (int i = 0; i < 200; i++) {
+                final String patient = "Patient" + i;
+                transformations.add(() -> sut.transform("<consent><patient>" + patient + "</patient></consent>", xslUrl));
+            }
+
+            final List<Future<String>> results = executor.invokeAll(transformations);
+
+            for (int i = 0; i < results.size(); i++) {
+                assertEquals("Policy for Patient" + i, results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void writeStylesheet(String prefix) throws Exception {
+        final String stylesheet = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+                + "<xsl:output method=\"text\"/>"
+                + "<xsl:template match=\"/consent\">" + prefix + "<xsl:value-of select=\"patient\"/></xsl:template>"
+                + "</xsl:stylesheet>";
+        Files.write(xsl.toPath(), stylesheet.getBytes(StandardCharsets.UTF_8));
+    }
+}
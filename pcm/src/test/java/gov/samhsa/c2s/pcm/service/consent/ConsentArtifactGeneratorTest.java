@@ -0,0 +1,112 @@
+package gov.samhsa.c2s.pcm.service.consent;
+
+import gov.samhsa.c2s.common.consentgen.ConsentGenException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsentArtifactGeneratorTest {
+
+    ThreadPoolTaskExecutor taskExecutor;
+
+    ConsentArtifactGenerator sut;
+
+    @Before
+    public void setUp() {
+        taskExecutor = new ThreadPoolTaskExecutor();
+        taskExecutor.setCorePoolSize(4);
+        taskExecutor.setMaxPoolSize(4);
+        taskExecutor.initialize();
+        sut = new ConsentArtifactGenerator(taskExecutor, 5000);
+    }
+
+    @After
+    public void tearDown() {
+        taskExecutor.shutdown();
+    }
+
+    @Test
+    public void testGenerate_runs_artifacts_concurrently() throws Exception {
+        // Arrange
+        final CountDownLatch allStarted = new CountDownLatch(3);
+        final Map<String, ConsentArtifactGenerator.Artifact> artifacts = new LinkedHashMap<String, ConsentArtifactGenerator.Artifact>();
+        for (final String name : Arrays.asList("pdf", "xacml", "cda")) {
+            artifacts.put(name, () -> {
+                allStarted.countDown();
+                // only returns when the three are generated at the same time
+                assertTrue(await(allStarted, 2000));
+                return name.getBytes();
+            });
+        }
+
+        // Act
+        final Map<String, byte[]> generated = sut.generate(artifacts);
+
+        // Assert
+        assertEquals(Arrays.asList("pdf", "xacml", "cda"), Arrays.asList(generated.keySet().toArray()));
+        assertArrayEquals("pdf".getBytes(), generated.get("pdf"));
+        assertArrayEquals("xacml".getBytes(), generated.get("xacml"));
+        assertArrayEquals("cda".getBytes(), generated.get("cda"));
+    }
+
+    @Test(expected = ConsentGenException.class)
+    public void testGenerate_propagates_failure_of_executor_artifact() throws Exception {
+        // Arrange
+        final Map<String, ConsentArtifactGenerator.Artifact> artifacts = new LinkedHashMap<String, ConsentArtifactGenerator.Artifact>();
+        artifacts.put("pdf", () -> "pdf".getBytes());
+        artifacts.put("xacml", () -> {
+            throw new ConsentGenException("xacml failed");
+        });
+
+        // Act
+        sut.generate(artifacts);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testGenerate_propagates_runtime_failure() throws Exception {
+        // Arrange
+        final Map<String, ConsentArtifactGenerator.Artifact> artifacts = new LinkedHashMap<String, ConsentArtifactGenerator.Artifact>();
+        artifacts.put("pdf", () -> "pdf".getBytes());
+        artifacts.put("cda", () -> {
+            throw new IllegalStateException("cda failed");
+        });
+
+        // Act
+        sut.generate(artifacts);
+    }
+
+    @Test(expected = ConsentGenException.class)
+    public void testGenerate_times_out() throws Exception {
+        // Arrange
+        sut = new ConsentArtifactGenerator(taskExecutor, 50);
+        final Map<String, ConsentArtifactGenerator.Artifact> artifacts = new LinkedHashMap<String, ConsentArtifactGenerator.Artifact>();
+        artifacts.put("pdf", () -> "pdf".getBytes());
+        artifacts.put("xacml", () -> {
+            await(new CountDownLatch(1), 5000);
+            return "xacml".getBytes();
+        });
+
+        // Act
+        sut.generate(artifacts);
+    }
+
+    private static boolean await(CountDownLatch latch, long millis) {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        while (latch.getCount() > 0 && System.nanoTime() < deadline && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        return latch.getCount() == 0;
+    }
+}
@@ -0,0 +1,197 @@
+package gov.samhsa.c2s.pcm.service.consent;
+
+import gov.samhsa.c2s.pcm.domain.consent.Consent;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentPdfGenerator;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentRepository;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentTermsVersions;
+import gov.samhsa.c2s.pcm.domain.patient.Patient;
+import gov.samhsa.c2s.pcm.service.dto.AbstractPdfDto;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.PropertySourcesPlaceholderConfigurer;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.transaction.support.AbstractPlatformTransactionManager;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Fetches consent artifacts through the read-only transactions of the
+ * consent service, with the transactions recorded instead of run against a
+ * database.
+ */
+public class ConsentArtifactWriterTest {
+
+    private static final byte[] PDF = {4, 5, 6};
+
+    private AnnotationConfigApplicationContext context;
+
+    private RecordingTransactionManager transactionManager;
+
+    private ConsentRepository consentRepository;
+
+    /**
+     * Whether the transaction of each consent update was read-only.
+     */
+    private final List<Boolean> readOnlyUpdates = new ArrayList<Boolean>();
+
+    @Before
+    public void setUp() {
+        context = new AnnotationConfigApplicationContext();
+        // mocks for the collaborators of the consent service
+        for (Field field : ConsentServiceImpl.class.getDeclaredFields()) {
+            if (field.isAnnotationPresent(Autowired.class) && field.getType() != ConsentArtifactWriter.class
+                    && field.getType() != Set.class) {
+                context.getBeanFactory().registerSingleton(field.getName(), mock(field.getType()));
+            }
+        }
+        context.getBeanFactory().registerSingleton("consentAssertion", mock(ConsentAssertion.class));
+        context.register(TestConfig.class, ConsentServiceImpl.class, ConsentArtifactWriter.class);
+        context.refresh();
+        transactionManager = context.getBean(RecordingTransactionManager.class);
+        consentRepository = context.getBean(ConsentRepository.class);
+
+        when(consentRepository.clearArtifacts(anyLong(), anyString())).thenAnswer(invocation -> {
+            readOnlyUpdates.add(TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+            return 1;
+        });
+        when(consentRepository.storeUnAttestedPdfConsent(anyLong(), any(byte[].class), anyString(), anyString()))
+                .thenAnswer(invocation -> {
+                    readOnlyUpdates.add(TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+                    return 1;
+                });
+    }
+
+    @After
+    public void tearDown() {
+        context.close();
+    }
+
+    @Test
+    public void testFindConsentContentDto_stores_generated_artifact_in_writable_transaction() {
+        // Arrange
+        Patient patient = mock(Patient.class);
+        Consent consent = mock(Consent.class);
+        when(consent.getId()).thenReturn(2L);
+        when(consent.getPatient()).thenReturn(patient);
+        when(consent.getStatus()).thenReturn(ConsentStatus.CONSENT_SAVED);
+        when(consentRepository.findOne(2L)).thenReturn(consent);
+        ConsentTermsVersions consentTermsVersions = mock(ConsentTermsVersions.class);
+        when(consentTermsVersions.getConsentTermsText()).thenReturn("terms");
+        when(context.getBean(ConsentTermsVersionsService.class).getEnabledConsentTermsVersion())
+                .thenReturn(consentTermsVersions);
+        when(context.getBean(ConsentPdfGenerator.class).generate42CfrPart2Pdf(eq(consent), eq(patient),
+                eq(false), any(), eq("terms"))).thenReturn(PDF);
+
+        // Act
+        AbstractPdfDto consentPdfDto = context.getBean(ConsentService.class).findConsentContentDto(2L);
+
+        // Assert
+        assertArrayEquals(PDF, consentPdfDto.getContent());
+        // the stale artifacts are cleared, then the generated one stored
+        assertEquals(2, readOnlyUpdates.size());
+        assertFalse(readOnlyUpdates.get(0));
+        assertFalse(readOnlyUpdates.get(1));
+        assertTrue(transactionManager.definitions.get(0).isReadOnly());
+        for (TransactionDefinition definition : transactionManager.definitions.subList(1,
+                transactionManager.definitions.size())) {
+            assertEquals(TransactionDefinition.PROPAGATION_REQUIRES_NEW, definition.getPropagationBehavior());
+            assertFalse(definition.isReadOnly());
+        }
+    }
+
+    @Configuration
+    @EnableTransactionManagement
+    static class TestConfig {
+
+        @Bean
+        public static PropertySourcesPlaceholderConfigurer propertySourcesPlaceholderConfigurer() {
+            Properties properties = new Properties();
+            properties.setProperty("c2s.pcm.config.pid.domain.id", "1.1.1");
+            properties.setProperty("c2s.pcm.config.pid.domain.type", "ISO");
+            properties.setProperty("c2s.pcm.config.hie-connection.fhir.enabled", "false");
+            properties.setProperty("c2s.pcm.config.consentArtifacts.lazy", "true");
+            PropertySourcesPlaceholderConfigurer configurer = new PropertySourcesPlaceholderConfigurer();
+            configurer.setProperties(properties);
+            return configurer;
+        }
+
+        @Bean
+        public RecordingTransactionManager transactionManager() {
+            return new RecordingTransactionManager();
+        }
+    }
+
+    /**
+     * Records the transactions begun, and keeps track of the active one as
+     * a database transaction manager would.
+     */
+    static class RecordingTransactionManager extends AbstractPlatformTransactionManager {
+
+        private final List<TransactionDefinition> definitions = new ArrayList<TransactionDefinition>();
+
+        private int active;
+
+        @Override
+        protected Object doGetTransaction() {
+            return new boolean[]{active > 0};
+        }
+
+        @Override
+        protected boolean isExistingTransaction(Object transaction) {
+            return ((boolean[]) transaction)[0];
+        }
+
+        @Override
+        protected void doBegin(Object transaction, TransactionDefinition definition) {
+            definitions.add(definition);
+            active++;
+        }
+
+        @Override
+        protected Object doSuspend(Object transaction) {
+            active--;
+            return transaction;
+        }
+
+        @Override
+        protected void doResume(Object transaction, Object suspendedResources) {
+            active++;
+        }
+
+        @Override
+        protected void doCommit(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doRollback(DefaultTransactionStatus status) {
+        }
+
+        @Override
+        protected void doCleanupAfterCompletion(Object transaction) {
+            active--;
+        }
+    }
+}
@@ -6,6 +6,7 @@
 import gov.samhsa.c2s.pcm.service.consent.ConsentHelper;
 import gov.samhsa.c2s.pcm.service.dto.ConsentDto;
 import gov.samhsa.c2s.pcm.service.dto.ConsentValidationDto;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
@@ -13,12 +14,23 @@
 import org.mockito.runners.MockitoJUnitRunner;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -31,27 +43,40 @@ public class ConsentCheckServiceImplTest {
     @Mock
     private ConsentRepository consentRepositoryMock;
 
-    @Test
-    public void testGetConflictConsent_no_overlap() {
-        // Arrange
-        ConsentDto consentDtoMock = mock(ConsentDto.class);
-        consentDtoMock.setId("2");
+    ConsentDto consentDtoMock;
 
-        String userNameMock = "usernamemock";
-        when(consentDtoMock.getUsername()).thenReturn(userNameMock);
+    Set<String> purposeOfUseCodes = new HashSet<String>(Arrays.asList("TREATMENT"));
 
-        List<Consent> consentList = new ArrayList<Consent>();
-        Consent consent = new Consent();
-        consent.setId(new Long(1));
-        consent.setStartDate(new Date());
-        consent.setEndDate(new Date());
-        consentList.add(consent);
+    Set<String> toDiscloseNpis = new HashSet<String>(Arrays.asList("1111111111"));
+
+    Set<String> isMadeToNpis = new HashSet<String>(Arrays.asList("2222222222"));
 
-        when(consentRepositoryMock.findAllByPatientUsername(userNameMock))
-                .thenReturn(consentList);
+    Date start = new Date();
+
+    Date end = new Date();
+
+    @Before
+    public void setUp() {
+        consentDtoMock = mock(ConsentDto.class);
+        when(consentDtoMock.getId()).thenReturn("2");
+        when(consentDtoMock.getUsername()).thenReturn("usernamemock");
+        when(consentDtoMock.getConsentStart()).thenReturn(start);
+        when(consentDtoMock.getConsentEnd()).thenReturn(end);
+        when(consentDtoMock.getShareForPurposeOfUseCodes()).thenReturn(purposeOfUseCodes);
+        when(consentHelperMock.getDtoProviderToDiscloseToNpi(consentDtoMock)).thenReturn(toDiscloseNpis);
+        when(consentHelperMock.getDtoProviderIsMadeToNpi(consentDtoMock)).thenReturn(isMadeToNpis);
+    }
+
+    @Test
+    public void testGetConflictConsent_no_overlap() {
+        // Arrange
+        Object[] candidate = candidate(1L);
+        when(consentRepositoryMock.findConflictCandidatesByPatientUsername("usernamemock", start, end,
+                purposeOfUseCodes, ConsentStatus.REVOCATION_REVOKED))
+                .thenReturn(Collections.singletonList(candidate));
         when(
                 consentHelperMock.isConsentTermOverlap(consentDtoMock,
-                        consent.getStartDate(), consent.getEndDate()))
+                        (Date) candidate[1], (Date) candidate[2]))
                 .thenReturn(false);
         // Act
         ConsentValidationDto consentValidationDto = cst
@@ -59,114 +84,72 @@ public void testGetConflictConsent_no_overlap() {
 
         // Assert
         assertNull(consentValidationDto);
-
+        verify(consentRepositoryMock, never()).findIdsByProvidersPermittedToDiscloseNpiIn(
+                anyCollectionOf(Long.class), anyCollectionOf(String.class));
+        verify(consentRepositoryMock, never()).findOne(anyLong());
     }
 
     @Test
     public void testGetConflictConsent_no_poumatch() {
         // Arrange
-        ConsentDto consentDtoMock = mock(ConsentDto.class);
-        consentDtoMock.setId("2");
+        when(consentRepositoryMock.findConflictCandidatesByPatientUsername("usernamemock", start, end,
+                purposeOfUseCodes, ConsentStatus.REVOCATION_REVOKED))
+                .thenReturn(new ArrayList<Object[]>());
 
-        String userNameMock = "usernamemock";
-        when(consentDtoMock.getUsername()).thenReturn(userNameMock);
-
-        List<Consent> consentList = new ArrayList<Consent>();
-        Consent consent = new Consent();
-        consent.setId(new Long(1));
-        consent.setStartDate(new Date());
-        consent.setEndDate(new Date());
-        consentList.add(consent);
-
-        when(consentRepositoryMock.findAllByPatientUsername(userNameMock))
-                .thenReturn(consentList);
-        when(
-                consentHelperMock.isConsentTermOverlap(consentDtoMock,
-                        consent.getStartDate(), consent.getEndDate()))
-                .thenReturn(true);
-        when(
-                consentHelperMock.isPOUMatches(
-                        consentDtoMock.getShareForPurposeOfUseCodes(),
-                        consent.getShareForPurposeOfUseCodes())).thenReturn(
-                false);
         // Act
         ConsentValidationDto consentValidationDto = cst
                 .getConflictConsent(consentDtoMock);
 
         // Assert
         assertNull(consentValidationDto);
-
+        verify(consentRepositoryMock, never()).findOne(anyLong());
     }
 
     @Test
-    public void testGetConflictConsent_no_providermatch() {
+    public void testGetConflictConsent_no_pou_selected() {
         // Arrange
-        ConsentDto consentDtoMock = mock(ConsentDto.class);
-        consentDtoMock.setId("2");
+        when(consentDtoMock.getShareForPurposeOfUseCodes()).thenReturn(new HashSet<String>());
 
-        String userNameMock = "usernamemock";
-        when(consentDtoMock.getUsername()).thenReturn(userNameMock);
-
-        List<Consent> consentList = new ArrayList<Consent>();
-        Consent consent = new Consent();
-        consent.setId(new Long(1));
-        consent.setStartDate(new Date());
-        consent.setEndDate(new Date());
+        // Act
+        ConsentValidationDto consentValidationDto = cst
+                .getConflictConsent(consentDtoMock);
 
-        consentList.add(consent);
+        // Assert
+        assertNull(consentValidationDto);
+        verifyZeroInteractions(consentRepositoryMock);
+    }
 
-        when(consentRepositoryMock.findAllByPatientUsername(userNameMock))
-                .thenReturn(consentList);
+    @Test
+    public void testGetConflictConsent_no_providermatch() {
+        // Arrange
+        Object[] candidate = candidate(1L);
+        when(consentRepositoryMock.findConflictCandidatesByPatientUsername("usernamemock", start, end,
+                purposeOfUseCodes, ConsentStatus.REVOCATION_REVOKED))
+                .thenReturn(Collections.singletonList(candidate));
         when(
                 consentHelperMock.isConsentTermOverlap(consentDtoMock,
-                        consent.getStartDate(), consent.getEndDate()))
+                        (Date) candidate[1], (Date) candidate[2]))
                 .thenReturn(true);
-        when(
-                consentHelperMock.isPOUMatches(
-                        consentDtoMock.getShareForPurposeOfUseCodes(),
-                        consent.getShareForPurposeOfUseCodes())).thenReturn(
-                true);
-        when(consentHelperMock.isProviderComboMatch(consent, consentDtoMock))
-                .thenReturn(false);
+        when(consentRepositoryMock.findIdsByProvidersPermittedToDiscloseNpiIn(
+                Collections.singletonList(1L), toDiscloseNpis)).thenReturn(Collections.singletonList(1L));
+        when(consentRepositoryMock.findIdsByProvidersDisclosureIsMadeToNpiIn(
+                Collections.singletonList(1L), isMadeToNpis)).thenReturn(new ArrayList<Long>());
+
         // Act
         ConsentValidationDto consentValidationDto = cst
                 .getConflictConsent(consentDtoMock);
 
         // Assert
         assertNull(consentValidationDto);
-
+        verify(consentRepositoryMock, never()).findOne(anyLong());
     }
 
     @Test
     public void testGetConflictConsent_no_consentrevokedmatch() {
         // Arrange
-        ConsentDto consentDtoMock = mock(ConsentDto.class);
-        consentDtoMock.setId("2");
-
-        String userNameMock = "usernamemock";
-        when(consentDtoMock.getUsername()).thenReturn(userNameMock);
-
-        List<Consent> consentList = new ArrayList<Consent>();
-        Consent consent = new Consent();
-        consent.setId(new Long(1));
-        consent.setStartDate(new Date());
-        consent.setEndDate(new Date());
-        consentList.add(consent);
-
-        when(consentRepositoryMock.findAllByPatientUsername(userNameMock))
-                .thenReturn(consentList);
-        when(
-                consentHelperMock.isConsentTermOverlap(consentDtoMock,
-                        consent.getStartDate(), consent.getEndDate()))
-                .thenReturn(true);
-        when(
-                consentHelperMock.isPOUMatches(
-                        consentDtoMock.getShareForPurposeOfUseCodes(),
-                        consent.getShareForPurposeOfUseCodes())).thenReturn(
-                true);
-        when(consentHelperMock.isProviderComboMatch(consent, consentDtoMock))
-                .thenReturn(true);
-        when(consentHelperMock.isConsentRevoked(consent)).thenReturn(true);
+        when(consentRepositoryMock.findConflictCandidatesByPatientUsername(anyString(), any(Date.class),
+                any(Date.class), anyCollectionOf(String.class), anyString()))
+                .thenReturn(new ArrayList<Object[]>());
 
         // Act
         ConsentValidationDto consentValidationDto = cst
@@ -174,67 +157,46 @@ public void testGetConflictConsent_no_consentrevokedmatch() {
 
         // Assert
         assertNull(consentValidationDto);
-
+        verify(consentRepositoryMock).findConflictCandidatesByPatientUsername("usernamemock", start, end,
+                purposeOfUseCodes, ConsentStatus.REVOCATION_REVOKED);
     }
 
     @Test
     public void testGetConflictConsent_editconsent() {
         // Arrange
-        ConsentDto consentDto = new ConsentDto();
-        consentDto.setId("2");
-        consentDto.setUsername("usernamemock");
-
-        List<Consent> consentList = new ArrayList<Consent>();
-        Consent consent = new Consent();
-        consent.setId(new Long(2));
-        consent.setStartDate(new Date());
-        consent.setEndDate(new Date());
-
-        consentList.add(consent);
-
-        when(consentRepositoryMock.findAllByPatientUsername("usernamemock"))
-                .thenReturn(consentList);
+        when(consentRepositoryMock.findConflictCandidatesByPatientUsername("usernamemock", start, end,
+                purposeOfUseCodes, ConsentStatus.REVOCATION_REVOKED))
+                .thenReturn(Collections.singletonList(candidate(2L)));
 
         // Act
         ConsentValidationDto consentValidationDto = cst
-                .getConflictConsent(consentDto);
+                .getConflictConsent(consentDtoMock);
 
         // Assert
         assertNull(consentValidationDto);
-
+        verify(consentRepositoryMock, never()).findOne(anyLong());
     }
 
     @Test
     public void testGetConflictConsent_allmatch() {
         // Arrange
-        ConsentDto consentDtoMock = mock(ConsentDto.class);
-        consentDtoMock.setId("2");
-
-        String userNameMock = "usernamemock";
-        when(consentDtoMock.getUsername()).thenReturn(userNameMock);
-
-        List<Consent> consentList = new ArrayList<Consent>();
-        Consent consent = new Consent();
-        consent.setId(new Long(1));
-        consent.setStartDate(new Date());
-        consent.setEndDate(new Date());
-        consentList.add(consent);
-
-        when(consentRepositoryMock.findAllByPatientUsername(userNameMock))
-                .thenReturn(consentList);
-        when(
-                consentHelperMock.isConsentTermOverlap(consentDtoMock,
-                        consent.getStartDate(), consent.getEndDate()))
+        List<Object[]> candidates = Arrays.asList(candidate(1L), candidate(3L));
+        when(consentRepositoryMock.findConflictCandidatesByPatientUsername("usernamemock", start, end,
+                purposeOfUseCodes, ConsentStatus.REVOCATION_REVOKED))
+                .thenReturn(candidates);
+        when(consentHelperMock.isConsentTermOverlap(any(ConsentDto.class), any(Date.class), any(Date.class)))
                 .thenReturn(true);
-        when(
-                consentHelperMock.isPOUMatches(
-                        consentDtoMock.getShareForPurposeOfUseCodes(),
-                        consent.getShareForPurposeOfUseCodes())).thenReturn(
-                true);
-        when(consentHelperMock.isProviderComboMatch(consent, consentDtoMock))
-                .thenReturn(true);
-        when(consentHelperMock.isConsentRevoked(consent)).thenReturn(false);
+        List<Long> candidateIds = Arrays.asList(1L, 3L);
+        when(consentRepositoryMock.findIdsByProvidersPermittedToDiscloseNpiIn(candidateIds, toDiscloseNpis))
+                .thenReturn(Collections.singletonList(1L));
+        when(consentRepositoryMock.findIdsByOrganizationalProvidersPermittedToDiscloseNpiIn(candidateIds,
+                toDiscloseNpis)).thenReturn(Collections.singletonList(3L));
+        when(consentRepositoryMock.findIdsByOrganizationalProvidersDisclosureIsMadeToNpiIn(candidateIds,
+                isMadeToNpis)).thenReturn(Collections.singletonList(3L));
 
+        Consent consent = new Consent();
+        consent.setId(3L);
+        when(consentRepositoryMock.findOne(3L)).thenReturn(consent);
         ConsentValidationDto consentValidationDtoMock = new ConsentValidationDto();
         when(
                 consentHelperMock.convertConsentToConsentListDto(consent,
@@ -246,7 +208,30 @@ public void testGetConflictConsent_allmatch() {
 
         // Assert
         assertEquals(consentValidationDtoMock, consentValidationDto);
+        verify(consentRepositoryMock, never()).findOne(1L);
+        verify(consentRepositoryMock, never()).findAllByPatientUsername(anyString());
+    }
+
+    @Test
+    public void testGetConflictConsent_by_patient_id() {
+        // Arrange
+        when(consentDtoMock.getUsername()).thenReturn(null);
+        when(consentDtoMock.getPatientId()).thenReturn(5L);
+        when(consentRepositoryMock.findConflictCandidatesByPatientId(5L, start, end,
+                purposeOfUseCodes, ConsentStatus.REVOCATION_REVOKED))
+                .thenReturn(new ArrayList<Object[]>());
 
+        // Act
+        ConsentValidationDto consentValidationDto = cst
+                .getConflictConsent(consentDtoMock);
+
+        // Assert
+        assertNull(consentValidationDto);
+        verify(consentRepositoryMock).findConflictCandidatesByPatientId(5L, start, end,
+                purposeOfUseCodes, ConsentStatus.REVOCATION_REVOKED);
     }
 
+    private Object[] candidate(Long id) {
+        return new Object[]{id, new Date(), new Date()};
+    }
 }
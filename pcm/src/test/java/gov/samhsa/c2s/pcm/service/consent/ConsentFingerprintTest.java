@@ -0,0 +1,81 @@
+package gov.samhsa.c2s.pcm.service.consent;
+
+import gov.samhsa.c2s.pcm.domain.consent.Consent;
+import gov.samhsa.c2s.pcm.domain.consent.ConsentIndividualProviderDisclosureIsMadeTo;
+import gov.samhsa.c2s.pcm.domain.patient.Patient;
+import gov.samhsa.c2s.pcm.domain.provider.IndividualProvider;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ConsentFingerprintTest {
+
+    private static final String TERMS = "I, ATTESTER_FULL_NAME, understand that...";
+
+    private Consent consent;
+
+    private Patient patient;
+
+    private IndividualProvider provider;
+
+    @Before
+    public void setUp() {
+        patient = new Patient();
+        patient.setId(1L);
+        patient.setVersion(0);
+        patient.setFirstName("Alice");
+
+        provider = new IndividualProvider();
+        provider.setId(2L);
+        provider.setVersion(0);
+        provider.setNpi("1111111111");
+
+        consent = new Consent();
+        consent.setPatient(patient);
+        consent.setStartDate(new Date(0));
+        consent.getProvidersDisclosureIsMadeTo().add(new ConsentIndividualProviderDisclosureIsMadeTo(provider));
+    }
+
+    @Test
+    public void testOf_is_stable() {
+        assertEquals(ConsentFingerprint.of(consent), ConsentFingerprint.of(consent));
+    }
+
+    @Test
+    public void testOf_changes_with_consent() {
+        String fingerprint = ConsentFingerprint.of(consent);
+
+        consent.setEndDate(new Date(1000));
+
+        assertNotEquals(fingerprint, ConsentFingerprint.of(consent));
+    }
+
+    @Test
+    public void testOf_changes_with_patient_demographics() {
+        String fingerprint = ConsentFingerprint.of(consent);
+
+        // an update of the patient increments its version
+        patient.setFirstName("Alicia");
+        patient.setVersion(1);
+
+        assertNotEquals(fingerprint, ConsentFingerprint.of(consent));
+    }
+
+    @Test
+    public void testOf_changes_with_provider_details() {
+        String fingerprint = ConsentFingerprint.of(consent);
+
+        provider.setVersion(1);
+
+        assertNotEquals(fingerprint, ConsentFingerprint.of(consent));
+    }
+
+    @Test
+    public void testOfTerms_changes_with_consent_terms() {
+        assertNotEquals(ConsentFingerprint.ofTerms(TERMS), ConsentFingerprint.ofTerms(TERMS + " The new terms."));
+    }
+}
@@ -8,26 +8,35 @@
 import gov.samhsa.c2s.pcm.domain.provider.OrganizationalProvider;
 import gov.samhsa.c2s.pcm.domain.provider.OrganizationalProviderRepository;
 import gov.samhsa.c2s.pcm.domain.reference.ClinicalDocumentSectionTypeCodeRepository;
-import gov.samhsa.c2s.pcm.domain.reference.ClinicalDocumentTypeCodeRepository;
-import gov.samhsa.c2s.pcm.domain.reference.PurposeOfUseCodeRepository;
 import gov.samhsa.c2s.pcm.domain.reference.SensitivityPolicyCodeRepository;
 import gov.samhsa.c2s.pcm.infrastructure.PhrService;
 import gov.samhsa.c2s.pcm.infrastructure.dto.PatientDto;
+import gov.samhsa.c2s.pcm.service.consentexport.ConsentExportContext;
 import gov.samhsa.c2s.pcm.service.consentexport.ConsentExportService;
 import gov.samhsa.c2s.pcm.service.dto.ConsentDto;
 import gov.samhsa.c2s.pcm.service.dto.ConsentListDto;
 import gov.samhsa.c2s.pcm.service.dto.ConsentPdfDto;
+import gov.samhsa.c2s.pcm.service.dto.AttestationDto;
 import gov.samhsa.c2s.pcm.service.dto.ConsentRevokationPdfDto;
+import gov.samhsa.c2s.pcm.service.exception.AttestedConsentRevocationException;
+import gov.samhsa.c2s.pcm.service.fhir.FhirContractOutbox;
 import gov.samhsa.c2s.pcm.service.patient.PatientService;
+import gov.samhsa.c2s.pcm.service.reference.ReferenceCodeCache;
+import gov.samhsa.c2s.common.consentgen.ConsentBuilder;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.data.domain.Page;
+import org.springframework.scheduling.concurrent.ConcurrentTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.util.*;
+import java.util.concurrent.Executors;
 import java.util.function.Consumer;
 
 import static org.junit.Assert.*;
@@ -68,10 +77,10 @@ public class ConsentServiceImplTest {
     @Mock
     OrganizationalProviderRepository organizationalProviderRepository;
     /**
-     * The clinical document type code repository.
+     * The reference code cache.
      */
     @Mock
-    ClinicalDocumentTypeCodeRepository clinicalDocumentTypeCodeRepository;
+    ReferenceCodeCache referenceCodeCache;
     /**
      * The clinical document section type code repository.
      */
@@ -82,11 +91,6 @@ public class ConsentServiceImplTest {
      */
     @Mock
     SensitivityPolicyCodeRepository sensitivityPolicyCodeRepository;
-    /**
-     * The purpose of use code repository.
-     */
-    @Mock
-    PurposeOfUseCodeRepository purposeOfUseCodeRepository;
     /**
      * The consent check service.
      */
@@ -95,6 +99,15 @@ public class ConsentServiceImplTest {
     @Mock
     ConsentExportService consentExportService;
     @Mock
+    ConsentBuilder consentBuilder;
+    @Mock
+    ConsentExportContext consentExportContext;
+    @Spy
+    ConsentArtifactGenerator consentArtifactGenerator = new ConsentArtifactGenerator(
+            new ConcurrentTaskExecutor(Executors.newSingleThreadExecutor()), 10000);
+    @Mock
+    ConsentArtifactWriter consentArtifactWriter;
+    @Mock
     Set<ConsentAssertion> consentAssertions;
     @Mock
     PolicyIdService policyIdService;
@@ -108,6 +121,9 @@ public class ConsentServiceImplTest {
     @Mock
     ConsentTermsVersionsService consentTermsVersionsService;
 
+    @Mock
+    FhirContractOutbox fhirContractOutbox;
+
     /**
      * The cst.
      */
@@ -442,6 +458,165 @@ public void testFindConsentPdfDto_when_Consent_is_Saved() {
         verify(consentPdfDto).setId((long) 2);
     }
 
+    /**
+     * Test find consentPdfDto when the unsigned consent was saved without artifacts.
+     */
+    @Test
+    public void testFindConsentPdfDto_generates_and_stores_missing_artifact() {
+        ReflectionTestUtils.setField(cst, "lazyArtifacts", true);
+        Consent consent = mock(Consent.class);
+        ConsentPdfDto consentPdfDto = mock(ConsentPdfDto.class);
+        Patient patient = mock(Patient.class);
+        byte[] unattestedPdfConsentContent = new byte[]{4, 5, 6};
+
+        when(consent.getId()).thenReturn((long) 2);
+        when(consent.getPatient()).thenReturn(patient);
+        when(consent.getStatus()).thenReturn(ConsentStatus.CONSENT_SAVED);
+        String fingerprint = ConsentFingerprint.of(consent);
+        when(consent.getArtifactFingerprint()).thenReturn(fingerprint);
+        when(consentRepository.findOne(anyLong())).thenReturn(consent);
+        ConsentTermsVersions consentTermsVersions = mock(ConsentTermsVersions.class);
+        when(consentTermsVersions.getConsentTermsText()).thenReturn("TEST CONSENT TERMS TEXT");
+        when(consentTermsVersionsService.getEnabledConsentTermsVersion()).thenReturn(consentTermsVersions);
+        when(consentPdfGenerator.generate42CfrPart2Pdf(consent, patient, false, null, "TEST CONSENT TERMS TEXT"))
+                .thenReturn(unattestedPdfConsentContent);
+        ConsentService cstSpy = spy(cst);
+        when(cstSpy.makeConsentPdfDto()).thenReturn(consentPdfDto);
+
+        cstSpy.findConsentPdfDto((long) 2);
+
+        verify(consentPdfDto).setContent(unattestedPdfConsentContent);
+        verify(consentArtifactWriter).store(ConsentArtifact.UNATTESTED_PDF_CONSENT, (long) 2,
+                unattestedPdfConsentContent, fingerprint, ConsentFingerprint.ofTerms("TEST CONSENT TERMS TEXT"));
+        verify(consentArtifactWriter, never()).clearArtifacts(anyLong(), anyString());
+        verify(consent, never()).setUnAttestedPdfConsent(any(byte[].class));
+    }
+
+    /**
+     * Test find consentPdfDto when the consent terms changed since the pdf was stored.
+     */
+    @Test
+    public void testFindConsentPdfDto_regenerates_only_pdf_after_terms_change() {
+        ReflectionTestUtils.setField(cst, "lazyArtifacts", true);
+        Consent consent = mock(Consent.class);
+        ConsentPdfDto consentPdfDto = mock(ConsentPdfDto.class);
+        Patient patient = mock(Patient.class);
+        byte[] unattestedPdfConsentContent = new byte[]{4, 5, 6};
+
+        when(consent.getId()).thenReturn((long) 2);
+        when(consent.getPatient()).thenReturn(patient);
+        when(consent.getStatus()).thenReturn(ConsentStatus.CONSENT_SAVED);
+        when(consent.getUnAttestedPdfConsent()).thenReturn(new byte[]{1, 2, 3});
+        String fingerprint = ConsentFingerprint.of(consent);
+        when(consent.getArtifactFingerprint()).thenReturn(fingerprint);
+        when(consent.getPdfTermsFingerprint()).thenReturn(ConsentFingerprint.ofTerms("OLD TERMS"));
+        when(consentRepository.findOne(anyLong())).thenReturn(consent);
+        ConsentTermsVersions consentTermsVersions = mock(ConsentTermsVersions.class);
+        when(consentTermsVersions.getConsentTermsText()).thenReturn("NEW TERMS");
+        when(consentTermsVersionsService.getEnabledConsentTermsVersion()).thenReturn(consentTermsVersions);
+        when(consentPdfGenerator.generate42CfrPart2Pdf(consent, patient, false, null, "NEW TERMS"))
+                .thenReturn(unattestedPdfConsentContent);
+        ConsentService cstSpy = spy(cst);
+        when(cstSpy.makeConsentPdfDto()).thenReturn(consentPdfDto);
+
+        cstSpy.findConsentPdfDto((long) 2);
+
+        verify(consentPdfDto).setContent(unattestedPdfConsentContent);
+        // the other artifacts do not depend on the terms, so they are kept
+        verify(consentArtifactWriter, never()).clearArtifacts(anyLong(), anyString());
+        verify(consentArtifactWriter).store(ConsentArtifact.UNATTESTED_PDF_CONSENT, (long) 2,
+                unattestedPdfConsentContent, fingerprint, ConsentFingerprint.ofTerms("NEW TERMS"));
+    }
+
+    /**
+     * Test getXacmlCcd when only the consent terms changed since the artifacts were stored.
+     */
+    @Test
+    public void testGetXacmlCcd_keeps_artifact_after_terms_change() throws Exception {
+        ReflectionTestUtils.setField(cst, "lazyArtifacts", true);
+        Consent consent = mock(Consent.class);
+        byte[] xacml = "xacml".getBytes();
+
+        when(consent.getId()).thenReturn((long) 2);
+        when(consent.getStatus()).thenReturn(ConsentStatus.CONSENT_SAVED);
+        when(consent.getXacmlCcd()).thenReturn(xacml);
+        String fingerprint = ConsentFingerprint.of(consent);
+        when(consent.getArtifactFingerprint()).thenReturn(fingerprint);
+        when(consent.getPdfTermsFingerprint()).thenReturn(ConsentFingerprint.ofTerms("OLD TERMS"));
+        when(consentRepository.findOne((long) 2)).thenReturn(consent);
+
+        byte[] result = cst.getXacmlCcd((long) 2);
+
+        assertArrayEquals(xacml, result);
+        verifyZeroInteractions(consentArtifactWriter, consentBuilder);
+    }
+
+    /**
+     * Test getXacmlCcd when the consent changed since its artifacts were stored.
+     */
+    @Test
+    public void testGetXacmlCcd_regenerates_stale_artifact() throws Exception {
+        ReflectionTestUtils.setField(cst, "lazyArtifacts", true);
+        Consent consent = mock(Consent.class);
+        byte[] xacml = "xacml".getBytes();
+
+        when(consent.getId()).thenReturn((long) 2);
+        when(consent.getStatus()).thenReturn(ConsentStatus.CONSENT_SAVED);
+        when(consent.getXacmlCcd()).thenReturn("stale xacml".getBytes());
+        when(consent.getArtifactFingerprint()).thenReturn("stale fingerprint");
+        when(consentRepository.findOne((long) 2)).thenReturn(consent);
+        when(consentBuilder.buildConsent2Xacml(consent)).thenReturn("xacml");
+        String fingerprint = ConsentFingerprint.of(consent);
+
+        byte[] result = cst.getXacmlCcd((long) 2);
+
+        assertArrayEquals(xacml, result);
+        verify(consentArtifactWriter).clearArtifacts((long) 2, fingerprint);
+        verify(consentArtifactWriter).store(ConsentArtifact.XACML_CCD, (long) 2, xacml, fingerprint,
+                ConsentFingerprint.ofTerms(null));
+    }
+
+    /**
+     * Test getXacmlCcd of a signed consent changed since its artifacts were stored.
+     */
+    @Test
+    public void testGetXacmlCcd_keeps_artifact_of_signed_consent() throws Exception {
+        ReflectionTestUtils.setField(cst, "lazyArtifacts", true);
+        Consent consent = mock(Consent.class);
+        byte[] xacml = "signed xacml".getBytes();
+
+        when(consent.getId()).thenReturn((long) 2);
+        when(consent.getStatus()).thenReturn(ConsentStatus.CONSENT_SIGNED);
+        when(consent.getXacmlCcd()).thenReturn(xacml);
+        when(consent.getArtifactFingerprint()).thenReturn("stale fingerprint");
+        when(consentRepository.findOne((long) 2)).thenReturn(consent);
+
+        byte[] result = cst.getXacmlCcd((long) 2);
+
+        assertArrayEquals(xacml, result);
+        verifyZeroInteractions(consentArtifactWriter, consentBuilder);
+    }
+
+    /**
+     * Test getXacmlCcd of a consent changed since its artifacts were saved eagerly.
+     */
+    @Test
+    public void testGetXacmlCcd_keeps_eager_artifact() throws Exception {
+        Consent consent = mock(Consent.class);
+        byte[] xacml = "xacml".getBytes();
+
+        when(consent.getId()).thenReturn((long) 2);
+        when(consent.getStatus()).thenReturn(ConsentStatus.CONSENT_SAVED);
+        when(consent.getXacmlCcd()).thenReturn(xacml);
+        when(consent.getArtifactFingerprint()).thenReturn("stale fingerprint");
+        when(consentRepository.findOne((long) 2)).thenReturn(consent);
+
+        byte[] result = cst.getXacmlCcd((long) 2);
+
+        assertArrayEquals(xacml, result);
+        verifyZeroInteractions(consentArtifactWriter, consentBuilder);
+    }
+
     /**
      * Test isConsentBelongToThisUser when succeeds.
      */
@@ -497,19 +672,19 @@ public void testSaveConsent() throws Exception {
         String xacmlMock = "xacmlMock";
         String policyIdMock = "policyIdMock";
         when(cstSpy.makeConsent()).thenReturn(consent);
-        when(consentExportService.exportConsent2XACML(any(Consent.class)))
+        when(consentBuilder.buildConsent2Xacml(any(Consent.class)))
                 .thenReturn(xacmlMock);
         when(
-                consentExportService
-                        .exportConsent2CDAR2ConsentDirective(any(Consent.class)))
+                consentBuilder
+                        .buildConsent2Cdar2ConsentDirective(any(Consent.class)))
                 .thenReturn(xacmlMock);
         when(
-                consentExportService
-                        .exportConsent2XacmlPdfConsentFrom(any(Consent.class)))
+                consentBuilder
+                        .buildConsent2XacmlPdfConsentFrom(any(Consent.class)))
                 .thenReturn(xacmlMock);
         when(
-                consentExportService
-                        .exportConsent2XacmlPdfConsentTo(any(Consent.class)))
+                consentBuilder
+                        .buildConsent2XacmlPdfConsentTo(any(Consent.class)))
                 .thenReturn(xacmlMock);
         ConsentDto consentDto = mock(ConsentDto.class);
         when(consentCheckService.getConflictConsent(consentDto)).thenReturn(
@@ -531,6 +706,55 @@ public void testSaveConsent() throws Exception {
         // Assert
         verify(consentRepository).save(consent);
         verify(consentAssertions).forEach(any(Consumer.class));
+        verify(consent).setArtifactFingerprint(anyString());
+        verify(consentExportContext).open(consent);
+        verify(consent).setXacmlCcd(xacmlMock.getBytes());
+        verify(consent).setXacmlPdfConsentFrom(xacmlMock.getBytes());
+        verify(consent).setXacmlPdfConsentTo(xacmlMock.getBytes());
+        verify(consent).setExportedCDAR2Consent(xacmlMock.getBytes());
+    }
+
+    /**
+     * Test save consent when the artifacts are generated on demand.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testSaveConsent_with_lazy_artifacts() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(cst, "lazyArtifacts", true);
+        ConsentService cstSpy = spy(cst);
+        Consent consent = mock(Consent.class);
+
+        PatientDto patientDto = mock(PatientDto.class);
+        when(phrService.getPatientProfile())
+                .thenReturn(patientDto);
+
+        String policyIdMock = "policyIdMock";
+        when(cstSpy.makeConsent()).thenReturn(consent);
+        ConsentDto consentDto = mock(ConsentDto.class);
+        when(consentCheckService.getConflictConsent(consentDto)).thenReturn(
+                null);
+        when(policyIdService.generatePolicyId(consentDto, MRN)).thenReturn(
+                policyIdMock);
+        Set<String> organizationalProvidersDisclosureIsMadeTo = new HashSet<String>();
+        organizationalProvidersDisclosureIsMadeTo.add(NPI_1);
+        Set<String> organizationalProvidersPermittedToDisclose = new HashSet<String>();
+        organizationalProvidersPermittedToDisclose.add(NPI_2);
+        when(consentDto.getOrganizationalProvidersDisclosureIsMadeTo())
+                .thenReturn(organizationalProvidersDisclosureIsMadeTo);
+        when(consentDto.getOrganizationalProvidersPermittedToDisclose())
+                .thenReturn(organizationalProvidersPermittedToDisclose);
+
+        // Act
+        cstSpy.saveConsent(consentDto, 0);
+
+        // Assert
+        verify(consentRepository).save(consent);
+        verify(consent).setArtifactFingerprint(anyString());
+        verify(consent).setXacmlCcd(null);
+        verify(consent).setUnAttestedPdfConsent(null);
+        verifyZeroInteractions(consentBuilder, consentPdfGenerator, consentExportContext);
     }
 
     /**
@@ -714,4 +938,87 @@ public void testValidateConsentDate_true() {
                 new Date(117, 06, 19)));
     }
 
+    @Test
+    public void testAttestConsent_enqueues_fhir_contract_after_saving() {
+        // Arrange
+        ReflectionTestUtils.setField(cst, "hieEnable", "true");
+        Consent consent = mock(Consent.class);
+        Patient patient = mock(Patient.class);
+        when(consent.getPatient()).thenReturn(patient);
+        when(consentRepository.findOne(1L)).thenReturn(consent);
+        PatientDto patientDto = mock(PatientDto.class);
+        when(patientDto.getEmail()).thenReturn(EMAIL);
+        when(phrService.getPatientProfile()).thenReturn(patientDto);
+        ConsentTermsVersions consentTermsVersions = new ConsentTermsVersions();
+        consentTermsVersions.setConsentTermsText("terms");
+        when(consentTermsVersionsService.getEnabledConsentTermsVersion()).thenReturn(consentTermsVersions);
+        AttestationDto attestationDto = new AttestationDto();
+        attestationDto.setConsentId(1L);
+        attestationDto.setAttesterIpAddress("127.0.0.1");
+
+        // Act
+        cst.attestConsent(attestationDto);
+
+        // Assert
+        InOrder inOrder = inOrder(consentRepository, fhirContractOutbox);
+        inOrder.verify(consentRepository).save(consent);
+        inOrder.verify(fhirContractOutbox).enqueue(consent, patientDto);
+    }
+
+    @Test
+    public void testAttestConsent_completes_lazy_artifacts_before_signing() throws Exception {
+        // Arrange
+        ReflectionTestUtils.setField(cst, "lazyArtifacts", true);
+        Consent consent = new Consent();
+        Patient patient = mock(Patient.class);
+        consent.setPatient(patient);
+        consent.setStatus(ConsentStatus.CONSENT_SAVED);
+        consent.setArtifactFingerprint("stale fingerprint");
+        consent.setXacmlCcd("stale xacml".getBytes());
+        when(consentRepository.findOne(1L)).thenReturn(consent);
+        PatientDto patientDto = mock(PatientDto.class);
+        when(patientDto.getEmail()).thenReturn(EMAIL);
+        when(phrService.getPatientProfile()).thenReturn(patientDto);
+        when(patientRepository.findByUsername(EMAIL)).thenReturn(patient);
+        ConsentTermsVersions consentTermsVersions = new ConsentTermsVersions();
+        consentTermsVersions.setConsentTermsText("terms");
+        when(consentTermsVersionsService.getEnabledConsentTermsVersion()).thenReturn(consentTermsVersions);
+        when(consentBuilder.buildConsent2Xacml(consent)).thenReturn("xacml");
+        when(consentBuilder.buildConsent2XacmlPdfConsentFrom(consent)).thenReturn("xacml from");
+        when(consentBuilder.buildConsent2XacmlPdfConsentTo(consent)).thenReturn("xacml to");
+        when(consentBuilder.buildConsent2Cdar2ConsentDirective(consent)).thenReturn("cda");
+        AttestationDto attestationDto = new AttestationDto();
+        attestationDto.setConsentId(1L);
+        attestationDto.setAttesterIpAddress("127.0.0.1");
+
+        // Act
+        cst.attestConsent(attestationDto);
+
+        // Assert
+        assertArrayEquals("xacml".getBytes(), consent.getXacmlCcd());
+        assertArrayEquals("cda".getBytes(), consent.getExportedCDAR2Consent());
+        assertEquals(ConsentFingerprint.of(consent), consent.getArtifactFingerprint());
+        assertEquals(ConsentFingerprint.ofTerms("terms"), consent.getPdfTermsFingerprint());
+        assertEquals(ConsentStatus.CONSENT_SIGNED, consent.getStatus());
+        verify(consentRepository).save(consent);
+    }
+
+    @Test
+    public void testAttestConsent_invalid_does_not_enqueue_fhir_contract() {
+        // Arrange
+        ReflectionTestUtils.setField(cst, "hieEnable", "true");
+        when(consentRepository.findOne(1L)).thenReturn(mock(Consent.class));
+        when(phrService.getPatientProfile()).thenReturn(mock(PatientDto.class));
+        AttestationDto attestationDto = new AttestationDto();
+        attestationDto.setConsentId(1L);
+
+        // Act
+        try {
+            cst.attestConsent(attestationDto);
+            fail();
+        } catch (AttestedConsentRevocationException e) {
+            // Assert
+            verifyZeroInteractions(fhirContractOutbox);
+        }
+    }
 }
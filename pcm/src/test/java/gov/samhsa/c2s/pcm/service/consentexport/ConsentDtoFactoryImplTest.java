@@ -25,6 +25,9 @@ public class ConsentDtoFactoryImplTest {
     @Mock
     ConsentExportMapper consentExportMapper;
 
+    @Mock
+    ConsentExportContext consentExportContext;
+
     @InjectMocks
     ConsentDtoFactoryImpl sut;
 
@@ -90,6 +93,22 @@ public void testCreateConsentDto_ConsentReturns_Successfully() {
         assertEquals(consentDtoMock, consentDto);
     }
 
+    @Test
+    public void testCreateConsentDto_ConsentBeingExported_Returns_Shared_Dto() {
+        // Arrange
+        ConsentDto consentDtoMock = mock(ConsentDto.class);
+
+        Consent consent = new Consent();
+        when(consentExportContext.findConsentDto(consent)).thenReturn(consentDtoMock);
+
+        // Act
+        ConsentDto consentDto = sut.createConsentDto(consent);
+
+        // Assert
+        assertEquals(consentDtoMock, consentDto);
+        verifyZeroInteractions(consentExportMapper);
+    }
+
     @Test
     public void testCreateConsentDto_Loong_Returns_Successfully() {
         // Arrange
@@ -0,0 +1,99 @@
+package gov.samhsa.c2s.pcm.service.consentexport;
+
+import gov.samhsa.c2s.common.consentgen.ConsentDto;
+import gov.samhsa.c2s.pcm.domain.consent.Consent;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConsentExportContextTest {
+
+    @Mock
+    ConsentExportMapper consentExportMapper;
+
+    ConsentExportContext sut;
+
+    Consent consent;
+
+    ConsentDto consentDto;
+
+    AtomicInteger marshalled = new AtomicInteger();
+
+    @Before
+    public void setUp() {
+        sut = new ConsentExportContext(consentExportMapper);
+        consent = new Consent();
+        consentDto = mock(ConsentDto.class);
+        when(consentExportMapper.map(consent)).thenReturn(consentDto);
+    }
+
+    @Test
+    public void testOpen_maps_consent_once_for_all_exports() {
+        // Act
+        try (ConsentExportContext.Export export = sut.open(consent)) {
+            // Assert
+            assertSame(consentDto, sut.findConsentDto(consent));
+            assertSame(consentDto, sut.findConsentDto(consent));
+        }
+        verify(consentExportMapper, times(1)).map(consent);
+    }
+
+    @Test
+    public void testMarshal_marshals_consent_dto_once() throws Exception {
+        // Act
+        try (ConsentExportContext.Export export = sut.open(consent)) {
+            assertEquals("xml1", sut.marshal(consentDto, this::marshal));
+            assertEquals("xml1", sut.marshal(consentDto, this::marshal));
+        }
+
+        // Assert
+        assertEquals(1, marshalled.get());
+    }
+
+    @Test
+    public void testMarshal_marshals_other_objects_every_time() throws Exception {
+        // Arrange
+        Object other = new Object();
+
+        // Act
+        try (ConsentExportContext.Export export = sut.open(consent)) {
+            assertEquals("xml1", sut.marshal(other, this::marshal));
+            assertEquals("xml2", sut.marshal(other, this::marshal));
+        }
+
+        // Assert
+        assertEquals(2, marshalled.get());
+    }
+
+    @Test
+    public void testClose_forgets_consent() throws Exception {
+        // Arrange
+        sut.open(consent).close();
+
+        // Act
+        ConsentDto found = sut.findConsentDto(consent);
+        String xml = sut.marshal(consentDto, this::marshal);
+
+        // Assert
+        assertNull(found);
+        assertEquals("xml1", xml);
+        assertEquals("xml2", sut.marshal(consentDto, this::marshal));
+    }
+
+    private String marshal(Object obj) {
+        return "xml" + marshalled.incrementAndGet();
+    }
+}
@@ -0,0 +1,301 @@
+package gov.samhsa.c2s.pcm.service.fhir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.resource.Contract;
+import ca.uhn.fhir.parser.IParser;
+import gov.samhsa.c2s.pcm.domain.consent.Consent;
+import gov.samhsa.c2s.pcm.domain.consent.FhirContractPublication;
+import gov.samhsa.c2s.pcm.domain.consent.FhirContractPublicationRepository;
+import gov.samhsa.c2s.pcm.domain.consent.FhirContractPublicationStatus;
+import gov.samhsa.c2s.pcm.infrastructure.dto.PatientDto;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.data.domain.Pageable;
+import org.springframework.scheduling.TaskScheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class FhirContractOutboxTest {
+
+    private static final FhirContext FHIR_CONTEXT = FhirContext.forDstu2();
+
+    private static final IParser FHIR_JSON_PARSER = FHIR_CONTEXT.newJsonParser();
+
+    @Mock
+    FhirContractPublicationRepository fhirContractPublicationRepository;
+
+    @Mock
+    FhirContractService fhirContractService;
+
+    @Mock
+    TaskScheduler taskScheduler;
+
+    FhirContractOutbox sut;
+
+    /**
+     * The contracts received by the HIE stand-in.
+     */
+    List<String> published = new ArrayList<String>();
+
+    @Before
+    public void setUp() {
+        sut = new FhirContractOutbox(fhirContractPublicationRepository, fhirContractService, FHIR_CONTEXT,
+                taskScheduler, 5000, 20, 1, 3, 1000, 5000, 60000);
+        doAnswer(invocation -> published.add(((Contract) invocation.getArguments()[0]).getId().getIdPart()))
+                .when(fhirContractService).publishFhirContractToHie(any(Contract.class));
+        when(fhirContractPublicationRepository.claim(anyLong(), anyString(), any(Date.class), any(Date.class)))
+                .thenReturn(1);
+    }
+
+    @Test
+    public void testEnqueue_stores_contract_to_publish() {
+        // Arrange
+        Consent consent = new Consent();
+        consent.setId(7L);
+        PatientDto patientDto = mock(PatientDto.class);
+        when(fhirContractService.createFhirContract(consent, patientDto)).thenReturn(contract("consent-7"));
+
+        // Act
+        sut.enqueue(consent, patientDto);
+
+        // Assert
+        ArgumentCaptor<FhirContractPublication> saved = ArgumentCaptor.forClass(FhirContractPublication.class);
+        verify(fhirContractPublicationRepository).save(saved.capture());
+        assertEquals(Long.valueOf(7L), saved.getValue().getConsentId());
+        assertEquals(FhirContractPublicationStatus.PENDING, saved.getValue().getStatus());
+        assertEquals(0, saved.getValue().getAttempts());
+        assertEquals("consent-7", FHIR_JSON_PARSER.parseResource(Contract.class, saved.getValue().getContract())
+                .getId().getIdPart());
+        // published by the dispatcher only
+        verify(fhirContractService, never()).publishFhirContractToHie(any(Contract.class));
+    }
+
+    @Test
+    public void testDispatch_publishes_due_contracts() {
+        // Arrange
+        FhirContractPublication publication = publication(1L, 0);
+        due(publication);
+
+        // Act
+        int count = sut.dispatch();
+
+        // Assert
+        assertEquals(1, count);
+        assertEquals(Collections.singletonList("consent-1"), published);
+        verify(fhirContractPublicationRepository).recordAttempt(eq(1L), eq(FhirContractPublicationStatus.PUBLISHED),
+                eq(1), (Date) isNull(), (String) isNull(), any(Date.class));
+    }
+
+    @Test
+    public void testDispatch_skips_contract_claimed_by_other_instance() {
+        // Arrange
+        FhirContractPublication publication = publication(1L, 0);
+        due(publication);
+        when(fhirContractPublicationRepository.claim(eq(1L), eq(FhirContractPublicationStatus.PENDING),
+                eq(publication.getNextAttemptDateTime()), any(Date.class))).thenReturn(0);
+
+        // Act
+        int count = sut.dispatch();
+
+        // Assert
+        assertEquals(0, count);
+        verifyZeroInteractions(fhirContractService);
+        verify(fhirContractPublicationRepository, never()).recordAttempt(anyLong(), anyString(), anyInt(),
+                any(Date.class), anyString(), any(Date.class));
+    }
+
+    @Test
+    public void testDispatch_retries_failed_contract_with_backoff() {
+        // Arrange
+        due(publication(1L, 1));
+        doAnswer(invocation -> {
+            throw new IllegalStateException("HIE unavailable");
+        }).when(fhirContractService).publishFhirContractToHie(any(Contract.class));
+        long before = System.currentTimeMillis();
+
+        // Act
+        int count = sut.dispatch();
+
+        // Assert
+        assertEquals(0, count);
+        ArgumentCaptor<Date> nextAttempt = ArgumentCaptor.forClass(Date.class);
+        verify(fhirContractPublicationRepository).recordAttempt(eq(1L), eq(FhirContractPublicationStatus.PENDING),
+                eq(2), nextAttempt.capture(), eq("HIE unavailable"), (Date) isNull());
+        // second failure, twice the initial backoff
+        assertTrue(nextAttempt.getValue().getTime() >= before + 2000);
+        assertTrue(nextAttempt.getValue().getTime() <= System.currentTimeMillis() + 2000);
+    }
+
+    @Test
+    public void testDispatch_dead_letters_contract_after_max_attempts() {
+        // Arrange
+        due(publication(1L, 2));
+        doAnswer(invocation -> {
+            throw new IllegalStateException("HIE unavailable");
+        }).when(fhirContractService).publishFhirContractToHie(any(Contract.class));
+
+        // Act
+        sut.dispatch();
+
+        // Assert
+        verify(fhirContractPublicationRepository).recordAttempt(eq(1L), eq(FhirContractPublicationStatus.DEAD),
+                eq(3), (Date) isNull(), eq("HIE unavailable"), (Date) isNull());
+    }
+
+    @Test
+    public void testDispatch_publishes_due_contracts_in_bundles() {
+        // Arrange
+        sut = bundlingOutbox();
+        due(publication(1L, 0), publication(2L, 0), publication(3L, 0));
+
+        // Act
+        int count = sut.dispatch();
+
+        // Assert
+        assertEquals(3, count);
+        // one bundle of two contracts, then the last contract on its own
+        assertEquals(Arrays.asList("consent-1", "consent-2", "consent-3"), published);
+        verify(fhirContractService).publishFhirContractsToHie(anyListOf(Contract.class));
+        verify(fhirContractService).publishFhirContractToHie(any(Contract.class));
+        verify(fhirContractPublicationRepository).recordAttempt(eq(2L), eq(FhirContractPublicationStatus.PUBLISHED),
+                eq(1), (Date) isNull(), (String) isNull(), any(Date.class));
+    }
+
+    @Test
+    public void testDispatch_retries_only_rejected_bundle_entries() {
+        // Arrange
+        sut = bundlingOutbox();
+        due(publication(1L, 0), publication(2L, 0));
+        when(fhirContractService.publishFhirContractsToHie(anyListOf(Contract.class))).thenReturn(Arrays.asList(
+                FhirContractPublicationOutcome.published(),
+                FhirContractPublicationOutcome.failed("HIE response status 400 Bad Request")));
+
+        // Act
+        int count = sut.dispatch();
+
+        // Assert
+        assertEquals(1, count);
+        verify(fhirContractPublicationRepository).recordAttempt(eq(1L), eq(FhirContractPublicationStatus.PUBLISHED),
+                eq(1), (Date) isNull(), (String) isNull(), any(Date.class));
+        verify(fhirContractPublicationRepository).recordAttempt(eq(2L), eq(FhirContractPublicationStatus.PENDING),
+                eq(1), any(Date.class), eq("HIE response status 400 Bad Request"), (Date) isNull());
+    }
+
+    @Test
+    public void testDispatch_retries_all_entries_of_failed_bundle() {
+        // Arrange
+        sut = bundlingOutbox();
+        due(publication(1L, 0), publication(2L, 2));
+        when(fhirContractService.publishFhirContractsToHie(anyListOf(Contract.class)))
+                .thenThrow(new IllegalStateException("HIE unavailable"));
+
+        // Act
+        int count = sut.dispatch();
+
+        // Assert
+        assertEquals(0, count);
+        verify(fhirContractPublicationRepository).recordAttempt(eq(1L), eq(FhirContractPublicationStatus.PENDING),
+                eq(1), any(Date.class), eq("HIE unavailable"), (Date) isNull());
+        verify(fhirContractPublicationRepository).recordAttempt(eq(2L), eq(FhirContractPublicationStatus.DEAD),
+                eq(3), (Date) isNull(), eq("HIE unavailable"), (Date) isNull());
+    }
+
+    @Test
+    public void testDispatch_keeps_polling_after_repository_failure() {
+        // Arrange
+        when(fhirContractPublicationRepository.findDue(anyString(), any(Date.class), any(Pageable.class)))
+                .thenThrow(new IllegalStateException("database unavailable"));
+
+        // Act
+        int count = sut.dispatch();
+
+        // Assert
+        assertEquals(0, count);
+    }
+
+    @Test
+    public void testBackoffMillis_doubles_up_to_max() {
+        assertEquals(1000, sut.backoffMillis(1));
+        assertEquals(2000, sut.backoffMillis(2));
+        assertEquals(4000, sut.backoffMillis(3));
+        assertEquals(5000, sut.backoffMillis(4));
+        assertEquals(5000, sut.backoffMillis(40));
+    }
+
+    @Test
+    public void testStart_schedules_polls() {
+        sut.start();
+
+        verify(taskScheduler).scheduleWithFixedDelay(any(Runnable.class), eq(5000L));
+    }
+
+    @Test
+    public void testStart_without_polling() {
+        sut = new FhirContractOutbox(fhirContractPublicationRepository, fhirContractService, FHIR_CONTEXT,
+                taskScheduler, 0, 20, 1, 3, 1000, 5000, 60000);
+
+        sut.start();
+
+        verifyZeroInteractions(taskScheduler);
+    }
+
+    private FhirContractOutbox bundlingOutbox() {
+        doAnswer(invocation -> {
+            List<FhirContractPublicationOutcome> outcomes = new ArrayList<FhirContractPublicationOutcome>();
+            for (Object contract : (List<?>) invocation.getArguments()[0]) {
+                published.add(((Contract) contract).getId().getIdPart());
+                outcomes.add(FhirContractPublicationOutcome.published());
+            }
+            return outcomes;
+        }).when(fhirContractService).publishFhirContractsToHie(anyListOf(Contract.class));
+        return new FhirContractOutbox(fhirContractPublicationRepository, fhirContractService, FHIR_CONTEXT,
+                taskScheduler, 5000, 20, 2, 3, 1000, 5000, 60000);
+    }
+
+    private void due(FhirContractPublication... publications) {
+        when(fhirContractPublicationRepository.findDue(eq(FhirContractPublicationStatus.PENDING), any(Date.class),
+                any(Pageable.class))).thenReturn(Arrays.asList(publications));
+    }
+
+    private FhirContractPublication publication(Long consentId, int attempts) {
+        FhirContractPublication publication = new FhirContractPublication();
+        publication.setId(consentId);
+        publication.setConsentId(consentId);
+        publication.setContract(FHIR_JSON_PARSER.encodeResourceToString(contract("consent-" + consentId)));
+        publication.setStatus(FhirContractPublicationStatus.PENDING);
+        publication.setAttempts(attempts);
+        publication.setNextAttemptDateTime(new Date());
+        return publication;
+    }
+
+    private Contract contract(String id) {
+        Contract contract = new Contract();
+        contract.setId(id);
+        return contract;
+    }
+}
@@ -0,0 +1,114 @@
+package gov.samhsa.c2s.pcm.service.fhir;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.model.dstu2.resource.Contract;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FileFhirContractDebugSinkTest {
+
+    private static final FhirContext FHIR_CONTEXT = FhirContext.forDstu2();
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testWrite_writes_xml_and_json() throws IOException {
+        // Arrange
+        FileFhirContractDebugSink sut = sink(new SyncTaskExecutor(), 1.0);
+
+        // Act
+        sut.write(contract("consent-1"), "GranularConsent");
+
+        // Assert
+        File json = new File(temporaryFolder.getRoot(), "JSON/GranularConsent.json");
+        assertEquals("consent-1", FHIR_CONTEXT.newJsonParser()
+                .parseResource(Contract.class, FileUtils.readFileToString(json)).getId().getIdPart());
+        File xml = new File(temporaryFolder.getRoot(), "XML/GranularConsent.xml");
+        assertTrue(xml.isFile());
+        // the files are meant to be read, so they are pretty printed
+        assertTrue(FileUtils.readFileToString(json).contains("\n"));
+        assertTrue(FileUtils.readFileToString(xml).contains("\n"));
+    }
+
+    @Test
+    public void testWrite_writes_contract_as_of_the_call() throws IOException {
+        // Arrange
+        RecordingTaskExecutor taskExecutor = new RecordingTaskExecutor();
+        FileFhirContractDebugSink sut = sink(taskExecutor, 1.0);
+        Contract contract = contract("consent-1");
+
+        // Act
+        sut.write(contract, "BasicConsent");
+        contract.setId("consent-2");
+        taskExecutor.task.run();
+
+        // Assert
+        File json = new File(temporaryFolder.getRoot(), "JSON/BasicConsent.json");
+        assertEquals("consent-1", FHIR_CONTEXT.newJsonParser()
+                .parseResource(Contract.class, FileUtils.readFileToString(json)).getId().getIdPart());
+    }
+
+    @Test
+    public void testWrite_skips_contracts_out_of_sample() {
+        // Arrange
+        FileFhirContractDebugSink sut = sink(new SyncTaskExecutor(), 0);
+
+        // Act
+        sut.write(contract("consent-1"), "GranularConsent");
+
+        // Assert
+        assertFalse(new File(temporaryFolder.getRoot(), "JSON").exists());
+        assertFalse(new File(temporaryFolder.getRoot(), "XML").exists());
+    }
+
+    @Test
+    public void testWrite_drops_contract_when_queue_is_full() {
+        // Arrange
+        FileFhirContractDebugSink sut = sink(task -> {
+            throw new TaskRejectedException("queue full");
+        }, 1.0);
+
+        // Act
+        sut.write(contract("consent-1"), "GranularConsent");
+
+        // Assert
+        assertFalse(new File(temporaryFolder.getRoot(), "JSON").exists());
+    }
+
+    private FileFhirContractDebugSink sink(TaskExecutor taskExecutor, double sampleRate) {
+        return new FileFhirContractDebugSink(FHIR_CONTEXT, taskExecutor, temporaryFolder.getRoot().getPath(),
+                sampleRate);
+    }
+
+    private Contract contract(String id) {
+        Contract contract = new Contract();
+        contract.setId(id);
+        return contract;
+    }
+
+    /**
+     * Holds the task instead of running it.
+     */
+    private static class RecordingTaskExecutor implements TaskExecutor {
+
+        private Runnable task;
+
+        @Override
+        public void execute(Runnable task) {
+            this.task = task;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package gov.samhsa.c2s.pcm.service.reference;
+
+import gov.samhsa.c2s.pcm.domain.reference.ClinicalDocumentTypeCode;
+import gov.samhsa.c2s.pcm.domain.reference.ClinicalDocumentTypeCodeRepository;
+import gov.samhsa.c2s.pcm.domain.reference.PurposeOfUseCode;
+import gov.samhsa.c2s.pcm.domain.reference.PurposeOfUseCodeRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategory;
+import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategoryRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReferenceCodeCacheTest {
+
+    @Mock
+    PurposeOfUseCodeRepository purposeOfUseCodeRepository;
+
+    @Mock
+    ValueSetCategoryRepository valueSetCategoryRepository;
+
+    @Mock
+    ClinicalDocumentTypeCodeRepository clinicalDocumentTypeCodeRepository;
+
+    ReferenceCodeCache sut;
+
+    PurposeOfUseCode treatment;
+
+    ValueSetCategory mentalHealth;
+
+    ClinicalDocumentTypeCode summary;
+
+    @Before
+    public void setUp() {
+        treatment = new PurposeOfUseCode();
+        treatment.setCode("TREATMENT");
+        mentalHealth = new ValueSetCategory();
+        mentalHealth.setCode("PSY");
+        summary = new ClinicalDocumentTypeCode();
+        summary.setCode("34133-9");
+        when(purposeOfUseCodeRepository.findAll()).thenReturn(Collections.singletonList(treatment));
+        when(valueSetCategoryRepository.findAll()).thenReturn(Collections.singletonList(mentalHealth));
+        when(clinicalDocumentTypeCodeRepository.findAll()).thenReturn(Collections.singletonList(summary));
+        sut = new ReferenceCodeCache(purposeOfUseCodeRepository, valueSetCategoryRepository,
+                clinicalDocumentTypeCodeRepository);
+        sut.refresh();
+    }
+
+    @Test
+    public void testFind_preloaded_codes_without_queries() {
+        // Act
+        for (int i = 0; i < 3; i++) {
+            assertSame(treatment, sut.findPurposeOfUseCode("TREATMENT"));
+            assertSame(mentalHealth, sut.findValueSetCategory("PSY"));
+            assertSame(summary, sut.findClinicalDocumentTypeCode("34133-9"));
+        }
+
+        // Assert
+        assertEquals(Collections.singletonList(mentalHealth), sut.findAllValueSetCategories());
+        verify(purposeOfUseCodeRepository, never()).findByCode("TREATMENT");
+        verify(valueSetCategoryRepository, never()).findByCode("PSY");
+        verify(clinicalDocumentTypeCodeRepository, never()).findByCode("34133-9");
+    }
+
+    @Test
+    public void testFind_reads_through_missing_code_once() {
+        // Arrange
+        PurposeOfUseCode payment = new PurposeOfUseCode();
+        payment.setCode("PAYMENT");
+        when(purposeOfUseCodeRepository.findByCode("PAYMENT")).thenReturn(payment);
+
+        // Act
+        sut.findPurposeOfUseCode("PAYMENT");
+        PurposeOfUseCode found = sut.findPurposeOfUseCode("PAYMENT");
+
+        // Assert
+        assertSame(payment, found);
+        verify(purposeOfUseCodeRepository, times(1)).findByCode("PAYMENT");
+    }
+
+    @Test
+    public void testFind_unknown_code() {
+        // Act
+        PurposeOfUseCode found = sut.findPurposeOfUseCode("UNKNOWN");
+
+        // Assert
+        assertNull(found);
+        assertNull(sut.findValueSetCategory(null));
+    }
+
+    @Test
+    public void testRefresh_replaces_codes() {
+        // Arrange
+        ValueSetCategory substanceUse = new ValueSetCategory();
+        substanceUse.setCode("ETH");
+        when(valueSetCategoryRepository.findAll()).thenReturn(Arrays.asList(substanceUse));
+
+        // Act
+        sut.refresh();
+
+        // Assert
+        assertSame(substanceUse, sut.findValueSetCategory("ETH"));
+        assertEquals(Collections.singletonList(substanceUse), sut.findAllValueSetCategories());
+        assertNull(sut.findValueSetCategory("PSY"));
+    }
+}
@@ -0,0 +1,206 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.valueset.BatchUploadJob;
+import gov.samhsa.c2s.pcm.domain.valueset.BatchUploadJobRepository;
+import gov.samhsa.c2s.vss.service.dto.BatchUploadJobDto;
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeDto;
+import gov.samhsa.c2s.vss.service.dto.ValueSetDto;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeast;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BatchUploadJobServiceImplTest {
+
+    private static final String SNOMED_OID = "2.16.840.1.113883.6.96";
+
+    private static final List<Long> VALUE_SET_IDS = Arrays.asList(1L, 2L);
+
+    @Mock
+    ConceptCodeService conceptCodeService;
+
+    @Mock
+    ValueSetService valueSetService;
+
+    @Mock
+    ValueSetMgmtHelper valueSetMgmtHelper;
+
+    @Mock
+    ValueSetChangeBus valueSetChangeBus;
+
+    @Mock
+    BatchUploadJobRepository batchUploadJobRepository;
+
+    // the jobs saved through the repository mock
+    Map<String, BatchUploadJob> savedJobs = new HashMap<String, BatchUploadJob>();
+
+    BatchUploadJobServiceImpl batchUploadJobService;
+
+    MockMultipartFile file = new MockMultipartFile("file", "upload.xlsx", null, new byte[]{1, 2, 3});
+
+    @Before
+    public void setUp() {
+        when(batchUploadJobRepository.save(any(BatchUploadJob.class))).thenAnswer(invocation -> {
+            BatchUploadJob job = (BatchUploadJob) invocation.getArguments()[0];
+            savedJobs.put(job.getJobId(), job);
+            return job;
+        });
+        when(batchUploadJobRepository.findOne(anyString()))
+                .thenAnswer(invocation -> savedJobs.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> savedJobs.remove(invocation.getArguments()[0]))
+                .when(batchUploadJobRepository).delete(anyString());
+        batchUploadJobService = newBatchUploadJobService(new SyncTaskExecutor(), 60);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSubmitConceptCodeBatchUpload_commits_chunks() throws Exception {
+        ConceptCodeBatchWriter.Batch batch = mock(ConceptCodeBatchWriter.Batch.class);
+        when(conceptCodeService.openConceptCodeBatch(3L, VALUE_SET_IDS)).thenReturn(batch);
+        List<ConceptCodeDto> first = Arrays.asList(new ConceptCodeDto(), new ConceptCodeDto());
+        List<ConceptCodeDto> second = Arrays.asList(new ConceptCodeDto(), new ConceptCodeDto());
+        List<ConceptCodeDto> third = Arrays.asList(new ConceptCodeDto());
+        when(conceptCodeService.addConceptCodes(batch, first)).thenReturn(new int[]{2, 0});
+        when(conceptCodeService.addConceptCodes(batch, second))
+                .thenThrow(new DataIntegrityViolationException("duplicate key"));
+        when(conceptCodeService.addConceptCodes(batch, third)).thenReturn(new int[]{1});
+        doAnswer(invocation -> {
+            ImportChunkHandler<ConceptCodeDto> chunkHandler = (ImportChunkHandler<ConceptCodeDto>) invocation
+                    .getArguments()[5];
+            chunkHandler.handle(first, 0);
+            chunkHandler.handle(second, 2);
+            chunkHandler.handle(third, 4);
+            return null;
+        }).when(valueSetMgmtHelper).readConceptCodesFromFile(any(InputStream.class), eq(SNOMED_OID), eq(3L),
+                eq(VALUE_SET_IDS), eq("user"), any(ImportChunkHandler.class));
+
+        BatchUploadJobDto submitted = batchUploadJobService.submitConceptCodeBatchUpload(file, SNOMED_OID, 3L,
+                VALUE_SET_IDS, "user");
+        BatchUploadJobDto job = batchUploadJobService.findJob(submitted.getJobId());
+
+        assertEquals(BatchUploadJobDto.Status.COMPLETED, job.getStatus());
+        assertEquals(5, job.getRowsRead());
+        assertEquals(2, job.getRowsInserted());
+        assertEquals(1, job.getDuplicates());
+        assertEquals(Arrays.asList(3), job.getDuplicateRows());
+        assertEquals(Arrays.asList("Rows 4 to 5 were not saved: duplicate key"), job.getErrors());
+        assertNotNull(job.getFinishedTime());
+        // the progress is saved when queued, started, after each chunk and when finished
+        verify(batchUploadJobRepository, times(6)).save(any(BatchUploadJob.class));
+        // the batch is reloaded after the failed chunk
+        verify(conceptCodeService, times(2)).openConceptCodeBatch(3L, VALUE_SET_IDS);
+        verify(valueSetChangeBus, times(1)).publishAfterCommit();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSubmitValueSetBatchUpload_invalid_file() throws Exception {
+        doAnswer(invocation -> {
+            throw new InvalidCSVException("Required field(s) empty for row: 9");
+        }).when(valueSetMgmtHelper).readValueSetsFromFile(any(InputStream.class), anyString(),
+                any(ImportChunkHandler.class));
+
+        BatchUploadJobDto job = batchUploadJobService.findJob(
+                batchUploadJobService.submitValueSetBatchUpload(file, "user").getJobId());
+
+        assertEquals(BatchUploadJobDto.Status.FAILED, job.getStatus());
+        assertEquals(Arrays.asList("Required field(s) empty for row: 9"), job.getErrors());
+        verify(valueSetService, never()).addValueSets(anyListOf(ValueSetDto.class), any(Integer.class));
+    }
+
+    @Test
+    public void testSubmitValueSetBatchUpload_queue_full() throws Exception {
+        TaskExecutor fullExecutor = mock(TaskExecutor.class);
+        doThrow(new TaskRejectedException("queue full")).when(fullExecutor).execute(any(Runnable.class));
+        batchUploadJobService = newBatchUploadJobService(fullExecutor, 60);
+
+        try {
+            batchUploadJobService.submitValueSetBatchUpload(file, "user");
+        } catch (BatchUploadQueueFullException e) {
+            assertTrue(savedJobs.isEmpty());
+            verify(batchUploadJobRepository).delete(anyString());
+            return;
+        }
+        throw new AssertionError("BatchUploadQueueFullException expected");
+    }
+
+    @Test
+    public void testFindJob_from_another_instance() throws Exception {
+        String jobId = batchUploadJobService.submitValueSetBatchUpload(file, "user").getJobId();
+
+        BatchUploadJobDto job = newBatchUploadJobService(new SyncTaskExecutor(), 60).findJob(jobId);
+
+        assertEquals(BatchUploadJobDto.Status.COMPLETED, job.getStatus());
+        assertEquals(BatchUploadJobDto.Type.VALUE_SETS, job.getType());
+    }
+
+    @Test
+    public void testFindJob_queued_job() throws Exception {
+        batchUploadJobService = newBatchUploadJobService(mock(TaskExecutor.class), 60);
+
+        BatchUploadJobDto submitted = batchUploadJobService.submitValueSetBatchUpload(file, "user");
+        BatchUploadJobDto job = batchUploadJobService.findJob(submitted.getJobId());
+
+        assertEquals(BatchUploadJobDto.Status.QUEUED, submitted.getStatus());
+        assertEquals(BatchUploadJobDto.Status.QUEUED, job.getStatus());
+        assertTrue(job.getErrors().isEmpty());
+        assertTrue(job.getDuplicateRows().isEmpty());
+    }
+
+    @Test(expected = BatchUploadJobNotFoundException.class)
+    public void testFindJob_unknown_id() {
+        batchUploadJobService.findJob("unknown");
+    }
+
+    @Test
+    public void testFindJob_purges_finished_jobs() throws Exception {
+        batchUploadJobService = newBatchUploadJobService(new SyncTaskExecutor(), -1);
+        String jobId = batchUploadJobService.submitValueSetBatchUpload(file, "user").getJobId();
+        batchUploadJobService.submitValueSetBatchUpload(file, "user");
+        verify(batchUploadJobRepository, atLeast(1)).deleteFinishedBefore(any(Date.class));
+
+        try {
+            batchUploadJobService.findJob(jobId);
+        } catch (BatchUploadJobNotFoundException e) {
+            assertTrue(e.getMessage().contains(jobId));
+            return;
+        }
+        throw new AssertionError("BatchUploadJobNotFoundException expected");
+    }
+
+    private BatchUploadJobServiceImpl newBatchUploadJobService(TaskExecutor taskExecutor, long jobRetentionMinutes) {
+        return new BatchUploadJobServiceImpl(conceptCodeService, valueSetService, valueSetMgmtHelper,
+                valueSetChangeBus, batchUploadJobRepository, taskExecutor,
+                jobRetentionMinutes);
+    }
+}
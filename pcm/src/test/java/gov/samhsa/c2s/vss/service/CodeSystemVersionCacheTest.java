@@ -0,0 +1,71 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.valueset.CodeSystemVersionRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CodeSystemVersionCacheTest {
+
+    private static final String SNOMED_OID = "2.16.840.1.113883.6.96";
+
+    @Mock
+    CodeSystemVersionRepository codeSystemVersionRepository;
+
+    CodeSystemVersionCache codeSystemVersionCache;
+
+    @Before
+    public void setUp() {
+        List<Object[]> versions = new ArrayList<Object[]>();
+        versions.add(new Object[]{SNOMED_OID, 2L, "2015"});
+        when(codeSystemVersionRepository.findLatestVersionOfCodeSystemsByCodeSystemOidIn(
+                Collections.singleton(SNOMED_OID))).thenReturn(versions);
+        when(codeSystemVersionRepository.findLatestVersionOfCodeSystemsByCodeSystemOidIn(
+                Collections.singleton("1.2.3"))).thenReturn(new ArrayList<Object[]>());
+
+        codeSystemVersionCache = new CodeSystemVersionCache(codeSystemVersionRepository);
+    }
+
+    @Test
+    public void testFindLatestVersion_loads_once() {
+        codeSystemVersionCache.findLatestVersion(SNOMED_OID);
+        CodeSystemVersionCache.LatestVersion latestVersion = codeSystemVersionCache.findLatestVersion(SNOMED_OID);
+
+        assertEquals(Long.valueOf(2L), latestVersion.getId());
+        assertEquals("2015", latestVersion.getName());
+        verify(codeSystemVersionRepository, times(1))
+                .findLatestVersionOfCodeSystemsByCodeSystemOidIn(Collections.singleton(SNOMED_OID));
+    }
+
+    @Test
+    public void testFindLatestVersion_unknown_oid() {
+        assertNull(codeSystemVersionCache.findLatestVersion("1.2.3"));
+        assertNull(codeSystemVersionCache.findLatestVersion("1.2.3"));
+
+        verify(codeSystemVersionRepository, times(1))
+                .findLatestVersionOfCodeSystemsByCodeSystemOidIn(Collections.singleton("1.2.3"));
+    }
+
+    @Test
+    public void testEvictAfterCommit_without_transaction() {
+        codeSystemVersionCache.findLatestVersion(SNOMED_OID);
+        codeSystemVersionCache.evictAfterCommit(SNOMED_OID);
+        codeSystemVersionCache.findLatestVersion(SNOMED_OID);
+
+        verify(codeSystemVersionRepository, times(2))
+                .findLatestVersionOfCodeSystemsByCodeSystemOidIn(Collections.singleton(SNOMED_OID));
+    }
+}
@@ -0,0 +1,157 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.audit.RevisionInfoEntity;
+import gov.samhsa.c2s.vss.service.dto.CodeSystemVersionDiffDto;
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeDto;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.persistence.EntityManager;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CodeSystemVersionDiffImporterTest {
+
+    @Mock
+    JdbcOperations jdbcOperations;
+
+    @Mock
+    EntityManager entityManager;
+
+    @Mock
+    ConceptCodeBatchWriter conceptCodeBatchWriter;
+
+    @Mock
+    ConceptCodeBatchWriter.Batch batch;
+
+    CodeSystemVersionDiffImporter codeSystemVersionDiffImporter;
+
+    @Before
+    public void setUp() throws Exception {
+        // base version 1 has codes 111, 222 and 333
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString(1)).thenReturn("111", "222", "333");
+        when(rs.getString(2)).thenReturn("Concept 111", "Concept 222", "Concept 333");
+        when(rs.getString(3)).thenReturn(null, "", null);
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[1];
+            for (int i = 0; i < 3; i++) {
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcOperations).query(anyString(), any(RowCallbackHandler.class), eq(1L));
+
+        when(conceptCodeBatchWriter.open(2L, Collections.<Long>emptyList())).thenReturn(batch);
+        RevisionInfoEntity revision = mock(RevisionInfoEntity.class);
+        when(revision.getId()).thenReturn(7L);
+        when(conceptCodeBatchWriter.currentConceptCodeAddRevision()).thenReturn(revision);
+        when(jdbcOperations.update(startsWith("insert into conceptcode_valueset"), (Object[]) anyVararg())).thenReturn(4);
+
+        codeSystemVersionDiffImporter = new CodeSystemVersionDiffImporter(jdbcOperations, entityManager,
+                conceptCodeBatchWriter, 100);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testImport_writes_only_changes() {
+        CodeSystemVersionDiffImporter.Diff diff = codeSystemVersionDiffImporter.open(1L, 2L, "user");
+
+        diff.add(Arrays.asList(conceptCode("111", "Concept 111"), conceptCode("222", "Renamed 222"),
+                conceptCode("444", "Concept 444"), conceptCode("444", "Concept 444")));
+        CodeSystemVersionDiffDto report = diff.finish();
+
+        assertEquals(1, report.getUnchanged());
+        assertEquals(Collections.singletonList("444"), report.getAddedCodes());
+        assertEquals(Collections.singletonList("333"), report.getRemovedCodes());
+        assertEquals(1, report.getRenamedCodes().size());
+        assertEquals("Concept 222", report.getRenamedCodes().get(0).getOldName());
+        assertEquals("Renamed 222", report.getRenamedCodes().get(0).getNewName());
+        assertEquals(1, report.getDuplicates());
+        assertEquals(4, report.getValueSetMembershipsCarriedForward());
+
+        // the base codes are copied once, in the database
+        verify(jdbcOperations, times(1)).update(startsWith("insert into concept_code ("), (Object[]) anyVararg());
+        verify(batch, times(1)).add(any(ConceptCodeDto.class));
+        ArgumentCaptor<List> renamed = ArgumentCaptor.forClass(List.class);
+        verify(jdbcOperations).batchUpdate(startsWith("update concept_code"), renamed.capture());
+        assertArrayEquals(new Object[]{"Renamed 222", "", 2L, "222"}, (Object[]) renamed.getValue().get(0));
+        ArgumentCaptor<List> removed = ArgumentCaptor.forClass(List.class);
+        verify(jdbcOperations).batchUpdate(startsWith("delete from concept_code"), removed.capture());
+        assertArrayEquals(new Object[]{2L, "333"}, (Object[]) removed.getValue().get(0));
+        verify(jdbcOperations, times(1)).update(startsWith("insert into concept_code_aud"), (Object[]) anyVararg());
+    }
+
+    @Test
+    public void testImport_first_version_adds_every_code() {
+        CodeSystemVersionDiffImporter.Diff diff = codeSystemVersionDiffImporter.open(null, 2L, "user");
+
+        diff.add(Arrays.asList(conceptCode("111", "Concept 111"), conceptCode("222", "Concept 222")));
+        CodeSystemVersionDiffDto report = diff.finish();
+
+        assertEquals(Arrays.asList("111", "222"), report.getAddedCodes());
+        assertEquals(0, report.getRemovedCodes().size());
+        verify(batch, times(2)).add(any(ConceptCodeDto.class));
+        verify(jdbcOperations, never()).update(anyString(), (Object[]) anyVararg());
+        verify(jdbcOperations, never()).batchUpdate(anyString(), anyListOf(Object[].class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testImport_matches_codes_differing_only_in_case() throws Exception {
+        // base version 3 has code ABC
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString(1)).thenReturn("ABC");
+        when(rs.getString(2)).thenReturn("Concept ABC");
+        doAnswer(invocation -> {
+            ((RowCallbackHandler) invocation.getArguments()[1]).processRow(rs);
+            return null;
+        }).when(jdbcOperations).query(anyString(), any(RowCallbackHandler.class), eq(3L));
+        CodeSystemVersionDiffImporter.Diff diff = codeSystemVersionDiffImporter.open(3L, 2L, "user");
+
+        diff.add(Arrays.asList(conceptCode("abc", "Renamed ABC"), conceptCode("Abc", "Renamed ABC"),
+                conceptCode("def", "Concept DEF"), conceptCode("DEF", "Concept DEF")));
+        CodeSystemVersionDiffDto report = diff.finish();
+
+        assertEquals(Collections.singletonList("def"), report.getAddedCodes());
+        assertEquals(0, report.getRemovedCodes().size());
+        assertEquals(1, report.getRenamedCodes().size());
+        assertEquals("ABC", report.getRenamedCodes().get(0).getCode());
+        assertEquals(2, report.getDuplicates());
+        verify(batch, times(1)).add(any(ConceptCodeDto.class));
+        ArgumentCaptor<List> renamed = ArgumentCaptor.forClass(List.class);
+        verify(jdbcOperations).batchUpdate(startsWith("update concept_code"), renamed.capture());
+        assertArrayEquals(new Object[]{"Renamed ABC", "", 2L, "ABC"}, (Object[]) renamed.getValue().get(0));
+    }
+
+    private static ConceptCodeDto conceptCode(String code, String name) {
+        ConceptCodeDto conceptCodeDto = new ConceptCodeDto();
+        conceptCodeDto.setCode(code);
+        conceptCodeDto.setName(name);
+        conceptCodeDto.setUserName("user");
+        return conceptCodeDto;
+    }
+}
@@ -36,6 +36,12 @@ public class CodeSystemVersionServiceImplTest {
     ValueSetMgmtHelper valueSetMgmtHelper;
     ;
 
+    @Mock
+    ValueSetChangeBus valueSetChangeBus;
+
+    @Mock
+    CodeSystemVersionCache codeSystemVersionCache;
+
     @InjectMocks
     CodeSystemVersionServiceImpl vst;
 
@@ -0,0 +1,122 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeDto;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import javax.persistence.EntityManager;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConceptCodeBatchWriterTest {
+
+    private static final List<Long> VALUE_SET_IDS = Arrays.asList(10L, 20L);
+
+    @Mock
+    JdbcOperations jdbcOperations;
+
+    @Mock
+    EntityManager entityManager;
+
+    ConceptCodeBatchWriter conceptCodeBatchWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        // code 111 (id 1) is in value set 10 and in a value set outside the
+        // upload, code 222 (id 2) is in both value sets
+        ResultSet rs = mock(ResultSet.class);
+        when(rs.getString(2)).thenReturn("111", "111", "222", "222");
+        when(rs.getLong(1)).thenReturn(1L, 1L, 2L, 2L);
+        when(rs.getLong(3)).thenReturn(10L, 30L, 10L, 20L);
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[1];
+            for (int i = 0; i < 4; i++) {
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcOperations).query(anyString(), any(RowCallbackHandler.class), eq(5L));
+
+        conceptCodeBatchWriter = new ConceptCodeBatchWriter(jdbcOperations, entityManager, 1);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAdd_dedupes_existing_associations() {
+        ConceptCodeBatchWriter.Batch batch = conceptCodeBatchWriter.open(5L, VALUE_SET_IDS);
+
+        assertEquals(1, batch.add(conceptCode("111")));
+        assertEquals(0, batch.add(conceptCode("111")));
+        assertEquals(0, batch.add(conceptCode("222")));
+        batch.flush();
+
+        ArgumentCaptor<List> associations = ArgumentCaptor.forClass(List.class);
+        verify(jdbcOperations, times(1)).batchUpdate(eq("insert into conceptcode_valueset "
+                + "(fk_concept_code_id, fk_valueset_id) values (?, ?)"), associations.capture());
+        assertEquals(1, associations.getValue().size());
+        assertArrayEquals(new Object[]{1L, 20L}, (Object[]) associations.getValue().get(0));
+        verify(entityManager, times(1)).flush();
+    }
+
+    @Test
+    public void testAdd_new_code_in_all_value_sets() {
+        ConceptCodeBatchWriter.Batch batch = conceptCodeBatchWriter.open(5L, VALUE_SET_IDS);
+
+        assertEquals(2, batch.add(conceptCode("333")));
+        assertEquals(0, batch.add(conceptCode("333")));
+    }
+
+    @Test
+    public void testAdd_dedupes_codes_differing_only_in_case() {
+        ConceptCodeBatchWriter.Batch batch = conceptCodeBatchWriter.open(5L, VALUE_SET_IDS);
+
+        // the unique key of concept_code does not tell them apart
+        assertEquals(2, batch.add(conceptCode("abc")));
+        assertEquals(0, batch.add(conceptCode("ABC")));
+        assertEquals(0, batch.add(conceptCode("Abc ")));
+    }
+
+    @Test
+    public void testCodeKey() {
+        assertEquals(ConceptCodeBatchWriter.codeKey("F10.20"), ConceptCodeBatchWriter.codeKey("f10.20 "));
+        assertEquals(" ABC", ConceptCodeBatchWriter.codeKey(" abc"));
+    }
+
+    @Test
+    public void testFlush_without_changes() {
+        ConceptCodeBatchWriter.Batch batch = conceptCodeBatchWriter.open(5L, VALUE_SET_IDS);
+
+        assertEquals(0, batch.add(conceptCode("222")));
+        batch.flush();
+
+        verify(jdbcOperations, never()).batchUpdate(anyString(), anyListOf(Object[].class));
+    }
+
+    private static ConceptCodeDto conceptCode(String code) {
+        ConceptCodeDto conceptCodeDto = new ConceptCodeDto();
+        conceptCodeDto.setCode(code);
+        conceptCodeDto.setName("Concept " + code);
+        conceptCodeDto.setUserName("user");
+        return conceptCodeDto;
+    }
+}
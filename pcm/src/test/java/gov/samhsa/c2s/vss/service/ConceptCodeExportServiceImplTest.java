@@ -0,0 +1,109 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.vss.service.ConceptCodeExportService.Format;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.contains;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConceptCodeExportServiceImplTest {
+
+    @Mock
+    JdbcOperations jdbcOperations;
+
+    ConceptCodeExportServiceImpl conceptCodeExportService;
+
+    @Before
+    public void setUp() throws Exception {
+        conceptCodeExportService = new ConceptCodeExportServiceImpl(jdbcOperations);
+        rows(new String[]{"10741871", "Alcohol abuse", null, "SNOMED CT", "2015"},
+                new String[]{"V08", "HIV, \"asymptomatic\"", "Line one\nline two", "ICD-9", "2012"});
+    }
+
+    @Test
+    public void testExportConceptCodes_csv() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long exported = conceptCodeExportService.exportConceptCodes(null, null, null, Format.CSV, out);
+
+        assertEquals(2L, exported);
+        assertEquals("Code,Name,Description,Code System,Code System Version\r\n"
+                        + "10741871,Alcohol abuse,,SNOMED CT,2015\r\n"
+                        + "V08,\"HIV, \"\"asymptomatic\"\"\",\"Line one\nline two\",ICD-9,2012\r\n",
+                out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testExportConceptCodes_xlsx() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long exported = conceptCodeExportService.exportConceptCodes(null, null, null, Format.XLSX, out);
+
+        assertEquals(2L, exported);
+        try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            Sheet sheet = workbook.getSheetAt(0);
+            assertEquals(2, sheet.getLastRowNum());
+            assertEquals("Code System Version", sheet.getRow(0).getCell(4).getStringCellValue());
+            assertEquals("10741871", sheet.getRow(1).getCell(0).getStringCellValue());
+            assertEquals("HIV, \"asymptomatic\"", sheet.getRow(2).getCell(1).getStringCellValue());
+        }
+    }
+
+    @Test
+    public void testExportConceptCodes_streams_filtered_rows() throws Exception {
+        ArgumentCaptor<PreparedStatementCreator> creator = ArgumentCaptor.forClass(PreparedStatementCreator.class);
+        Connection connection = mock(Connection.class);
+        PreparedStatement ps = mock(PreparedStatement.class);
+        when(connection.prepareStatement(anyString(), anyInt(), anyInt())).thenReturn(ps);
+
+        conceptCodeExportService.exportConceptCodes(10L, null, 3L, Format.CSV, new ByteArrayOutputStream());
+
+        verify(jdbcOperations).query(creator.capture(), any(RowCallbackHandler.class));
+        creator.getValue().createPreparedStatement(connection);
+        verify(connection).prepareStatement(contains("fk_valueset_cat_id = ?"),
+                eq(ResultSet.TYPE_FORWARD_ONLY),
+                eq(ResultSet.CONCUR_READ_ONLY));
+        verify(ps).setFetchSize(Integer.MIN_VALUE);
+        verify(ps).setLong(1, 10L);
+        verify(ps).setLong(2, 3L);
+    }
+
+    private void rows(String[]... rows) {
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[1];
+            for (String[] row : rows) {
+                ResultSet rs = mock(ResultSet.class);
+                for (int i = 0; i < row.length; i++) {
+                    when(rs.getString(i + 1)).thenReturn(row[i]);
+                }
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcOperations).query(any(PreparedStatementCreator.class), any(RowCallbackHandler.class));
+    }
+}
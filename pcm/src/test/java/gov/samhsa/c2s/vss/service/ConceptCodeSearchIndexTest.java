@@ -0,0 +1,190 @@
+package gov.samhsa.c2s.vss.service;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.matches;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConceptCodeSearchIndexTest {
+
+    @Mock
+    JdbcOperations jdbcOperations;
+
+    @Mock
+    TaskExecutor taskExecutor;
+
+    ConceptCodeSearchIndex conceptCodeSearchIndex;
+
+    @Before
+    public void setUp() throws Exception {
+        rows("from code_system_version",
+                new Object[]{1L, "SNOMED CT", "2015"},
+                new Object[]{2L, "ICD-9", "2012"});
+        rows("from value_set",
+                new Object[]{10L, "ETH-SNOMED", "Alcohol use"},
+                new Object[]{20L, "HIV-ICD9", "HIV infection"});
+        // rows come in the order of the queries
+        rows("from concept_code",
+                new Object[]{103L, "0741", "Not in any value set", 1L},
+                new Object[]{101L, "1074", "Alcohol dependence", 1L},
+                new Object[]{100L, "10741871", "Alcohol abuse", 1L},
+                new Object[]{104L, "20741", "alcohol withdrawal", 1L},
+                new Object[]{102L, "V08", "Asymptomatic HIV", 2L});
+        rows("from concept_code order by name",
+                new Object[]{100L}, new Object[]{101L}, new Object[]{104L}, new Object[]{102L},
+                new Object[]{103L});
+        rows("from conceptcode_valueset",
+                new Object[]{100L, 10L},
+                new Object[]{101L, 10L},
+                new Object[]{102L, 20L},
+                new Object[]{104L, 10L});
+        conceptCodeSearchIndex = new ConceptCodeSearchIndex(true, jdbcOperations, taskExecutor);
+        conceptCodeSearchIndex.rebuild();
+    }
+
+    @Test
+    public void testFindAllByCode() {
+        Page<Long> page = conceptCodeSearchIndex.findAllByCode("074", "", "", "", new PageRequest(0, 20));
+
+        // ordered by code, concept codes without a value set are left out
+        assertEquals(Arrays.asList(101L, 100L, 104L), page.getContent());
+        assertEquals(3, page.getTotalElements());
+    }
+
+    @Test
+    public void testFindAllByCode_paged() {
+        Page<Long> page = conceptCodeSearchIndex.findAllByCode("0741", "snomed", "15", "eth",
+                new PageRequest(1, 1));
+
+        assertEquals(Collections.singletonList(104L), page.getContent());
+        assertEquals(2, page.getTotalElements());
+        assertEquals(2, page.getTotalPages());
+    }
+
+    @Test
+    public void testFindAllByCode_short_term() {
+        Page<Long> page = conceptCodeSearchIndex.findAllByCode("v", "", "", "HIV", new PageRequest(0, 20));
+
+        assertEquals(Collections.singletonList(102L), page.getContent());
+    }
+
+    @Test
+    public void testFindAllByCode_filters() {
+        assertEquals(0, conceptCodeSearchIndex.findAllByCode("074", "ICD", "", "", new PageRequest(0, 20))
+                .getTotalElements());
+        assertEquals(0, conceptCodeSearchIndex.findAllByCode("074", "", "", "HIV", new PageRequest(0, 20))
+                .getTotalElements());
+        assertEquals(0, conceptCodeSearchIndex.findAllByCode("9999", "", "", "", new PageRequest(0, 20))
+                .getTotalElements());
+    }
+
+    @Test
+    public void testFindAllByName() {
+        Page<Long> page = conceptCodeSearchIndex.findAllByName("ALCOHOL", "", "", "%", new PageRequest(0, 20));
+
+        // ordered by name, ignoring case
+        assertEquals(Arrays.asList(100L, 101L, 104L), page.getContent());
+    }
+
+    @Test
+    public void testFindAllByName_value_set_name_pattern() {
+        assertEquals(3, conceptCodeSearchIndex.findAllByName("", "", "", "alcohol use", new PageRequest(0, 20))
+                .getTotalElements());
+        assertEquals(0, conceptCodeSearchIndex.findAllByName("", "", "", "alcohol", new PageRequest(0, 20))
+                .getTotalElements());
+        assertEquals(Arrays.asList(100L, 101L), conceptCodeSearchIndex.findAllByName("alcohol_%e", "", "",
+                "alc%", new PageRequest(0, 20)).getContent());
+    }
+
+    @Test
+    public void testFindAllByName_database_order() throws Exception {
+        // the index keeps the order of the database, whatever its collation
+        rows("from concept_code order by name",
+                new Object[]{104L}, new Object[]{101L}, new Object[]{100L}, new Object[]{102L},
+                new Object[]{103L});
+        conceptCodeSearchIndex.rebuild();
+
+        Page<Long> page = conceptCodeSearchIndex.findAllByName("alcohol", "", "", "%", new PageRequest(0, 20));
+
+        assertEquals(Arrays.asList(104L, 101L, 100L), page.getContent());
+    }
+
+    @Test
+    public void testInvalidate() {
+        conceptCodeSearchIndex.invalidate();
+
+        assertNull(conceptCodeSearchIndex.findAllByCode("074", "", "", "", new PageRequest(0, 20)));
+        // the rebuild is scheduled by the change, not by the search
+        verify(taskExecutor, times(1)).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void testFindAllByCode_out_of_date() {
+        conceptCodeSearchIndex = new ConceptCodeSearchIndex(true, jdbcOperations, taskExecutor);
+
+        assertNull(conceptCodeSearchIndex.findAllByCode("074", "", "", "", new PageRequest(0, 20)));
+        assertNull(conceptCodeSearchIndex.findAllByCode("074", "", "", "", new PageRequest(0, 20)));
+        // a single rebuild is queued until it runs
+        verify(taskExecutor, times(1)).execute(any(Runnable.class));
+    }
+
+    @Test
+    public void testRebuild_catches_up() {
+        conceptCodeSearchIndex = new ConceptCodeSearchIndex(true, jdbcOperations, new SyncTaskExecutor());
+        conceptCodeSearchIndex.rebuild();
+
+        conceptCodeSearchIndex.invalidate();
+
+        assertEquals(3, conceptCodeSearchIndex.findAllByCode("074", "", "", "", new PageRequest(0, 20))
+                .getTotalElements());
+    }
+
+    @Test
+    public void testDisabled() {
+        conceptCodeSearchIndex = new ConceptCodeSearchIndex(false, jdbcOperations, taskExecutor);
+        conceptCodeSearchIndex.rebuild();
+        conceptCodeSearchIndex.invalidate();
+
+        assertNull(conceptCodeSearchIndex.findAllByName("alcohol", "", "", "%", new PageRequest(0, 20)));
+        verify(taskExecutor, never()).execute(any(Runnable.class));
+    }
+
+    private void rows(String from, Object[]... rows) throws Exception {
+        doAnswer(invocation -> {
+            RowCallbackHandler handler = (RowCallbackHandler) invocation.getArguments()[1];
+            for (Object[] row : rows) {
+                ResultSet rs = mock(ResultSet.class);
+                when(rs.getLong(anyInt())).thenAnswer(
+                        get -> row[(Integer) get.getArguments()[0] - 1]);
+                when(rs.getString(anyInt())).thenAnswer(
+                        get -> row[(Integer) get.getArguments()[0] - 1]);
+                handler.processRow(rs);
+            }
+            return null;
+        }).when(jdbcOperations).query(matches(".*" + from + "\\b.*"), any(RowCallbackHandler.class));
+    }
+}
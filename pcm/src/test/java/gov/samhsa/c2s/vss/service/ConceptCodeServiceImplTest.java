@@ -2,6 +2,7 @@
 
 import gov.samhsa.c2s.pcm.domain.valueset.*;
 import gov.samhsa.c2s.vss.service.*;
+import gov.samhsa.c2s.vss.service.dto.CodeSystemVersionDiffDto;
 import gov.samhsa.c2s.vss.service.dto.ConceptCodeDto;
 import gov.samhsa.c2s.vss.service.dto.ConceptCodeVSCSDto;
 import org.junit.Assert;
@@ -11,15 +12,28 @@
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -45,11 +59,31 @@ public class ConceptCodeServiceImplTest {
     @Mock
     ValueSetMgmtHelper valueSetMgmtHelper;
 
+    @Mock
+    ValueSetChangeBus valueSetChangeBus;
+
+    @Mock
+    CodeSystemVersionCache codeSystemVersionCache;
+
+    @Mock
+    ConceptCodeBatchWriter conceptCodeBatchWriter;
+
+    @Mock
+    ConceptCodeSearchIndex conceptCodeSearchIndex;
+
+    @Mock
+    ApproximateRowCounter approximateRowCounter;
+
+    @Mock
+    CodeSystemVersionDiffImporter codeSystemVersionDiffImporter;
+
     @InjectMocks
     ConceptCodeServiceImpl conceptCodeServiceImpl = new ConceptCodeServiceImpl(
             conceptCodePageSize, conceptCodeRepository, valueSetRepository,
             codeSystemRepository, codeSystemVersionRepository,
-            conceptCodeValueSetRepository, valueSetMgmtHelper);
+            conceptCodeValueSetRepository, valueSetMgmtHelper,
+            valueSetChangeBus, codeSystemVersionCache, conceptCodeBatchWriter,
+            conceptCodeSearchIndex, approximateRowCounter, codeSystemVersionDiffImporter);
 
     @Test
     public void testDeleteConceptCode() throws ConceptCodeNotFoundException {
@@ -74,6 +108,65 @@ public void testDeleteConceptCode_throw_ConceptCodeNotFoundException()
 
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFindAllByCode_from_search_index() {
+        ConceptCode first = mock(ConceptCode.class);
+        when(first.getId()).thenReturn(7L);
+        ConceptCode second = mock(ConceptCode.class);
+        when(second.getId()).thenReturn(3L);
+        when(conceptCodeSearchIndex.findAllByCode(eq("a"), eq("SNOMED"), eq(""), eq(""), any(PageRequest.class)))
+                .thenReturn(new PageImpl<Long>(Arrays.asList(7L, 3L), new PageRequest(1, 20), 22));
+        when(conceptCodeRepository.findAll(Arrays.asList(7L, 3L))).thenReturn(Arrays.asList(second, first));
+        List<ConceptCodeDto> conceptCodeDtos = mock(List.class);
+        when(valueSetMgmtHelper.convertConceptCodeEntitiesToDtos(Arrays.asList(first, second)))
+                .thenReturn(conceptCodeDtos);
+
+        Map<String, Object> pageResultsMap = conceptCodeServiceImpl.findAllByCode("a", "SNOMED", "", "", 1);
+
+        assertEquals(conceptCodeDtos, pageResultsMap.get("conceptCodes"));
+        assertEquals(22L, pageResultsMap.get("totalNumberOfConceptCodes"));
+        verify(conceptCodeRepository, never()).findAllByCodeLike(anyString(), anyString(), anyString(),
+                anyString(), any(Pageable.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testFindAllByPageToken() {
+        List<ConceptCode> firstPage = new ArrayList<ConceptCode>();
+        for (long id = 1; id <= conceptCodePageSize + 1; id++) {
+            ConceptCode conceptCode = mock(ConceptCode.class);
+            when(conceptCode.getId()).thenReturn(id);
+            when(conceptCode.getCode()).thenReturn("code:" + id);
+            firstPage.add(conceptCode);
+        }
+        when(conceptCodeRepository.findFirstOrderByCodeAndId(new PageRequest(0, conceptCodePageSize + 1)))
+                .thenReturn(firstPage);
+        List<ConceptCode> lastPage = Arrays.asList(mock(ConceptCode.class));
+        when(conceptCodeRepository.findAllAfterCodeAndId("code:20", 20L, new PageRequest(0, conceptCodePageSize + 1)))
+                .thenReturn(lastPage);
+        when(approximateRowCounter.countRows("concept_code")).thenReturn(21L);
+        List<ConceptCodeDto> lastPageDtos = mock(List.class);
+        when(valueSetMgmtHelper.convertConceptCodeEntitiesToDtos(lastPage)).thenReturn(lastPageDtos);
+
+        Map<String, Object> first = conceptCodeServiceImpl.findAllByPageToken(null, true);
+        verify(valueSetMgmtHelper).convertConceptCodeEntitiesToDtos(firstPage.subList(0, conceptCodePageSize));
+        assertEquals(conceptCodePageSize, first.get("numberOfElements"));
+        assertEquals(21L, first.get("approximateTotalNumberOfConceptCodes"));
+
+        Map<String, Object> last = conceptCodeServiceImpl.findAllByPageToken((String) first.get("nextPageToken"),
+                false);
+        assertEquals(lastPageDtos, last.get("conceptCodes"));
+        assertEquals(1, last.get("numberOfElements"));
+        Assert.assertNull(last.get("nextPageToken"));
+        Assert.assertFalse(last.containsKey("approximateTotalNumberOfConceptCodes"));
+    }
+
+    @Test(expected = InvalidPageTokenException.class)
+    public void testFindAllByPageToken_invalid_token() {
+        conceptCodeServiceImpl.findAllByPageToken("not a token", false);
+    }
+
     @Test(expected = ValueSetNotFoundException.class)
     public void testfindId() throws ValueSetNotFoundException,
             ConceptCodeNotFoundException {
@@ -393,4 +486,116 @@ public void testCreateCodeSystemFromDto_3()
         assertEquals(conceptCodeServiceImpl.create(created), conceptCodeDto);
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testConceptCodeBatchUpload_reports_duplicates() throws Exception {
+        List<Long> valueSetIds = Arrays.asList(1L, 2L);
+        when(codeSystemVersionRepository.findOne(3L)).thenReturn(mock(CodeSystemVersion.class));
+        when(valueSetRepository.findOne(anyLong())).thenReturn(mock(ValueSet.class));
+        ConceptCodeBatchWriter.Batch batch = mock(ConceptCodeBatchWriter.Batch.class);
+        when(conceptCodeBatchWriter.open(3L, valueSetIds)).thenReturn(batch);
+        ConceptCodeDto first = new ConceptCodeDto();
+        ConceptCodeDto second = new ConceptCodeDto();
+        ConceptCodeDto third = new ConceptCodeDto();
+        when(batch.add(first)).thenReturn(2);
+        when(batch.add(second)).thenReturn(0);
+        when(batch.add(third)).thenReturn(1);
+        MultipartFile file = mock(MultipartFile.class);
+        doAnswer(invocation -> {
+            ImportChunkHandler<ConceptCodeDto> chunkHandler = (ImportChunkHandler<ConceptCodeDto>) invocation
+                    .getArguments()[5];
+            chunkHandler.handle(Arrays.asList(first, second), 0);
+            chunkHandler.handle(Arrays.asList(third), 2);
+            return null;
+        }).when(valueSetMgmtHelper).readConceptCodesFromFile(any(InputStream.class), eq("2.16.840.1.113883.6.96"), eq(3L),
+                eq(valueSetIds), anyString(), any(ImportChunkHandler.class));
+
+        ConceptCodeDto conceptCodeDto = new ConceptCodeDto();
+        conceptCodeDto.setUserName("user");
+        ConceptCodeDto result = conceptCodeServiceImpl.conceptCodeBatchUpload(conceptCodeDto, file,
+                "2.16.840.1.113883.6.96", 3L, valueSetIds);
+
+        assertEquals(3, result.getConceptCodesInserted());
+        assertEquals(Arrays.asList(3), result.getListOfDuplicatesCodes());
+        verify(conceptCodeBatchWriter, times(1)).open(3L, valueSetIds);
+        verify(batch, times(2)).flush();
+        verify(valueSetChangeBus, times(1)).publishAfterCommit();
+    }
+
+    @Test
+    public void testConceptCodeBatchUpload_without_version() throws Exception {
+        List<Long> valueSetIds = Arrays.asList(1L);
+        doThrow(new InvalidCSVException(
+                "Code System, Code System Version and Value Set Names need to be selected for Batch Upload"))
+                .when(valueSetMgmtHelper).readConceptCodesFromFile(any(InputStream.class), eq("SNOMED CT"),
+                isNull(Long.class), eq(valueSetIds), anyString(), any(ImportChunkHandler.class));
+        MultipartFile file = mock(MultipartFile.class);
+        ConceptCodeDto conceptCodeDto = new ConceptCodeDto();
+
+        try {
+            conceptCodeServiceImpl.conceptCodeBatchUpload(conceptCodeDto, file, "SNOMED CT", null, valueSetIds);
+            fail("InvalidCSVException expected");
+        } catch (InvalidCSVException e) {
+            // the version is selected explicitly and never defaulted
+            assertTrue(conceptCodeDto.isError());
+            verifyZeroInteractions(codeSystemVersionCache);
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testImportCodeSystemVersion_diffs_against_latest_version() throws Exception {
+        CodeSystem codeSystem = mock(CodeSystem.class);
+        when(codeSystem.getName()).thenReturn("SNOMED CT");
+        when(codeSystemRepository.findByCodeSystemOIdForUpdate("2.16.840.1.113883.6.96")).thenReturn(codeSystem);
+        CodeSystemVersion latestVersion = mock(CodeSystemVersion.class);
+        when(latestVersion.getId()).thenReturn(1L);
+        when(latestVersion.getName()).thenReturn("2015");
+        when(codeSystemVersionRepository.findLatestVersionOfCodeSystem(codeSystem)).thenReturn(latestVersion);
+        CodeSystemVersion saved = mock(CodeSystemVersion.class);
+        when(saved.getId()).thenReturn(2L);
+        when(saved.getName()).thenReturn("2016");
+        when(codeSystemVersionRepository.save(any(CodeSystemVersion.class))).thenReturn(saved);
+        CodeSystemVersionDiffImporter.Diff diff = mock(CodeSystemVersionDiffImporter.Diff.class);
+        when(codeSystemVersionDiffImporter.open(1L, 2L, "user")).thenReturn(diff);
+        when(diff.finish()).thenReturn(new CodeSystemVersionDiffDto());
+        List<ConceptCodeDto> rows = Arrays.asList(new ConceptCodeDto());
+        doAnswer(invocation -> {
+            ((ImportChunkHandler<ConceptCodeDto>) invocation.getArguments()[4]).handle(rows, 0);
+            return null;
+        }).when(valueSetMgmtHelper).readCodeSystemVersionFromFile(any(InputStream.class),
+                eq("SNOMED CT"), eq(2L), eq("user"), any(ImportChunkHandler.class));
+        MultipartFile file = mock(MultipartFile.class);
+
+        CodeSystemVersionDiffDto report = conceptCodeServiceImpl.importCodeSystemVersion("2.16.840.1.113883.6.96",
+                "2016", null, "user", file);
+
+        assertEquals("SNOMED CT", report.getCodeSystemName());
+        assertEquals("2016", report.getCodeSystemVersionName());
+        assertEquals("2015", report.getBaseCodeSystemVersionName());
+        verify(diff, times(1)).add(rows);
+        verify(codeSystemVersionCache, times(1)).evictAfterCommit("2.16.840.1.113883.6.96");
+        verify(codeSystemVersionCache, never()).findLatestVersion(anyString());
+        verify(codeSystemRepository, never()).findByCodeSystemOId(anyString());
+        verify(valueSetChangeBus, times(1)).publishAfterCommit();
+    }
+
+    @Test
+    public void testImportCodeSystemVersion_first_version() throws Exception {
+        CodeSystem codeSystem = mock(CodeSystem.class);
+        when(codeSystemRepository.findByCodeSystemOIdForUpdate("2.16.840.1.113883.6.96")).thenReturn(codeSystem);
+        CodeSystemVersion saved = mock(CodeSystemVersion.class);
+        when(saved.getId()).thenReturn(2L);
+        when(codeSystemVersionRepository.save(any(CodeSystemVersion.class))).thenReturn(saved);
+        CodeSystemVersionDiffImporter.Diff diff = mock(CodeSystemVersionDiffImporter.Diff.class);
+        when(codeSystemVersionDiffImporter.open(null, 2L, "user")).thenReturn(diff);
+        when(diff.finish()).thenReturn(new CodeSystemVersionDiffDto());
+        MultipartFile file = mock(MultipartFile.class);
+
+        CodeSystemVersionDiffDto report = conceptCodeServiceImpl.importCodeSystemVersion("2.16.840.1.113883.6.96",
+                "2016", null, "user", file);
+
+        assertEquals(null, report.getBaseCodeSystemVersionName());
+        verify(codeSystemVersionDiffImporter, times(1)).open(null, 2L, "user");
+    }
 }
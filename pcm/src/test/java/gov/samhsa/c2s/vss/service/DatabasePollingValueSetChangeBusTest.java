@@ -0,0 +1,202 @@
+package gov.samhsa.c2s.vss.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.JdbcOperations;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.anyVararg;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DatabasePollingValueSetChangeBusTest {
+
+    /**
+     * The version row shared by the nodes.
+     */
+    private final AtomicLong versionRow = new AtomicLong(3);
+
+    @Mock
+    TaskScheduler taskScheduler;
+
+    DatabasePollingValueSetChangeBus node1;
+
+    DatabasePollingValueSetChangeBus node2;
+
+    List<Long> node1Changes = new ArrayList<Long>();
+
+    List<Long> node2Changes = new ArrayList<Long>();
+
+    @Before
+    public void setUp() throws Exception {
+        // deliveries run right away, as if the scheduler thread were idle
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        }).when(taskScheduler).schedule(any(Runnable.class), any(Date.class));
+        node1 = new DatabasePollingValueSetChangeBus(sharedDatabase(), taskScheduler, 5000);
+        node1.subscribe(node1Changes::add);
+        node1.start();
+        node2 = new DatabasePollingValueSetChangeBus(sharedDatabase(), taskScheduler, 5000);
+        node2.subscribe(node2Changes::add);
+        node2.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void testStart_reads_version_and_schedules_polls() {
+        assertEquals(3L, node1.getVersion());
+        assertEquals(Collections.emptyList(), node1Changes);
+        verify(taskScheduler, times(2)).scheduleWithFixedDelay(any(Runnable.class), eq(5000L));
+    }
+
+    @Test
+    public void testPublish_reaches_other_node_on_poll() {
+        node1.publishAfterCommit();
+
+        assertEquals(Collections.singletonList(4L), node1Changes);
+        assertEquals(Collections.emptyList(), node2Changes);
+
+        node2.poll();
+        node2.poll();
+        node1.poll();
+
+        assertEquals(Collections.singletonList(4L), node2Changes);
+        assertEquals(Collections.singletonList(4L), node1Changes);
+        assertEquals(4L, node2.getVersion());
+    }
+
+    @Test
+    public void testPublish_once_per_transaction_after_commit() {
+        TransactionSynchronizationManager.initSynchronization();
+        node1.publishAfterCommit();
+        node1.publishAfterCommit();
+
+        assertEquals(3L, versionRow.get());
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        assertEquals(4L, versionRow.get());
+        assertEquals(Collections.singletonList(4L), node1Changes);
+    }
+
+    @Test
+    public void testPublish_not_delivered_on_rollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        node1.publishAfterCommit();
+
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+        node2.poll();
+
+        assertEquals(Collections.emptyList(), node1Changes);
+        assertEquals(Collections.emptyList(), node2Changes);
+    }
+
+    @Test
+    public void testPoll_delivers_latest_of_several_changes_once() {
+        node1.publishAfterCommit();
+        node1.publishAfterCommit();
+
+        node2.poll();
+
+        assertEquals(Arrays.asList(4L, 5L), node1Changes);
+        assertEquals(Collections.singletonList(5L), node2Changes);
+    }
+
+    @Test
+    public void testPublish_delivers_on_task_scheduler() {
+        TaskScheduler idle = mock(TaskScheduler.class);
+        DatabasePollingValueSetChangeBus node = new DatabasePollingValueSetChangeBus(sharedDatabase(), idle, 0);
+        List<Long> changes = new ArrayList<Long>();
+        node.subscribe(changes::add);
+        node.start();
+        TransactionSynchronizationManager.initSynchronization();
+        node.publishAfterCommit();
+
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        // the committing thread does not run the listeners
+        assertEquals(Collections.emptyList(), changes);
+        ArgumentCaptor<Runnable> delivery = ArgumentCaptor.forClass(Runnable.class);
+        verify(idle).schedule(delivery.capture(), any(Date.class));
+        delivery.getValue().run();
+        assertEquals(Collections.singletonList(4L), changes);
+    }
+
+    @Test
+    public void testPublish_rejected_delivery_is_left_to_poll() {
+        doThrow(new TaskRejectedException("shutting down")).when(taskScheduler).schedule(any(Runnable.class), any(Date.class));
+
+        node1.publishAfterCommit();
+        assertEquals(Collections.emptyList(), node1Changes);
+
+        node1.poll();
+        assertEquals(Collections.singletonList(4L), node1Changes);
+    }
+
+    @Test
+    public void testStart_without_polling() {
+        TaskScheduler unused = mock(TaskScheduler.class);
+        DatabasePollingValueSetChangeBus localOnly = new DatabasePollingValueSetChangeBus(sharedDatabase(),
+                unused, 0);
+
+        localOnly.start();
+
+        verify(unused, never()).scheduleWithFixedDelay(any(Runnable.class), any(Long.class));
+    }
+
+    private void complete(int status) {
+        // the commit of a transaction, as run by the transaction manager
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        if (status == TransactionSynchronization.STATUS_COMMITTED) {
+            for (TransactionSynchronization synchronization : synchronizations) {
+                synchronization.beforeCommit(false);
+            }
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+        for (TransactionSynchronization synchronization : synchronizations) {
+            synchronization.afterCompletion(status);
+        }
+    }
+
+    private JdbcOperations sharedDatabase() {
+        JdbcOperations jdbcOperations = mock(JdbcOperations.class);
+        when(jdbcOperations.update(anyString(), (Object[]) anyVararg()))
+                .thenAnswer(invocation -> versionRow.incrementAndGet() > 0 ? 1 : 0);
+        when(jdbcOperations.queryForObject(anyString(), eq(Long.class)))
+                .thenAnswer(invocation -> versionRow.get());
+        when(jdbcOperations.queryForList(anyString(), eq(Long.class)))
+                .thenAnswer(invocation -> Collections.singletonList(versionRow.get()));
+        return jdbcOperations;
+    }
+}
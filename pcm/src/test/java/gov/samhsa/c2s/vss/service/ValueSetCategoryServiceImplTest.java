@@ -3,6 +3,7 @@
 import gov.samhsa.c2s.pcm.domain.consent.ConsentRepository;
 import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategory;
 import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategoryRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ValueSetRepository;
 import gov.samhsa.c2s.vss.service.ValueSetCategoryNotFoundException;
 import gov.samhsa.c2s.vss.service.ValueSetCategoryServiceImpl;
 import gov.samhsa.c2s.vss.service.ValueSetMgmtHelper;
@@ -22,6 +23,8 @@
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -33,9 +36,15 @@ public class ValueSetCategoryServiceImplTest {
     @Mock
     ConsentRepository consentRepositoryMock;
 
+    @Mock
+    ValueSetRepository valueSetRepository;
+
     @Mock
     ValueSetMgmtHelper valueSetMgmtHelper;
 
+    @Mock
+    ValueSetChangeBus valueSetChangeBus;
+
     @InjectMocks
     ValueSetCategoryServiceImpl vst;
 
@@ -60,6 +69,7 @@ public void testCreateValueSetValueSetCategory() {
         ValueSetCategoryDto result = vst.create(created);
 
         Assert.assertEquals(result, created);
+        verify(valueSetChangeBus).publishAfterCommit();
     }
 
     @Test
@@ -79,6 +89,19 @@ public void testDeleteValueSetCategory()
                         consentRepositoryMock)).thenReturn(valueSetCategoryDto);
 
         Assert.assertEquals(vst.delete((long) 1), valueSetCategoryDto);
+        verify(valueSetChangeBus).publishAfterCommit();
+    }
+
+    @Test
+    public void testDeleteVelueSetCategory_not_found_does_not_publish() {
+
+        when(valueSetCategoryRepository.findOne(anyLong())).thenReturn(null);
+        try {
+            vst.delete((long) 1);
+            Assert.fail("ValueSetCategoryNotFoundException expected");
+        } catch (ValueSetCategoryNotFoundException e) {
+            verify(valueSetChangeBus, never()).publishAfterCommit();
+        }
     }
 
     @Test(expected = ValueSetCategoryNotFoundException.class)
@@ -103,7 +126,7 @@ public void testfindAll() {
         valueSetDtos.add(valueSetDto);
         when(
                 valueSetMgmtHelper.convertValueSetCategoryEntitiesToDtos(
-                        valueSets, consentRepositoryMock)).thenReturn(
+                        valueSets, valueSetRepository, consentRepositoryMock)).thenReturn(
                 valueSetDtos);
         assertEquals(vst.findAll(), valueSetDtos);
     }
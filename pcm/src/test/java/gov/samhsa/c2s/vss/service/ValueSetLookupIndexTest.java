@@ -0,0 +1,128 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.valueset.CodeSystemVersionRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ConceptCodeRepository;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ValueSetLookupIndexTest {
+
+    private static final String SNOMED_OID = "2.16.840.1.113883.6.96";
+
+    @Mock
+    ConceptCodeRepository conceptCodeRepository;
+
+    @Mock
+    CodeSystemVersionRepository codeSystemVersionRepository;
+
+    ValueSetLookupIndex valueSetLookupIndex;
+
+    @Before
+    public void setUp() {
+        List<Object[]> versions = new ArrayList<Object[]>();
+        versions.add(new Object[]{SNOMED_OID, 2L, "2015"});
+        when(codeSystemVersionRepository.findLatestVersionOfEachCodeSystem()).thenReturn(versions);
+
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[]{SNOMED_OID, "111", "ETH"});
+        rows.add(new Object[]{SNOMED_OID, "111", "HIV"});
+        rows.add(new Object[]{SNOMED_OID, "222", "ETH"});
+        rows.add(new Object[]{SNOMED_OID, "333", null});
+        when(conceptCodeRepository.findAllCodeAndCategoryCodesOfLatestCodeSystemVersions()).thenReturn(rows);
+
+        valueSetLookupIndex = new ValueSetLookupIndex(true, conceptCodeRepository, codeSystemVersionRepository);
+    }
+
+    @Test
+    public void testFindValueSetCategoryCodes() throws Exception {
+        Set<String> categoryCodes = valueSetLookupIndex.findValueSetCategoryCodes("111", SNOMED_OID);
+
+        assertEquals(new HashSet<String>(Arrays.asList("ETH", "HIV")), categoryCodes);
+    }
+
+    @Test
+    public void testFindValueSetCategoryCodes_code_without_value_set() throws Exception {
+        assertTrue(valueSetLookupIndex.findValueSetCategoryCodes("333", SNOMED_OID).isEmpty());
+    }
+
+    @Test
+    public void testFindValueSetCategoryCodes_loads_once() throws Exception {
+        valueSetLookupIndex.findValueSetCategoryCodes("111", SNOMED_OID);
+        valueSetLookupIndex.findValueSetCategoryCodes("222", SNOMED_OID);
+
+        verify(conceptCodeRepository, times(1)).findAllCodeAndCategoryCodesOfLatestCodeSystemVersions();
+    }
+
+    @Test(expected = CodeSystemVersionNotFoundException.class)
+    public void testFindValueSetCategoryCodes_throw_CodeSystemVersionNotFoundException() throws Exception {
+        valueSetLookupIndex.findValueSetCategoryCodes("111", "1.2.3");
+    }
+
+    @Test(expected = ConceptCodeNotFoundException.class)
+    public void testFindValueSetCategoryCodes_throw_ConceptCodeNotFoundException() throws Exception {
+        valueSetLookupIndex.findValueSetCategoryCodes("999", SNOMED_OID);
+    }
+
+    @Test
+    public void testFindValueSetCategoryCodes_miss_without_stack_trace() throws Exception {
+        try {
+            valueSetLookupIndex.findValueSetCategoryCodes("999", SNOMED_OID);
+            fail("ConceptCodeNotFoundException expected");
+        } catch (ConceptCodeNotFoundException e) {
+            assertTrue(e.getMessage().contains("2015"));
+            assertEquals(0, e.getStackTrace().length);
+        }
+    }
+
+    @Test
+    public void testFindMissMessage_no_filter_when_enabled() throws Exception {
+        assertNull(valueSetLookupIndex.findMissMessage("999", SNOMED_OID));
+        verify(conceptCodeRepository, never()).findAllCodesOfLatestCodeSystemVersions();
+    }
+
+    @Test
+    public void testFindMissMessage_filter_only_when_disabled() throws Exception {
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[]{SNOMED_OID, "111"});
+        rows.add(new Object[]{SNOMED_OID, "333"});
+        when(conceptCodeRepository.findAllCodesOfLatestCodeSystemVersions()).thenReturn(rows);
+        valueSetLookupIndex = new ValueSetLookupIndex(false, conceptCodeRepository, codeSystemVersionRepository);
+
+        assertNull(valueSetLookupIndex.findMissMessage("111", SNOMED_OID));
+        assertNull(valueSetLookupIndex.findMissMessage("333", SNOMED_OID));
+        assertNull(valueSetLookupIndex.findMissMessage("999", "1.2.3"));
+        assertTrue(valueSetLookupIndex.findMissMessage("999", SNOMED_OID).contains("2015"));
+        verify(conceptCodeRepository, never()).findAllCodeAndCategoryCodesOfLatestCodeSystemVersions();
+    }
+
+    @Test
+    public void testRebuild_keeps_previous_snapshot_on_failure() throws Exception {
+        valueSetLookupIndex.rebuild();
+        when(conceptCodeRepository.findAllCodeAndCategoryCodesOfLatestCodeSystemVersions())
+                .thenThrow(new IllegalStateException("database unavailable"));
+
+        valueSetLookupIndex.rebuild();
+
+        assertEquals(new HashSet<String>(Arrays.asList("ETH")),
+                valueSetLookupIndex.findValueSetCategoryCodes("222", SNOMED_OID));
+    }
+}
@@ -0,0 +1,184 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.valueset.CodeSystemRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.CodeSystemVersionRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ConceptCodeRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ConceptCodeValueSetRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ValueSetRepository;
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeAndCodeSystemOidDto;
+import gov.samhsa.c2s.vss.service.dto.ValueSetQueryDto;
+import gov.samhsa.c2s.vss.service.dto.ValueSetQueryListDto;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.boot.actuate.metrics.CounterService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ValueSetLookupServiceImplTest {
+
+    private static final String SNOMED_OID = "2.16.840.1.113883.6.96";
+
+    @Mock
+    ConceptCodeRepository conceptCodeRepository;
+
+    @Mock
+    ValueSetRepository valueSetRepository;
+
+    @Mock
+    CodeSystemRepository codeSystemRepository;
+
+    @Mock
+    CodeSystemVersionRepository codeSystemVersionRepository;
+
+    @Mock
+    ConceptCodeValueSetRepository conceptCodeValueSetRepository;
+
+    @Mock
+    ValueSetMgmtHelper valueSetMgmtHelper;
+
+    @Mock
+    ValueSetLookupIndex valueSetLookupIndex;
+
+    @Mock
+    CounterService counterService;
+
+    @Mock
+    CodeSystemVersionCache codeSystemVersionCache;
+
+    ValueSetLookupServiceImpl vst;
+
+    @Before
+    public void setUp() {
+        vst = new ValueSetLookupServiceImpl(conceptCodeRepository, valueSetRepository, codeSystemRepository,
+                codeSystemVersionRepository, conceptCodeValueSetRepository, valueSetMgmtHelper, valueSetLookupIndex,
+                counterService, codeSystemVersionCache);
+    }
+
+    @Test
+    public void testRestfulValueSetCategories_bulk_from_repositories() {
+        when(codeSystemVersionCache.findLatestVersion(SNOMED_OID))
+                .thenReturn(new CodeSystemVersionCache.LatestVersion(2L, "2015"));
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[]{"111", "ETH"});
+        rows.add(new Object[]{"111", "HIV"});
+        rows.add(new Object[]{"333", null});
+        when(conceptCodeRepository.findAllCodeAndCategoryCodesByCodeSystemVersionIdAndCodeIn(anyLong(),
+                anyCollectionOf(String.class))).thenReturn(rows);
+
+        List<ValueSetQueryDto> result = vst.restfulValueSetCategories(Arrays.asList(
+                conceptCodeAndCodeSystemOid(" 111 ", SNOMED_OID),
+                conceptCodeAndCodeSystemOid("999", SNOMED_OID),
+                conceptCodeAndCodeSystemOid("333", SNOMED_OID),
+                conceptCodeAndCodeSystemOid("111", "1.2.3"),
+                conceptCodeAndCodeSystemOid("", SNOMED_OID)));
+
+        assertEquals(5, result.size());
+        assertEquals("111", result.get(0).getConceptCode());
+        assertEquals(new HashSet<String>(Arrays.asList("ETH", "HIV")), result.get(0).getVsCategoryCodes());
+        assertNull(result.get(0).getErrorMessage());
+        assertNull(result.get(1).getVsCategoryCodes());
+        assertTrue(result.get(1).getErrorMessage().contains("2015"));
+        assertTrue(result.get(2).getVsCategoryCodes().isEmpty());
+        assertTrue(result.get(3).getErrorMessage().contains("1.2.3"));
+        assertEquals("Concept code is required", result.get(4).getErrorMessage());
+        verify(conceptCodeRepository, times(1))
+                .findAllCodeAndCategoryCodesByCodeSystemVersionIdAndCodeIn(anyLong(), anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void testRestfulValueSetCategories_query_list_trims_and_ignores_case() throws Exception {
+        when(codeSystemVersionCache.findLatestVersion(SNOMED_OID))
+                .thenReturn(new CodeSystemVersionCache.LatestVersion(2L, "2015"));
+        List<Object[]> rows = new ArrayList<Object[]>();
+        rows.add(new Object[]{"ABC1", "ETH"});
+        when(conceptCodeRepository.findAllCodeAndCategoryCodesByCodeSystemVersionIdAndCodeIn(eq(2L),
+                eq(Arrays.asList("abc1")))).thenReturn(rows);
+        ValueSetQueryDto untrimmed = valueSetQuery(" abc1 ", " " + SNOMED_OID + " ");
+        ValueSetQueryDto whitespace = valueSetQuery("   ", SNOMED_OID);
+        ValueSetQueryListDto valueSetQueryListDto = new ValueSetQueryListDto();
+        valueSetQueryListDto.setValueSetQueryDtos(new HashSet<ValueSetQueryDto>(Arrays.asList(untrimmed, whitespace)));
+
+        vst.restfulValueSetCategories(valueSetQueryListDto);
+
+        assertEquals("abc1", untrimmed.getConceptCode());
+        assertEquals(SNOMED_OID, untrimmed.getCodeSystemOid());
+        assertEquals(new HashSet<String>(Arrays.asList("ETH")), untrimmed.getVsCategoryCodes());
+        assertNull(untrimmed.getErrorMessage());
+        assertNull(whitespace.getVsCategoryCodes());
+        assertEquals("Concept code is required", whitespace.getErrorMessage());
+    }
+
+    @Test
+    public void testRestfulValueSetCategories_bulk_from_index() throws Exception {
+        when(valueSetLookupIndex.isEnabled()).thenReturn(true);
+        when(valueSetLookupIndex.findValueSetCategoryCodes("111", SNOMED_OID))
+                .thenReturn(new HashSet<String>(Arrays.asList("ETH")));
+        when(valueSetLookupIndex.findValueSetCategoryCodes("999", SNOMED_OID))
+                .thenThrow(new ConceptCodeNotFoundException("not found"));
+
+        List<ValueSetQueryDto> result = vst.restfulValueSetCategories(Arrays.asList(
+                conceptCodeAndCodeSystemOid("111", SNOMED_OID),
+                conceptCodeAndCodeSystemOid("999", SNOMED_OID)));
+
+        assertEquals(new HashSet<String>(Arrays.asList("ETH")), result.get(0).getVsCategoryCodes());
+        assertEquals("not found", result.get(1).getErrorMessage());
+        verify(conceptCodeRepository, never())
+                .findAllCodeAndCategoryCodesByCodeSystemVersionIdAndCodeIn(anyLong(), anyCollectionOf(String.class));
+        verify(conceptCodeRepository, never()).findByCodeAndCodeSystemVersionId(anyString(), anyLong());
+        // the index answers misses itself, the filter is only for the database path
+        verify(valueSetLookupIndex, never()).findMissMessage(anyString(), anyString());
+    }
+
+    @Test
+    public void testRestfulValueSetCategories_filtered_miss() throws Exception {
+        when(valueSetLookupIndex.findMissMessage("999", SNOMED_OID)).thenReturn("filtered");
+
+        try {
+            vst.restfulValueSetCategories("999", SNOMED_OID);
+            fail("ConceptCodeNotFoundException expected");
+        } catch (ConceptCodeNotFoundException e) {
+            assertEquals("filtered", e.getMessage());
+            assertEquals(0, e.getStackTrace().length);
+        }
+        List<ValueSetQueryDto> result = vst.restfulValueSetCategories(Arrays.asList(
+                conceptCodeAndCodeSystemOid("999", SNOMED_OID)));
+
+        assertEquals("filtered", result.get(0).getErrorMessage());
+        verify(counterService, times(2)).increment(ValueSetLookupServiceImpl.FILTERED_MISSES_METRIC);
+        verify(codeSystemVersionCache, never()).findLatestVersion(anyString());
+    }
+
+    private static ValueSetQueryDto valueSetQuery(String code, String codeSystemOid) {
+        ValueSetQueryDto dto = new ValueSetQueryDto();
+        dto.setConceptCode(code);
+        dto.setCodeSystemOid(codeSystemOid);
+        return dto;
+    }
+
+    private static ConceptCodeAndCodeSystemOidDto conceptCodeAndCodeSystemOid(String code, String codeSystemOid) {
+        ConceptCodeAndCodeSystemOidDto dto = new ConceptCodeAndCodeSystemOidDto();
+        dto.setConceptCode(code);
+        dto.setCodeSystemOid(codeSystemOid);
+        return dto;
+    }
+}
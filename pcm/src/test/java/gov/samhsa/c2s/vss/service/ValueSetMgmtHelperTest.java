@@ -0,0 +1,181 @@
+package gov.samhsa.c2s.vss.service;
+
+import gov.samhsa.c2s.pcm.domain.consent.ConsentRepository;
+import gov.samhsa.c2s.pcm.domain.valueset.ValueSetCategory;
+import gov.samhsa.c2s.pcm.domain.valueset.ValueSetRepository;
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeDto;
+import gov.samhsa.c2s.vss.service.dto.ValueSetCategoryDto;
+import gov.samhsa.c2s.vss.service.dto.ValueSetDto;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ValueSetMgmtHelperTest {
+
+    private static final List<Long> VALUE_SET_IDS = Arrays.asList(1L, 2L);
+
+    ValueSetMgmtHelper valueSetMgmtHelper;
+
+    @Before
+    public void setUp() {
+        valueSetMgmtHelper = new ValueSetMgmtHelper(20, 2);
+    }
+
+    @Test
+    public void testReadConceptCodesFromFile_in_chunks() throws Exception {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+        row(sheet, 0, "Code", "Name", "Description");
+        row(sheet, 1, "111", "First", "The first code");
+        row(sheet, 2, null, null, null);
+        Row numericRow = sheet.createRow(4);
+        numericRow.createCell(0).setCellValue(222);
+        numericRow.createCell(1).setCellValue("Second");
+        row(sheet, 5, "333", "Third", null);
+
+        final List<List<String>> chunks = new ArrayList<List<String>>();
+        final List<Integer> offsets = new ArrayList<Integer>();
+        valueSetMgmtHelper.readConceptCodesFromFile(file(workbook), "2.16.840.1.113883.6.96", 3L, VALUE_SET_IDS,
+                "user", (rows, offset) -> {
+                    List<String> codes = new ArrayList<String>();
+                    for (ConceptCodeDto row : rows) {
+                        codes.add(row.getCode());
+                        assertEquals(Long.valueOf(3L), row.getCodeSystemVersionId());
+                        assertEquals(VALUE_SET_IDS, row.getValueSetIds());
+                    }
+                    chunks.add(codes);
+                    offsets.add(offset);
+                });
+
+        assertEquals(Arrays.asList(Arrays.asList("111", "222"), Arrays.asList("333")), chunks);
+        assertEquals(Arrays.asList(0, 2), offsets);
+    }
+
+    @Test
+    public void testReadConceptCodesFromFile_missing_field() throws Exception {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+        row(sheet, 0, "Code", "Name", "Description");
+        row(sheet, 1, "111", "First", null);
+        row(sheet, 6, "222", null, "No name");
+
+        try {
+            valueSetMgmtHelper.readConceptCodesFromFile(file(workbook), "2.16.840.1.113883.6.96", 3L, VALUE_SET_IDS,
+                    "user", (rows, offset) -> {
+                    });
+            fail("InvalidCSVException expected");
+        } catch (InvalidCSVException e) {
+            assertEquals("Cannot add value set. Required field(s) empty for row: 7", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReadValueSetsFromFile() throws Exception {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+        row(sheet, 0, "Code", "Name", "Category Name", "Description");
+        row(sheet, 1, "ETH-SNOMED", "Alcohol use", "Drug Use Information", null);
+
+        final List<ValueSetDto> valueSets = new ArrayList<ValueSetDto>();
+        valueSetMgmtHelper.readValueSetsFromFile(file(workbook), "user", (rows, offset) -> valueSets.addAll(rows));
+
+        assertEquals(1, valueSets.size());
+        assertEquals("ETH-SNOMED", valueSets.get(0).getCode());
+        assertEquals("Drug Use Information", valueSets.get(0).getValueSetCatName());
+        assertNull(valueSets.get(0).getDescription());
+    }
+
+    @Test
+    public void testReadValueSetsFromFile_invalid_header() throws Exception {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        row(workbook.createSheet(), 0, "Code", "Name", "Description", "Category Name");
+
+        try {
+            valueSetMgmtHelper.readValueSetsFromFile(file(workbook), "user", (rows, offset) -> fail());
+            fail("InvalidCSVException expected");
+        } catch (InvalidCSVException e) {
+            assertEquals("Header row values in excel file should be in the following format: "
+                    + "Code, Name, Category Name, Description", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testReadValueSetsFromFile_invalid_cell_type() throws Exception {
+        XSSFWorkbook workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet();
+        row(sheet, 0, "Code", "Name", "Category Name", "Description");
+        Row row = sheet.createRow(1);
+        row.createCell(0).setCellValue(true);
+        row.createCell(1).setCellValue("Name");
+        row.createCell(2).setCellValue("Category");
+
+        try {
+            valueSetMgmtHelper.readValueSetsFromFile(file(workbook), "user", (rows, offset) -> fail());
+            fail("InvalidCSVException expected");
+        } catch (InvalidCSVException e) {
+            assertEquals("Value stored in cell is invalid! Valid types are Numbers or Strings.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConvertValueSetCategoryEntitiesToDtos_deletable() {
+        List<ValueSetCategory> valueSetCategories = Arrays.asList(category(1L), category(2L), category(3L));
+        ValueSetRepository valueSetRepository = mock(ValueSetRepository.class);
+        ConsentRepository consentRepository = mock(ConsentRepository.class);
+        when(valueSetRepository.findValueSetCategoryIdsWithValueSets(Arrays.asList(1L, 2L, 3L)))
+                .thenReturn(Collections.singletonList(1L));
+        when(consentRepository.findDoNotShareValueSetCategoryIds(Arrays.asList(1L, 2L, 3L)))
+                .thenReturn(Arrays.asList(1L, 3L));
+
+        List<ValueSetCategoryDto> valueSetCategoryDtos = valueSetMgmtHelper.convertValueSetCategoryEntitiesToDtos(
+                valueSetCategories, valueSetRepository, consentRepository);
+
+        assertEquals(3, valueSetCategoryDtos.size());
+        assertFalse(valueSetCategoryDtos.get(0).isDeletable());
+        assertTrue(valueSetCategoryDtos.get(1).isDeletable());
+        assertFalse(valueSetCategoryDtos.get(2).isDeletable());
+        assertEquals("CAT-2", valueSetCategoryDtos.get(1).getCode());
+    }
+
+    private static ValueSetCategory category(Long id) {
+        ValueSetCategory valueSetCategory = new ValueSetCategory();
+        valueSetCategory.setId(id);
+        valueSetCategory.setCode("CAT-" + id);
+        valueSetCategory.setName("Category " + id);
+        return valueSetCategory;
+    }
+
+    private static void row(XSSFSheet sheet, int rowNum, String... values) {
+        Row row = sheet.createRow(rowNum);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                row.createCell(i).setCellValue(values[i]);
+            }
+        }
+    }
+
+    private static InputStream file(XSSFWorkbook workbook) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        workbook.write(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+}
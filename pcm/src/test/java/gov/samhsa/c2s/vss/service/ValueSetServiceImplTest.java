@@ -14,6 +14,7 @@
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 
 import java.util.ArrayList;
@@ -25,6 +26,7 @@
 import static org.junit.Assert.assertNotNull;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 @RunWith(MockitoJUnitRunner.class)
@@ -45,10 +47,17 @@ public class ValueSetServiceImplTest {
     @Mock
     ValueSetMgmtHelper valueSetMgmtHelper;
 
+    @Mock
+    ValueSetChangeBus valueSetChangeBus;
+
+    @Mock
+    ApproximateRowCounter approximateRowCounter;
+
     @InjectMocks
     ValueSetServiceImpl vst = new ValueSetServiceImpl(valueSetPageSize,
             valueSetRepository, valueSetCategoryRepository,
-            conceptCodeValueSetRepository, valueSetMgmtHelper);
+            conceptCodeValueSetRepository, valueSetMgmtHelper,
+            valueSetChangeBus, approximateRowCounter);
 
     @Test(expected = ValueSetCategoryNotFoundException.class)
     public void testCreateValueSet_throw_ValueSetCategoryNotFoundException()
@@ -106,14 +115,38 @@ public void testfindAll() {
         List<ValueSetDto> valueSetDtosMock = new ArrayList<ValueSetDto>();
         ValueSetDto valueSetDtoMock = mock(ValueSetDto.class);
         valueSetDtosMock.add(valueSetDtoMock);
-        when(valueSetMgmtHelper.convertValueSetEntitiesToDtos(valueSetsMock))
+        when(valueSetMgmtHelper.convertValueSetEntitiesToDtosWithoutDeletable(valueSetsMock))
                 .thenReturn(valueSetDtosMock);
 
         when(valueSetDtoMock.getId()).thenReturn((long) 1);
-        when(conceptCodeValueSetRepository.findAllByPkValueSetId(anyLong()))
-                .thenReturn(null);
+        when(conceptCodeValueSetRepository.findValueSetIdsWithConceptCodes(Arrays.asList(1L)))
+                .thenReturn(Arrays.asList(1L));
 
         assertEquals(vst.findAll(), valueSetDtosMock);
+        verify(valueSetDtoMock).setDeletable(false);
+    }
+
+    @Test
+    public void testFindAllByPageToken() {
+        List<ValueSet> valueSets = new ArrayList<ValueSet>();
+        for (long id = 1; id <= valueSetPageSize + 1; id++) {
+            ValueSet valueSet = mock(ValueSet.class);
+            when(valueSet.getId()).thenReturn(id);
+            when(valueSet.getCode()).thenReturn("ETH-" + id);
+            valueSets.add(valueSet);
+        }
+        String token = new KeysetPageToken("ETH-0", 0L).encode();
+        when(valueSetRepository.findAllAfterCodeAndId("ETH-0", 0L, new PageRequest(0, valueSetPageSize + 1)))
+                .thenReturn(valueSets);
+        when(valueSetMgmtHelper.convertValueSetEntitiesToDtosWithoutDeletable(valueSets.subList(0,
+                valueSetPageSize))).thenReturn(new ArrayList<ValueSetDto>());
+
+        Map<String, Object> page = vst.findAllByPageToken(token, false);
+
+        assertEquals(valueSetPageSize, page.get("numberOfElements"));
+        KeysetPageToken next = KeysetPageToken.decode((String) page.get("nextPageToken"));
+        assertEquals("ETH-20", next.getCode());
+        assertEquals(Long.valueOf(20), next.getId());
     }
 
     @Test
@@ -127,12 +160,12 @@ public void testFindAllByName() {
         ValueSetDto valueSetDtoMock = mock(ValueSetDto.class);
         valueSetDtosMock.add(valueSetDtoMock);
         when(
-                valueSetMgmtHelper.convertValueSetEntitiesToDtos(valueSetsMock
+                valueSetMgmtHelper.convertValueSetEntitiesToDtosWithoutDeletable(valueSetsMock
                         .getContent())).thenReturn(valueSetDtosMock);
 
         when(valueSetDtoMock.getId()).thenReturn((long) 1);
-        when(conceptCodeValueSetRepository.findAllByPkValueSetId(anyLong()))
-                .thenReturn(null);
+        when(conceptCodeValueSetRepository.findValueSetIdsWithConceptCodes(Arrays.asList(1L)))
+                .thenReturn(new ArrayList<Long>());
 
         assertEquals(vst.findAllByName("a", null, 0).get("valueSets"),
                 valueSetDtosMock);
@@ -151,12 +184,12 @@ public void testFindAllByCode() {
         ValueSetDto valueSetDtoMock = mock(ValueSetDto.class);
         valueSetDtosMock.add(valueSetDtoMock);
         when(
-                valueSetMgmtHelper.convertValueSetEntitiesToDtos(valueSetsMock
+                valueSetMgmtHelper.convertValueSetEntitiesToDtosWithoutDeletable(valueSetsMock
                         .getContent())).thenReturn(valueSetDtosMock);
 
         when(valueSetDtoMock.getId()).thenReturn((long) 1);
-        when(conceptCodeValueSetRepository.findAllByPkValueSetId(anyLong()))
-                .thenReturn(null);
+        when(conceptCodeValueSetRepository.findValueSetIdsWithConceptCodes(Arrays.asList(1L)))
+                .thenReturn(new ArrayList<Long>());
 
         assertEquals(vst.findAllByCode("a", "ETH", 0).get("valueSets"),
                 valueSetDtosMock);
@@ -0,0 +1,111 @@
+package gov.samhsa.c2s.vss.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.samhsa.c2s.vss.service.ConceptCodeService;
+import gov.samhsa.c2s.vss.service.InvalidPageTokenException;
+import gov.samhsa.c2s.vss.service.ValueSetService;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ValueSetAdminRestControllerTest {
+
+    @Mock
+    ConceptCodeService conceptCodeService;
+
+    @Mock
+    ValueSetService valueSetService;
+
+    @InjectMocks
+    ValueSetAdminRestController valueSetAdminRestController;
+
+    MockMvc mockMvc;
+
+    @Before
+    public void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(valueSetAdminRestController).build();
+    }
+
+    @Test
+    public void testConceptCodes_first_page() throws Exception {
+        when(conceptCodeService.findAllByPageToken(null, false)).thenReturn(page("next", 20));
+
+        Map<?, ?> page = body(mockMvc.perform(get("/valueSetAdmin/conceptCodes"))
+                .andExpect(status().isOk()));
+
+        assertEquals("next", page.get("nextPageToken"));
+        assertEquals(20, page.get("numberOfElements"));
+    }
+
+    @Test
+    public void testConceptCodes_next_page_with_approximate_total() throws Exception {
+        Map<String, Object> lastPage = page(null, 3);
+        lastPage.put("approximateTotalNumberOfConceptCodes", 1000L);
+        when(conceptCodeService.findAllByPageToken("MTI6ODQ4NA", true)).thenReturn(lastPage);
+
+        Map<?, ?> page = body(mockMvc.perform(get("/valueSetAdmin/conceptCodes")
+                .param("pageToken", "MTI6ODQ4NA")
+                .param("approximateTotal", "true"))
+                .andExpect(status().isOk()));
+
+        assertNull(page.get("nextPageToken"));
+        assertEquals(1000, page.get("approximateTotalNumberOfConceptCodes"));
+        verify(conceptCodeService).findAllByPageToken("MTI6ODQ4NA", true);
+    }
+
+    @Test
+    public void testConceptCodes_invalid_page_token() throws Exception {
+        when(conceptCodeService.findAllByPageToken("bogus", false))
+                .thenThrow(new InvalidPageTokenException("Invalid page token: bogus"));
+
+        mockMvc.perform(get("/valueSetAdmin/conceptCodes").param("pageToken", "bogus"))
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    public void testValueSets_next_page() throws Exception {
+        when(valueSetService.findAllByPageToken("MTI6ODQ4NA", false)).thenReturn(page("after", 20));
+
+        Map<?, ?> page = body(mockMvc.perform(get("/valueSetAdmin/valueSets").param("pageToken", "MTI6ODQ4NA"))
+                .andExpect(status().isOk()));
+
+        assertEquals("after", page.get("nextPageToken"));
+    }
+
+    @Test
+    public void testValueSets_invalid_page_token() throws Exception {
+        when(valueSetService.findAllByPageToken("bogus", false))
+                .thenThrow(new InvalidPageTokenException("Invalid page token: bogus"));
+
+        mockMvc.perform(get("/valueSetAdmin/valueSets").param("pageToken", "bogus"))
+                .andExpect(status().isBadRequest());
+    }
+
+    private static Map<?, ?> body(ResultActions resultActions) throws Exception {
+        return new ObjectMapper().readValue(resultActions.andReturn().getResponse().getContentAsString(), Map.class);
+    }
+
+    private static Map<String, Object> page(String nextPageToken, int numberOfElements) {
+        Map<String, Object> page = new HashMap<String, Object>();
+        page.put("nextPageToken", nextPageToken);
+        page.put("numberOfElements", numberOfElements);
+        return page;
+    }
+}
@@ -0,0 +1,270 @@
+package gov.samhsa.c2s.vss.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gov.samhsa.c2s.vss.service.ValueSetLookupService;
+import gov.samhsa.c2s.vss.service.dto.ConceptCodeAndCodeSystemOidDto;
+import gov.samhsa.c2s.vss.service.dto.ValueSetQueryDto;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.runners.MockitoJUnitRunner;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ValueSetLookupRestControllerTest {
+
+    @Mock
+    ValueSetLookupService lookupService;
+
+    @Spy
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @InjectMocks
+    ValueSetLookupRestController valueSetLookupRestController;
+
+    MockMvc mockMvc;
+
+    List<List<String>> lookups = new ArrayList<List<String>>();
+
+    @Before
+    public void setUp() {
+        mockMvc = MockMvcBuilders.standaloneSetup(valueSetLookupRestController).build();
+        // the controller reuses its pending list, so the codes of each lookup
+        // are copied when the lookup is made
+        when(lookupService.restfulValueSetCategories(anyListOf(ConceptCodeAndCodeSystemOidDto.class)))
+                .thenAnswer(new Answer<List<ValueSetQueryDto>>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public List<ValueSetQueryDto> answer(InvocationOnMock invocation) {
+                        List<ConceptCodeAndCodeSystemOidDto> dtos = (List<ConceptCodeAndCodeSystemOidDto>) invocation.getArguments()[0];
+                        List<String> codes = new ArrayList<String>();
+                        List<ValueSetQueryDto> results = new ArrayList<ValueSetQueryDto>();
+                        for (ConceptCodeAndCodeSystemOidDto dto : dtos) {
+                            codes.add(dto.getConceptCode());
+                            ValueSetQueryDto result = new ValueSetQueryDto();
+                            result.setConceptCode(dto.getConceptCode());
+                            result.setCodeSystemOid(dto.getCodeSystemOid());
+                            result.setVsCategoryCodes(Collections.singleton("ETH"));
+                            results.add(result);
+                        }
+                        lookups.add(codes);
+                        return results;
+                    }
+                });
+    }
+
+    @Test
+    public void testStreamValueSetCategories_multiple_lines() throws Exception {
+        String body = line("1") + "\n" + line("2") + "\n\n" + line("3") + "\n";
+
+        String output = mockMvc.perform(post(ValueSetLookupRestController.STREAM_MAPPING_LIST)
+                .contentType(ValueSetLookupRestController.APPLICATION_NDJSON_VALUE)
+                .content(body))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith(ValueSetLookupRestController.APPLICATION_NDJSON_VALUE))
+                .andReturn().getResponse().getContentAsString();
+
+        List<ValueSetQueryDto> results = results(output);
+        assertEquals(3, results.size());
+        assertEquals("1", results.get(0).getConceptCode());
+        assertEquals("2", results.get(1).getConceptCode());
+        assertEquals("3", results.get(2).getConceptCode());
+        assertEquals(Collections.singleton("ETH"), results.get(2).getVsCategoryCodes());
+        assertEquals(Collections.singletonList(Arrays.asList("1", "2", "3")), lookups);
+    }
+
+    @Test
+    public void testStreamValueSetCategories_empty_body() throws Exception {
+        mockMvc.perform(post(ValueSetLookupRestController.STREAM_MAPPING_LIST)
+                .contentType(ValueSetLookupRestController.APPLICATION_NDJSON_VALUE)
+                .content(""))
+                .andExpect(status().isOk())
+                .andExpect(content().string(""));
+
+        verify(lookupService, never()).restfulValueSetCategories(anyListOf(ConceptCodeAndCodeSystemOidDto.class));
+    }
+
+    @Test
+    public void testStreamValueSetCategories_malformed_line() throws Exception {
+        String body = line("1") + "\n{\"conceptCode\": \n" + line("3") + "\n";
+
+        String output = mockMvc.perform(post(ValueSetLookupRestController.STREAM_MAPPING_LIST)
+                .contentType(ValueSetLookupRestController.APPLICATION_NDJSON_VALUE)
+                .content(body))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        List<ValueSetQueryDto> results = results(output);
+        assertEquals(3, results.size());
+        assertEquals("1", results.get(0).getConceptCode());
+        assertNull(results.get(0).getErrorMessage());
+        assertNull(results.get(1).getConceptCode());
+        assertEquals("Malformed concept code and code system oid", results.get(1).getErrorMessage());
+        assertEquals("3", results.get(2).getConceptCode());
+        assertEquals(Arrays.asList(Collections.singletonList("1"), Collections.singletonList("3")), lookups);
+    }
+
+    @Test
+    public void testStreamValueSetCategories_full_batches() throws Exception {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < 201; i++) {
+            body.append(line(String.valueOf(i))).append('\n');
+        }
+
+        String output = mockMvc.perform(post(ValueSetLookupRestController.STREAM_MAPPING_LIST)
+                .contentType(ValueSetLookupRestController.APPLICATION_NDJSON_VALUE)
+                .content(body.toString()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+
+        assertEquals(201, results(output).size());
+        assertEquals(2, lookups.size());
+        assertEquals(200, lookups.get(0).size());
+        assertEquals(Collections.singletonList("200"), lookups.get(1));
+    }
+
+    @Test
+    public void testStreamValueSetCategories_flushes_before_the_next_line_arrives() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        ChunkedServletInputStream inputStream = new ChunkedServletInputStream(response,
+                line("1") + "\n", line("2") + "\n" + line("3") + "\n");
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", ValueSetLookupRestController.STREAM_MAPPING_LIST) {
+            @Override
+            public ServletInputStream getInputStream() {
+                return inputStream;
+            }
+        };
+
+        valueSetLookupRestController.streamValueSetCategories(request, response);
+
+        // the first line was answered while the caller had not sent the rest
+        assertEquals(Collections.singletonList("1"), codes(inputStream.writtenBeforeChunk.get(1)));
+        assertEquals(Arrays.asList("1", "2", "3"), codes(response.getContentAsString()));
+        assertEquals(Arrays.asList(Collections.singletonList("1"), Arrays.asList("2", "3")), lookups);
+    }
+
+    private String line(String code) throws Exception {
+        ConceptCodeAndCodeSystemOidDto dto = new ConceptCodeAndCodeSystemOidDto();
+        dto.setConceptCode(code);
+        dto.setCodeSystemOid("2.16.840.1.113883.6.90");
+        return objectMapper.writeValueAsString(dto);
+    }
+
+    private List<ValueSetQueryDto> results(String output) throws Exception {
+        List<ValueSetQueryDto> results = new ArrayList<ValueSetQueryDto>();
+        for (String line : output.split("\n")) {
+            if (line.length() > 0) {
+                results.add(objectMapper.readValue(line, ValueSetQueryDto.class));
+            }
+        }
+        return results;
+    }
+
+    private List<String> codes(String output) throws Exception {
+        List<String> codes = new ArrayList<String>();
+        for (ValueSetQueryDto result : results(output)) {
+            codes.add(result.getConceptCode());
+        }
+        return codes;
+    }
+
+    /**
+     * A request body that arrives in chunks, like a caller that is still
+     * uploading. Nothing more is available until the current chunk is read,
+     * and the response written so far is recorded before each chunk is handed
+     * out.
+     */
+    private static class ChunkedServletInputStream extends ServletInputStream {
+
+        private final MockHttpServletResponse response;
+
+        private final List<byte[]> chunks = new ArrayList<byte[]>();
+
+        private final List<String> writtenBeforeChunk = new ArrayList<String>();
+
+        private int position;
+
+        ChunkedServletInputStream(MockHttpServletResponse response, String... chunks) {
+            this.response = response;
+            for (String chunk : chunks) {
+                this.chunks.add(chunk.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        @Override
+        public int read() {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (chunks.isEmpty()) {
+                return -1;
+            }
+            if (position == 0) {
+                try {
+                    writtenBeforeChunk.add(response.getContentAsString());
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            byte[] chunk = chunks.get(0);
+            int n = Math.min(len, chunk.length - position);
+            System.arraycopy(chunk, position, b, off, n);
+            position += n;
+            if (position == chunk.length) {
+                chunks.remove(0);
+                position = 0;
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            // the next chunk has not arrived until the caller reads again
+            return position == 0 ? 0 : chunks.get(0).length - position;
+        }
+
+        @Override
+        public boolean isFinished() {
+            return chunks.isEmpty();
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}